@@ -497,6 +497,27 @@ public interface ManagedCursor {
     void asyncFindNewestMatching(FindPositionConstraint constraint, Predicate<Entry> condition,
             FindEntryCallback callback, Object ctx);
 
+    /**
+     * Find the newest entry that matches the given predicate, when the predicate matches the entries older than a
+     * timestamp. The timestamp index of the ledgers, if any, is used to reduce the number of entries to read.
+     *
+     * @param constraint
+     *            search only active entries or all entries
+     * @param condition
+     *            predicate that reads an entry an applies a condition
+     * @param timestamp
+     *            the timestamp, as returned by the {@link EntryTimestampExtractor} of the managed ledger, such that the
+     *            predicate only matches the entries older than it
+     * @param callback
+     *            callback object returning the resultant position
+     * @param ctx
+     *            opaque context
+     */
+    default void asyncFindNewestMatching(FindPositionConstraint constraint, Predicate<Entry> condition,
+            long timestamp, FindEntryCallback callback, Object ctx) {
+        asyncFindNewestMatching(constraint, condition, callback, ctx);
+    }
+
     /**
      * reset the cursor to specified position to enable replay of messages.
      *
@@ -635,6 +656,12 @@ public interface ManagedCursor {
      */
     int getNonContiguousDeletedMessagesRangeSerializedSize();
 
+    /**
+     * Returns the memory used by the mark-delete ranges, when they are stored off-heap, and by the deletion indexes of
+     * the partially acknowledged batches.
+     */
+    long getNonContiguousDeletedMessagesRangeMemorySize();
+
     /**
      * Returns the estimated size of the unacknowledged backlog for this cursor
      *
@@ -35,6 +35,7 @@ import org.apache.bookkeeper.mledger.impl.NullLedgerOffloader;
 
 import org.apache.bookkeeper.mledger.intercept.ManagedLedgerInterceptor;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.OffHeapLongPairRangeSet;
 
 /**
  * Configuration class for a ManagedLedger.
@@ -48,6 +49,8 @@ public class ManagedLedgerConfig {
     private int maxBatchDeletedIndexToPersist = 10000;
     private boolean deletionAtBatchIndexLevelEnabled = true;
     private int maxUnackedRangesToPersistInZk = 1000;
+    private boolean persistIndividualDeletedMessagesAsBitmap = false;
+    private int individualDeletedMessagesSnapshotInterval = 100;
     private int maxEntriesPerLedger = 50000;
     private int maxSizePerLedgerMb = 100;
     private int minimumRolloverTimeMs = 0;
@@ -71,12 +74,18 @@ public class ManagedLedgerConfig {
     private DigestType digestType = DigestType.CRC32C;
     private byte[] password = "".getBytes(Charsets.UTF_8);
     private boolean unackedRangesOpenCacheSetEnabled = true;
+    private boolean unackedRangesOffHeapEnabled = false;
     private Class<? extends EnsemblePlacementPolicy>  bookKeeperEnsemblePlacementPolicyClassName;
     private Map<String, Object> bookKeeperEnsemblePlacementPolicyProperties;
     private LedgerOffloader ledgerOffloader = NullLedgerOffloader.INSTANCE;
     private int newEntriesCheckDelayInMillis = 10;
     private Clock clock = Clock.systemUTC();
     private ManagedLedgerInterceptor managedLedgerInterceptor;
+    private boolean readAheadEnabled = false;
+    private int readAheadMaxEntries = 1000;
+    private long readAheadMaxSizeBytes = 5 * 1024 * 1024;
+    private EntryTimestampExtractor entryTimestampExtractor;
+    private int timestampIndexSamplingInterval = 1000;
 
     public boolean isCreateIfMissing() {
         return createIfMissing;
@@ -281,6 +290,26 @@ public class ManagedLedgerConfig {
         return this;
     }
 
+    /**
+     * should use {@link OffHeapLongPairRangeSet} to store the unacked ranges of durable cursors.
+     * @return
+     */
+    public boolean isUnackedRangesOffHeapEnabled() {
+        return unackedRangesOffHeapEnabled;
+    }
+
+    /**
+     * Store the unacked ranges of the durable cursors in direct memory, with a few bytes per range instead of a few
+     * objects per range. It takes precedence over {@link #setUnackedRangesOpenCacheSetEnabled(boolean)}.
+     *
+     * @param unackedRangesOffHeapEnabled
+     *            whether to store the unacked ranges off-heap
+     */
+    public ManagedLedgerConfig setUnackedRangesOffHeapEnabled(boolean unackedRangesOffHeapEnabled) {
+        this.unackedRangesOffHeapEnabled = unackedRangesOffHeapEnabled;
+        return this;
+    }
+
     /**
      * @return the metadataEnsemblesize
      */
@@ -488,6 +517,52 @@ public class ManagedLedgerConfig {
         this.maxUnackedRangesToPersistInZk = maxUnackedRangesToPersistInZk;
     }
 
+    /**
+     * @return whether the individually deleted messages are persisted in the cursor ledger as per-ledger bitmaps
+     */
+    public boolean isPersistIndividualDeletedMessagesAsBitmap() {
+        return persistIndividualDeletedMessagesAsBitmap;
+    }
+
+    /**
+     * Persist the individually deleted messages in the cursor ledger as compressed per-ledger bitmaps instead of a
+     * list of ranges. Each entry of the cursor ledger only carries the ledgers whose deleted messages changed since
+     * the previous one, and the ranges are not capped by {@link #getMaxUnackedRangesToPersist()}.
+     *
+     * <p/>Older versions ignore the bitmaps, so this should not be enabled until all the brokers are upgraded.
+     *
+     * @param persistIndividualDeletedMessagesAsBitmap
+     *            whether to persist the individually deleted messages as bitmaps
+     */
+    public ManagedLedgerConfig setPersistIndividualDeletedMessagesAsBitmap(
+            boolean persistIndividualDeletedMessagesAsBitmap) {
+        this.persistIndividualDeletedMessagesAsBitmap = persistIndividualDeletedMessagesAsBitmap;
+        return this;
+    }
+
+    /**
+     * @return the max number of entries written to the cursor ledger between two full snapshots of the individually
+     *         deleted messages
+     */
+    public int getIndividualDeletedMessagesSnapshotInterval() {
+        return individualDeletedMessagesSnapshotInterval;
+    }
+
+    /**
+     * When the individually deleted messages are persisted as bitmaps, write the bitmaps of all the ledgers every
+     * given number of entries of the cursor ledger. The recovery of the cursor needs to read all the entries since
+     * the last full snapshot.
+     *
+     * @param individualDeletedMessagesSnapshotInterval
+     *            the max number of entries between two full snapshots
+     */
+    public ManagedLedgerConfig setIndividualDeletedMessagesSnapshotInterval(
+            int individualDeletedMessagesSnapshotInterval) {
+        checkArgument(individualDeletedMessagesSnapshotInterval > 0);
+        this.individualDeletedMessagesSnapshotInterval = individualDeletedMessagesSnapshotInterval;
+        return this;
+    }
+
     /**
      * Get ledger offloader which will be used to offload ledgers to longterm storage.
      *
@@ -646,4 +721,95 @@ public class ManagedLedgerConfig {
     public void setManagedLedgerInterceptor(ManagedLedgerInterceptor managedLedgerInterceptor) {
         this.managedLedgerInterceptor = managedLedgerInterceptor;
     }
+
+    /**
+     * @return whether catch-up cursors prefetch the entries that follow their current read
+     */
+    public boolean isReadAheadEnabled() {
+        return readAheadEnabled;
+    }
+
+    /**
+     * Enable the read-ahead of the cursors. When a cursor is reading a ledger sequentially, the entries that follow
+     * the current read are prefetched in background into a buffer private to the cursor, so that the next read can be
+     * served without waiting for the bookies.
+     *
+     * @param readAheadEnabled
+     *            whether to enable the read-ahead
+     */
+    public ManagedLedgerConfig setReadAheadEnabled(boolean readAheadEnabled) {
+        this.readAheadEnabled = readAheadEnabled;
+        return this;
+    }
+
+    /**
+     * @return the max number of entries that each cursor can prefetch
+     */
+    public int getReadAheadMaxEntries() {
+        return readAheadMaxEntries;
+    }
+
+    /**
+     * @param readAheadMaxEntries
+     *            the max number of entries that each cursor can prefetch
+     */
+    public ManagedLedgerConfig setReadAheadMaxEntries(int readAheadMaxEntries) {
+        checkArgument(readAheadMaxEntries > 0);
+        this.readAheadMaxEntries = readAheadMaxEntries;
+        return this;
+    }
+
+    /**
+     * @return the max size, in bytes, of the entries that each cursor can prefetch
+     */
+    public long getReadAheadMaxSizeBytes() {
+        return readAheadMaxSizeBytes;
+    }
+
+    /**
+     * @param readAheadMaxSizeBytes
+     *            the max size, in bytes, of the entries that each cursor can prefetch
+     */
+    public ManagedLedgerConfig setReadAheadMaxSizeBytes(long readAheadMaxSizeBytes) {
+        checkArgument(readAheadMaxSizeBytes > 0);
+        this.readAheadMaxSizeBytes = readAheadMaxSizeBytes;
+        return this;
+    }
+
+    /**
+     * @return the extractor of the timestamps of the entries, or null if the ledgers are not indexed by time
+     */
+    public EntryTimestampExtractor getEntryTimestampExtractor() {
+        return entryTimestampExtractor;
+    }
+
+    /**
+     * Set the extractor of the timestamps of the entries. When set, the timestamps of a sample of the entries of each
+     * ledger are stored in the ledger metadata, and the searches by timestamp use them to reduce the number of entries
+     * to read.
+     *
+     * @param entryTimestampExtractor
+     *            the extractor of the timestamps, or null to disable the timestamp index
+     */
+    public ManagedLedgerConfig setEntryTimestampExtractor(EntryTimestampExtractor entryTimestampExtractor) {
+        this.entryTimestampExtractor = entryTimestampExtractor;
+        return this;
+    }
+
+    /**
+     * @return the number of entries between two samples of the timestamp index
+     */
+    public int getTimestampIndexSamplingInterval() {
+        return timestampIndexSamplingInterval;
+    }
+
+    /**
+     * @param timestampIndexSamplingInterval
+     *            the number of entries between two samples of the timestamp index
+     */
+    public ManagedLedgerConfig setTimestampIndexSamplingInterval(int timestampIndexSamplingInterval) {
+        checkArgument(timestampIndexSamplingInterval > 0);
+        this.timestampIndexSamplingInterval = timestampIndexSamplingInterval;
+        return this;
+    }
 }
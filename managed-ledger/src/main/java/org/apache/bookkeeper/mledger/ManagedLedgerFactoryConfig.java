@@ -21,6 +21,7 @@ package org.apache.bookkeeper.mledger;
 import lombok.Data;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience;
 import org.apache.bookkeeper.common.annotation.InterfaceStability;
+import org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy;
 
 /**
  * Configuration for a {@link ManagedLedgerFactory}.
@@ -56,6 +57,30 @@ public class ManagedLedgerFactoryConfig {
      */
     private boolean copyEntriesInCache = false;
 
+    /**
+     * Whether the entries should be cached in pre-allocated direct memory segments, one group of segments per ledger,
+     * instead of keeping a separate cache node for each entry
+     */
+    private boolean segmentedEntryCacheEnabled = false;
+
+    /**
+     * Max size in bytes of each memory segment allocated by the segmented entry cache. The segments of a ledger start
+     * small and double in size up to this value
+     */
+    private int entryCacheSegmentSize = 1024 * 1024;
+
+    /**
+     * Class name of the {@link org.apache.bookkeeper.mledger.impl.EntryCacheEvictionPolicy} used to evict entries
+     * from the cache, and to decide whether new entries should be admitted in it
+     */
+    private String entryCacheEvictionPolicyClassName = EntryCacheDefaultEvictionPolicy.class.getName();
+
+    /**
+     * Maximum amount of memory that can be used, across all the cursors, to hold the entries prefetched by the
+     * read-ahead of catch-up cursors
+     */
+    private long readAheadMaxMemorySize = 64 * MB;
+
     /**
      * Whether trace managed ledger task execution time
      */
@@ -71,6 +96,70 @@ public class ManagedLedgerFactoryConfig {
      */
     private int cursorPositionFlushSeconds = 60;
 
+    /**
+     * Whether the mark-delete positions of the cursors are grouped and appended to a few ledgers shared by all the
+     * cursors of the factory, the cursor journal, instead of a ledger per cursor
+     */
+    private boolean cursorJournalEnabled = false;
+
+    /**
+     * Name of the cursor journal, unique among the factories that share the same metadata store. It is used to find
+     * the journal ledgers left by a previous instance of the factory. The journal of a factory that is not running
+     * anymore is adopted by the other factories
+     */
+    private String cursorJournalName = "default";
+
+    /**
+     * Maximum time to wait for more cursor updates before writing them as one journal entry
+     */
+    private int cursorJournalMaxBatchDelayMillis = 10;
+
+    /**
+     * Maximum size in bytes of the cursor updates written as one journal entry
+     */
+    private int cursorJournalMaxBatchSize = 1024 * 1024;
+
+    /**
+     * Number of entries after which a new journal ledger is started, and the cursors write a checkpoint into it
+     */
+    private int cursorJournalMaxEntriesPerLedger = 50000;
+
+    /**
+     * Maximum time after which a new journal ledger is started
+     */
+    private int cursorJournalLedgerRolloverTimeSeconds = 4 * 3600;
+
+    /**
+     * Number of bookies used to store the journal ledgers
+     */
+    private int cursorJournalEnsembleSize = 2;
+
+    /**
+     * Number of copies of each journal entry
+     */
+    private int cursorJournalWriteQuorumSize = 2;
+
+    /**
+     * Number of guaranteed copies of each journal entry, acknowledged before the cursor updates are completed
+     */
+    private int cursorJournalAckQuorumSize = 2;
+
+    /**
+     * Maximum number of metadata store operations, across all the managed ledgers being recovered, that fetch the list
+     * of ledgers or cursors of a managed ledger concurrently, or 0 for no limit
+     */
+    private int recoveryMaxConcurrentMetadataOperations = 0;
+
+    /**
+     * Maximum number of managed ledgers opening their last ledger concurrently during their recovery, or 0 for no limit
+     */
+    private int recoveryMaxConcurrentLedgerOpens = 0;
+
+    /**
+     * Maximum number of cursors being recovered concurrently, across all the managed ledgers, or 0 for no limit
+     */
+    private int recoveryMaxConcurrentCursorRecoveries = 0;
+
     /**
      * cluster name for prometheus stats
      */
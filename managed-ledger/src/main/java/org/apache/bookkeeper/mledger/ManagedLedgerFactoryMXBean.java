@@ -66,4 +66,100 @@ public interface ManagedLedgerFactoryMXBean {
      * Get the number of cache evictions during the last minute.
      */
     long getNumberOfCacheEvictions();
+
+    /**
+     * Get the class name of the eviction policy used by the entry cache.
+     */
+    String getCacheEvictionPolicy();
+
+    /**
+     * Get the number of entries evicted from the cache per second by the eviction policy.
+     */
+    double getCacheEvictedEntriesRate();
+
+    /**
+     * Get the amount of data evicted from the cache by the eviction policy in byte/s.
+     */
+    double getCacheEvictedEntriesThroughput();
+
+    /**
+     * Get the number of entries per second that the eviction policy refused to insert in the cache.
+     */
+    double getCacheAdmissionRejectionsRate();
+
+    /**
+     * Get the total number of entries read from the cache while the current eviction policy was in use.
+     */
+    long getCacheEvictionPolicyHits();
+
+    /**
+     * Get the total number of entries not found in the cache while the current eviction policy was in use.
+     */
+    long getCacheEvictionPolicyMisses();
+
+    /**
+     * Get the total number of entries evicted from the cache by the current eviction policy.
+     */
+    long getCacheEvictionPolicyEvictions();
+
+    /**
+     * Get the total number of entries that the current eviction policy refused to insert in the cache.
+     */
+    long getCacheEvictionPolicyAdmissionRejections();
+
+    /**
+     * Get the number of reads per second that missed the cache and were attached to a read already in progress.
+     */
+    double getCoalescedReadsRate();
+
+    /**
+     * Get the number of entries per second that were served by reads already in progress, instead of being read again
+     * from bookkeeper.
+     */
+    double getCoalescedReadEntriesRate();
+
+    /**
+     * Get the size in bytes of the entries held in the read-ahead buffers of the cursors.
+     */
+    long getReadAheadBufferedSize();
+
+    /**
+     * Get the number of prefetches per second that were skipped because the read-ahead memory budget was exhausted.
+     */
+    double getReadAheadBudgetRejectionsRate();
+
+    /**
+     * Get the number of operations of the recovery of the managed ledgers waiting for their turn to run.
+     */
+    int getRecoveryWaitingOperations();
+
+    /**
+     * Get the average time in ms that the recovering managed ledgers waited to fetch their list of ledgers or cursors.
+     */
+    double getRecoveryMetadataWaitTimeMs();
+
+    /**
+     * Get the average time in ms that the recovering managed ledgers took to fetch their list of ledgers or cursors.
+     */
+    double getRecoveryMetadataLatencyMs();
+
+    /**
+     * Get the average time in ms that the recovering managed ledgers waited to open their last ledger.
+     */
+    double getRecoveryLedgerOpenWaitTimeMs();
+
+    /**
+     * Get the average time in ms that the recovering managed ledgers took to open their last ledger.
+     */
+    double getRecoveryLedgerOpenLatencyMs();
+
+    /**
+     * Get the average time in ms that the cursors waited before starting their recovery.
+     */
+    double getRecoveryCursorWaitTimeMs();
+
+    /**
+     * Get the average time in ms that the cursors took to recover.
+     */
+    double getRecoveryCursorLatencyMs();
 }
@@ -65,6 +65,31 @@ public interface ManagedLedgerMXBean {
      */
     double getReadEntriesBytesRate();
 
+    /**
+     * @return the msg/s rate of entries served from the read-ahead buffers of the cursors
+     */
+    double getReadAheadHitsRate();
+
+    /**
+     * @return the bytes/s rate of entries served from the read-ahead buffers of the cursors
+     */
+    double getReadAheadHitsBytesRate();
+
+    /**
+     * @return the msg/s rate of entries prefetched by the read-ahead of the cursors
+     */
+    double getReadAheadPrefetchedRate();
+
+    /**
+     * @return the bytes/s rate of entries prefetched by the read-ahead of the cursors
+     */
+    double getReadAheadPrefetchedBytesRate();
+
+    /**
+     * @return the msg/s rate of prefetched entries that were discarded without being read
+     */
+    double getReadAheadDiscardedRate();
+
     /**
      * @return the rate of mark-delete ops/s
      */
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Listener that can be registered with {@link ManagedLedger} to get the entries as soon as they are added, without
+ * reading them back from the cache or the bookies.
+ */
+public interface NewEntryListener {
+
+    /**
+     * The callback {@link ManagedLedger} triggers from its thread when an entry is added. It must not block.
+     *
+     * @param position
+     *            the position of the added entry
+     * @param data
+     *            the data of the entry, which is only valid during the call. The listener must retain a duplicate to
+     *            keep it.
+     */
+    void newEntryAdded(Position position, ByteBuf data);
+}
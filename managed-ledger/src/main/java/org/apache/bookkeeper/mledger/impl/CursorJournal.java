@@ -0,0 +1,1013 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.AsyncCallback.OpenCallback;
+import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetadataNotFoundException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorJournalEntry;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorJournalLedgers;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorJournalUpdate;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.metadata.api.MetadataStore;
+import org.apache.pulsar.metadata.api.Stat;
+import org.apache.pulsar.metadata.api.extended.CreateOption;
+import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal where the cursors of a {@link ManagedLedgerFactoryImpl} append their mark-delete positions, instead of
+ * having a metadata ledger each.
+ *
+ * <p>The updates of all the cursors are grouped and written as one entry of the current journal ledger. A cursor
+ * refers, in its metadata, to the journal ledger where it wrote its last checkpoint: the update that carries its
+ * whole state, written when the cursor switches to a new metadata ledger. When a journal ledger is rolled over, the
+ * cursors that refer to it are asked to switch to a new metadata ledger, which writes their checkpoint into the new
+ * journal ledger, and the old ledger is deleted once no cursor refers to it anymore.
+ *
+ * <p>A journal ledger is read once to recover all the cursors that refer to it: the entries are indexed by cursor
+ * and the index is kept for a while. The journal ledgers are recorded in the metadata store, so that the ledgers left
+ * by a previous instance of the factory are deleted once the cursors that were recovered from them have moved to a
+ * new ledger.
+ *
+ * <p>While it is running, a journal holds an ephemeral owner node in the metadata store. The journals whose owner is
+ * gone, because the factory was stopped and never came back with the same name, are adopted by another journal: their
+ * ledgers are added to its own and deleted the same way, and their metadata is removed.
+ */
+class CursorJournal {
+
+    static final String JOURNALS_PATH = "/managed-ledgers-cursor-journals";
+    static final String OWNERS_PATH = "/managed-ledgers-cursor-journal-owners";
+
+    // The journal ledgers are shared by the cursors of many managed ledgers, they use the default digest and password
+    // of the managed ledgers
+    static final DigestType DIGEST_TYPE = DigestType.CRC32C;
+    static final byte[] PASSWORD = "".getBytes(StandardCharsets.UTF_8);
+
+    // Ledger id used to append a checkpoint into the current journal ledger
+    static final long CURRENT_LEDGER = -1;
+
+    private static final int READ_BATCH_SIZE = 100;
+    private static final long INDEX_RETENTION_SECONDS = 120;
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+    private static final long CLOSED_CURSORS_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long ORPHANS_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    interface AppendCallback {
+        void appendComplete(long ledgerId, long entryId);
+
+        void appendFailed(ManagedLedgerException exception);
+    }
+
+    interface RecoverCallback {
+        /**
+         * @param positionInfos
+         *            the updates of the cursor since its last full snapshot of the individually deleted messages, the
+         *            last one being the most recent, or an empty list if the cursor is not in the journal ledger
+         */
+        void recoverComplete(List<PositionInfo> positionInfos);
+
+        void recoverFailed(int rc);
+    }
+
+    private static class Update {
+        final ManagedCursorImpl cursor;
+        final CursorJournalUpdate update;
+        final boolean checkpoint;
+        final AppendCallback callback;
+
+        Update(ManagedCursorImpl cursor, CursorJournalUpdate update, boolean checkpoint, AppendCallback callback) {
+            this.cursor = cursor;
+            this.update = update;
+            this.checkpoint = checkpoint;
+            this.callback = callback;
+        }
+    }
+
+    private static class JournalLedger {
+        final long ledgerId;
+        // Write handle of the ledgers created by this journal instance
+        LedgerHandle handle;
+        boolean writable;
+        long entries;
+        final long createTimestamp;
+
+        // Cursors that refer to the ledger in their metadata, or that are switching to it
+        final Set<ManagedCursorImpl> cursors = new HashSet<>();
+        // Closed cursors, (managed ledger, cursor) names, that might still refer to the ledger in their metadata
+        final Set<Pair<String, String>> closedCursors = new HashSet<>();
+        long lastClosedCursorsCheck;
+        // The ledgers of a previous instance are deleted only after they were read, to know their closed cursors
+        boolean scanned;
+        boolean scanning;
+        boolean deleting;
+
+        List<Update> batch = new ArrayList<>();
+        int batchSize;
+        ScheduledFuture<?> flushTask;
+        int pendingAdds;
+
+        JournalLedger(long ledgerId, long createTimestamp) {
+            this.ledgerId = ledgerId;
+            this.createTimestamp = createTimestamp;
+        }
+    }
+
+    /**
+     * Updates of the cursors read from a journal ledger.
+     */
+    private static class LedgerIndex {
+        final long ledgerId;
+        LedgerHandle handle;
+        // Whether the handle was opened with recovery, so that all the entries can be read
+        boolean recovered;
+        long lastIndexedEntry = -1;
+        CompletableFuture<LedgerIndex> update = CompletableFuture.completedFuture(this);
+        private final Map<Pair<String, String>, List<PositionInfo>> positions = new HashMap<>();
+
+        LedgerIndex(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        synchronized void add(CursorJournalEntry entry) {
+            for (CursorJournalUpdate update : entry.getUpdatesList()) {
+                Pair<String, String> key = Pair.of(update.getManagedLedgerName(), update.getCursorName());
+                PositionInfo positionInfo = update.getPositionInfo();
+                List<PositionInfo> positionInfos = positions.get(key);
+                // Only the updates since the last full snapshot are needed
+                if (positionInfos == null || positionInfo.getDeletedEntriesSnapshotDistance() == 0) {
+                    positionInfos = new ArrayList<>();
+                    positions.put(key, positionInfos);
+                }
+                positionInfos.add(positionInfo);
+            }
+        }
+
+        synchronized List<PositionInfo> get(Pair<String, String> key) {
+            List<PositionInfo> positionInfos = positions.get(key);
+            return positionInfos != null ? new ArrayList<>(positionInfos) : Collections.emptyList();
+        }
+
+        synchronized Set<Pair<String, String>> cursors() {
+            return new HashSet<>(positions.keySet());
+        }
+    }
+
+    private final ManagedLedgerFactoryConfig config;
+    private final BookKeeper bookkeeper;
+    private final MetadataStore metadataStore;
+    private final MetaStore store;
+    private final ScheduledExecutorService scheduler;
+    private final String name;
+    private final String path;
+
+    private final Map<Long, JournalLedger> ledgers = new TreeMap<>();
+    private JournalLedger currentLedger = null;
+    private boolean creatingLedger = false;
+    // Checkpoints waiting for the current ledger to be created
+    private final List<Update> waitingCheckpoints = new ArrayList<>();
+
+    private final Map<Long, LedgerIndex> indexes = new HashMap<>();
+
+    // The journal ledgers recorded in the metadata store
+    private final Set<Long> registeredLedgers = new TreeSet<>();
+    private CompletableFuture<Void> registryUpdate = CompletableFuture.completedFuture(null);
+
+    private ScheduledFuture<?> checkTask = null;
+    private boolean closed = false;
+    private boolean ownerRegistered = false;
+    private long lastOrphansCheck = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(CursorJournal.class);
+
+    CursorJournal(ManagedLedgerFactoryConfig config, BookKeeper bookkeeper, MetadataStore metadataStore,
+            MetaStore store, ScheduledExecutorService scheduler) {
+        this.config = config;
+        this.bookkeeper = bookkeeper;
+        this.metadataStore = metadataStore;
+        this.store = store;
+        this.scheduler = scheduler;
+        this.name = config.getCursorJournalName();
+        this.path = JOURNALS_PATH + "/" + name;
+    }
+
+    boolean isEnabled() {
+        return config.isCursorJournalEnabled();
+    }
+
+    /**
+     * Load the journal ledgers of the previous instance, which are deleted once no cursor refers to them anymore.
+     */
+    void start() {
+        if (isEnabled() && metadataStore instanceof MetadataStoreExtended) {
+            ((MetadataStoreExtended) metadataStore).put(ownerPath(name), new byte[0], Optional.of(-1L),
+                    EnumSet.of(CreateOption.Ephemeral)).thenAccept(stat -> {
+                        synchronized (this) {
+                            ownerRegistered = true;
+                        }
+                    }).exceptionally(ex -> {
+                        // The owner node of the previous instance might not be expired yet
+                        log.warn("[{}] Failed to register the owner of the cursor journal", name, ex);
+                        return null;
+                    });
+        }
+
+        metadataStore.get(path).thenAccept(optResult -> {
+            if (!optResult.isPresent()) {
+                return;
+            }
+
+            List<Long> previousLedgers;
+            try {
+                previousLedgers = CursorJournalLedgers.parseFrom(optResult.get().getValue()).getLedgerIdsList();
+            } catch (InvalidProtocolBufferException e) {
+                log.warn("[{}] Invalid list of cursor journal ledgers", name, e);
+                return;
+            }
+
+            log.info("[{}] Found {} cursor journal ledgers of the previous instance", name, previousLedgers.size());
+            synchronized (this) {
+                for (long ledgerId : previousLedgers) {
+                    registeredLedgers.add(ledgerId);
+                    ledgers.putIfAbsent(ledgerId, new JournalLedger(ledgerId, System.currentTimeMillis()));
+                }
+            }
+            previousLedgers.forEach(this::scanLedger);
+        }).exceptionally(ex -> {
+            log.warn("[{}] Failed to read the cursor journal ledgers", name, ex);
+            return null;
+        });
+
+        synchronized (this) {
+            checkTask = scheduler.scheduleWithFixedDelay(safeRun(this::checkLedgers), CHECK_INTERVAL_SECONDS,
+                    CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    void close() {
+        List<Update> failedCheckpoints;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (checkTask != null) {
+                checkTask.cancel(false);
+            }
+            // The ledgers are left open: the next instance recovers them
+            ledgers.values().forEach(this::flush);
+            failedCheckpoints = new ArrayList<>(waitingCheckpoints);
+            waitingCheckpoints.clear();
+
+            // If no instance comes back with the same name, another journal adopts the ledgers
+            if (ownerRegistered) {
+                metadataStore.delete(ownerPath(name), Optional.empty()).exceptionally(ex -> {
+                    log.warn("[{}] Failed to unregister the owner of the cursor journal", name, ex);
+                    return null;
+                });
+            }
+        }
+
+        ManagedLedgerException e = new ManagedLedgerException("Cursor journal " + name + " is closed");
+        failedCheckpoints.forEach(update -> update.callback.appendFailed(e));
+    }
+
+    /**
+     * Append an update of a cursor to the journal. The callback is triggered once the entry that contains the update is
+     * persisted.
+     *
+     * @param ledgerId
+     *            the journal ledger the cursor refers to, or {@link #CURRENT_LEDGER} to write a checkpoint into the
+     *            current ledger, after which the cursor is expected to refer to it
+     */
+    void append(ManagedCursorImpl cursor, long ledgerId, PositionInfo positionInfo, AppendCallback callback) {
+        CursorJournalUpdate journalUpdate = CursorJournalUpdate.newBuilder()
+                .setManagedLedgerName(cursor.ledger.getName())
+                .setCursorName(cursor.getName())
+                .setPositionInfo(positionInfo)
+                .build();
+        Update update = new Update(cursor, journalUpdate, ledgerId == CURRENT_LEDGER, callback);
+
+        ManagedLedgerException error = null;
+        synchronized (this) {
+            if (closed) {
+                error = new ManagedLedgerException("Cursor journal " + name + " is closed");
+            } else if (ledgerId == CURRENT_LEDGER) {
+                if (currentLedger != null) {
+                    currentLedger.cursors.add(cursor);
+                    addToBatch(currentLedger, update);
+                } else {
+                    waitingCheckpoints.add(update);
+                    if (!creatingLedger) {
+                        createLedger();
+                    }
+                }
+            } else {
+                JournalLedger journalLedger = ledgers.get(ledgerId);
+                if (journalLedger != null && journalLedger.writable) {
+                    addToBatch(journalLedger, update);
+                } else {
+                    error = new ManagedLedgerException("Cursor journal ledger " + ledgerId + " is not writable");
+                }
+            }
+        }
+
+        if (error != null) {
+            ManagedLedgerException exception = error;
+            scheduler.execute(safeRun(() -> callback.appendFailed(exception)));
+        }
+    }
+
+    /**
+     * Recover the updates of a cursor from a journal ledger.
+     *
+     * @param lastEntryId
+     *            the last entry to read, if the cursor was properly closed, or -1 to recover the ledger and read all
+     *            its entries
+     */
+    void asyncRecover(String managedLedgerName, String cursorName, long ledgerId, long lastEntryId,
+            RecoverCallback callback) {
+        getIndex(ledgerId, lastEntryId).whenComplete((index, ex) -> {
+            if (ex != null) {
+                log.warn("[{}] Failed to read cursor journal ledger {} for cursor {}/{}", name, ledgerId,
+                        managedLedgerName, cursorName, ex);
+                callback.recoverFailed(getBkErrorCode(ex));
+            } else {
+                callback.recoverComplete(index.get(Pair.of(managedLedgerName, cursorName)));
+            }
+        });
+    }
+
+    /**
+     * Register a cursor that refers to a journal ledger, after it was recovered from it.
+     */
+    synchronized void acquire(ManagedCursorImpl cursor, long ledgerId) {
+        JournalLedger journalLedger = ledgers.get(ledgerId);
+        if (journalLedger != null) {
+            journalLedger.cursors.add(cursor);
+        }
+    }
+
+    /**
+     * Unregister a cursor whose metadata does not refer to a journal ledger anymore.
+     */
+    void release(ManagedCursorImpl cursor, long ledgerId) {
+        JournalLedger journalLedger;
+        synchronized (this) {
+            journalLedger = ledgers.get(ledgerId);
+            if (journalLedger == null) {
+                return;
+            }
+            journalLedger.cursors.remove(cursor);
+            journalLedger.closedCursors.remove(Pair.of(cursor.ledger.getName(), cursor.getName()));
+        }
+        checkLedger(journalLedger);
+    }
+
+    /**
+     * Unregister a closed cursor, whose metadata might still refer to a journal ledger.
+     */
+    void detach(ManagedCursorImpl cursor, long ledgerId) {
+        JournalLedger journalLedger;
+        synchronized (this) {
+            journalLedger = ledgers.get(ledgerId);
+            if (journalLedger == null) {
+                return;
+            }
+            journalLedger.cursors.remove(cursor);
+            journalLedger.closedCursors.add(Pair.of(cursor.ledger.getName(), cursor.getName()));
+        }
+        checkLedger(journalLedger);
+    }
+
+    @VisibleForTesting
+    synchronized long getCurrentLedgerId() {
+        return currentLedger != null ? currentLedger.ledgerId : -1;
+    }
+
+    @VisibleForTesting
+    synchronized Set<Long> getLedgerIds() {
+        return new TreeSet<>(ledgers.keySet());
+    }
+
+    private void createLedger() {
+        creatingLedger = true;
+        try {
+            bookkeeper.asyncCreateLedger(config.getCursorJournalEnsembleSize(),
+                    config.getCursorJournalWriteQuorumSize(), config.getCursorJournalAckQuorumSize(), DIGEST_TYPE,
+                    PASSWORD, (rc, lh, ctx) -> {
+                        if (rc != BKException.Code.OK) {
+                            log.warn("[{}] Failed to create cursor journal ledger: {}", name,
+                                    BKException.getMessage(rc));
+                            ledgerCreationFailed(createManagedLedgerException(rc));
+                            return;
+                        }
+
+                        // Record the ledger before writing into it, so that it is deleted if the broker crashes
+                        updateRegistry(lh.getId(), true).whenComplete((result, ex) -> {
+                            if (ex != null) {
+                                log.warn("[{}] Failed to record cursor journal ledger {}", name, lh.getId(), ex);
+                                bookkeeper.asyncDeleteLedger(lh.getId(), (rc1, ctx1) -> { }, null);
+                                ledgerCreationFailed(new ManagedLedgerException(ex));
+                            } else {
+                                ledgerCreated(lh);
+                            }
+                        });
+                    }, null, LedgerMetadataUtils.buildMetadataForCursorJournal(name));
+        } catch (Throwable t) {
+            log.error("[{}] Encountered exception while creating cursor journal ledger", name, t);
+            scheduler.execute(safeRun(() -> ledgerCreationFailed(new ManagedLedgerException(t))));
+        }
+    }
+
+    private void ledgerCreated(LedgerHandle lh) {
+        log.info("[{}] Created cursor journal ledger {}", name, lh.getId());
+        synchronized (this) {
+            JournalLedger journalLedger = new JournalLedger(lh.getId(), System.currentTimeMillis());
+            journalLedger.handle = lh;
+            journalLedger.writable = true;
+            journalLedger.scanned = true;
+            ledgers.put(lh.getId(), journalLedger);
+            currentLedger = journalLedger;
+            creatingLedger = false;
+
+            for (Update update : waitingCheckpoints) {
+                journalLedger.cursors.add(update.cursor);
+                addToBatch(journalLedger, update);
+            }
+            waitingCheckpoints.clear();
+        }
+    }
+
+    private void ledgerCreationFailed(ManagedLedgerException exception) {
+        List<Update> failedCheckpoints;
+        synchronized (this) {
+            creatingLedger = false;
+            failedCheckpoints = new ArrayList<>(waitingCheckpoints);
+            waitingCheckpoints.clear();
+        }
+        failedCheckpoints.forEach(update -> update.callback.appendFailed(exception));
+    }
+
+    private synchronized CompletableFuture<Void> updateRegistry(long ledgerId, boolean add) {
+        if (add) {
+            registeredLedgers.add(ledgerId);
+        } else {
+            registeredLedgers.remove(ledgerId);
+        }
+        return writeRegistry();
+    }
+
+    private synchronized CompletableFuture<Void> registerLedgers(Collection<Long> ledgerIds) {
+        registeredLedgers.addAll(ledgerIds);
+        return writeRegistry();
+    }
+
+    /**
+     * Write the list of the registered ledgers. Must be called holding the monitor.
+     */
+    private CompletableFuture<Void> writeRegistry() {
+        byte[] data = CursorJournalLedgers.newBuilder().addAllLedgerIds(registeredLedgers).build().toByteArray();
+
+        // The updates are applied in order, each one writes the whole list
+        registryUpdate = registryUpdate.exceptionally(ex -> null)
+                .thenCompose(result -> metadataStore.put(path, data, Optional.empty()))
+                .thenAccept(stat -> { });
+        return registryUpdate;
+    }
+
+    private void addToBatch(JournalLedger journalLedger, Update update) {
+        journalLedger.batch.add(update);
+        journalLedger.batchSize += update.update.getSerializedSize();
+
+        long maxDelayMillis = config.getCursorJournalMaxBatchDelayMillis();
+        if (journalLedger.batchSize >= config.getCursorJournalMaxBatchSize() || maxDelayMillis <= 0) {
+            flush(journalLedger);
+        } else if (journalLedger.flushTask == null) {
+            journalLedger.flushTask = scheduler.schedule(safeRun(() -> {
+                synchronized (this) {
+                    journalLedger.flushTask = null;
+                    flush(journalLedger);
+                }
+            }), maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(JournalLedger journalLedger) {
+        if (journalLedger.flushTask != null) {
+            journalLedger.flushTask.cancel(false);
+            journalLedger.flushTask = null;
+        }
+        if (journalLedger.batch.isEmpty()) {
+            return;
+        }
+
+        List<Update> batch = journalLedger.batch;
+        journalLedger.batch = new ArrayList<>();
+        journalLedger.batchSize = 0;
+        journalLedger.pendingAdds++;
+
+        if (!journalLedger.writable) {
+            // The ledger had a write error since the updates were added
+            scheduler.execute(safeRun(() -> addComplete(journalLedger, batch, BKException.Code.LedgerClosedException,
+                    -1)));
+            return;
+        }
+
+        CursorJournalEntry.Builder entry = CursorJournalEntry.newBuilder();
+        batch.forEach(update -> entry.addUpdates(update.update));
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Appending {} cursor updates to journal ledger {}", name, batch.size(),
+                    journalLedger.ledgerId);
+        }
+        journalLedger.handle.asyncAddEntry(entry.build().toByteArray(),
+                (rc, lh, entryId, ctx) -> addComplete(journalLedger, batch, rc, entryId), null);
+    }
+
+    private void addComplete(JournalLedger journalLedger, List<Update> batch, int rc, long entryId) {
+        List<ManagedCursorImpl> rolledOverCursors = Collections.emptyList();
+        synchronized (this) {
+            journalLedger.pendingAdds--;
+            if (rc == BKException.Code.OK) {
+                journalLedger.entries++;
+                if (journalLedger == currentLedger && shouldRollover(journalLedger)) {
+                    rolledOverCursors = rollover(journalLedger);
+                }
+            } else {
+                if (journalLedger.writable) {
+                    log.warn("[{}] Error writing to cursor journal ledger {}: {}", name, journalLedger.ledgerId,
+                            BKException.getMessage(rc));
+                    // The cursors have to write a checkpoint into a new ledger
+                    journalLedger.writable = false;
+                    rolledOverCursors = rollover(journalLedger);
+                }
+                for (Update update : batch) {
+                    if (update.checkpoint && update.cursor.getCursorLedger() != journalLedger.ledgerId) {
+                        journalLedger.cursors.remove(update.cursor);
+                    }
+                }
+            }
+        }
+
+        if (rc == BKException.Code.OK) {
+            batch.forEach(update -> update.callback.appendComplete(journalLedger.ledgerId, entryId));
+        } else {
+            batch.forEach(update -> update.callback.appendFailed(createManagedLedgerException(rc)));
+        }
+        rolledOverCursors.forEach(cursor -> cursor.journalLedgerRolledOver(journalLedger.ledgerId));
+        checkLedger(journalLedger);
+    }
+
+    private boolean shouldRollover(JournalLedger journalLedger) {
+        return journalLedger.entries >= config.getCursorJournalMaxEntriesPerLedger()
+                || System.currentTimeMillis() - journalLedger.createTimestamp
+                        >= TimeUnit.SECONDS.toMillis(config.getCursorJournalLedgerRolloverTimeSeconds());
+    }
+
+    /**
+     * Stop appending checkpoints to a ledger.
+     *
+     * @return the cursors that refer to the ledger, which have to switch to a new one
+     */
+    private List<ManagedCursorImpl> rollover(JournalLedger journalLedger) {
+        if (currentLedger == journalLedger) {
+            log.info("[{}] Rolling over cursor journal ledger {} after {} entries", name, journalLedger.ledgerId,
+                    journalLedger.entries);
+            currentLedger = null;
+        }
+        return new ArrayList<>(journalLedger.cursors);
+    }
+
+    /**
+     * Close a ledger once no cursor writes into it anymore, and delete it once no cursor refers to it anymore.
+     */
+    private void checkLedger(JournalLedger journalLedger) {
+        boolean close = false;
+        boolean delete = false;
+        synchronized (this) {
+            if (journalLedger == currentLedger || !journalLedger.cursors.isEmpty() || journalLedger.pendingAdds > 0
+                    || !journalLedger.batch.isEmpty() || journalLedger.deleting) {
+                return;
+            }
+
+            if (journalLedger.writable) {
+                journalLedger.writable = false;
+                close = true;
+            }
+            if (journalLedger.scanned && journalLedger.closedCursors.isEmpty()) {
+                journalLedger.deleting = true;
+                delete = true;
+            }
+        }
+
+        if (delete) {
+            deleteLedger(journalLedger);
+        } else if (close) {
+            journalLedger.handle.asyncClose((rc, lh, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    log.warn("[{}] Failed to close cursor journal ledger {}: {}", name, journalLedger.ledgerId,
+                            BKException.getMessage(rc));
+                }
+            }, null);
+        }
+    }
+
+    private void deleteLedger(JournalLedger journalLedger) {
+        bookkeeper.asyncDeleteLedger(journalLedger.ledgerId, (rc, ctx) -> {
+            if (rc == BKException.Code.OK || rc == BKException.Code.NoSuchLedgerExistsException
+                    || rc == BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                log.info("[{}] Deleted cursor journal ledger {}", name, journalLedger.ledgerId);
+                synchronized (this) {
+                    ledgers.remove(journalLedger.ledgerId);
+                }
+                updateRegistry(journalLedger.ledgerId, false);
+            } else {
+                log.warn("[{}] Failed to delete cursor journal ledger {}: {}", name, journalLedger.ledgerId,
+                        BKException.getMessage(rc));
+                // Retried at the next check
+                synchronized (this) {
+                    journalLedger.deleting = false;
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Read a ledger of the previous instance, to know the cursors that might still refer to it.
+     */
+    private void scanLedger(long ledgerId) {
+        synchronized (this) {
+            JournalLedger journalLedger = ledgers.get(ledgerId);
+            if (journalLedger == null || journalLedger.scanning) {
+                return;
+            }
+            journalLedger.scanning = true;
+        }
+
+        getIndex(ledgerId, -1).whenComplete((index, ex) -> {
+            JournalLedger journalLedger;
+            synchronized (this) {
+                journalLedger = ledgers.get(ledgerId);
+                if (journalLedger == null) {
+                    return;
+                }
+                journalLedger.scanning = false;
+
+                if (ex == null) {
+                    journalLedger.closedCursors.addAll(index.cursors());
+                    journalLedger.scanned = true;
+                } else if (getBkErrorCode(ex) == BKException.Code.NoSuchLedgerExistsException
+                        || getBkErrorCode(ex) == BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                    journalLedger.scanned = true;
+                } else {
+                    // Retried at the next check
+                    log.warn("[{}] Failed to read cursor journal ledger {}", name, ledgerId, ex);
+                    return;
+                }
+            }
+            checkClosedCursors(journalLedger);
+        });
+    }
+
+    /**
+     * Forget the closed cursors whose metadata does not refer to a ledger anymore.
+     */
+    private void checkClosedCursors(JournalLedger journalLedger) {
+        List<Pair<String, String>> closedCursors;
+        synchronized (this) {
+            if (!journalLedger.cursors.isEmpty()) {
+                // The ledger can't be deleted anyway
+                return;
+            }
+            journalLedger.lastClosedCursorsCheck = System.currentTimeMillis();
+            closedCursors = new ArrayList<>(journalLedger.closedCursors);
+        }
+        if (closedCursors.isEmpty()) {
+            checkLedger(journalLedger);
+            return;
+        }
+
+        for (Pair<String, String> cursor : closedCursors) {
+            store.asyncGetCursorInfo(cursor.getLeft(), cursor.getRight(), new MetaStoreCallback<ManagedCursorInfo>() {
+                @Override
+                public void operationComplete(ManagedCursorInfo info, Stat stat) {
+                    if (!info.getCursorsLedgerIsJournal() || info.getCursorsLedgerId() != journalLedger.ledgerId) {
+                        removeClosedCursor(journalLedger, cursor);
+                    }
+                }
+
+                @Override
+                public void operationFailed(MetaStoreException e) {
+                    if (e instanceof MetadataNotFoundException) {
+                        removeClosedCursor(journalLedger, cursor);
+                    }
+                }
+            });
+        }
+    }
+
+    private void removeClosedCursor(JournalLedger journalLedger, Pair<String, String> cursor) {
+        synchronized (this) {
+            journalLedger.closedCursors.remove(cursor);
+        }
+        checkLedger(journalLedger);
+    }
+
+    private void checkLedgers() {
+        List<JournalLedger> journalLedgers;
+        List<ManagedCursorImpl> rolledOverCursors = Collections.emptyList();
+        long rolledOverLedgerId = -1;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (currentLedger != null && shouldRollover(currentLedger)) {
+                rolledOverLedgerId = currentLedger.ledgerId;
+                rolledOverCursors = rollover(currentLedger);
+            }
+            journalLedgers = new ArrayList<>(ledgers.values());
+        }
+        long ledgerId = rolledOverLedgerId;
+        rolledOverCursors.forEach(cursor -> cursor.journalLedgerRolledOver(ledgerId));
+
+        long now = System.currentTimeMillis();
+        for (JournalLedger journalLedger : journalLedgers) {
+            List<ManagedCursorImpl> cursors;
+            boolean scan;
+            boolean checkClosedCursors;
+            synchronized (this) {
+                if (journalLedger == currentLedger) {
+                    continue;
+                }
+                // The cursors recovered from an old ledger, or that missed a rollover, are asked again to move
+                cursors = new ArrayList<>(journalLedger.cursors);
+                scan = !journalLedger.scanned && !journalLedger.scanning;
+                checkClosedCursors = journalLedger.scanned && !journalLedger.closedCursors.isEmpty()
+                        && now - journalLedger.lastClosedCursorsCheck >= CLOSED_CURSORS_CHECK_INTERVAL_MILLIS;
+            }
+
+            cursors.forEach(cursor -> cursor.journalLedgerRolledOver(journalLedger.ledgerId));
+            if (scan) {
+                scanLedger(journalLedger.ledgerId);
+            } else if (checkClosedCursors) {
+                checkClosedCursors(journalLedger);
+            } else {
+                checkLedger(journalLedger);
+            }
+        }
+
+        boolean checkOrphans;
+        synchronized (this) {
+            checkOrphans = isEnabled() && now - lastOrphansCheck >= ORPHANS_CHECK_INTERVAL_MILLIS;
+            if (checkOrphans) {
+                lastOrphansCheck = now;
+            }
+        }
+        if (checkOrphans) {
+            checkOrphanJournals();
+        }
+    }
+
+    /**
+     * Adopt the journals whose owner is not running anymore.
+     */
+    @VisibleForTesting
+    CompletableFuture<Void> checkOrphanJournals() {
+        if (!(metadataStore instanceof MetadataStoreExtended)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return metadataStore.getChildren(JOURNALS_PATH).thenCompose(names -> {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (String journalName : names) {
+                if (!journalName.equals(name)) {
+                    futures.add(metadataStore.exists(ownerPath(journalName)).thenCompose(
+                            owned -> owned ? CompletableFuture.completedFuture(null) : adoptJournal(journalName)));
+                }
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        }).exceptionally(ex -> {
+            log.warn("[{}] Failed to check the orphan cursor journals", name, ex);
+            return null;
+        });
+    }
+
+    private CompletableFuture<Void> adoptJournal(String journalName) {
+        String ownerPath = ownerPath(journalName);
+        // Claiming the owner node prevents the journal from being adopted twice, or while its owner comes back
+        return ((MetadataStoreExtended) metadataStore).put(ownerPath, new byte[0], Optional.of(-1L),
+                EnumSet.of(CreateOption.Ephemeral)).thenCompose(stat -> adoptLedgers(journalName)
+                        .whenComplete((result, ex) -> metadataStore.delete(ownerPath, Optional.empty())
+                                .exceptionally(e -> {
+                                    log.warn("[{}] Failed to release the owner node of {}", name, ownerPath, e);
+                                    return null;
+                                })))
+                .exceptionally(ex -> {
+                    log.warn("[{}] Failed to adopt the cursor journal {}", name, journalName, ex);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Void> adoptLedgers(String journalName) {
+        String journalPath = JOURNALS_PATH + "/" + journalName;
+        return metadataStore.get(journalPath).thenCompose(optResult -> {
+            if (!optResult.isPresent()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            List<Long> orphanLedgers;
+            try {
+                orphanLedgers = CursorJournalLedgers.parseFrom(optResult.get().getValue()).getLedgerIdsList();
+            } catch (InvalidProtocolBufferException e) {
+                log.warn("[{}] Invalid list of cursor journal ledgers in {}", name, journalPath, e);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            log.info("[{}] Adopting {} ledgers of the orphan cursor journal {}", name, orphanLedgers.size(),
+                    journalName);
+            synchronized (this) {
+                for (long ledgerId : orphanLedgers) {
+                    ledgers.putIfAbsent(ledgerId, new JournalLedger(ledgerId, System.currentTimeMillis()));
+                }
+            }
+
+            // The ledgers are recorded as ours before the orphan journal is removed, so that they're never lost
+            return registerLedgers(orphanLedgers)
+                    .thenCompose(v -> metadataStore.delete(journalPath,
+                            Optional.of(optResult.get().getStat().getVersion())))
+                    .thenRun(() -> orphanLedgers.forEach(this::scanLedger));
+        });
+    }
+
+    private static String ownerPath(String journalName) {
+        return OWNERS_PATH + "/" + journalName;
+    }
+
+    private synchronized CompletableFuture<LedgerIndex> getIndex(long ledgerId, long lastEntryId) {
+        LedgerIndex index = indexes.get(ledgerId);
+        if (index == null) {
+            LedgerIndex newIndex = new LedgerIndex(ledgerId);
+            indexes.put(ledgerId, newIndex);
+            scheduler.schedule(safeRun(() -> removeIndex(newIndex)), INDEX_RETENTION_SECONDS, TimeUnit.SECONDS);
+            index = newIndex;
+        }
+
+        // The updates are serialized, each one reads the entries that were not indexed yet
+        LedgerIndex currentIndex = index;
+        CompletableFuture<LedgerIndex> future = index.update.handle((i, ex) -> currentIndex)
+                .thenCompose(i -> updateIndex(currentIndex, lastEntryId));
+        index.update = future;
+        future.whenComplete((i, ex) -> {
+            if (ex != null) {
+                removeIndex(currentIndex);
+            }
+        });
+        return future;
+    }
+
+    private synchronized void removeIndex(LedgerIndex index) {
+        indexes.remove(index.ledgerId, index);
+    }
+
+    private CompletableFuture<LedgerIndex> updateIndex(LedgerIndex index, long lastEntryId) {
+        LedgerHandle writeHandle;
+        synchronized (this) {
+            JournalLedger journalLedger = ledgers.get(index.ledgerId);
+            writeHandle = journalLedger != null ? journalLedger.handle : null;
+        }
+
+        if (writeHandle != null) {
+            // A ledger of this instance: all the confirmed entries can be read without recovering it
+            index.handle = writeHandle;
+            return readEntries(index, writeHandle.getLastAddConfirmed());
+        } else if (index.recovered || (index.handle != null && lastEntryId >= 0)) {
+            return readEntries(index, index.recovered ? index.handle.getLastAddConfirmed() : lastEntryId);
+        }
+
+        // The ledger is recovered, which fences its writer, unless the last entry to read is known
+        boolean recover = lastEntryId < 0;
+        CompletableFuture<LedgerIndex> future = new CompletableFuture<>();
+        try {
+            OpenCallback openCallback = (rc, lh, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    future.completeExceptionally(BKException.create(rc));
+                    return;
+                }
+                index.handle = lh;
+                index.recovered = recover;
+                readEntries(index, recover ? lh.getLastAddConfirmed() : lastEntryId).whenComplete((i, ex) -> {
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(i);
+                    }
+                });
+            };
+            if (recover) {
+                bookkeeper.asyncOpenLedger(index.ledgerId, DIGEST_TYPE, PASSWORD, openCallback, null);
+            } else {
+                bookkeeper.asyncOpenLedgerNoRecovery(index.ledgerId, DIGEST_TYPE, PASSWORD, openCallback, null);
+            }
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    private CompletableFuture<LedgerIndex> readEntries(LedgerIndex index, long lastEntryId) {
+        if (index.lastIndexedEntry >= lastEntryId) {
+            return CompletableFuture.completedFuture(index);
+        }
+
+        long firstEntry = index.lastIndexedEntry + 1;
+        long lastEntry = Math.min(lastEntryId, firstEntry + READ_BATCH_SIZE - 1);
+        CompletableFuture<LedgerIndex> future = new CompletableFuture<>();
+        ReadCallback readCallback = (rc, lh, seq, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            try {
+                while (seq.hasMoreElements()) {
+                    index.add(CursorJournalEntry.parseFrom(seq.nextElement().getEntry()));
+                }
+            } catch (InvalidProtocolBufferException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            index.lastIndexedEntry = lastEntry;
+
+            readEntries(index, lastEntryId).whenComplete((i, ex) -> {
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else {
+                    future.complete(i);
+                }
+            });
+        };
+
+        if (lastEntry > index.handle.getLastAddConfirmed()) {
+            // The last entries written by a cursor that was properly closed might not be confirmed yet
+            index.handle.asyncReadUnconfirmedEntries(firstEntry, lastEntry, readCallback, null);
+        } else {
+            index.handle.asyncReadEntries(firstEntry, lastEntry, readCallback, null);
+        }
+        return future;
+    }
+
+    private static int getBkErrorCode(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof BKException ? ((BKException) cause).getCode()
+                : BKException.Code.UnexpectedConditionException;
+    }
+}
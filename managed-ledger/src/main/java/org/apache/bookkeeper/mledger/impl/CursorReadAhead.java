@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-ahead buffer of a cursor.
+ *
+ * <p/>When a cursor keeps reading a ledger sequentially, the entries that follow its last read are prefetched in
+ * background, while the current batch is being dispatched, so that the next read can be served from a buffer private
+ * to the cursor instead of waiting for the bookies.
+ *
+ * <p/>The prefetch window starts with the size of the reads of the cursor. It is doubled every time the cursor asks for
+ * entries that were not prefetched yet, since it is consuming faster than the read-ahead, and it is halved when the
+ * prefetched entries are discarded without being read, when a prefetch fails or when the broker-wide read-ahead memory
+ * budget is exhausted.
+ */
+class CursorReadAhead {
+
+    // Number of consecutive sequential reads after which the cursor starts prefetching
+    static final int SEQUENTIAL_READS_THRESHOLD = 2;
+
+    private final ManagedCursorImpl cursor;
+    private final ManagedLedgerImpl ledger;
+    private final EntryCacheManager manager;
+
+    // All the fields below are protected by the CursorReadAhead monitor
+    private final ArrayDeque<Entry> buffer = new ArrayDeque<>();
+    private long bufferedSize = 0;
+
+    // Position the cursor is expected to read next, if it keeps reading sequentially
+    private long expectedLedgerId = -1;
+    private long expectedEntryId = -1;
+    private int sequentialReads = 0;
+
+    // First entry that is neither buffered nor being prefetched
+    private long nextPrefetchEntryId = -1;
+    private boolean prefetchInProgress = false;
+
+    // Estimated size of the prefetch in progress, reserved in the read-ahead memory budget until it completes
+    private long reservedSize = 0;
+
+    // Incremented every time the buffer is reset, to recognize the prefetches that are not needed anymore
+    private long generation = 0;
+
+    private int windowEntries = 0;
+    private long averageEntrySize = 0;
+    private boolean closed = false;
+
+    CursorReadAhead(ManagedCursorImpl cursor, ManagedLedgerImpl ledger) {
+        this.cursor = cursor;
+        this.ledger = ledger;
+        this.manager = ledger.factory.getEntryCacheManager();
+    }
+
+    /**
+     * Read a range of entries for the cursor, serving them from the read-ahead buffer when possible, and prefetch the
+     * entries that follow if the cursor is reading sequentially.
+     *
+     * @param lh
+     *            the ledger handle
+     * @param firstEntry
+     *            the first entry to read (inclusive)
+     * @param lastEntry
+     *            the last entry to read (inclusive)
+     * @param lastEntryInLedger
+     *            the last entry that is visible to the cursor in this ledger
+     * @param opReadEntry
+     *            the read operation of the cursor
+     */
+    void readEntries(ReadHandle lh, long firstEntry, long lastEntry, long lastEntryInLedger,
+            OpReadEntry opReadEntry) {
+        final long ledgerId = lh.getId();
+        final ManagedLedgerConfig config = ledger.getConfig();
+        List<Entry> entries = null;
+        long entriesSize = 0;
+        boolean budgetExhausted = false;
+        long prefetchFirstEntry = -1;
+        long prefetchLastEntry = -1;
+        long prefetchGeneration = -1;
+
+        synchronized (this) {
+            if (!closed) {
+                boolean sequential;
+                if (ledgerId == expectedLedgerId) {
+                    // The cursor can skip the entries that were already individually deleted
+                    sequential = firstEntry >= expectedEntryId
+                            && firstEntry <= Math.max(expectedEntryId, nextPrefetchEntryId);
+                } else {
+                    // The cursor moved on to the next ledger
+                    sequential = expectedLedgerId != -1 && ledgerId > expectedLedgerId && firstEntry == 0;
+                }
+
+                if (!sequential || ledgerId != expectedLedgerId) {
+                    reset();
+                }
+                sequentialReads = sequential ? sequentialReads + 1 : 0;
+                expectedLedgerId = ledgerId;
+
+                releaseEntriesBefore(firstEntry);
+                if (!buffer.isEmpty() && buffer.peekFirst().getEntryId() == firstEntry) {
+                    entries = new ArrayList<>();
+                    long nextEntryId = firstEntry;
+                    while (!buffer.isEmpty() && buffer.peekFirst().getEntryId() == nextEntryId
+                            && nextEntryId <= lastEntry) {
+                        Entry entry = buffer.pollFirst();
+                        entries.add(entry);
+                        entriesSize += entry.getLength();
+                        nextEntryId++;
+                    }
+                    bufferedSize -= entriesSize;
+                    manager.readAheadEntriesRemoved(entriesSize);
+                    expectedEntryId = nextEntryId;
+                } else {
+                    if (sequentialReads > SEQUENTIAL_READS_THRESHOLD) {
+                        // The cursor is consuming faster than the read-ahead
+                        windowEntries = Math.min(windowEntries * 2, config.getReadAheadMaxEntries());
+                    }
+                    expectedEntryId = lastEntry + 1;
+                }
+
+                if (sequentialReads >= SEQUENTIAL_READS_THRESHOLD && !prefetchInProgress) {
+                    if (windowEntries == 0) {
+                        windowEntries = (int) (lastEntry - firstEntry + 1);
+                    }
+                    windowEntries = Math.min(windowEntries, config.getReadAheadMaxEntries());
+
+                    long entrySize = estimatedEntrySize();
+                    long window = Math.max(1, Math.min(windowEntries, config.getReadAheadMaxSizeBytes() / entrySize));
+
+                    long firstToPrefetch = Math.max(nextPrefetchEntryId, expectedEntryId);
+                    long lastToPrefetch = Math.min(expectedEntryId + window - 1, lastEntryInLedger);
+
+                    // Wait for the cursor to consume half of what is already buffered before prefetching again
+                    if (firstToPrefetch <= lastToPrefetch && firstToPrefetch - expectedEntryId <= window / 2) {
+                        long reservation = (lastToPrefetch - firstToPrefetch + 1) * entrySize;
+                        if (manager.tryReserveReadAhead(reservation)) {
+                            prefetchInProgress = true;
+                            reservedSize = reservation;
+                            nextPrefetchEntryId = lastToPrefetch + 1;
+                            prefetchFirstEntry = firstToPrefetch;
+                            prefetchLastEntry = lastToPrefetch;
+                            prefetchGeneration = generation;
+                        } else {
+                            budgetExhausted = true;
+                            windowEntries = Math.max(1, windowEntries / 2);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (entries != null) {
+            ledger.mbean.recordReadAheadHits(entries.size(), entriesSize);
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] [{}] Read {} entries of ledger {} from the read-ahead buffer starting at {}",
+                        ledger.getName(), cursor.getName(), entries.size(), ledgerId, firstEntry);
+            }
+            opReadEntry.readEntriesComplete(entries, opReadEntry.ctx);
+        } else {
+            ledger.asyncReadEntry(lh, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
+        }
+
+        if (budgetExhausted) {
+            manager.mlFactoryMBean.recordReadAheadBudgetRejection();
+        }
+
+        if (prefetchGeneration != -1) {
+            prefetch(lh, prefetchFirstEntry, prefetchLastEntry, prefetchGeneration);
+        }
+    }
+
+    /**
+     * Release all the buffered entries. The read-ahead is not going to be used anymore.
+     */
+    synchronized void close() {
+        closed = true;
+        reset();
+    }
+
+    @VisibleForTesting
+    synchronized int getBufferedEntries() {
+        return buffer.size();
+    }
+
+    @VisibleForTesting
+    synchronized long getBufferedSize() {
+        return bufferedSize;
+    }
+
+    @VisibleForTesting
+    synchronized int getWindowEntries() {
+        return windowEntries;
+    }
+
+    private void prefetch(ReadHandle lh, long firstEntry, long lastEntry, long prefetchGeneration) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Prefetching entries {}-{} of ledger {}", ledger.getName(), cursor.getName(),
+                    firstEntry, lastEntry, lh.getId());
+        }
+
+        ledger.entryCache.asyncReadEntry(lh, firstEntry, lastEntry, false, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                prefetchCompleted(entries, prefetchGeneration);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                prefetchFailed(exception, lh.getId(), prefetchGeneration);
+            }
+        }, null);
+    }
+
+    private void prefetchCompleted(List<Entry> entries, long prefetchGeneration) {
+        int prefetchedEntries = 0;
+        long prefetchedSize = 0;
+
+        synchronized (this) {
+            if (prefetchGeneration == generation) {
+                prefetchInProgress = false;
+                releaseReservation();
+
+                for (Entry entry : entries) {
+                    // The cursor might have read some of the entries already, while the prefetch was in progress
+                    if (entry.getEntryId() < expectedEntryId) {
+                        entry.release();
+                    } else {
+                        buffer.addLast(entry);
+                        prefetchedEntries++;
+                        prefetchedSize += entry.getLength();
+                    }
+                }
+
+                bufferedSize += prefetchedSize;
+                manager.readAheadEntriesAdded(prefetchedSize);
+                if (prefetchedEntries > 0) {
+                    averageEntrySize = prefetchedSize / prefetchedEntries;
+                }
+            } else {
+                // The buffer was reset in the meantime
+                entries.forEach(Entry::release);
+            }
+        }
+
+        if (prefetchedEntries > 0) {
+            ledger.mbean.recordReadAheadPrefetch(prefetchedEntries, prefetchedSize);
+        }
+    }
+
+    private void prefetchFailed(ManagedLedgerException exception, long ledgerId, long prefetchGeneration) {
+        log.warn("[{}] [{}] Failed to prefetch entries of ledger {}: {}", ledger.getName(), cursor.getName(),
+                ledgerId, exception.getMessage());
+
+        synchronized (this) {
+            if (prefetchGeneration == generation) {
+                prefetchInProgress = false;
+                releaseReservation();
+                nextPrefetchEntryId = buffer.isEmpty() ? expectedEntryId : buffer.peekLast().getEntryId() + 1;
+                windowEntries = Math.max(1, windowEntries / 2);
+            }
+        }
+    }
+
+    /**
+     * Discard all the buffered entries and forget about the prefetches in progress. Must be called holding the
+     * monitor.
+     */
+    private void reset() {
+        if (releaseEntriesBefore(Long.MAX_VALUE) > 0) {
+            // The prefetched entries were wasted, be less aggressive
+            windowEntries = Math.max(1, windowEntries / 2);
+        }
+        generation++;
+        prefetchInProgress = false;
+        releaseReservation();
+        nextPrefetchEntryId = -1;
+    }
+
+    /**
+     * Give back the memory reserved for the prefetch in progress. Must be called holding the monitor.
+     */
+    private void releaseReservation() {
+        if (reservedSize > 0) {
+            manager.readAheadEntriesRemoved(reservedSize);
+            reservedSize = 0;
+        }
+    }
+
+    /**
+     * Estimate the size of the next entries to prefetch. Must be called holding the monitor.
+     *
+     * <p/>Before the first prefetch completes, the average size of the entries of the managed ledger is used.
+     */
+    private long estimatedEntrySize() {
+        if (averageEntrySize > 0) {
+            return averageEntrySize;
+        }
+        long numberOfEntries = ledger.getNumberOfEntries();
+        return numberOfEntries > 0 ? Math.max(1, ledger.getTotalSize() / numberOfEntries) : 1;
+    }
+
+    /**
+     * Release the buffered entries that precede an entry. Must be called holding the monitor.
+     *
+     * @return the number of entries released
+     */
+    private int releaseEntriesBefore(long entryId) {
+        int releasedEntries = 0;
+        long releasedSize = 0;
+        while (!buffer.isEmpty() && buffer.peekFirst().getEntryId() < entryId) {
+            Entry entry = buffer.pollFirst();
+            releasedEntries++;
+            releasedSize += entry.getLength();
+            entry.release();
+        }
+
+        if (releasedEntries > 0) {
+            bufferedSize -= releasedSize;
+            manager.readAheadEntriesRemoved(releasedSize);
+            ledger.mbean.recordReadAheadDiscarded(releasedEntries, releasedSize);
+        }
+        return releasedEntries;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CursorReadAhead.class);
+}
@@ -51,8 +51,9 @@ public interface EntryCache extends Comparable<EntryCache> {
      *
      * @param lastPosition
      *            the position of the last entry to be invalidated (non-inclusive)
+     * @return a pair containing the number of entries removed and their total size
      */
-    void invalidateEntries(PositionImpl lastPosition);
+    Pair<Integer, Long> invalidateEntries(PositionImpl lastPosition);
 
     void invalidateEntriesBeforeTimestamp(long timestamp);
 
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Eviction policy that keeps the entries that are still needed by the active cursors.
+ *
+ * <p/>The policy first drops, from every cache, the entries that are before the read position of the slowest active
+ * cursor of the managed ledger, since no active cursor is going to read them anymore. Caches of managed ledgers
+ * without active cursors are drained completely.
+ *
+ * <p/>If that is not enough to free the requested space, the remaining entries are evicted starting from the caches
+ * that are needed by the smallest number of active cursors, and the biggest one among those.
+ */
+public class EntryCacheActiveCursorsEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    private ManagedLedgerFactoryImpl factory;
+
+    @Override
+    public void initialize(ManagedLedgerFactoryImpl factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Pair<Integer, Long> doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        int evictedEntries = 0;
+        long evictedSize = 0;
+        List<Candidate> candidates = new ArrayList<>(caches.size());
+
+        for (EntryCache cache : caches) {
+            ManagedLedgerImpl ml = getManagedLedger(cache.getName());
+            int activeCursors = 0;
+            if (ml != null) {
+                PositionImpl slowestReaderPosition = ml.getEarlierReadPositionForActiveCursors();
+                Pair<Integer, Long> evicted = cache.invalidateEntries(
+                        slowestReaderPosition != null ? slowestReaderPosition : PositionImpl.latest);
+                evictedEntries += evicted.getLeft();
+                evictedSize += evicted.getRight();
+                activeCursors = Iterables.size(ml.getActiveCursors());
+            }
+
+            long size = cache.getSize();
+            if (size > 0) {
+                candidates.add(new Candidate(cache, activeCursors, size));
+            }
+        }
+
+        log.info("Removed {} entries not needed by active cursors. ({} Mb)", evictedEntries,
+                evictedSize / EntryCacheManager.MB);
+
+        // All the entries left are needed by some active cursor, evict the ones that are needed by fewer cursors
+        candidates.sort(Comparator.comparingInt((Candidate c) -> c.activeCursors)
+                .thenComparing(Comparator.comparingLong((Candidate c) -> c.size).reversed()));
+
+        for (Candidate candidate : candidates) {
+            if (evictedSize >= sizeToFree) {
+                break;
+            }
+
+            Pair<Integer, Long> evicted = candidate.cache.evictEntries(Math.min(sizeToFree - evictedSize,
+                    candidate.size));
+            evictedEntries += evicted.getLeft();
+            evictedSize += evicted.getRight();
+
+            log.debug("Evicted {} entries from cache {} needed by {} active cursors", evicted.getLeft(),
+                    candidate.cache.getName(), candidate.activeCursors);
+        }
+
+        log.info("Completed cache eviction. Removed {} entries. ({} Mb)", evictedEntries,
+                evictedSize / EntryCacheManager.MB);
+        return Pair.of(evictedEntries, evictedSize);
+    }
+
+    private ManagedLedgerImpl getManagedLedger(String name) {
+        CompletableFuture<ManagedLedgerImpl> future = factory.ledgers.get(name);
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.getNow(null);
+    }
+
+    private static final class Candidate {
+        final EntryCache cache;
+        final int activeCursors;
+        final long size;
+
+        Candidate(EntryCache cache, int activeCursors, long size) {
+            this.cache = cache;
+            this.activeCursors = activeCursors;
+            this.size = size;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheActiveCursorsEvictionPolicy.class);
+}
@@ -40,7 +40,7 @@ public class EntryCacheDefaultEvictionPolicy implements EntryCacheEvictionPolicy
     private final static double PercentOfSizeToConsiderForEviction = 0.5;
 
     @Override
-    public void doEviction(List<EntryCache> caches, long sizeToFree) {
+    public Pair<Integer, Long> doEviction(List<EntryCache> caches, long sizeToFree) {
         checkArgument(sizeToFree > 0);
         checkArgument(!caches.isEmpty());
 
@@ -91,6 +91,7 @@ public class EntryCacheDefaultEvictionPolicy implements EntryCacheEvictionPolicy
 
         log.info("Completed cache eviction. Removed {} entries from {} caches. ({} Mb)", evictedEntries,
                 cachesToEvict.size(), evictedSize / EntryCacheManager.MB);
+        return Pair.of(evictedEntries, evictedSize);
     }
 
     private static final Logger log = LoggerFactory.getLogger(EntryCacheDefaultEvictionPolicy.class);
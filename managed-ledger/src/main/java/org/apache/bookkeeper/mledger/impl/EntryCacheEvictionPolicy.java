@@ -19,12 +19,26 @@
 package org.apache.bookkeeper.mledger.impl;
 
 import java.util.List;
+import org.apache.commons.lang3.tuple.Pair;
 
 /**
  * Cache eviction policy abstraction interface.
  *
+ * <p/>The policy used by the {@link EntryCacheManager} is configured through
+ * {@link org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig#getEntryCacheEvictionPolicyClassName()}, and it needs
+ * to have a public no-arg constructor.
  */
 public interface EntryCacheEvictionPolicy {
+
+    /**
+     * Initialize the policy. This is called once, before any other method.
+     *
+     * @param factory
+     *            the managed ledger factory that owns the cache
+     */
+    default void initialize(ManagedLedgerFactoryImpl factory) {
+    }
+
     /**
      * Perform the cache eviction of at least sizeToFree bytes on the supplied list of caches.
      *
@@ -32,6 +46,33 @@ public interface EntryCacheEvictionPolicy {
      *            the list of caches to consider
      * @param sizeToFree
      *            the minimum size in bytes to be freed
+     * @return a pair containing the number of entries evicted and their total size
+     */
+    Pair<Integer, Long> doEviction(List<EntryCache> caches, long sizeToFree);
+
+    /**
+     * Decide whether a new entry should be inserted in a cache.
+     *
+     * @param cache
+     *            the cache where the entry is going to be inserted
+     * @param entry
+     *            the entry to be inserted
+     * @return true if the entry can be inserted in the cache
+     */
+    default boolean admit(EntryCache cache, EntryImpl entry) {
+        return true;
+    }
+
+    /**
+     * Record a read done on a cache.
+     *
+     * @param cache
+     *            the cache that was read
+     * @param entries
+     *            the number of entries read
+     * @param hit
+     *            whether the entries were found in cache
      */
-    void doEviction(List<EntryCache> caches, long sizeToFree);
+    default void recordAccess(EntryCache cache, int entries, boolean hit) {
+    }
 }
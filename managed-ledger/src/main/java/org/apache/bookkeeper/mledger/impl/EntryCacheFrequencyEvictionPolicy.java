@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frequency aware eviction policy, modeled after W-TinyLFU.
+ *
+ * <p/>The frequency of the reads served by each cache is estimated with a count-min sketch that is periodically aged,
+ * so that only the recent history is considered. When doing eviction, the least frequently read caches are drained
+ * first.
+ *
+ * <p/>Only the cache hits are counted. The misses are the reads of a cursor that is behind the cached tail, such as a
+ * catch-up replay of the backlog, and counting them would make the cache of the replayed ledger look hot. Its entries
+ * would then be admitted, and the caches of the tailing readers drained first, so a single replay could flush the hot
+ * tail of every other ledger.
+ *
+ * <p/>New entries are always admitted into a cache while it stays within its admission window. Above that, entries
+ * are admitted only if the cache is read at least as frequently as the last cache that was chosen as eviction
+ * victim. This prevents a cache that is written but seldom read from pushing out the entries of hot caches.
+ */
+public class EntryCacheFrequencyEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    // Percentage of the total cache size that every single cache can always fill, regardless of its frequency
+    private static final double WINDOW_PERCENT = 0.01;
+
+    private static final int SKETCH_SIZE = 4096;
+
+    private final FrequencySketch sketch = new FrequencySketch(SKETCH_SIZE);
+    private long windowSize = 0;
+
+    // Frequency of the hottest cache from which entries were evicted in the last eviction cycle
+    private volatile int victimFrequency = 0;
+
+    @Override
+    public void initialize(ManagedLedgerFactoryImpl factory) {
+        this.windowSize = (long) (factory.getConfig().getMaxCacheSize() * WINDOW_PERCENT);
+    }
+
+    @Override
+    public boolean admit(EntryCache cache, EntryImpl entry) {
+        if (cache.getSize() + entry.getLength() <= windowSize) {
+            return true;
+        }
+
+        return sketch.frequency(cache.getName().hashCode()) >= victimFrequency;
+    }
+
+    @Override
+    public void recordAccess(EntryCache cache, int entries, boolean hit) {
+        if (!hit) {
+            // The backlog reads don't make the cache hot
+            return;
+        }
+        if (sketch.increment(cache.getName().hashCode())) {
+            // The sketch was aged, the victim frequency needs to follow
+            victimFrequency = victimFrequency >>> 1;
+        }
+    }
+
+    @Override
+    public Pair<Integer, Long> doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        // Take a snapshot of the frequencies and sizes, since they can change while we're sorting
+        List<Candidate> candidates = new ArrayList<>(caches.size());
+        for (EntryCache cache : caches) {
+            long size = cache.getSize();
+            if (size > 0) {
+                candidates.add(new Candidate(cache, sketch.frequency(cache.getName().hashCode()), size));
+            }
+        }
+
+        // Least frequently read first, and the biggest one among the caches with the same frequency
+        candidates.sort(Comparator.comparingInt((Candidate c) -> c.frequency)
+                .thenComparing(Comparator.comparingLong((Candidate c) -> c.size).reversed()));
+
+        int evictedEntries = 0;
+        long evictedSize = 0;
+        int lastVictimFrequency = 0;
+
+        for (Candidate candidate : candidates) {
+            if (evictedSize >= sizeToFree) {
+                break;
+            }
+
+            long singleCacheSizeToFree = Math.min(sizeToFree - evictedSize, candidate.size);
+            Pair<Integer, Long> evicted = candidate.cache.evictEntries(singleCacheSizeToFree);
+            evictedEntries += evicted.getLeft();
+            evictedSize += evicted.getRight();
+            lastVictimFrequency = candidate.frequency;
+
+            log.debug("Evicted {} entries from cache {} with frequency {}", evicted.getLeft(),
+                    candidate.cache.getName(), candidate.frequency);
+        }
+
+        victimFrequency = lastVictimFrequency;
+
+        log.info("Completed cache eviction. Removed {} entries. ({} Mb) -- Victim frequency: {}", evictedEntries,
+                evictedSize / EntryCacheManager.MB, lastVictimFrequency);
+        return Pair.of(evictedEntries, evictedSize);
+    }
+
+    @VisibleForTesting
+    int getVictimFrequency() {
+        return victimFrequency;
+    }
+
+    @VisibleForTesting
+    int frequency(EntryCache cache) {
+        return sketch.frequency(cache.getName().hashCode());
+    }
+
+    private static final class Candidate {
+        final EntryCache cache;
+        final int frequency;
+        final long size;
+
+        Candidate(EntryCache cache, int frequency, long size) {
+            this.cache = cache;
+            this.frequency = frequency;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 bits counters, 16 counters packed in each long.
+     *
+     * <p/>After a number of increments proportional to its size, all the counters are halved, so that the old accesses
+     * fade away.
+     *
+     * <p/>The sketch is updated on the read path of every managed ledger, so it doesn't use any lock: each counter word
+     * is updated with a CAS and the aging is done by the thread whose increment reaches the sample size. Increments
+     * racing with the aging may be halved or not, which doesn't matter for a frequency estimation.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNT = 15;
+
+        private final AtomicLongArray table;
+        private final int tableMask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int size) {
+            int tableSize = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+            this.table = new AtomicLongArray(tableSize);
+            this.tableMask = tableSize - 1;
+            this.sampleSize = 10 * tableSize;
+        }
+
+        int frequency(int key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table.get(index) >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        /**
+         * @return true if the counters were aged as a consequence of this increment
+         */
+        boolean increment(int key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), (start + i) << 2);
+            }
+
+            // Only one thread can see the counter reaching the sample size
+            if (added && additions.incrementAndGet() == sampleSize) {
+                for (int i = 0; i < table.length(); i++) {
+                    long value;
+                    do {
+                        value = table.get(i);
+                    } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+                }
+                additions.addAndGet(-(sampleSize - (sampleSize >>> 1)));
+                return true;
+            }
+            return false;
+        }
+
+        private boolean incrementAt(int index, int offset) {
+            long mask = 0xfL << offset;
+            while (true) {
+                long value = table.get(index);
+                if ((value & mask) == mask) {
+                    return false;
+                }
+                if (table.compareAndSet(index, value, value + (1L << offset))) {
+                    return true;
+                }
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheFrequencyEvictionPolicy.class);
+}
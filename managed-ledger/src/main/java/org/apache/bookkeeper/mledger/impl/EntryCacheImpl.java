@@ -19,7 +19,6 @@
 package org.apache.bookkeeper.mledger.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
 
 import com.google.common.collect.Lists;
@@ -31,8 +30,8 @@ import io.netty.buffer.PooledByteBufAllocator;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.bookkeeper.client.api.BKException;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
@@ -52,6 +51,9 @@ public class EntryCacheImpl implements EntryCache {
     private final ManagedLedgerImpl ml;
     private final RangeCache<PositionImpl, EntryImpl> entries;
     private final boolean copyEntries;
+    private final PendingReadsManager pendingReadsManager;
+    // Estimated size of the decoded views of the data of the cached entries
+    private final AtomicLong decodedDataSize = new AtomicLong();
 
     private static final double MB = 1024 * 1024;
 
@@ -60,6 +62,7 @@ public class EntryCacheImpl implements EntryCache {
         this.ml = ml;
         this.entries = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
         this.copyEntries = copyEntries;
+        this.pendingReadsManager = new PendingReadsManager(this, manager, ml);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Initialized managed-ledger entry cache", ml.getName());
@@ -92,6 +95,14 @@ public class EntryCacheImpl implements EntryCache {
             return false;
         }
 
+        if (!manager.admit(this, entry)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Entry not admitted in cache by the eviction policy: {} - size: {}", ml.getName(),
+                        entry.getPosition(), entry.getLength());
+            }
+            return false;
+        }
+
         if (log.isDebugEnabled()) {
             log.debug("[{}] Adding entry to cache: {} - size: {}", ml.getName(), entry.getPosition(),
                     entry.getLength());
@@ -111,6 +122,7 @@ public class EntryCacheImpl implements EntryCache {
         PositionImpl position = entry.getPosition();
         EntryImpl cacheEntry = EntryImpl.create(position, cachedData);
         cachedData.release();
+        cacheEntry.shareDecodedData(this::decodedDataSizeChanged);
         if (entries.put(position, cacheEntry)) {
             manager.entryAdded(entry.getLength());
             return true;
@@ -145,13 +157,13 @@ public class EntryCacheImpl implements EntryCache {
     }
 
     @Override
-    public void invalidateEntries(final PositionImpl lastPosition) {
+    public Pair<Integer, Long> invalidateEntries(final PositionImpl lastPosition) {
         final PositionImpl firstPosition = PositionImpl.get(-1, 0);
 
         if (firstPosition.compareTo(lastPosition) > 0) {
             log.debug("Attempted to invalidate entries in an invalid range : {} ~ {}",
                 firstPosition, lastPosition);
-            return;
+            return Pair.of(0, 0L);
         }
 
         Pair<Integer, Long> removed = entries.removeRange(firstPosition, lastPosition, false);
@@ -163,6 +175,7 @@ public class EntryCacheImpl implements EntryCache {
         }
 
         manager.entriesRemoved(sizeRemoved);
+        return removed;
     }
 
     @Override
@@ -205,7 +218,7 @@ public class EntryCacheImpl implements EntryCache {
         if (entry != null) {
             EntryImpl cachedEntry = EntryImpl.create(entry);
             entry.release();
-            manager.mlFactoryMBean.recordCacheHit(cachedEntry.getLength());
+            manager.recordCacheHits(this, 1, cachedEntry.getLength());
             callback.readEntryComplete(cachedEntry, ctx);
         } else {
             lh.readAsync(position.getEntryId(), position.getEntryId()).whenCompleteAsync(
@@ -222,7 +235,7 @@ public class EntryCacheImpl implements EntryCache {
                                 LedgerEntry ledgerEntry = iterator.next();
                                 EntryImpl returnEntry = EntryImpl.create(ledgerEntry);
 
-                                manager.mlFactoryMBean.recordCacheMiss(1, returnEntry.getLength());
+                                manager.recordCacheMiss(this, 1, returnEntry.getLength());
                                 ml.mbean.addReadEntriesSample(1, returnEntry.getLength());
                                 callback.readEntryComplete(returnEntry, ctx);
                             } else {
@@ -282,7 +295,7 @@ public class EntryCacheImpl implements EntryCache {
                 entry.release();
             }
 
-            manager.mlFactoryMBean.recordCacheHits(entriesToReturn.size(), totalCachedSize);
+            manager.recordCacheHits(this, entriesToReturn.size(), totalCachedSize);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
                         lastEntry);
@@ -295,54 +308,8 @@ public class EntryCacheImpl implements EntryCache {
                 cachedEntries.forEach(entry -> entry.release());
             }
 
-            // Read all the entries from bookkeeper
-            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
-                    (ledgerEntries, exception) -> {
-                        if (exception != null) {
-                            if (exception instanceof BKException
-                                && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                            } else {
-                                ml.invalidateLedgerHandle(lh, exception);
-                                ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                callback.readEntriesFailed(mlException, ctx);
-                            }
-                            return;
-                        }
-
-                        checkNotNull(ml.getName());
-                        checkNotNull(ml.getExecutor());
-
-                        try {
-                            // We got the entries, we need to transform them to a List<> type
-                            long totalSize = 0;
-                            final List<EntryImpl> entriesToReturn
-                                = Lists.newArrayListWithExpectedSize(entriesToRead);
-                            for (LedgerEntry e : ledgerEntries) {
-                                EntryImpl entry = EntryImpl.create(e);
-
-                                entriesToReturn.add(entry);
-                                totalSize += entry.getLength();
-                            }
-
-                            manager.mlFactoryMBean.recordCacheMiss(entriesToReturn.size(), totalSize);
-                            ml.getMBean().addReadEntriesSample(entriesToReturn.size(), totalSize);
-
-                            callback.readEntriesComplete((List) entriesToReturn, ctx);
-                        } finally {
-                            ledgerEntries.close();
-                        }
-                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception->{
-                    	  if (exception instanceof BKException
-                                  && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                  callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                              } else {
-                                  ml.invalidateLedgerHandle(lh, exception);
-                                  ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                  callback.readEntriesFailed(mlException, ctx);
-                              }
-                    	return null;
-                    });
+            // Read all the entries from bookkeeper, sharing the reads already in progress
+            pendingReadsManager.readEntries(lh, firstEntry, lastEntry, callback, ctx);
         }
     }
 
@@ -354,7 +321,16 @@ public class EntryCacheImpl implements EntryCache {
 
     @Override
     public long getSize() {
-        return entries.getSize();
+        return entries.getSize() + decodedDataSize.get();
+    }
+
+    private void decodedDataSizeChanged(long delta) {
+        decodedDataSize.addAndGet(delta);
+        if (delta > 0) {
+            manager.entryAdded(delta);
+        } else {
+            manager.entriesRemoved(-delta);
+        }
     }
 
     @Override
@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
@@ -38,6 +39,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.common.util.Reflections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,9 +50,17 @@ public class EntryCacheManager {
     private final long evictionTriggerThreshold;
     private final double cacheEvictionWatermak;
     private final AtomicLong currentSize = new AtomicLong(0);
+    private final long readAheadMaxSize;
+    private final AtomicLong readAheadSize = new AtomicLong(0);
     private final ConcurrentMap<String, EntryCache> caches = Maps.newConcurrentMap();
     private final EntryCacheEvictionPolicy evictionPolicy;
 
+    // Counters of the reads, evictions and admission rejections done while the eviction policy was in use
+    private final LongAdder policyHits = new LongAdder();
+    private final LongAdder policyMisses = new LongAdder();
+    private final LongAdder policyEvictedEntries = new LongAdder();
+    private final LongAdder policyAdmissionRejections = new LongAdder();
+
     private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
 
     private final ManagedLedgerFactoryImpl mlFactory;
@@ -65,11 +75,15 @@ public class EntryCacheManager {
         this.maxSize = factory.getConfig().getMaxCacheSize();
         this.evictionTriggerThreshold = (long) (maxSize * evictionTriggerThresholdPercent);
         this.cacheEvictionWatermak = factory.getConfig().getCacheEvictionWatermark();
-        this.evictionPolicy = new EntryCacheDefaultEvictionPolicy();
+        this.readAheadMaxSize = factory.getConfig().getReadAheadMaxMemorySize();
+        this.evictionPolicy = Reflections.createInstance(factory.getConfig().getEntryCacheEvictionPolicyClassName(),
+                EntryCacheEvictionPolicy.class, EntryCacheManager.class.getClassLoader());
         this.mlFactory = factory;
         this.mlFactoryMBean = factory.mbean;
+        this.evictionPolicy.initialize(factory);
 
-        log.info("Initialized managed-ledger entry cache of {} Mb", maxSize / MB);
+        log.info("Initialized managed-ledger entry cache of {} Mb with eviction policy {}", maxSize / MB,
+                evictionPolicy.getClass().getName());
     }
 
     public EntryCache getEntryCache(ManagedLedgerImpl ml) {
@@ -78,7 +92,12 @@ public class EntryCacheManager {
             return new EntryCacheDisabled(ml);
         }
 
-        EntryCache newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+        EntryCache newEntryCache;
+        if (mlFactory.getConfig().isSegmentedEntryCacheEnabled()) {
+            newEntryCache = new SegmentedEntryCacheImpl(this, ml, mlFactory.getConfig().getEntryCacheSegmentSize());
+        } else {
+            newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+        }
         EntryCache currentEntryCache = caches.putIfAbsent(ml.getName(), newEntryCache);
         if (currentEntryCache != null) {
             return currentEntryCache;
@@ -115,7 +134,10 @@ public class EntryCacheManager {
                         sizeToEvict / MB);
 
                 try {
-                    evictionPolicy.doEviction(Lists.newArrayList(caches.values()), sizeToEvict);
+                    Pair<Integer, Long> evicted = evictionPolicy.doEviction(Lists.newArrayList(caches.values()),
+                            sizeToEvict);
+                    mlFactoryMBean.recordCacheEvictedEntries(evicted.getLeft(), evicted.getRight());
+                    policyEvictedEntries.add(evicted.getLeft());
 
                     long endTime = System.nanoTime();
                     double durationMs = TimeUnit.NANOSECONDS.toMicros(endTime - startTime) / 1000.0;
@@ -132,6 +154,48 @@ public class EntryCacheManager {
         return currentSize < maxSize;
     }
 
+    boolean admit(EntryCache cache, EntryImpl entry) {
+        if (evictionPolicy.admit(cache, entry)) {
+            return true;
+        }
+
+        mlFactoryMBean.recordCacheAdmissionRejection(entry.getLength());
+        policyAdmissionRejections.increment();
+        return false;
+    }
+
+    void recordCacheHits(EntryCache cache, int count, long totalSize) {
+        mlFactoryMBean.recordCacheHits(count, totalSize);
+        policyHits.add(count);
+        evictionPolicy.recordAccess(cache, count, true);
+    }
+
+    void recordCacheMiss(EntryCache cache, int count, long totalSize) {
+        mlFactoryMBean.recordCacheMiss(count, totalSize);
+        policyMisses.add(count);
+        evictionPolicy.recordAccess(cache, count, false);
+    }
+
+    EntryCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    long getPolicyHits() {
+        return policyHits.sum();
+    }
+
+    long getPolicyMisses() {
+        return policyMisses.sum();
+    }
+
+    long getPolicyEvictedEntries() {
+        return policyEvictedEntries.sum();
+    }
+
+    long getPolicyAdmissionRejections() {
+        return policyAdmissionRejections.sum();
+    }
+
     void entryAdded(long size) {
         currentSize.addAndGet(size);
     }
@@ -148,6 +212,45 @@ public class EntryCacheManager {
         return maxSize;
     }
 
+    /**
+     * Reserve memory in the read-ahead budget for entries that are going to be prefetched.
+     *
+     * @param size
+     *            the estimated size of the entries to prefetch
+     * @return true if the memory was reserved and the entries can be prefetched
+     */
+    boolean tryReserveReadAhead(long size) {
+        // Don't compete for the memory with the cache while it is being evicted
+        if (evictionInProgress.get()) {
+            return false;
+        }
+
+        long current;
+        do {
+            current = readAheadSize.get();
+            if (current + size > readAheadMaxSize) {
+                return false;
+            }
+        } while (!readAheadSize.compareAndSet(current, current + size));
+        return true;
+    }
+
+    void readAheadEntriesAdded(long size) {
+        readAheadSize.addAndGet(size);
+    }
+
+    void readAheadEntriesRemoved(long size) {
+        readAheadSize.addAndGet(-size);
+    }
+
+    public long getReadAheadSize() {
+        return readAheadSize.get();
+    }
+
+    public long getReadAheadMaxSize() {
+        return readAheadMaxSize;
+    }
+
     public void clear() {
         caches.values().forEach(EntryCache::clear);
     }
@@ -170,7 +273,8 @@ public class EntryCacheManager {
         }
 
         @Override
-        public void invalidateEntries(PositionImpl lastPosition) {
+        public Pair<Integer, Long> invalidateEntries(PositionImpl lastPosition) {
+            return Pair.of(0, (long) 0);
         }
 
         @Override
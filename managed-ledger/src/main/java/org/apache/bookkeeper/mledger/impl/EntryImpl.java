@@ -26,6 +26,9 @@ import io.netty.buffer.Unpooled;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCounted;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
 
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.mledger.Entry;
@@ -45,6 +48,41 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
     private long ledgerId;
     private long entryId;
     ByteBuf data;
+    private DecodedData decodedData;
+    // Whether this entry is the one held by the cache, which accounts for the decoded view
+    private boolean decodedDataOwner;
+
+    /**
+     * View of the data of an entry, decoded once and shared by the copies of the entry.
+     */
+    private static final class DecodedData {
+        private volatile Object value;
+
+        // Records the changes of the estimated size of the view in the cache that holds the entry, until the entry is
+        // removed from the cache. Guarded by the monitor.
+        private LongConsumer accounting;
+        private long accountedSize;
+
+        DecodedData(LongConsumer accounting) {
+            this.accounting = accounting;
+        }
+
+        synchronized void set(Object value, long size) {
+            this.value = value;
+            if (accounting != null) {
+                accounting.accept(size - accountedSize);
+                accountedSize = size;
+            }
+        }
+
+        synchronized void detach() {
+            if (accounting != null) {
+                accounting.accept(-accountedSize);
+                accounting = null;
+                accountedSize = 0;
+            }
+        }
+    }
 
     public static EntryImpl create(LedgerEntry ledgerEntry) {
         EntryImpl entry = RECYCLER.get();
@@ -96,6 +134,7 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         entry.ledgerId = other.ledgerId;
         entry.entryId = other.entryId;
         entry.data = other.data.retainedDuplicate();
+        entry.decodedData = other.decodedData;
         entry.setRefCnt(1);
         return entry;
     }
@@ -128,6 +167,77 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         return array;
     }
 
+    /**
+     * Share the decoded view of the data of this entry with the copies that will be made of it.
+     */
+    void shareDecodedData() {
+        if (decodedData == null) {
+            decodedData = new DecodedData(null);
+        }
+    }
+
+    /**
+     * Share the decoded view of the data of this entry, which is held by a cache, with the copies that will be made
+     * of it. The estimated size of the view is accounted by the cache until this entry is released.
+     *
+     * @param accounting
+     *            receives the changes of the estimated size of the view
+     */
+    void shareDecodedData(LongConsumer accounting) {
+        decodedData = new DecodedData(accounting);
+        decodedDataOwner = true;
+    }
+
+    /**
+     * @return true if the decoded view of the data of this entry is shared with other copies of the entry
+     */
+    public boolean isDecodedDataShared() {
+        return decodedData != null;
+    }
+
+    /**
+     * Get a view of the data of the entry, decoded by the given decoder. If the entry is a copy of an entry held by
+     * the cache, the view is decoded once and then shared by all the copies, so it must be immutable and must not
+     * refer to the data buffer.
+     *
+     * @param type
+     *            the type of the view
+     * @param decoder
+     *            the decoder of the data, which must not modify the reader index of the buffer
+     * @param sizeEstimator
+     *            estimates the heap size of the view, which is accounted in the size of the cache
+     */
+    public <T> T getDecodedData(Class<T> type, Function<ByteBuf, T> decoder, ToLongFunction<T> sizeEstimator) {
+        DecodedData shared = decodedData;
+        if (shared == null) {
+            return decoder.apply(data);
+        }
+        Object value = shared.value;
+        if (type.isInstance(value)) {
+            return type.cast(value);
+        }
+        T decoded = decoder.apply(data);
+        shared.set(decoded, sizeEstimator.applyAsLong(decoded));
+        return decoded;
+    }
+
+    /**
+     * Replace the decoded view of the data of the entry, for instance with a view that decoded more of the data. The
+     * view is shared by all the copies of the entry held by the cache, so it must be immutable and must not refer to
+     * the data buffer. Nothing is kept if the view of this entry isn't shared.
+     *
+     * @param value
+     *            the new view
+     * @param size
+     *            the estimated heap size of the view, which is accounted in the size of the cache
+     */
+    public void setDecodedData(Object value, long size) {
+        DecodedData shared = decodedData;
+        if (shared != null) {
+            shared.set(value, size);
+        }
+    }
+
     @Override
     public int getLength() {
         return data.readableBytes();
@@ -163,6 +273,12 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         // This method is called whenever the ref-count of the EntryImpl reaches 0, so that now we can recycle it
         data.release();
         data = null;
+        if (decodedDataOwner) {
+            // The entry left the cache, the copies still in use keep the view without accounting for it
+            decodedData.detach();
+            decodedDataOwner = false;
+        }
+        decodedData = null;
         timestamp = -1;
         ledgerId = -1;
         entryId = -1;
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LedgerDeletedEntries;
+
+/**
+ * Compact encoding of the entries of a ledger that were individually deleted by a cursor.
+ *
+ * <p/>The deleted entries are encoded either as a sequence of runs, which is the best fit for few long ranges, or as a
+ * bitmap covering the span of the deleted entries, which is the best fit for many scattered ack holes. The smaller of
+ * the two is picked for each ledger.
+ */
+final class LedgerDeletedEntriesCodec {
+
+    private LedgerDeletedEntriesCodec() {
+    }
+
+    /**
+     * Receives the runs of deleted entries of a ledger.
+     */
+    interface RunConsumer {
+        void accept(long firstEntry, long lastEntry);
+    }
+
+    /**
+     * Accumulates the runs of deleted entries of a ledger, which must be added in increasing order.
+     */
+    static final class Builder {
+        private final long ledgerId;
+        // Pairs of (first entry, last entry) of each run, both inclusive
+        private long[] runs = new long[8];
+        private int size = 0;
+
+        Builder(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        long getLedgerId() {
+            return ledgerId;
+        }
+
+        void addRun(long firstEntry, long lastEntry) {
+            checkArgument(firstEntry >= 0 && firstEntry <= lastEntry);
+            if (size > 0) {
+                checkArgument(firstEntry > runs[size - 1], "Runs must be added in increasing order");
+                if (firstEntry == runs[size - 1] + 1) {
+                    runs[size - 1] = lastEntry;
+                    return;
+                }
+            }
+
+            if (size == runs.length) {
+                runs = Arrays.copyOf(runs, size * 2);
+            }
+            runs[size++] = firstEntry;
+            runs[size++] = lastEntry;
+        }
+
+        LedgerDeletedEntries build() {
+            LedgerDeletedEntries.Builder builder = LedgerDeletedEntries.newBuilder().setLedgerId(ledgerId);
+            if (size == 0) {
+                return builder.build();
+            }
+
+            int runsSize = 0;
+            long previousLastEntry = -1;
+            for (int i = 0; i < size; i += 2) {
+                runsSize += CodedOutputStream.computeUInt64SizeNoTag(runs[i] - previousLastEntry - 1);
+                runsSize += CodedOutputStream.computeUInt64SizeNoTag(runs[i + 1] - runs[i]);
+                previousLastEntry = runs[i + 1];
+            }
+
+            long bitmapOffset = runs[0];
+            long bitmapSize = (runs[size - 1] - bitmapOffset) / 8 + 1;
+
+            if (runsSize <= bitmapSize) {
+                byte[] encoded = new byte[runsSize];
+                CodedOutputStream out = CodedOutputStream.newInstance(encoded);
+                previousLastEntry = -1;
+                try {
+                    for (int i = 0; i < size; i += 2) {
+                        out.writeUInt64NoTag(runs[i] - previousLastEntry - 1);
+                        out.writeUInt64NoTag(runs[i + 1] - runs[i]);
+                        previousLastEntry = runs[i + 1];
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    // The buffer was sized with the exact serialized size
+                    throw new IllegalStateException(e);
+                }
+                builder.setRuns(ByteString.copyFrom(encoded));
+            } else {
+                byte[] bitmap = new byte[(int) bitmapSize];
+                for (int i = 0; i < size; i += 2) {
+                    for (long entryId = runs[i]; entryId <= runs[i + 1]; entryId++) {
+                        long bit = entryId - bitmapOffset;
+                        bitmap[(int) (bit >>> 3)] |= 1 << (bit & 7);
+                    }
+                }
+                builder.setBitmapOffset(bitmapOffset).setBitmap(ByteString.copyFrom(bitmap));
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Decode the deleted entries of a ledger.
+     *
+     * @param deletedEntries
+     *            the encoded deleted entries
+     * @param consumer
+     *            receives the runs of deleted entries, in increasing order
+     * @throws IOException
+     *             if the encoded runs are corrupted
+     */
+    static void forEachRun(LedgerDeletedEntries deletedEntries, RunConsumer consumer) throws IOException {
+        if (deletedEntries.hasRuns()) {
+            CodedInputStream in = deletedEntries.getRuns().newCodedInput();
+            long previousLastEntry = -1;
+            while (!in.isAtEnd()) {
+                long firstEntry = previousLastEntry + 1 + in.readUInt64();
+                long lastEntry = firstEntry + in.readUInt64();
+                consumer.accept(firstEntry, lastEntry);
+                previousLastEntry = lastEntry;
+            }
+        } else if (deletedEntries.hasBitmap()) {
+            ByteString bitmap = deletedEntries.getBitmap();
+            long bitmapOffset = deletedEntries.getBitmapOffset();
+            long runStart = -1;
+            for (int i = 0; i < bitmap.size(); i++) {
+                int b = bitmap.byteAt(i) & 0xFF;
+                if ((b == 0 && runStart == -1) || (b == 0xFF && runStart != -1)) {
+                    // Fast path, no run starts or ends in this byte
+                    continue;
+                }
+
+                for (int bit = 0; bit < 8; bit++) {
+                    boolean deleted = (b & (1 << bit)) != 0;
+                    long entryId = bitmapOffset + i * 8L + bit;
+                    if (deleted && runStart == -1) {
+                        runStart = entryId;
+                    } else if (!deleted && runStart != -1) {
+                        consumer.accept(runStart, entryId - 1);
+                        runStart = -1;
+                    }
+                }
+            }
+
+            if (runStart != -1) {
+                consumer.accept(runStart, bitmapOffset + bitmap.size() * 8L - 1);
+            }
+        }
+    }
+}
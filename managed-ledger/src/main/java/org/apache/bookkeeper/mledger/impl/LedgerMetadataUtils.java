@@ -42,12 +42,17 @@ public final class LedgerMetadataUtils {
             = "compacted-ledger".getBytes(StandardCharsets.UTF_8);
     private static final byte[] METADATA_PROPERTY_COMPONENT_SCHEMA
             = "schema".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_PROPERTY_COMPONENT_DELAYED_DELIVERY_SNAPSHOT
+            = "delayed-delivery-snapshot".getBytes(StandardCharsets.UTF_8);
 
     private static final String METADATA_PROPERTY_MANAGED_LEDGER_NAME = "pulsar/managed-ledger";
     private static final String METADATA_PROPERTY_CURSOR_NAME = "pulsar/cursor";
+    private static final String METADATA_PROPERTY_CURSOR_JOURNAL_NAME = "pulsar/cursor-journal";
     private static final String METADATA_PROPERTY_COMPACTEDTOPIC = "pulsar/compactedTopic";
     private static final String METADATA_PROPERTY_COMPACTEDTO = "pulsar/compactedTo";
     private static final String METADATA_PROPERTY_SCHEMAID = "pulsar/schemaId";
+    private static final String METADATA_PROPERTY_TOPIC = "pulsar/topic";
+    private static final String METADATA_PROPERTY_SUBSCRIPTION = "pulsar/subscription";
 
     /**
      * Build base metadata for every ManagedLedger.
@@ -73,6 +78,19 @@ public final class LedgerMetadataUtils {
         return ImmutableMap.of(METADATA_PROPERTY_CURSOR_NAME, name.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Build metadata for a ledger of the cursor journal, shared by many cursors.
+     *
+     * @param journalName the name of the cursor journal
+     * @return an immutable map which describes the journal ledger
+     */
+    static Map<String, byte[]> buildMetadataForCursorJournal(String journalName) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_MANAGED_LEDGER,
+                METADATA_PROPERTY_CURSOR_JOURNAL_NAME, journalName.getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Build additional metadata for a CompactedLedger.
      *
@@ -103,6 +121,22 @@ public final class LedgerMetadataUtils {
         );
     }
 
+    /**
+     * Build metadata for a snapshot of the delayed messages of a subscription.
+     *
+     * @param topic the name of the topic
+     * @param subscription the name of the subscription
+     * @return an immutable map which describes the snapshot
+     */
+    public static Map<String, byte[]> buildMetadataForDelayedDeliverySnapshot(String topic, String subscription) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_DELAYED_DELIVERY_SNAPSHOT,
+                METADATA_PROPERTY_TOPIC, topic.getBytes(StandardCharsets.UTF_8),
+                METADATA_PROPERTY_SUBSCRIPTION, subscription.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
     /**
      * Build additional metadata for the placement policy config.
      *
@@ -41,16 +41,17 @@ import com.google.protobuf.InvalidProtocolBufferException;
 
 import io.netty.util.concurrent.FastThreadLocal;
 
+import java.io.IOException;
 import java.time.Clock;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -90,16 +91,18 @@ import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.PositionBound;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LedgerDeletedEntries;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.LongProperty;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.MessageRange;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.pulsar.common.util.collections.BitSetRecyclable;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairBitSetMap;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.apache.pulsar.common.util.collections.OffHeapLongPairRangeSet;
 import org.apache.pulsar.metadata.api.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -128,6 +131,10 @@ public class ManagedCursorImpl implements ManagedCursor {
     @SuppressWarnings("unused")
     private volatile OpReadEntry waitingReadOp = null;
 
+    private static final AtomicReferenceFieldUpdater<ManagedCursorImpl, CursorReadAhead> READ_AHEAD_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(ManagedCursorImpl.class, CursorReadAhead.class, "readAhead");
+    private volatile CursorReadAhead readAhead = null;
+
     public static final int FALSE = 0;
     public static final int TRUE = 1;
     private static final AtomicIntegerFieldUpdater<ManagedCursorImpl> RESET_CURSOR_IN_PROGRESS_UPDATER =
@@ -149,7 +156,11 @@ public class ManagedCursorImpl implements ManagedCursor {
     // Current ledger used to append the mark-delete position
     private volatile LedgerHandle cursorLedger;
 
-    // Wether the current cursorLedger is read-only or writable
+    // Ledger of the cursor journal that holds the last checkpoint of the cursor, when the cursor doesn't have a
+    // metadata ledger of its own, or -1
+    private volatile long journalLedgerId = -1;
+
+    // Wether the current cursorLedger, or journal ledger, is read-only or writable
     private boolean isCursorLedgerReadOnly = true;
 
     // Stat of the cursor z-node
@@ -166,7 +177,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     // Maintain the deletion status for batch messages
     // (ledgerId, entryId) -> deletion indexes
-    private final ConcurrentSkipListMap<PositionImpl, BitSetRecyclable> batchDeletedIndexes;
+    private final ConcurrentLongPairBitSetMap batchDeletedIndexes;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private RateLimiter markDeleteLimiter;
@@ -188,6 +199,16 @@ public class ManagedCursorImpl implements ManagedCursor {
     private long entriesReadSize;
     private int individualDeletedMessagesSerializedSize;
 
+    // When the individually deleted messages are persisted as bitmaps: the ledgers whose deleted messages changed
+    // since the last entry written to the cursor ledger, the cursor ledger that received the last full snapshot and
+    // the number of entries written to it since then. Protected by the cursor lock
+    private final Set<Long> dirtyDeletedEntriesLedgers = new TreeSet<>();
+    private long deletedEntriesSnapshotLedgerId = -1;
+    private int deletedEntriesSnapshotDistance = 0;
+
+    // Snapshot ledger of a checkpoint into the cursor journal, until the journal ledger it was written into is known
+    private static final long JOURNAL_CHECKPOINT_LEDGER_ID = -2;
+
     class MarkDeleteEntry {
         final PositionImpl newPosition;
         final MarkDeleteCallback callback;
@@ -244,11 +265,16 @@ public class ManagedCursorImpl implements ManagedCursor {
         this.config = config;
         this.ledger = ledger;
         this.name = cursorName;
-        this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
-                ? new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter)
-                : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        if (config.isUnackedRangesOffHeapEnabled() && isDurable()) {
+            // The off-heap memory is released when the cursor is closed, non-durable cursors are never closed
+            this.individualDeletedMessages = new OffHeapLongPairRangeSet<>(positionRangeConverter);
+        } else if (config.isUnackedRangesOpenCacheSetEnabled()) {
+            this.individualDeletedMessages = new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter);
+        } else {
+            this.individualDeletedMessages = new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        }
         if (config.isDeletionAtBatchIndexLevelEnabled()) {
-            this.batchDeletedIndexes = new ConcurrentSkipListMap<>();
+            this.batchDeletedIndexes = new ConcurrentLongPairBitSetMap();
         } else {
             this.batchDeletedIndexes = null;
         }
@@ -310,6 +336,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
                     recoveredCursor(recoveredPosition, recoveredProperties, null);
                     callback.operationComplete();
+                } else if (info.getCursorsLedgerIsJournal()) {
+                    log.info("[{}] Consumer {} meta-data recover from cursor journal ledger {}", ledger.getName(), name,
+                            info.getCursorsLedgerId());
+                    recoverFromJournal(info, callback);
                 } else {
                     // Need to proceed and read the last entry in the specified ledger to find out the last position
                     log.info("[{}] Consumer {} meta-data recover from ledger {}", ledger.getName(), name,
@@ -385,26 +415,15 @@ public class ManagedCursorImpl implements ManagedCursor {
                     return;
                 }
 
-                Map<String, Long> recoveredProperties = Collections.emptyMap();
-                if (positionInfo.getPropertiesCount() > 0) {
-                    // Recover properties map
-                    recoveredProperties = Maps.newHashMap();
-                    for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
-                        LongProperty property = positionInfo.getProperties(i);
-                        recoveredProperties.put(property.getName(), property.getValue());
-                    }
-                }
-
-                PositionImpl position = new PositionImpl(positionInfo);
-                if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
-                    recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
-                }
-                if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
-                    && positionInfo.getBatchedEntryDeletionIndexInfoCount() > 0) {
-                    recoverBatchDeletedIndexes(positionInfo.getBatchedEntryDeletionIndexInfoList());
+                int snapshotDistance = positionInfo.getDeletedEntriesSnapshotDistance();
+                if (snapshotDistance > 0 && lastEntryInLedger > 0) {
+                    // The last entry only carries the ledgers whose deleted messages changed since the last full
+                    // snapshot, all the entries since then are needed
+                    long snapshotEntry = Math.max(0, lastEntryInLedger - snapshotDistance);
+                    recoverDeletedEntriesFromLedger(info, lh, snapshotEntry, positionInfo, callback);
+                } else {
+                    recoveredFromPositionInfo(Collections.singletonList(positionInfo), lh, callback);
                 }
-                recoveredCursor(position, recoveredProperties, lh);
-                callback.operationComplete();
             }, null);
         };
         try {
@@ -416,6 +435,151 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private void recoverFromJournal(final ManagedCursorInfo info, final VoidCallback callback) {
+        long ledgerId = info.getCursorsLedgerId();
+        CursorJournal journal = getCursorJournal();
+        if (journal == null) {
+            callback.operationFailed(new ManagedLedgerException("Cursor journal is not available"));
+            return;
+        }
+
+        long lastEntryId = info.hasCursorsLedgerLastEntryId() ? info.getCursorsLedgerLastEntryId() : -1;
+        journal.asyncRecover(ledger.getName(), name, ledgerId, lastEntryId, new CursorJournal.RecoverCallback() {
+            @Override
+            public void recoverComplete(List<PositionInfo> positionInfos) {
+                if (positionInfos.isEmpty()) {
+                    log.warn("[{}] Error reading from cursor journal ledger {} for consumer {}: No entries for cursor",
+                            ledger.getName(), ledgerId, name);
+                    // Rewind to last cursor snapshot available
+                    initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                    return;
+                }
+
+                // The cursor refers to the journal ledger until it writes a checkpoint into the current one
+                journalLedgerId = ledgerId;
+                journal.acquire(ManagedCursorImpl.this, ledgerId);
+                recoveredFromPositionInfo(positionInfos, null, callback);
+            }
+
+            @Override
+            public void recoverFailed(int rc) {
+                if (isBkErrorNotRecoverable(rc)) {
+                    log.error("[{}] Error reading from cursor journal ledger {} for consumer {}: {}", ledger.getName(),
+                            ledgerId, name, BKException.getMessage(rc));
+                    // Rewind to oldest entry available
+                    initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                } else {
+                    log.warn("[{}] Error reading from cursor journal ledger {} for consumer {}: {}", ledger.getName(),
+                            ledgerId, name, BKException.getMessage(rc));
+                    callback.operationFailed(createManagedLedgerException(rc));
+                }
+            }
+        });
+    }
+
+    private void recoverDeletedEntriesFromLedger(ManagedCursorInfo info, LedgerHandle lh, long snapshotEntry,
+            PositionInfo lastPositionInfo, VoidCallback callback) {
+        long lastEntry = lh.getLastAddConfirmed() - 1;
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries {}-{} of metadata ledger {} for consumer {}", ledger.getName(),
+                    snapshotEntry, lastEntry, lh.getId(), name);
+        }
+
+        lh.asyncReadEntries(snapshotEntry, lastEntry, (rc, lh1, seq, ctx) -> {
+            if (isBkErrorNotRecoverable(rc)) {
+                log.error("[{}] Error reading from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                        lh.getId(), name, BKException.getMessage(rc));
+                // Rewind to oldest entry available
+                initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                return;
+            } else if (rc != BKException.Code.OK) {
+                log.warn("[{}] Error reading from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                        lh.getId(), name, BKException.getMessage(rc));
+                callback.operationFailed(createManagedLedgerException(rc));
+                return;
+            }
+
+            List<PositionInfo> positionInfos = new ArrayList<>();
+            try {
+                while (seq.hasMoreElements()) {
+                    positionInfos.add(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                }
+            } catch (InvalidProtocolBufferException e) {
+                callback.operationFailed(new ManagedLedgerException(e));
+                return;
+            }
+            positionInfos.add(lastPositionInfo);
+            recoveredFromPositionInfo(positionInfos, lh, callback);
+        }, null);
+    }
+
+    /**
+     * Recover the cursor from the entries of its metadata ledger.
+     *
+     * @param positionInfos
+     *            the last entry of the ledger, preceded by the entries since the last full snapshot of the individually
+     *            deleted messages if the last entry only carries the ledgers that changed
+     */
+    private void recoveredFromPositionInfo(List<PositionInfo> positionInfos, LedgerHandle lh,
+            VoidCallback callback) {
+        PositionInfo positionInfo = positionInfos.get(positionInfos.size() - 1);
+        Map<String, Long> recoveredProperties = Collections.emptyMap();
+        if (positionInfo.getPropertiesCount() > 0) {
+            // Recover properties map
+            recoveredProperties = Maps.newHashMap();
+            for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
+                LongProperty property = positionInfo.getProperties(i);
+                recoveredProperties.put(property.getName(), property.getValue());
+            }
+        }
+
+        PositionImpl position = new PositionImpl(positionInfo);
+        if (positionInfo.getLedgerDeletedEntriesCount() > 0 || positionInfo.getDeletedEntriesSnapshotDistance() > 0) {
+            try {
+                recoverLedgerDeletedEntries(positionInfos, position);
+            } catch (IOException e) {
+                callback.operationFailed(new ManagedLedgerException(e));
+                return;
+            }
+        } else if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
+            recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
+        }
+        if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
+            && positionInfo.getBatchedEntryDeletionIndexInfoCount() > 0) {
+            recoverBatchDeletedIndexes(positionInfo.getBatchedEntryDeletionIndexInfoList());
+        }
+        recoveredCursor(position, recoveredProperties, lh);
+        callback.operationComplete();
+    }
+
+    private void recoverLedgerDeletedEntries(List<PositionInfo> positionInfos, PositionImpl markDeletePosition)
+            throws IOException {
+        // Later entries replace the deleted entries of the ledgers that changed
+        Map<Long, LedgerDeletedEntries> deletedEntries = new TreeMap<>();
+        for (PositionInfo positionInfo : positionInfos) {
+            for (LedgerDeletedEntries ledgerDeletedEntries : positionInfo.getLedgerDeletedEntriesList()) {
+                deletedEntries.put(ledgerDeletedEntries.getLedgerId(), ledgerDeletedEntries);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            individualDeletedMessages.clear();
+            dirtyDeletedEntriesLedgers.clear();
+            deletedEntriesSnapshotLedgerId = -1;
+            for (LedgerDeletedEntries ledgerDeletedEntries : deletedEntries.values()) {
+                long ledgerId = ledgerDeletedEntries.getLedgerId();
+                LedgerDeletedEntriesCodec.forEachRun(ledgerDeletedEntries, (firstEntry, lastEntry) ->
+                        individualDeletedMessages.addOpenClosed(ledgerId, firstEntry - 1, ledgerId, lastEntry));
+            }
+            // Ledgers that did not change since the snapshot can still have entries before the mark-delete position
+            individualDeletedMessages.removeAtMost(markDeletePosition.getLedgerId(),
+                    markDeletePosition.getEntryId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void recoverIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
         lock.writeLock().lock();
         try {
@@ -463,8 +627,8 @@ public class ManagedCursorImpl implements ManagedCursor {
                     for (int i = 0; i < batchDeletedIndexInfo.getDeleteSetList().size(); i++) {
                         array[i] = batchDeletedIndexInfo.getDeleteSetList().get(i);
                     }
-                    this.batchDeletedIndexes.put(PositionImpl.get(batchDeletedIndexInfo.getPosition().getLedgerId(),
-                        batchDeletedIndexInfo.getPosition().getEntryId()), BitSetRecyclable.create().resetWords(array));
+                    this.batchDeletedIndexes.put(batchDeletedIndexInfo.getPosition().getLedgerId(),
+                        batchDeletedIndexInfo.getPosition().getEntryId(), array);
                 }
             });
         } finally {
@@ -843,6 +1007,18 @@ public class ManagedCursorImpl implements ManagedCursor {
         return this.individualDeletedMessagesSerializedSize;
     }
 
+    @Override
+    public long getNonContiguousDeletedMessagesRangeMemorySize() {
+        long memorySize = 0;
+        if (individualDeletedMessages instanceof OffHeapLongPairRangeSet) {
+            memorySize += ((OffHeapLongPairRangeSet<PositionImpl>) individualDeletedMessages).getMemoryUsage();
+        }
+        if (batchDeletedIndexes != null) {
+            memorySize += batchDeletedIndexes.getMemoryUsage();
+        }
+        return memorySize;
+    }
+
     @Override
     public long getEstimatedSizeSinceMarkDeletePosition() {
         return ledger.estimateBacklogFromPosition(markDeletePosition);
@@ -912,6 +1088,12 @@ public class ManagedCursorImpl implements ManagedCursor {
     @Override
     public void asyncFindNewestMatching(FindPositionConstraint constraint, Predicate<Entry> condition,
             FindEntryCallback callback, Object ctx) {
+        asyncFindNewestMatching(constraint, condition, -1, callback, ctx);
+    }
+
+    @Override
+    public void asyncFindNewestMatching(FindPositionConstraint constraint, Predicate<Entry> condition,
+            long timestamp, FindEntryCallback callback, Object ctx) {
         OpFindNewest op;
         PositionImpl startPosition = null;
         long max = 0;
@@ -933,10 +1115,55 @@ public class ManagedCursorImpl implements ManagedCursor {
                     Optional.empty(), ctx);
             return;
         }
+        if (timestamp >= 0 && findNewestMatchingInIndexBounds(startPosition, condition, max, timestamp, callback,
+                ctx)) {
+            return;
+        }
         op = new OpFindNewest(this, startPosition, condition, max, callback, ctx);
         op.find();
     }
 
+    /**
+     * Search only the entries between the sampled positions of the timestamp index that surround the timestamp.
+     *
+     * @return false if the timestamp index doesn't narrow the search
+     */
+    private boolean findNewestMatchingInIndexBounds(PositionImpl startPosition, Predicate<Entry> condition, long max,
+            long timestamp, FindEntryCallback callback, Object ctx) {
+        Pair<PositionImpl, PositionImpl> bounds = ledger.getTimestampIndexBounds(startPosition, timestamp);
+        PositionImpl lowerBound = bounds.getLeft();
+        PositionImpl upperBound = bounds.getRight();
+        if (upperBound == null && lowerBound.equals(startPosition)) {
+            return false;
+        }
+        long boundedMax = upperBound != null
+                ? ledger.getNumberOfEntries(Range.closedOpen(lowerBound, upperBound)) - 1
+                : max - ledger.getNumberOfEntries(Range.closedOpen(startPosition, lowerBound));
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Searching timestamp {} between {} and {}", ledger.getName(), name, timestamp,
+                    lowerBound, upperBound);
+        }
+        OpFindNewest op = new OpFindNewest(this, lowerBound, condition, boundedMax, new FindEntryCallback() {
+            @Override
+            public void findEntryComplete(Position position, Object ctx) {
+                if (position == null && !lowerBound.equals(startPosition)) {
+                    // The timestamps of the entries are not increasing, so search all the entries
+                    new OpFindNewest(ManagedCursorImpl.this, startPosition, condition, max, callback, ctx).find();
+                } else {
+                    callback.findEntryComplete(position, ctx);
+                }
+            }
+
+            @Override
+            public void findEntryFailed(ManagedLedgerException exception, Optional<Position> failedReadPosition,
+                    Object ctx) {
+                callback.findEntryFailed(exception, failedReadPosition, ctx);
+            }
+        }, ctx);
+        op.find();
+        return true;
+    }
+
     @Override
     public void setActive() {
         if (!alwaysInactive) {
@@ -952,6 +1179,8 @@ public class ManagedCursorImpl implements ManagedCursor {
     @Override
     public void setInactive() {
         ledger.deactivateCursor(this);
+        // Nobody is going to consume the prefetched entries
+        closeReadAhead();
     }
 
     @Override
@@ -1009,13 +1238,14 @@ public class ManagedCursorImpl implements ManagedCursor {
                     lastMarkDeleteEntry = new MarkDeleteEntry(newMarkDeletePosition, Collections.emptyMap(),
                             null, null);
                     individualDeletedMessages.clear();
+                    // The next entry of the cursor ledger has to be a full snapshot of the deleted messages
+                    dirtyDeletedEntriesLedgers.clear();
+                    deletedEntriesSnapshotLedgerId = -1;
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-                        batchDeletedIndexes.values().forEach(BitSetRecyclable::recycle);
                         batchDeletedIndexes.clear();
                         long[] resetWords = newPosition.ackSet;
                         if (resetWords != null) {
-                            BitSetRecyclable ackSet = BitSetRecyclable.create().resetWords(resetWords);
-                            batchDeletedIndexes.put(newPosition, ackSet);
+                            batchDeletedIndexes.put(newPosition.getLedgerId(), newPosition.getEntryId(), resetWords);
                         }
                     }
 
@@ -1613,12 +1843,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
             if (newPosition.ackSet != null) {
-                batchDeletedIndexes.put(newPosition, BitSetRecyclable.create().resetWords(newPosition.ackSet));
+                batchDeletedIndexes.put(newPosition.getLedgerId(), newPosition.getEntryId(), newPosition.ackSet);
                 newPosition = ledger.getPreviousPosition(newPosition);
             }
-            Map<PositionImpl, BitSetRecyclable> subMap = batchDeletedIndexes.subMap(PositionImpl.earliest, newPosition);
-            subMap.values().forEach(BitSetRecyclable::recycle);
-            subMap.clear();
+            batchDeletedIndexes.removeBefore(newPosition.getLedgerId(), newPosition.getEntryId());
         } else if (newPosition.ackSet != null) {
             newPosition = ledger.getPreviousPosition(newPosition);
             newPosition.ackSet = null;
@@ -1702,7 +1930,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         lastMarkDeleteEntry = mdEntry;
 
-        persistPositionToLedger(cursorLedger, mdEntry, new VoidCallback() {
+        persistPosition(mdEntry, new VoidCallback() {
             @Override
             public void operationComplete() {
                 if (log.isDebugEnabled()) {
@@ -1717,9 +1945,8 @@ public class ManagedCursorImpl implements ManagedCursor {
                     individualDeletedMessages.removeAtMost(mdEntry.newPosition.getLedgerId(),
                             mdEntry.newPosition.getEntryId());
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-                        Map<PositionImpl, BitSetRecyclable> subMap = batchDeletedIndexes.subMap(PositionImpl.earliest, false, PositionImpl.get(mdEntry.newPosition.getLedgerId(), mdEntry.newPosition.getEntryId()), true);
-                        subMap.values().forEach(BitSetRecyclable::recycle);
-                        subMap.clear();
+                        batchDeletedIndexes.removeAtMost(mdEntry.newPosition.getLedgerId(),
+                                mdEntry.newPosition.getEntryId());
                     }
                 } finally {
                     lock.writeLock().unlock();
@@ -1856,10 +2083,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                 if (individualDeletedMessages.contains(position.getLedgerId(), position.getEntryId())
                     || position.compareTo(markDeletePosition) <= 0) {
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-                        BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
-                        if (bitSetRecyclable != null) {
-                            bitSetRecyclable.recycle();
-                        }
+                        batchDeletedIndexes.remove(position.getLedgerId(), position.getEntryId());
                     }
                     if (log.isDebugEnabled()) {
                         log.debug("[{}] [{}] Position was already deleted {}", ledger.getName(), name, position);
@@ -1868,16 +2092,14 @@ public class ManagedCursorImpl implements ManagedCursor {
                 }
                 if (position.ackSet == null) {
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-                        BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
-                        if (bitSetRecyclable != null) {
-                            bitSetRecyclable.recycle();
-                        }
+                        batchDeletedIndexes.remove(position.getLedgerId(), position.getEntryId());
                     }
                     // Add a range (prev, pos] to the set. Adding the previous entry as an open limit to the range will make
                     // the RangeSet recognize the "continuity" between adjacent Positions
                     PositionImpl previousPosition = ledger.getPreviousPosition(position);
                     individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
                         position.getLedgerId(), position.getEntryId());
+                    dirtyDeletedEntriesLedgers.add(position.getLedgerId());
                     MSG_CONSUMED_COUNTER_UPDATER.incrementAndGet(this);
 
                     if (log.isDebugEnabled()) {
@@ -1885,19 +2107,13 @@ public class ManagedCursorImpl implements ManagedCursor {
                             individualDeletedMessages);
                     }
                 } else if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-                    BitSetRecyclable bitSet = batchDeletedIndexes.computeIfAbsent(position, (v) -> BitSetRecyclable.create().resetWords(position.ackSet));
-                    BitSetRecyclable givenBitSet = BitSetRecyclable.create().resetWords(position.ackSet);
-                    bitSet.and(givenBitSet);
-                    givenBitSet.recycle();
-                    if (bitSet.isEmpty()) {
+                    if (batchDeletedIndexes.and(position.getLedgerId(), position.getEntryId(), position.ackSet)) {
                         PositionImpl previousPosition = ledger.getPreviousPosition(position);
                         individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
                             position.getLedgerId(), position.getEntryId());
+                        dirtyDeletedEntriesLedgers.add(position.getLedgerId());
                         ++messagesConsumedCounter;
-                        BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
-                        if (bitSetRecyclable != null) {
-                            bitSetRecyclable.recycle();
-                        }
+                        batchDeletedIndexes.remove(position.getLedgerId(), position.getEntryId());
                     }
                 }
             }
@@ -2136,7 +2352,9 @@ public class ManagedCursorImpl implements ManagedCursor {
     void persistPositionWhenClosing(PositionImpl position, Map<String, Long> properties,
             final AsyncCallbacks.CloseCallback callback, final Object ctx) {
 
-        if (shouldPersistUnackRangesToLedger()) {
+        if (shouldPersistUnackRangesToLedger() && journalLedgerId != -1) {
+            persistPositionToJournalWhenClosing(position, properties, callback, ctx);
+        } else if (shouldPersistUnackRangesToLedger()) {
             persistPositionToLedger(cursorLedger, new MarkDeleteEntry(position, properties, null, null),
                     new VoidCallback() {
                         @Override
@@ -2172,20 +2390,71 @@ public class ManagedCursorImpl implements ManagedCursor {
                     // At this point the position had already been safely stored in the cursor z-node
                     callback.closeComplete(ctx);
                     asyncDeleteLedger(cursorLedger);
+                    releaseJournalLedger();
                 }
 
                 @Override
                 public void operationFailed(MetaStoreException e) {
                     log.warn("[{}][{}] Failed to update cursor info when closing: {}", ledger.getName(), name,
                             e.getMessage());
+                    // The cursor z-node might still refer to the journal ledger
+                    CursorJournal journal = getCursorJournal();
+                    if (journalLedgerId != -1 && journal != null) {
+                        journal.detach(ManagedCursorImpl.this, journalLedgerId);
+                    }
                     callback.closeFailed(e, ctx);
                 }
             }, true);
         }
     }
 
+    /**
+     * Append the position to the cursor journal, then record the journal entry in the cursor z-node, so that the
+     * cursor can be recovered without recovering the journal ledger, which is still written by other cursors.
+     */
+    private void persistPositionToJournalWhenClosing(PositionImpl position, Map<String, Long> properties,
+            final AsyncCallbacks.CloseCallback callback, final Object ctx) {
+        final long ledgerId = journalLedgerId;
+        final CursorJournal journal = getCursorJournal();
+        persistPositionToJournal(ledgerId, new MarkDeleteEntry(position, properties, null, null),
+                new CursorJournal.AppendCallback() {
+                    @Override
+                    public void appendComplete(long journalLedgerId, long entryId) {
+                        ManagedCursorInfo.Builder info = ManagedCursorInfo.newBuilder()
+                                .setCursorsLedgerId(ledgerId)
+                                .setCursorsLedgerIsJournal(true)
+                                .setCursorsLedgerLastEntryId(entryId);
+                        persistPositionMetaStore(info, position, properties, new MetaStoreCallback<Void>() {
+                            @Override
+                            public void operationComplete(Void result, Stat stat) {
+                                log.info("[{}][{}] Updated md-position={} into cursor journal ledger {} entry {}",
+                                        ledger.getName(), name, markDeletePosition, ledgerId, entryId);
+                                journal.detach(ManagedCursorImpl.this, ledgerId);
+                                callback.closeComplete(ctx);
+                            }
+
+                            @Override
+                            public void operationFailed(MetaStoreException e) {
+                                log.warn("[{}][{}] Failed to update cursor info when closing: {}", ledger.getName(),
+                                        name, e.getMessage());
+                                journal.detach(ManagedCursorImpl.this, ledgerId);
+                                callback.closeFailed(e, ctx);
+                            }
+                        }, false);
+                    }
+
+                    @Override
+                    public void appendFailed(ManagedLedgerException e) {
+                        log.warn("[{}][{}] Failed to persist mark-delete position into cursor journal ledger {}: {}",
+                                ledger.getName(), name, ledgerId, e.getMessage());
+                        journal.detach(ManagedCursorImpl.this, ledgerId);
+                        callback.closeFailed(e, ctx);
+                    }
+                });
+    }
+
     private boolean shouldPersistUnackRangesToLedger() {
-        return cursorLedger != null
+        return (cursorLedger != null || journalLedgerId != -1)
                 && !isCursorLedgerReadOnly
                 && config.getMaxUnackedRangesToPersist() > 0
                 && individualDeletedMessages.size() > config.getMaxUnackedRangesToPersistInZk();
@@ -2193,7 +2462,15 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void persistPositionMetaStore(long cursorsLedgerId, PositionImpl position, Map<String, Long> properties,
             MetaStoreCallback<Void> callback, boolean persistIndividualDeletedMessageRanges) {
-        if (state == State.Closed) {
+        persistPositionMetaStore(ManagedCursorInfo.newBuilder().setCursorsLedgerId(cursorsLedgerId), position,
+                properties, callback, persistIndividualDeletedMessageRanges);
+    }
+
+    private void persistPositionMetaStore(ManagedCursorInfo.Builder info, PositionImpl position,
+            Map<String, Long> properties, MetaStoreCallback<Void> callback,
+            boolean persistIndividualDeletedMessageRanges) {
+        // The journal entry of a cursor closed with its position in the cursor journal is recorded after the close
+        if (state == State.Closed && !info.hasCursorsLedgerLastEntryId()) {
             ledger.getExecutor().execute(safeRun(() -> callback.operationFailed(new MetaStoreException(
                     new CursorAlreadyClosedException(name + " cursor already closed")))));
             return;
@@ -2201,9 +2478,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         // When closing we store the last mark-delete position in the z-node itself, so we won't need the cursor ledger,
         // hence we write it as -1. The cursor ledger is deleted once the z-node write is confirmed.
-        ManagedCursorInfo.Builder info = ManagedCursorInfo.newBuilder() //
-                .setCursorsLedgerId(cursorsLedgerId) //
-                .setMarkDeleteLedgerId(position.getLedgerId()) //
+        info.setMarkDeleteLedgerId(position.getLedgerId()) //
                 .setMarkDeleteEntryId(position.getEntryId()) //
                 .setLastActive(lastActive); //
 
@@ -2266,10 +2541,65 @@ public class ManagedCursorImpl implements ManagedCursor {
             callback.closeComplete(ctx);
             return;
         }
-        persistPositionWhenClosing(lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties, callback, ctx);
+        closeReadAhead();
+        persistPositionWhenClosing(lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties,
+                new AsyncCallbacks.CloseCallback() {
+                    @Override
+                    public void closeComplete(Object ctx) {
+                        releaseIndividualDeletedMessages();
+                        callback.closeComplete(ctx);
+                    }
+
+                    @Override
+                    public void closeFailed(ManagedLedgerException exception, Object ctx) {
+                        releaseIndividualDeletedMessages();
+                        callback.closeFailed(exception, ctx);
+                    }
+                }, ctx);
         STATE_UPDATER.set(this, State.Closed);
     }
 
+    /**
+     * Release the memory used by the individually deleted messages, when they are stored off-heap. The cursor must be
+     * closed and its position must not be persisted anymore.
+     */
+    void releaseIndividualDeletedMessages() {
+        if (individualDeletedMessages instanceof OffHeapLongPairRangeSet) {
+            ((OffHeapLongPairRangeSet<PositionImpl>) individualDeletedMessages).close();
+        }
+    }
+
+    /**
+     * Get the read-ahead buffer of the cursor, creating it if the read-ahead was enabled in the managed ledger
+     * configuration since the last read, or releasing it if it was disabled.
+     *
+     * @return the read-ahead buffer, or null if the read-ahead is disabled
+     */
+    CursorReadAhead getReadAhead() {
+        CursorReadAhead current = readAhead;
+        if (!ledger.getConfig().isReadAheadEnabled()) {
+            if (current != null && READ_AHEAD_UPDATER.compareAndSet(this, current, null)) {
+                current.close();
+            }
+            return null;
+        }
+
+        if (current == null && !isClosed()) {
+            current = new CursorReadAhead(this, ledger);
+            if (!READ_AHEAD_UPDATER.compareAndSet(this, null, current)) {
+                current = readAhead;
+            }
+        }
+        return current;
+    }
+
+    private void closeReadAhead() {
+        CursorReadAhead current = READ_AHEAD_UPDATER.getAndSet(this, null);
+        if (current != null) {
+            current.close();
+        }
+    }
+
     /**
      * Internal version of seek that doesn't do the validation check.
      *
@@ -2344,6 +2674,11 @@ public class ManagedCursorImpl implements ManagedCursor {
     }
 
     void createNewMetadataLedger(final VoidCallback callback) {
+        if (isCursorJournalEnabled()) {
+            createNewJournalCheckpoint(callback);
+            return;
+        }
+
         ledger.mbean.startCursorLedgerCreateOp();
 
         ledger.asyncCreateLedger(bookkeeper, config, digestType, (rc, lh, ctx) -> {
@@ -2414,6 +2749,112 @@ public class ManagedCursorImpl implements ManagedCursor {
         }, LedgerMetadataUtils.buildAdditionalMetadataForCursor(name));
     }
 
+    /**
+     * Write a checkpoint of the cursor into the current journal ledger and make the cursor refer to it. It replaces the
+     * creation of a new metadata ledger when the cursor journal is enabled.
+     */
+    private void createNewJournalCheckpoint(final VoidCallback callback) {
+        MarkDeleteEntry mdEntry = lastMarkDeleteEntry;
+        persistPositionToJournal(CursorJournal.CURRENT_LEDGER, mdEntry, new CursorJournal.AppendCallback() {
+            @Override
+            public void appendComplete(long ledgerId, long entryId) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Persisted position {} for cursor {} into cursor journal ledger {}",
+                            ledger.getName(), mdEntry.newPosition, name, ledgerId);
+                }
+                lock.writeLock().lock();
+                try {
+                    if (deletedEntriesSnapshotLedgerId == JOURNAL_CHECKPOINT_LEDGER_ID) {
+                        deletedEntriesSnapshotLedgerId = ledgerId;
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                switchToJournalLedger(ledgerId, callback);
+            }
+
+            @Override
+            public void appendFailed(ManagedLedgerException exception) {
+                log.warn("[{}] Failed to persist position {} for cursor {} into cursor journal", ledger.getName(),
+                        mdEntry.newPosition, name);
+                callback.operationFailed(exception);
+            }
+        });
+    }
+
+    private void switchToJournalLedger(long ledgerId, final VoidCallback callback) {
+        CursorJournal journal = getCursorJournal();
+        ManagedCursorInfo.Builder info = ManagedCursorInfo.newBuilder()
+                .setCursorsLedgerId(ledgerId)
+                .setCursorsLedgerIsJournal(true);
+        persistPositionMetaStore(info, lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties,
+                new MetaStoreCallback<Void>() {
+            @Override
+            public void operationComplete(Void result, Stat stat) {
+                log.info("[{}] Updated cursor {} with cursor journal ledger id {} md-position={} rd-position={}",
+                        ledger.getName(), name, ledgerId, markDeletePosition, readPosition);
+                final LedgerHandle oldLedger = cursorLedger;
+                final long oldJournalLedgerId = journalLedgerId;
+                cursorLedger = null;
+                journalLedgerId = ledgerId;
+                isCursorLedgerReadOnly = false;
+                cursorLedgerStat = stat;
+
+                // At this point the position had already been safely markdeleted
+                callback.operationComplete();
+
+                asyncDeleteLedger(oldLedger);
+                if (oldJournalLedgerId != -1 && oldJournalLedgerId != ledgerId) {
+                    journal.release(ManagedCursorImpl.this, oldJournalLedgerId);
+                }
+            }
+
+            @Override
+            public void operationFailed(MetaStoreException e) {
+                log.warn("[{}] Failed to update consumer {}", ledger.getName(), name, e);
+                if (ledgerId != journalLedgerId) {
+                    journal.release(ManagedCursorImpl.this, ledgerId);
+                }
+                callback.operationFailed(e);
+            }
+        }, false);
+    }
+
+    /**
+     * Called by the cursor journal when the journal ledger of the cursor is rolled over, to make the cursor write a
+     * checkpoint into the current journal ledger.
+     */
+    void journalLedgerRolledOver(long ledgerId) {
+        synchronized (pendingMarkDeleteOps) {
+            State state = STATE_UPDATER.get(this);
+            if (journalLedgerId == ledgerId && (state == State.Open || state == State.NoLedger)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Cursor journal ledger {} rolled over for consumer {}", ledger.getName(), ledgerId,
+                            name);
+                }
+                startCreatingNewMetadataLedger();
+            }
+        }
+    }
+
+    private void releaseJournalLedger() {
+        long ledgerId = journalLedgerId;
+        CursorJournal journal = getCursorJournal();
+        if (ledgerId != -1 && journal != null) {
+            journalLedgerId = -1;
+            journal.release(this, ledgerId);
+        }
+    }
+
+    private CursorJournal getCursorJournal() {
+        return ledger.factory != null ? ledger.factory.getCursorJournal() : null;
+    }
+
+    private boolean isCursorJournalEnabled() {
+        CursorJournal journal = getCursorJournal();
+        return journal != null && journal.isEnabled() && isDurable();
+    }
+
     private List<LongProperty> buildPropertiesMap(Map<String, Long> properties) {
         if (properties.isEmpty()) {
             return Collections.emptyList();
@@ -2470,32 +2911,173 @@ public class ManagedCursorImpl implements ManagedCursor {
         MLDataFormats.BatchedEntryDeletionIndexInfo.Builder batchDeletedIndexInfoBuilder = MLDataFormats.BatchedEntryDeletionIndexInfo
             .newBuilder();
         List<MLDataFormats.BatchedEntryDeletionIndexInfo> result = Lists.newArrayList();
-        Iterator<Map.Entry<PositionImpl, BitSetRecyclable>> iterator = batchDeletedIndexes.entrySet().iterator();
-        while (iterator.hasNext() && result.size() < config.getMaxBatchDeletedIndexToPersist()) {
-            Map.Entry<PositionImpl, BitSetRecyclable> entry = iterator.next();
-            nestedPositionBuilder.setLedgerId(entry.getKey().getLedgerId());
-            nestedPositionBuilder.setEntryId(entry.getKey().getEntryId());
-            batchDeletedIndexInfoBuilder.setPosition(nestedPositionBuilder.build());
-            long[] array = entry.getValue().toLongArray();
-            List<Long> deleteSet = new ArrayList<>(array.length);
-            for (long l : array) {
-                deleteSet.add(l);
+        batchDeletedIndexes.forEach((ledgerId, entryId, words, offset, length) -> {
+            if (result.size() >= config.getMaxBatchDeletedIndexToPersist()) {
+                return false;
             }
+            nestedPositionBuilder.setLedgerId(ledgerId);
+            nestedPositionBuilder.setEntryId(entryId);
+            batchDeletedIndexInfoBuilder.setPosition(nestedPositionBuilder.build());
             batchDeletedIndexInfoBuilder.clearDeleteSet();
-            batchDeletedIndexInfoBuilder.addAllDeleteSet(deleteSet);
+            for (int i = offset; i < offset + length; i++) {
+                batchDeletedIndexInfoBuilder.addDeleteSet(words[i]);
+            }
             result.add(batchDeletedIndexInfoBuilder.build());
-        }
+            return true;
+        });
         return result;
     }
 
-    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+    /**
+     * Add the individually deleted messages of the ledgers that changed since the previous entry of the cursor ledger,
+     * or of all the ledgers if a full snapshot is due. Must be called holding the cursor write lock, and the entry
+     * must be appended to the cursor ledger before releasing it, so that the entries are in the same order as the
+     * changes they carry.
+     */
+    private void addLedgerDeletedEntries(PositionInfo.Builder piBuilder, long cursorLedgerId) {
+        boolean snapshot = cursorLedgerId == JOURNAL_CHECKPOINT_LEDGER_ID
+                || cursorLedgerId != deletedEntriesSnapshotLedgerId
+                || deletedEntriesSnapshotDistance >= config.getIndividualDeletedMessagesSnapshotInterval();
+
+        TreeMap<Long, LedgerDeletedEntriesCodec.Builder> builders = new TreeMap<>();
+        if (!snapshot) {
+            // Dirty ledgers without deleted entries anymore are written as empty, to replace the previous ones
+            dirtyDeletedEntriesLedgers.forEach(ledgerId ->
+                    builders.put(ledgerId, new LedgerDeletedEntriesCodec.Builder(ledgerId)));
+        }
+        dirtyDeletedEntriesLedgers.clear();
+
+        if (snapshot || !builders.isEmpty()) {
+            long maxLedgerId = snapshot ? Long.MAX_VALUE : builders.lastKey();
+            individualDeletedMessages.forEach((positionRange) -> {
+                PositionImpl lower = positionRange.lowerEndpoint();
+                PositionImpl upper = positionRange.upperEndpoint();
+                if (lower.getLedgerId() > maxLedgerId) {
+                    return false;
+                }
+
+                if (lower.getLedgerId() == upper.getLedgerId()) {
+                    addDeletedEntriesRun(builders, snapshot, lower.getLedgerId(), lower.getEntryId() + 1,
+                            upper.getEntryId());
+                } else {
+                    // Split the range by ledger
+                    LedgerInfo lowerLedgerInfo = ledger.getLedgersInfo().get(lower.getLedgerId());
+                    if (lowerLedgerInfo != null) {
+                        addDeletedEntriesRun(builders, snapshot, lower.getLedgerId(), lower.getEntryId() + 1,
+                                lowerLedgerInfo.getEntries() - 1);
+                    }
+                    for (LedgerInfo li : ledger.getLedgersInfo()
+                            .subMap(lower.getLedgerId(), false, upper.getLedgerId(), false).values()) {
+                        addDeletedEntriesRun(builders, snapshot, li.getLedgerId(), 0, li.getEntries() - 1);
+                    }
+                    addDeletedEntriesRun(builders, snapshot, upper.getLedgerId(), 0, upper.getEntryId());
+                }
+                return true;
+            });
+        }
+
+        int serializedSize = 0;
+        for (LedgerDeletedEntriesCodec.Builder builder : builders.values()) {
+            LedgerDeletedEntries ledgerDeletedEntries = builder.build();
+            serializedSize += ledgerDeletedEntries.getSerializedSize();
+            piBuilder.addLedgerDeletedEntries(ledgerDeletedEntries);
+        }
+
+        if (snapshot) {
+            deletedEntriesSnapshotLedgerId = cursorLedgerId;
+            deletedEntriesSnapshotDistance = 0;
+            individualDeletedMessagesSerializedSize = serializedSize;
+        } else {
+            piBuilder.setDeletedEntriesSnapshotDistance(++deletedEntriesSnapshotDistance);
+        }
+    }
+
+    private static void addDeletedEntriesRun(Map<Long, LedgerDeletedEntriesCodec.Builder> builders, boolean snapshot,
+            long ledgerId, long firstEntry, long lastEntry) {
+        if (firstEntry > lastEntry) {
+            return;
+        }
+
+        LedgerDeletedEntriesCodec.Builder builder = snapshot
+                ? builders.computeIfAbsent(ledgerId, LedgerDeletedEntriesCodec.Builder::new)
+                : builders.get(ledgerId);
+        if (builder != null) {
+            builder.addRun(firstEntry, lastEntry);
+        }
+    }
+
+    /**
+     * Persist the mark-delete position into the metadata ledger of the cursor, or into the cursor journal ledger the
+     * cursor refers to.
+     */
+    private void persistPosition(MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        final long ledgerId = journalLedgerId;
+        if (ledgerId == -1) {
+            persistPositionToLedger(cursorLedger, mdEntry, callback);
+            return;
+        }
+
+        persistPositionToJournal(ledgerId, mdEntry, new CursorJournal.AppendCallback() {
+            @Override
+            public void appendComplete(long journalLedgerId, long entryId) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Updated cursor {} position {} in cursor journal ledger {}", ledger.getName(),
+                            name, mdEntry.newPosition, journalLedgerId);
+                }
+                callback.operationComplete();
+            }
+
+            @Override
+            public void appendFailed(ManagedLedgerException exception) {
+                log.warn("[{}] Error updating cursor {} position {} in cursor journal ledger {}: {}", ledger.getName(),
+                        name, mdEntry.newPosition, ledgerId, exception.getMessage());
+                persistPositionFailed(mdEntry, exception, callback);
+            }
+        });
+    }
+
+    private PositionInfo.Builder newPositionInfo(MarkDeleteEntry mdEntry) {
         PositionImpl position = mdEntry.newPosition;
-        PositionInfo pi = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+        return PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
                 .setEntryId(position.getEntryId())
-                .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges())
                 .addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList())
-                .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+                .addAllProperties(buildPropertiesMap(mdEntry.properties));
+    }
+
+    /**
+     * Append the position to the cursor journal.
+     *
+     * @param ledgerId
+     *            the journal ledger the cursor refers to, or {@link CursorJournal#CURRENT_LEDGER} for a checkpoint
+     */
+    private void persistPositionToJournal(long ledgerId, MarkDeleteEntry mdEntry,
+            CursorJournal.AppendCallback callback) {
+        PositionInfo.Builder piBuilder = newPositionInfo(mdEntry);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Cursor {} Appending to cursor journal ledger={} position={}", ledger.getName(), name,
+                    ledgerId, mdEntry.newPosition);
+        }
 
+        CursorJournal journal = getCursorJournal();
+        if (config.isPersistIndividualDeletedMessagesAsBitmap()) {
+            lock.writeLock().lock();
+            try {
+                // A checkpoint carries a full snapshot of the individually deleted messages
+                addLedgerDeletedEntries(piBuilder,
+                        ledgerId == CursorJournal.CURRENT_LEDGER ? JOURNAL_CHECKPOINT_LEDGER_ID : ledgerId);
+                journal.append(this, ledgerId, piBuilder.build(), callback);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else {
+            piBuilder.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+            journal.append(this, ledgerId, piBuilder.build(), callback);
+        }
+    }
+
+    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
+        PositionInfo.Builder piBuilder = newPositionInfo(mdEntry);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Cursor {} Appending to ledger={} position={}", ledger.getName(), name, lh.getId(),
@@ -2503,6 +3085,23 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
 
         checkNotNull(lh);
+        if (config.isPersistIndividualDeletedMessagesAsBitmap()) {
+            lock.writeLock().lock();
+            try {
+                addLedgerDeletedEntries(piBuilder, lh.getId());
+                addPositionToLedger(lh, piBuilder.build(), mdEntry, callback);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else {
+            piBuilder.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+            addPositionToLedger(lh, piBuilder.build(), mdEntry, callback);
+        }
+    }
+
+    private void addPositionToLedger(final LedgerHandle lh, PositionInfo pi, MarkDeleteEntry mdEntry,
+            final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
         lh.asyncAddEntry(pi.toByteArray(), (rc, lh1, entryId, ctx) -> {
             if (rc == BKException.Code.OK) {
                 if (log.isDebugEnabled()) {
@@ -2521,31 +3120,48 @@ public class ManagedCursorImpl implements ManagedCursor {
             } else {
                 log.warn("[{}] Error updating cursor {} position {} in meta-ledger {}: {}", ledger.getName(), name,
                         position, lh1.getId(), BKException.getMessage(rc));
-                // If we've had a write error, the ledger will be automatically closed, we need to create a new one,
-                // in the meantime the mark-delete will be queued.
-                STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
+                persistPositionFailed(mdEntry, createManagedLedgerException(rc), callback);
+            }
+        }, null);
+    }
 
-                // Before giving up, try to persist the position in the metadata store
-                persistPositionMetaStore(-1, position, mdEntry.properties, new MetaStoreCallback<Void>() {
-                    @Override
-                    public void operationComplete(Void result, Stat stat) {
-                        if (log.isDebugEnabled()) {
-                            log.debug(
-                                    "[{}][{}] Updated cursor in meta store after previous failure in ledger at position {}",
-                                    ledger.getName(), name, position);
-                        }
-                        callback.operationComplete();
-                    }
+    private void persistPositionFailed(MarkDeleteEntry mdEntry, ManagedLedgerException exception,
+            final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
+        // If we've had a write error, the ledger will be automatically closed, we need to create a new one,
+        // in the meantime the mark-delete will be queued.
+        STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
+        resetDeletedEntriesSnapshot();
 
-                    @Override
-                    public void operationFailed(MetaStoreException e) {
-                        log.warn("[{}][{}] Failed to update cursor in meta store after previous failure in ledger: {}",
-                                ledger.getName(), name, e.getMessage());
-                        callback.operationFailed(createManagedLedgerException(rc));
-                    }
-                }, true);
+        // Before giving up, try to persist the position in the metadata store
+        persistPositionMetaStore(-1, position, mdEntry.properties, new MetaStoreCallback<Void>() {
+            @Override
+            public void operationComplete(Void result, Stat stat) {
+                if (log.isDebugEnabled()) {
+                    log.debug(
+                            "[{}][{}] Updated cursor in meta store after previous failure in ledger at position {}",
+                            ledger.getName(), name, position);
+                }
+                callback.operationComplete();
             }
-        }, null);
+
+            @Override
+            public void operationFailed(MetaStoreException e) {
+                log.warn("[{}][{}] Failed to update cursor in meta store after previous failure in ledger: {}",
+                        ledger.getName(), name, e.getMessage());
+                callback.operationFailed(exception);
+            }
+        }, true);
+    }
+
+    private void resetDeletedEntriesSnapshot() {
+        lock.writeLock().lock();
+        try {
+            // The changes carried by the failed entry are lost, write a full snapshot next time
+            deletedEntriesSnapshotLedgerId = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     boolean shouldCloseLedger(LedgerHandle lh) {
@@ -2581,6 +3197,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                 callback.operationComplete();
 
                 asyncDeleteLedger(oldLedger);
+                releaseJournalLedger();
             }
 
             @Override
@@ -2699,6 +3316,9 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void asyncDeleteCursorLedger(int retry) {
         STATE_UPDATER.set(this, State.Closed);
+        closeReadAhead();
+        releaseIndividualDeletedMessages();
+        releaseJournalLedger();
 
         if (cursorLedger == null || retry <= 0) {
             if (cursorLedger != null) {
@@ -2771,7 +3391,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     public long getCursorLedger() {
         LedgerHandle lh = cursorLedger;
-        return lh != null ? lh.getId() : -1;
+        return lh != null ? lh.getId() : journalLedgerId;
     }
 
     public long getCursorLedgerLastEntry() {
@@ -2806,12 +3426,7 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
 
         if (batchDeletedIndexes != null) {
-            BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.get(position);
-            if (bitSetRecyclable == null) {
-                return null;
-            } else {
-                return bitSetRecyclable.toLongArray();
-            }
+            return batchDeletedIndexes.get(position.getLedgerId(), position.getEntryId());
         } else {
             return null;
         }
@@ -2897,8 +3512,7 @@ public class ManagedCursorImpl implements ManagedCursor {
     @Override
     public long[] getDeletedBatchIndexesAsLongArray(PositionImpl position) {
         if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
-            BitSetRecyclable bitSet = batchDeletedIndexes.get(position);
-            return bitSet == null ? null : bitSet.toLongArray();
+            return batchDeletedIndexes.get(position.getLedgerId(), position.getEntryId());
         } else {
             return null;
         }
@@ -104,6 +104,10 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
     protected final ConcurrentHashMap<String, PendingInitializeManagedLedger> pendingInitializeLedgers =
         new ConcurrentHashMap<>();
     private final EntryCacheManager entryCacheManager;
+    private final CursorJournal cursorJournal;
+    private final RecoveryStage recoveryMetadataStage;
+    private final RecoveryStage recoveryLedgerOpenStage;
+    private final RecoveryStage recoveryCursorStage;
 
     private long lastStatTimestamp = System.nanoTime();
     private final ScheduledFuture<?> statsTask;
@@ -201,6 +205,15 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         this.config = config;
         this.mbean = new ManagedLedgerFactoryMBeanImpl(this);
         this.entryCacheManager = new EntryCacheManager(this);
+        this.cursorJournal = new CursorJournal(config, bookkeeperFactory.get(), metadataStore, store,
+                scheduledExecutor);
+        this.cursorJournal.start();
+        this.recoveryMetadataStage = new RecoveryStage(config.getRecoveryMaxConcurrentMetadataOperations(),
+                scheduledExecutor);
+        this.recoveryLedgerOpenStage = new RecoveryStage(config.getRecoveryMaxConcurrentLedgerOpens(),
+                scheduledExecutor);
+        this.recoveryCursorStage = new RecoveryStage(config.getRecoveryMaxConcurrentCursorRecoveries(),
+                scheduledExecutor);
         this.statsTask = scheduledExecutor.scheduleAtFixedRate(this::refreshStats, 0, StatsPeriodSeconds, TimeUnit.SECONDS);
         this.flushCursorsTask = scheduledExecutor.scheduleAtFixedRate(this::flushCursors,
                 config.getCursorPositionFlushSeconds(), config.getCursorPositionFlushSeconds(), TimeUnit.SECONDS);
@@ -526,6 +539,8 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         latch.await();
         log.info("{} ledgers closed", numLedgers);
 
+        cursorJournal.close();
+
         if (zookeeper != null) {
             zookeeper.close();
         }
@@ -839,6 +854,31 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         return config;
     }
 
+    CursorJournal getCursorJournal() {
+        return cursorJournal;
+    }
+
+    /**
+     * @return the stage of the recovery of the managed ledgers fetching their list of ledgers and cursors
+     */
+    RecoveryStage getRecoveryMetadataStage() {
+        return recoveryMetadataStage;
+    }
+
+    /**
+     * @return the stage of the recovery of the managed ledgers opening their last ledger
+     */
+    RecoveryStage getRecoveryLedgerOpenStage() {
+        return recoveryLedgerOpenStage;
+    }
+
+    /**
+     * @return the stage of the recovery of the managed ledgers recovering their cursors
+     */
+    RecoveryStage getRecoveryCursorStage() {
+        return recoveryCursorStage;
+    }
+
     public EntryCacheManager getEntryCacheManager() {
         return entryCacheManager;
     }
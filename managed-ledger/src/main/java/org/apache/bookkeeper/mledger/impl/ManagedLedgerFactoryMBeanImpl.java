@@ -30,6 +30,10 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
     final Rate cacheHits = new Rate();
     final Rate cacheMisses = new Rate();
     final Rate cacheEvictions = new Rate();
+    final Rate cacheEvictedEntries = new Rate();
+    final Rate cacheAdmissionRejections = new Rate();
+    final Rate coalescedReads = new Rate();
+    final Rate readAheadBudgetRejections = new Rate();
 
     public ManagedLedgerFactoryMBeanImpl(ManagedLedgerFactoryImpl factory) throws Exception {
         this.factory = factory;
@@ -46,6 +50,13 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheHits.calculateRate(seconds);
         cacheMisses.calculateRate(seconds);
         cacheEvictions.calculateRate(seconds);
+        cacheEvictedEntries.calculateRate(seconds);
+        cacheAdmissionRejections.calculateRate(seconds);
+        coalescedReads.calculateRate(seconds);
+        readAheadBudgetRejections.calculateRate(seconds);
+        factory.getRecoveryMetadataStage().refreshStats(seconds);
+        factory.getRecoveryLedgerOpenStage().refreshStats(seconds);
+        factory.getRecoveryCursorStage().refreshStats(seconds);
     }
 
     public void recordCacheHit(long size) {
@@ -64,6 +75,22 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheEvictions.recordEvent();
     }
 
+    public void recordCacheEvictedEntries(int count, long totalSize) {
+        cacheEvictedEntries.recordMultipleEvents(count, totalSize);
+    }
+
+    public void recordCacheAdmissionRejection(long size) {
+        cacheAdmissionRejections.recordEvent(size);
+    }
+
+    public void recordCoalescedRead(long entries) {
+        coalescedReads.recordEvent(entries);
+    }
+
+    public void recordReadAheadBudgetRejection() {
+        readAheadBudgetRejections.recordEvent();
+    }
+
     @Override
     public int getNumberOfManagedLedgers() {
         return factory.ledgers.size();
@@ -104,4 +131,101 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         return cacheEvictions.getCount();
     }
 
+    @Override
+    public String getCacheEvictionPolicy() {
+        return factory.getEntryCacheManager().getEvictionPolicy().getClass().getName();
+    }
+
+    @Override
+    public double getCacheEvictedEntriesRate() {
+        return cacheEvictedEntries.getRate();
+    }
+
+    @Override
+    public double getCacheEvictedEntriesThroughput() {
+        return cacheEvictedEntries.getValueRate();
+    }
+
+    @Override
+    public double getCacheAdmissionRejectionsRate() {
+        return cacheAdmissionRejections.getRate();
+    }
+
+    @Override
+    public long getCacheEvictionPolicyHits() {
+        return factory.getEntryCacheManager().getPolicyHits();
+    }
+
+    @Override
+    public long getCacheEvictionPolicyMisses() {
+        return factory.getEntryCacheManager().getPolicyMisses();
+    }
+
+    @Override
+    public long getCacheEvictionPolicyEvictions() {
+        return factory.getEntryCacheManager().getPolicyEvictedEntries();
+    }
+
+    @Override
+    public long getCacheEvictionPolicyAdmissionRejections() {
+        return factory.getEntryCacheManager().getPolicyAdmissionRejections();
+    }
+
+    @Override
+    public double getCoalescedReadsRate() {
+        return coalescedReads.getRate();
+    }
+
+    @Override
+    public double getCoalescedReadEntriesRate() {
+        return coalescedReads.getValueRate();
+    }
+
+    @Override
+    public long getReadAheadBufferedSize() {
+        return factory.getEntryCacheManager().getReadAheadSize();
+    }
+
+    @Override
+    public double getReadAheadBudgetRejectionsRate() {
+        return readAheadBudgetRejections.getRate();
+    }
+
+    @Override
+    public int getRecoveryWaitingOperations() {
+        return factory.getRecoveryMetadataStage().getWaitingOperations()
+                + factory.getRecoveryLedgerOpenStage().getWaitingOperations()
+                + factory.getRecoveryCursorStage().getWaitingOperations();
+    }
+
+    @Override
+    public double getRecoveryMetadataWaitTimeMs() {
+        return factory.getRecoveryMetadataStage().getAverageWaitTimeMs();
+    }
+
+    @Override
+    public double getRecoveryMetadataLatencyMs() {
+        return factory.getRecoveryMetadataStage().getAverageRunTimeMs();
+    }
+
+    @Override
+    public double getRecoveryLedgerOpenWaitTimeMs() {
+        return factory.getRecoveryLedgerOpenStage().getAverageWaitTimeMs();
+    }
+
+    @Override
+    public double getRecoveryLedgerOpenLatencyMs() {
+        return factory.getRecoveryLedgerOpenStage().getAverageRunTimeMs();
+    }
+
+    @Override
+    public double getRecoveryCursorWaitTimeMs() {
+        return factory.getRecoveryCursorStage().getAverageWaitTimeMs();
+    }
+
+    @Override
+    public double getRecoveryCursorLatencyMs() {
+        return factory.getRecoveryCursorStage().getAverageRunTimeMs();
+    }
+
 }
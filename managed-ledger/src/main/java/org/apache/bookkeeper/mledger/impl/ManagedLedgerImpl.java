@@ -52,6 +52,7 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledFuture;
@@ -92,6 +93,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.TerminateCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.UpdatePropertiesCallback;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.EntryTimestampExtractor;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
@@ -110,6 +112,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.NonRecoverableLedger
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
 import org.apache.bookkeeper.mledger.ManagedLedgerMXBean;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.NewEntryListener;
 import org.apache.bookkeeper.mledger.WaitingEntryCallBack;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.VoidCallback;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
@@ -173,6 +176,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
     // Objects that are waiting to be notified when new entries are persisted
     final ConcurrentLinkedQueue<WaitingEntryCallBack> waitingEntryCallBacks;
+    private final CopyOnWriteArrayList<NewEntryListener> newEntryListeners = new CopyOnWriteArrayList<>();
 
     // This map is used for concurrent open cursor requests, where the 2nd request will attach a listener to the
     // uninitialized cursor future from the 1st request
@@ -262,6 +266,20 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
      */
     final ConcurrentLinkedQueue<OpAddEntry> pendingAddEntries = new ConcurrentLinkedQueue<>();
 
+    /**
+     * Timestamp index of the ledgers that are still being written. The index of a ledger is stored in its
+     * {@link LedgerInfo} once the ledger is closed.
+     */
+    private final ConcurrentLongHashMap<TimestampIndex> openLedgersTimestampIndex = new ConcurrentLongHashMap<>(
+            4 /* initial capacity */, 1 /* number of sections */);
+
+    /**
+     * Decoded timestamp index of the closed ledgers, so that the {@link LedgerInfo} of a ledger is decoded only once.
+     * The index of a ledger is added when it is rolled over, or when it is first looked up.
+     */
+    private final ConcurrentLongHashMap<TimestampIndex> closedLedgersTimestampIndex = new ConcurrentLongHashMap<>(
+            16 /* initial capacity */, 1 /* number of sections */);
+
     /**
      * This variable is used for testing the tests
      * {@link ManagedLedgerTest#testManagedLedgerWithPlacementPolicyInCustomMetadata()}
@@ -311,7 +329,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         log.info("Opening managed ledger {}", name);
 
         // Fetch the list of existing ledgers in the managed ledger
-        store.getManagedLedgerInfo(name, config.isCreateIfMissing(), new MetaStoreCallback<ManagedLedgerInfo>() {
+        factory.getRecoveryMetadataStage().executeMetaStoreOperation(
+                cb -> store.getManagedLedgerInfo(name, config.isCreateIfMissing(), cb),
+                new MetaStoreCallback<ManagedLedgerInfo>() {
             @Override
             public void operationComplete(ManagedLedgerInfo mlInfo, Stat stat) {
                 ledgersStat = stat;
@@ -370,7 +390,11 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                         log.debug("[{}] Opening ledger {}", name, id);
                     }
                     mbean.startDataLedgerOpenOp();
-                    bookKeeper.asyncOpenLedger(id, digestType, config.getPassword(), opencb, null);
+                    factory.getRecoveryLedgerOpenStage().execute(completed -> bookKeeper.asyncOpenLedger(id,
+                            digestType, config.getPassword(), (rc, lh, ctx1) -> {
+                                completed.run();
+                                opencb.openComplete(rc, lh, ctx1);
+                            }, null));
                 } else {
                     initializeBookKeeper(callback);
                 }
@@ -481,7 +505,8 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         if (log.isDebugEnabled()) {
             log.debug("[{}] initializing cursors", name);
         }
-        store.getCursors(name, new MetaStoreCallback<List<String>>() {
+        factory.getRecoveryMetadataStage().executeMetaStoreOperation(cb -> store.getCursors(name, cb),
+                new MetaStoreCallback<List<String>>() {
             @Override
             public void operationComplete(List<String> consumers, Stat s) {
                 // Load existing cursors
@@ -503,7 +528,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                         final ManagedCursorImpl cursor;
                         cursor = new ManagedCursorImpl(bookKeeper, config, ManagedLedgerImpl.this, cursorName);
 
-                        cursor.recover(new VoidCallback() {
+                        factory.getRecoveryCursorStage().executeVoidOperation(cursor::recover, new VoidCallback() {
                             @Override
                             public void operationComplete() {
                                 log.info("[{}] Recovery for cursor {} completed. pos={} -- todo={}", name, cursorName,
@@ -536,7 +561,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                         CompletableFuture<ManagedCursor> cursorRecoveryFuture = new CompletableFuture<>();
                         uninitializedCursors.put(cursorName, cursorRecoveryFuture);
 
-                        cursor.recover(new VoidCallback() {
+                        factory.getRecoveryCursorStage().executeVoidOperation(cursor::recover, new VoidCallback() {
                             @Override
                             public void operationComplete() {
                                 log.info("[{}] Lazy recovery for cursor {} completed. pos={} -- todo={}", name, cursorName,
@@ -698,6 +723,66 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         executor.executeOrdered(name, safeRun(() -> internalAsyncAddEntry(addOperation)));
     }
 
+    /**
+     * Record the timestamp of an entry whose write completed, if the entry is sampled by the timestamp index of its
+     * ledger. It must be called in the order of the entries.
+     */
+    void recordEntryTimestamp(long ledgerId, long entryId, ByteBuf data) {
+        EntryTimestampExtractor timestampExtractor = config.getEntryTimestampExtractor();
+        if (timestampExtractor == null) {
+            return;
+        }
+        // A ledger is only indexed if the index was enabled when its first entry was written
+        TimestampIndex index = entryId == 0
+                ? openLedgersTimestampIndex.computeIfAbsent(ledgerId,
+                        id -> new TimestampIndex(config.getTimestampIndexSamplingInterval()))
+                : openLedgersTimestampIndex.get(ledgerId);
+        if (index != null && index.isSampled(entryId)) {
+            index.add(entryId, timestampExtractor.getTimestamp(data));
+        }
+    }
+
+    /**
+     * Get the range of entries where the last entry older than a timestamp is expected, according to the timestamp
+     * index of the ledgers, assuming that the timestamps of the entries are increasing.
+     *
+     * @param startPosition
+     *            the first position to consider
+     * @param timestamp
+     *            the timestamp to look for
+     * @return the last sampled position older than the timestamp, or the start position, and the first sampled
+     *         position which is not older than the timestamp, or null if there is none
+     */
+    Pair<PositionImpl, PositionImpl> getTimestampIndexBounds(PositionImpl startPosition, long timestamp) {
+        PositionImpl lowerBound = startPosition;
+        for (LedgerInfo ledgerInfo : ledgers.tailMap(startPosition.getLedgerId(), true).values()) {
+            long ledgerId = ledgerInfo.getLedgerId();
+            TimestampIndex index = ledgerInfo.hasTimestampIndex()
+                    ? closedLedgersTimestampIndex.computeIfAbsent(ledgerId,
+                            id -> TimestampIndex.fromProto(ledgerInfo.getTimestampIndex()))
+                    : openLedgersTimestampIndex.get(ledgerId);
+            if (index == null) {
+                continue;
+            }
+
+            // Only the samples after the start position are considered
+            int size = index.size();
+            int fromIdx = ledgerId == startPosition.getLedgerId() ? index.indexAfter(startPosition.getEntryId()) : 0;
+            if (fromIdx >= size) {
+                continue;
+            }
+
+            int idx = index.ceilingIndex(fromIdx, size, timestamp);
+            if (idx > fromIdx) {
+                lowerBound = PositionImpl.get(ledgerId, index.getEntryId(idx - 1));
+            }
+            if (idx < size) {
+                return Pair.of(lowerBound, PositionImpl.get(ledgerId, index.getEntryId(idx)));
+            }
+        }
+        return Pair.of(lowerBound, null);
+    }
+
     private synchronized void internalAsyncAddEntry(OpAddEntry addOperation) {
         pendingAddEntries.add(addOperation);
         final State state = STATE_UPDATER.get(this);
@@ -1544,10 +1629,15 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Ledger has been closed id={} entries={}", name, lh.getId(), entriesInLedger);
         }
+        TimestampIndex timestampIndex = openLedgersTimestampIndex.remove(lh.getId());
         if (entriesInLedger > 0) {
-            LedgerInfo info = LedgerInfo.newBuilder().setLedgerId(lh.getId()).setEntries(entriesInLedger)
-                    .setSize(lh.getLength()).setTimestamp(clock.millis()).build();
-            ledgers.put(lh.getId(), info);
+            LedgerInfo.Builder infoBuilder = LedgerInfo.newBuilder().setLedgerId(lh.getId())
+                    .setEntries(entriesInLedger).setSize(lh.getLength()).setTimestamp(clock.millis());
+            if (timestampIndex != null && timestampIndex.size() > 0) {
+                infoBuilder.setTimestampIndex(timestampIndex.toProto());
+                closedLedgersTimestampIndex.put(lh.getId(), timestampIndex);
+            }
+            ledgers.put(lh.getId(), infoBuilder.build());
         } else {
             // The last ledger was empty, so we can discard it
             ledgers.remove(lh.getId());
@@ -1849,7 +1939,13 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             log.debug("[{}] Reading entries from ledger {} - first={} last={}", name, ledger.getId(), firstEntry,
                     lastEntry);
         }
-        asyncReadEntry(ledger, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
+
+        CursorReadAhead readAhead = opReadEntry.cursor.getReadAhead();
+        if (readAhead != null) {
+            readAhead.readEntries(ledger, firstEntry, lastEntry, lastEntryInLedger, opReadEntry);
+        } else {
+            asyncReadEntry(ledger, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
+        }
     }
 
     protected void asyncReadEntry(ReadHandle ledger, PositionImpl position, ReadEntryCallback callback, Object ctx) {
@@ -2061,7 +2157,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         entryCache.invalidateEntriesBeforeTimestamp(maxTimestamp);
     }
 
-    private PositionImpl getEarlierReadPositionForActiveCursors() {
+    PositionImpl getEarlierReadPositionForActiveCursors() {
         PositionImpl smallest = null;
         for (ManagedCursor cursor : activeCursors) {
             PositionImpl p = (PositionImpl) cursor.getReadPosition();
@@ -2139,6 +2235,23 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         this.waitingEntryCallBacks.add(cb);
     }
 
+    void notifyNewEntryListeners(PositionImpl position, ByteBuf data) {
+        for (NewEntryListener listener : newEntryListeners) {
+            listener.newEntryAdded(position, data);
+        }
+    }
+
+    /**
+     * Register a listener that gets every entry added to the managed ledger, until it's removed.
+     */
+    public void addNewEntryListener(NewEntryListener listener) {
+        newEntryListeners.addIfAbsent(listener);
+    }
+
+    public void removeNewEntryListener(NewEntryListener listener) {
+        newEntryListeners.remove(listener);
+    }
+
     private void trimConsumedLedgersInBackground() {
         trimConsumedLedgersInBackground(Futures.NULL_PROMISE);
     }
@@ -2355,6 +2468,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                             ls.getLedgerId(), currentLastConfirmedEntry);
                 }
                 ledgerCache.remove(ls.getLedgerId());
+                closedLedgersTimestampIndex.remove(ls.getLedgerId());
 
                 ledgers.remove(ls.getLedgerId());
                 NUMBER_OF_ENTRIES_UPDATER.addAndGet(this, -ls.getEntries());
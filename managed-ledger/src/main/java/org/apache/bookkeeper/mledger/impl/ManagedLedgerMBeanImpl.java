@@ -39,6 +39,9 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
     private final Rate readEntriesOps = new Rate();
     private final Rate readEntriesOpsFailed = new Rate();
     private final Rate markDeleteOps = new Rate();
+    private final Rate readAheadHits = new Rate();
+    private final Rate readAheadPrefetched = new Rate();
+    private final Rate readAheadDiscarded = new Rate();
 
     private final LongAdder dataLedgerOpenOp = new LongAdder();
     private final LongAdder dataLedgerCloseOp = new LongAdder();
@@ -67,6 +70,9 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
         readEntriesOps.calculateRate(seconds);
         readEntriesOpsFailed.calculateRate(seconds);
         markDeleteOps.calculateRate(seconds);
+        readAheadHits.calculateRate(seconds);
+        readAheadPrefetched.calculateRate(seconds);
+        readAheadDiscarded.calculateRate(seconds);
 
         addEntryLatencyStatsUsec.refresh();
         ledgerAddEntryLatencyStatsUsec.refresh();
@@ -107,6 +113,18 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
         readEntriesOps.recordMultipleEvents(count, totalSize);
     }
 
+    public void recordReadAheadHits(int count, long totalSize) {
+        readAheadHits.recordMultipleEvents(count, totalSize);
+    }
+
+    public void recordReadAheadPrefetch(int count, long totalSize) {
+        readAheadPrefetched.recordMultipleEvents(count, totalSize);
+    }
+
+    public void recordReadAheadDiscarded(int count, long totalSize) {
+        readAheadDiscarded.recordMultipleEvents(count, totalSize);
+    }
+
     public void startDataLedgerOpenOp() {
         dataLedgerOpenOp.increment();
     }
@@ -221,6 +239,31 @@ public class ManagedLedgerMBeanImpl implements ManagedLedgerMXBean {
         return markDeleteOps.getRate();
     }
 
+    @Override
+    public double getReadAheadHitsRate() {
+        return readAheadHits.getRate();
+    }
+
+    @Override
+    public double getReadAheadHitsBytesRate() {
+        return readAheadHits.getValueRate();
+    }
+
+    @Override
+    public double getReadAheadPrefetchedRate() {
+        return readAheadPrefetched.getRate();
+    }
+
+    @Override
+    public double getReadAheadPrefetchedBytesRate() {
+        return readAheadPrefetched.getValueRate();
+    }
+
+    @Override
+    public double getReadAheadDiscardedRate() {
+        return readAheadDiscarded.getRate();
+    }
+
     @Override
     public double getEntrySizeAverage() {
         return entryStats.getAvg();
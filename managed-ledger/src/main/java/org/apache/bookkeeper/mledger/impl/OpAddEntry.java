@@ -183,6 +183,7 @@ public class OpAddEntry extends SafeRunnable implements AddCallback, CloseCallba
 
         ManagedLedgerImpl.NUMBER_OF_ENTRIES_UPDATER.incrementAndGet(ml);
         ManagedLedgerImpl.TOTAL_SIZE_UPDATER.addAndGet(ml, dataLength);
+        ml.recordEntryTimestamp(ledger.getId(), entryId, data);
         if (ml.hasActiveCursors()) {
             // Avoid caching entries if no cursor has been created
             EntryImpl entry = EntryImpl.create(ledger.getId(), entryId, data);
@@ -195,6 +196,7 @@ public class OpAddEntry extends SafeRunnable implements AddCallback, CloseCallba
         PositionImpl lastEntry = PositionImpl.get(ledger.getId(), entryId);
         ManagedLedgerImpl.ENTRIES_ADDED_COUNTER_UPDATER.incrementAndGet(ml);
         ml.lastConfirmedEntry = lastEntry;
+        ml.notifyNewEntryListeners(lastEntry, data);
 
         if (closeWhenDone) {
             ReferenceCountUtil.release(data);
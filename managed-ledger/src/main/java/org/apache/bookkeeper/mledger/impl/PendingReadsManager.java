@@ -0,0 +1,375 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.client.api.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the reads that an {@link EntryCache} has issued to BookKeeper and that are not completed yet.
+ *
+ * <p/>When a read misses the cache and overlaps with a read that is already in progress on the same ledger, it gets
+ * attached to it and receives retained duplicates of its entries, while the reader that issued the read gets the
+ * original ones. Only the sub-ranges that are not covered by the pending read are requested to BookKeeper, as new
+ * pending reads that other readers can attach to in turn.
+ */
+class PendingReadsManager {
+
+    private final EntryCache entryCache;
+    private final EntryCacheManager manager;
+    private final ManagedLedgerImpl ml;
+
+    // Reads currently in progress on BookKeeper. Protected by the PendingReadsManager monitor, like the listeners
+    // of each pending read
+    private final List<PendingRead> pendingReads = new ArrayList<>();
+
+    PendingReadsManager(EntryCache entryCache, EntryCacheManager manager, ManagedLedgerImpl ml) {
+        this.entryCache = entryCache;
+        this.manager = manager;
+        this.ml = ml;
+    }
+
+    /**
+     * Read a range of entries from BookKeeper, sharing the reads that are already in progress.
+     *
+     * @param lh
+     *            the ledger handle
+     * @param firstEntry
+     *            the first entry to read (inclusive)
+     * @param lastEntry
+     *            the last entry to read (inclusive)
+     * @param callback
+     *            the callback object that will be notified when read is done
+     * @param ctx
+     *            the context object
+     */
+    void readEntries(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+        final long ledgerId = lh.getId();
+        final List<PendingRead> readsToIssue = new ArrayList<>(2);
+        final long coalescedEntries;
+
+        synchronized (this) {
+            PendingRead bestMatch = null;
+            long bestOverlap = 0;
+            for (PendingRead read : pendingReads) {
+                long overlap = read.overlap(ledgerId, firstEntry, lastEntry);
+                if (overlap > bestOverlap) {
+                    bestMatch = read;
+                    bestOverlap = overlap;
+                }
+            }
+
+            if (bestMatch == null) {
+                PendingRead read = new PendingRead(lh, firstEntry, lastEntry);
+                read.listeners.add(new Listener(firstEntry, lastEntry, callback, ctx));
+                pendingReads.add(read);
+                readsToIssue.add(read);
+                coalescedEntries = 0;
+            } else {
+                long coveredFirst = Math.max(firstEntry, bestMatch.firstEntry);
+                long coveredLast = Math.min(lastEntry, bestMatch.lastEntry);
+
+                // Up to 3 parts: the missing prefix, the range covered by the pending read and the missing suffix
+                int parts = 1 + (firstEntry < coveredFirst ? 1 : 0) + (lastEntry > coveredLast ? 1 : 0);
+                CombinedCallback combined = new CombinedCallback(parts, callback, ctx);
+                int partIdx = 0;
+
+                if (firstEntry < coveredFirst) {
+                    PendingRead prefix = new PendingRead(lh, firstEntry, coveredFirst - 1);
+                    prefix.listeners.add(new Listener(firstEntry, coveredFirst - 1, combined, partIdx++));
+                    pendingReads.add(prefix);
+                    readsToIssue.add(prefix);
+                }
+
+                bestMatch.listeners.add(new Listener(coveredFirst, coveredLast, combined, partIdx++));
+
+                if (lastEntry > coveredLast) {
+                    PendingRead suffix = new PendingRead(lh, coveredLast + 1, lastEntry);
+                    suffix.listeners.add(new Listener(coveredLast + 1, lastEntry, combined, partIdx));
+                    pendingReads.add(suffix);
+                    readsToIssue.add(suffix);
+                }
+
+                coalescedEntries = bestOverlap;
+            }
+        }
+
+        if (coalescedEntries > 0) {
+            manager.mlFactoryMBean.recordCoalescedRead(coalescedEntries);
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Ledger {} -- Attached read {}-{} to a pending read. Coalesced entries: {}",
+                        ml.getName(), ledgerId, firstEntry, lastEntry, coalescedEntries);
+            }
+        }
+
+        readsToIssue.forEach(PendingRead::issue);
+    }
+
+    @VisibleForTesting
+    synchronized int getNumberOfPendingReads() {
+        return pendingReads.size();
+    }
+
+    /**
+     * Remove a read from the pending ones.
+     *
+     * @return the listeners of the read, or an empty list if the read was already completed
+     */
+    private synchronized List<Listener> complete(PendingRead read) {
+        pendingReads.remove(read);
+        List<Listener> listeners = new ArrayList<>(read.listeners);
+        read.listeners.clear();
+        return listeners;
+    }
+
+    /**
+     * A read in progress on BookKeeper, with all the readers that are waiting for its entries.
+     */
+    private final class PendingRead {
+        final ReadHandle lh;
+        final long ledgerId;
+        final long firstEntry;
+        final long lastEntry;
+        final List<Listener> listeners = new ArrayList<>(1);
+
+        PendingRead(ReadHandle lh, long firstEntry, long lastEntry) {
+            this.lh = lh;
+            this.ledgerId = lh.getId();
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+
+        long overlap(long ledgerId, long first, long last) {
+            if (this.ledgerId != ledgerId) {
+                return 0;
+            }
+            return Math.max(0, Math.min(last, lastEntry) - Math.max(first, firstEntry) + 1);
+        }
+
+        void issue() {
+            try {
+                issue0();
+            } catch (Throwable t) {
+                log.warn("[{}] Failed to read entries {}-{} of ledger {}", ml.getName(), firstEntry, lastEntry,
+                        ledgerId, t);
+                failed(t);
+            }
+        }
+
+        private void issue0() {
+            final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
+
+            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
+                    (ledgerEntries, exception) -> {
+                        if (exception != null) {
+                            failed(exception);
+                            return;
+                        }
+
+                        checkNotNull(ml.getName());
+                        checkNotNull(ml.getExecutor());
+
+                        final List<EntryImpl> entries = Lists.newArrayListWithExpectedSize(entriesToRead);
+                        try {
+                            // We got the entries, we need to transform them to a List<> type
+                            long totalSize = 0;
+                            for (LedgerEntry e : ledgerEntries) {
+                                EntryImpl entry = EntryImpl.create(e);
+
+                                entries.add(entry);
+                                totalSize += entry.getLength();
+                            }
+
+                            manager.recordCacheMiss(entryCache, entries.size(), totalSize);
+                            ml.getMBean().addReadEntriesSample(entries.size(), totalSize);
+                        } finally {
+                            ledgerEntries.close();
+                        }
+
+                        completed(entries);
+                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception -> {
+                        failed(exception);
+                        return null;
+                    });
+        }
+
+        private void completed(List<EntryImpl> entries) {
+            List<Listener> listeners = complete(this);
+            if (listeners.size() > 1) {
+                entries.forEach(EntryImpl::shareDecodedData);
+            }
+
+            // The first reader that can be served gets the original entries, the other readers get their own
+            // duplicates. All of them are prepared before any callback runs, since a callback can release its entries.
+            List<List<Entry>> listenersEntries = new ArrayList<>(listeners.size());
+            boolean[] handedOver = new boolean[entries.size()];
+            boolean originalsTaken = false;
+            for (Listener listener : listeners) {
+                int fromIndex = (int) (listener.firstEntry - firstEntry);
+                int toIndex = (int) (listener.lastEntry - firstEntry) + 1;
+                if (toIndex > entries.size()) {
+                    listenersEntries.add(null);
+                    continue;
+                }
+
+                List<Entry> listenerEntries = Lists.newArrayListWithExpectedSize(toIndex - fromIndex);
+                for (int i = fromIndex; i < toIndex; i++) {
+                    if (originalsTaken) {
+                        listenerEntries.add(EntryImpl.create(entries.get(i)));
+                    } else {
+                        listenerEntries.add(entries.get(i));
+                        handedOver[i] = true;
+                    }
+                }
+                originalsTaken = true;
+                listenersEntries.add(listenerEntries);
+            }
+
+            // Release the entries that no reader asked for
+            for (int i = 0; i < entries.size(); i++) {
+                if (!handedOver[i]) {
+                    entries.get(i).release();
+                }
+            }
+
+            for (int i = 0; i < listeners.size(); i++) {
+                Listener listener = listeners.get(i);
+                List<Entry> listenerEntries = listenersEntries.get(i);
+                if (listenerEntries == null) {
+                    listener.callback.readEntriesFailed(new ManagedLedgerException(
+                            "Could not read entries " + listener.firstEntry + "-" + listener.lastEntry), listener.ctx);
+                    continue;
+                }
+
+                try {
+                    listener.callback.readEntriesComplete(listenerEntries, listener.ctx);
+                } catch (Throwable t) {
+                    log.warn("[{}] Failed to deliver entries {}-{} of ledger {}", ml.getName(), listener.firstEntry,
+                            listener.lastEntry, ledgerId, t);
+                }
+            }
+        }
+
+        private void failed(Throwable exception) {
+            List<Listener> listeners = complete(this);
+            if (listeners.isEmpty()) {
+                // Already completed
+                return;
+            }
+
+            if (!(exception instanceof BKException
+                    && ((BKException) exception).getCode() == BKException.Code.TooManyRequestsException)) {
+                ml.invalidateLedgerHandle(lh, exception);
+            }
+
+            ManagedLedgerException mlException = createManagedLedgerException(exception);
+            for (Listener listener : listeners) {
+                listener.callback.readEntriesFailed(mlException, listener.ctx);
+            }
+        }
+    }
+
+    private static final class Listener {
+        final long firstEntry;
+        final long lastEntry;
+        final ReadEntriesCallback callback;
+        final Object ctx;
+
+        Listener(long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+    }
+
+    /**
+     * Collects the entries of the different parts of a read and passes them, in order, to the original callback. The
+     * index of the part is passed as context.
+     */
+    private static final class CombinedCallback implements ReadEntriesCallback {
+        private final List<Entry>[] parts;
+        private final ReadEntriesCallback callback;
+        private final Object ctx;
+        private int pendingParts;
+        private boolean failed = false;
+
+        @SuppressWarnings("unchecked")
+        CombinedCallback(int parts, ReadEntriesCallback callback, Object ctx) {
+            this.parts = new List[parts];
+            this.pendingParts = parts;
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void readEntriesComplete(List<Entry> entries, Object partCtx) {
+            synchronized (this) {
+                if (failed) {
+                    entries.forEach(Entry::release);
+                    return;
+                }
+
+                parts[(Integer) partCtx] = entries;
+                if (--pendingParts > 0) {
+                    return;
+                }
+            }
+
+            List<Entry> allEntries = new ArrayList<>();
+            for (List<Entry> part : parts) {
+                allEntries.addAll(part);
+            }
+            callback.readEntriesComplete(allEntries, ctx);
+        }
+
+        @Override
+        public void readEntriesFailed(ManagedLedgerException exception, Object partCtx) {
+            synchronized (this) {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+
+                for (List<Entry> part : parts) {
+                    if (part != null) {
+                        part.forEach(Entry::release);
+                    }
+                }
+            }
+
+            callback.readEntriesFailed(exception, ctx);
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PendingReadsManager.class);
+}
@@ -61,6 +61,7 @@ public class ReadOnlyCursorImpl extends ManagedCursorImpl implements ReadOnlyCur
     @Override
     public void asyncClose(final AsyncCallbacks.CloseCallback callback, final Object ctx) {
         state = State.Closed;
+        releaseIndividualDeletedMessages();
         callback.closeComplete(ctx);
     }
 
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
+import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.VoidCallback;
+import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
+import org.apache.pulsar.common.stats.Rate;
+import org.apache.pulsar.metadata.api.Stat;
+
+/**
+ * A stage of the recovery of the managed ledgers, such as the fetch of their metadata or the recovery of their cursors.
+ *
+ * <p/>The stage limits the number of its operations running concurrently across all the managed ledgers of a factory,
+ * and tracks the time spent by the operations waiting for their turn and running.
+ */
+class RecoveryStage {
+
+    /**
+     * An asynchronous operation of the stage, which must run the given callback once it is complete.
+     */
+    interface Operation {
+        void run(Runnable completed);
+    }
+
+    private final int maxConcurrentOperations;
+    private final Executor executor;
+    private final Queue<Runnable> waitingOperations = new ArrayDeque<>();
+    private int runningOperations = 0;
+
+    private final Rate waitTime = new Rate();
+    private final Rate runTime = new Rate();
+
+    /**
+     * @param maxConcurrentOperations
+     *            the max number of operations running concurrently, or 0 for no limit
+     * @param executor
+     *            the executor starting the operations that had to wait
+     */
+    RecoveryStage(int maxConcurrentOperations, Executor executor) {
+        this.maxConcurrentOperations = maxConcurrentOperations;
+        this.executor = executor;
+    }
+
+    void execute(Operation operation) {
+        long enqueueTime = System.nanoTime();
+        synchronized (this) {
+            if (maxConcurrentOperations > 0 && runningOperations >= maxConcurrentOperations) {
+                waitingOperations.add(() -> run(operation, enqueueTime));
+                return;
+            }
+            runningOperations++;
+        }
+        run(operation, enqueueTime);
+    }
+
+    /**
+     * Execute an operation on the metadata store.
+     */
+    <T> void executeMetaStoreOperation(Consumer<MetaStoreCallback<T>> operation, MetaStoreCallback<T> callback) {
+        execute(completed -> operation.accept(new MetaStoreCallback<T>() {
+            @Override
+            public void operationComplete(T result, Stat stat) {
+                completed.run();
+                callback.operationComplete(result, stat);
+            }
+
+            @Override
+            public void operationFailed(MetaStoreException e) {
+                completed.run();
+                callback.operationFailed(e);
+            }
+        }));
+    }
+
+    /**
+     * Execute an operation completing a {@link VoidCallback}.
+     */
+    void executeVoidOperation(Consumer<VoidCallback> operation, VoidCallback callback) {
+        execute(completed -> operation.accept(new VoidCallback() {
+            @Override
+            public void operationComplete() {
+                completed.run();
+                callback.operationComplete();
+            }
+
+            @Override
+            public void operationFailed(ManagedLedgerException exception) {
+                completed.run();
+                callback.operationFailed(exception);
+            }
+        }));
+    }
+
+    private void run(Operation operation, long enqueueTime) {
+        long startTime = System.nanoTime();
+        waitTime.recordEvent(startTime - enqueueTime);
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable completed = () -> {
+            if (done.compareAndSet(false, true)) {
+                runTime.recordEvent(System.nanoTime() - startTime);
+                operationCompleted();
+            }
+        };
+        try {
+            operation.run(completed);
+        } catch (Throwable t) {
+            completed.run();
+            throw t;
+        }
+    }
+
+    private void operationCompleted() {
+        Runnable nextOperation;
+        synchronized (this) {
+            nextOperation = waitingOperations.poll();
+            if (nextOperation == null) {
+                runningOperations--;
+                return;
+            }
+        }
+        // Don't start the next operation from the callback of the previous one
+        executor.execute(safeRun(nextOperation));
+    }
+
+    synchronized int getRunningOperations() {
+        return runningOperations;
+    }
+
+    synchronized int getWaitingOperations() {
+        return waitingOperations.size();
+    }
+
+    void refreshStats(double seconds) {
+        waitTime.calculateRate(seconds);
+        runTime.calculateRate(seconds);
+    }
+
+    /**
+     * @return the average time that the operations started during the last period waited for their turn, in ms
+     */
+    double getAverageWaitTimeMs() {
+        return waitTime.getAverageValue() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the average time that the operations completed during the last period were running, in ms
+     */
+    double getAverageRunTimeMs() {
+        return runTime.getAverageValue() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,534 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import io.netty.buffer.ByteBuf;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry cache that stores the payloads of a managed ledger into large direct memory segments.
+ *
+ * <p/>Entries are appended, in entry id order, into the segment that holds the previous entry of the same ledger, so
+ * the tail appends and the backfills of older entries fill their own segments. Each segment only keeps a primitive
+ * array with the offsets of its entries, so the number of objects retained by the cache depends on the number of
+ * segments and not on the number of cached entries. Reads return slices of the segments, without copying the data, and
+ * eviction always releases whole segments.
+ */
+public class SegmentedEntryCacheImpl implements EntryCache {
+
+    private final EntryCacheManager manager;
+    private final ManagedLedgerImpl ml;
+    private final int segmentSize;
+    private final PendingReadsManager pendingReadsManager;
+
+    // Segments sorted by the position of their first entry
+    private final NavigableMap<PositionImpl, Segment> segments = new TreeMap<>();
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    private long size = 0;
+
+    private static final double MB = 1024 * 1024;
+    private static final int INITIAL_INDEX_CAPACITY = 64;
+    private static final int INITIAL_SEGMENT_SIZE = 16 * 1024;
+
+    public SegmentedEntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, int segmentSize) {
+        checkArgument(segmentSize > 0);
+        this.manager = manager;
+        this.ml = ml;
+        this.segmentSize = segmentSize;
+        this.pendingReadsManager = new PendingReadsManager(this, manager, ml);
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Initialized managed-ledger segmented entry cache with segments of {} bytes", ml.getName(),
+                    segmentSize);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return ml.getName();
+    }
+
+    @Override
+    public boolean insert(EntryImpl entry) {
+        if (!manager.hasSpaceInCache()) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Skipping cache while doing eviction: {} - size: {}", ml.getName(), entry.getPosition(),
+                        entry.getLength());
+            }
+            return false;
+        }
+
+        if (!manager.admit(this, entry)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Entry not admitted in cache by the eviction policy: {} - size: {}", ml.getName(),
+                        entry.getPosition(), entry.getLength());
+            }
+            return false;
+        }
+
+        final long ledgerId = entry.getLedgerId();
+        final long entryId = entry.getEntryId();
+        final int length = entry.getLength();
+        long allocatedSize = 0;
+
+        rwLock.writeLock().lock();
+        try {
+            // The segment that holds the previous entries of the ledger, if the entry doesn't start a new sequence
+            PositionImpl position = PositionImpl.get(ledgerId, entryId);
+            Map.Entry<PositionImpl, Segment> floor = segments.floorEntry(position);
+            Segment previous = floor != null && floor.getValue().ledgerId == ledgerId ? floor.getValue() : null;
+            if (previous != null && previous.contains(ledgerId, entryId)) {
+                // Entry is already cached
+                return false;
+            }
+
+            Segment segment = previous;
+            if (segment == null || !segment.canAppend(ledgerId, entryId, length)) {
+                Map.Entry<PositionImpl, Segment> next = segments.higherEntry(position);
+                long entryIdLimit = next != null && next.getKey().getLedgerId() == ledgerId
+                        ? next.getKey().getEntryId() : Long.MAX_VALUE;
+
+                int capacity = nextSegmentCapacity(previous, length);
+                ByteBuf data;
+                try {
+                    data = EntryCacheImpl.ALLOCATOR.directBuffer(capacity, capacity);
+                } catch (Throwable t) {
+                    log.warn("[{}] Failed to allocate segment for entry cache: {}", ml.getName(), t.getMessage());
+                    return false;
+                }
+
+                segment = new Segment(ledgerId, entryId, entryIdLimit, data);
+                segments.put(position, segment);
+                allocatedSize = capacity;
+                size += capacity;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Adding entry to cache: {}:{} - size: {}", ml.getName(), ledgerId, entryId, length);
+            }
+            segment.append(entry.getDataBuffer(), length);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        if (allocatedSize > 0) {
+            manager.entryAdded(allocatedSize);
+        }
+        return true;
+    }
+
+    /**
+     * The segments of a ledger start small and double in size up to the configured segment size, so that the ledgers
+     * which only get a few entries don't hold a full segment in the cache. A segment doubles the one that precedes it
+     * in the same ledger.
+     */
+    private int nextSegmentCapacity(Segment previous, int length) {
+        int capacity = Math.min(segmentSize, INITIAL_SEGMENT_SIZE);
+        if (previous != null) {
+            capacity = (int) Math.min(segmentSize, 2L * previous.data.capacity());
+        }
+        return Math.max(capacity, length);
+    }
+
+    private Segment findSegment(long ledgerId, long entryId) {
+        Map.Entry<PositionImpl, Segment> floor = segments.floorEntry(PositionImpl.get(ledgerId, entryId));
+        if (floor != null && floor.getValue().contains(ledgerId, entryId)) {
+            return floor.getValue();
+        }
+        return null;
+    }
+
+    @Override
+    public Pair<Integer, Long> invalidateEntries(final PositionImpl lastPosition) {
+        final PositionImpl firstPosition = PositionImpl.get(-1, 0);
+
+        if (firstPosition.compareTo(lastPosition) > 0) {
+            log.debug("Attempted to invalidate entries in an invalid range : {} ~ {}",
+                firstPosition, lastPosition);
+            return Pair.of(0, 0L);
+        }
+
+        // Segments can only be released as a whole, so only the ones that are entirely before lastPosition are removed
+        Pair<Integer, Long> removed = removeSegments(segment -> segment.ledgerId < lastPosition.getLedgerId()
+                || (segment.ledgerId == lastPosition.getLedgerId()
+                        && segment.lastEntryId() < lastPosition.getEntryId()), true);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated entries up to {} - Entries removed: {} - Size removed: {}", ml.getName(),
+                    lastPosition, removed.getLeft(), removed.getRight());
+        }
+        return removed;
+    }
+
+    @Override
+    public void invalidateAllEntries(long ledgerId) {
+        Pair<Integer, Long> removed = removeSegments(segment -> segment.ledgerId == ledgerId, false);
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Invalidated all entries on ledger {} - Entries removed: {} - Size removed: {}",
+                    ml.getName(), ledgerId, removed.getLeft(), removed.getRight());
+        }
+    }
+
+    @Override
+    public void invalidateEntriesBeforeTimestamp(long timestamp) {
+        // Segments are filled in order, so we stop at the first one that got an entry after the given timestamp
+        removeSegments(segment -> segment.lastInsertTimestamp <= timestamp, true);
+    }
+
+    @Override
+    public Pair<Integer, Long> evictEntries(long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        int evictedEntries = 0;
+        long evictedSize = 0;
+
+        rwLock.writeLock().lock();
+        try {
+            while (evictedSize < sizeToFree) {
+                Map.Entry<PositionImpl, Segment> first = segments.pollFirstEntry();
+                if (first == null) {
+                    break;
+                }
+
+                Segment segment = first.getValue();
+                evictedEntries += segment.count;
+                evictedSize += segment.capacity();
+                releaseSegment(segment);
+            }
+            size -= evictedSize;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(
+                    "[{}] Doing cache eviction of at least {} Mb -- Deleted {} entries - Total size deleted: {} Mb "
+                            + " -- Current Size: {} Mb",
+                    ml.getName(), sizeToFree / MB, evictedEntries, evictedSize / MB, getSize() / MB);
+        }
+        manager.entriesRemoved(evictedSize);
+        return Pair.of(evictedEntries, evictedSize);
+    }
+
+    private Pair<Integer, Long> removeSegments(Predicate<Segment> filter, boolean stopAtFirstMismatch) {
+        int removedEntries = 0;
+        long removedSize = 0;
+
+        rwLock.writeLock().lock();
+        try {
+            Iterator<Segment> iterator = segments.values().iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if (!filter.test(segment)) {
+                    if (stopAtFirstMismatch) {
+                        break;
+                    }
+                    continue;
+                }
+
+                iterator.remove();
+                removedEntries += segment.count;
+                removedSize += segment.capacity();
+                releaseSegment(segment);
+            }
+            size -= removedSize;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        manager.entriesRemoved(removedSize);
+        return Pair.of(removedEntries, removedSize);
+    }
+
+    private void releaseSegment(Segment segment) {
+        // Entries that were already handed out keep holding a reference on the segment buffer
+        segment.data.release();
+    }
+
+    @Override
+    public void clear() {
+        long removedSize;
+        rwLock.writeLock().lock();
+        try {
+            segments.values().forEach(segment -> segment.data.release());
+            segments.clear();
+            removedSize = size;
+            size = 0;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        manager.entriesRemoved(removedSize);
+    }
+
+    @Override
+    public long getSize() {
+        rwLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int compareTo(EntryCache other) {
+        return Longs.compare(getSize(), other.getSize());
+    }
+
+    /**
+     * Get a cached entry, sharing the segment memory.
+     *
+     * @return the entry or null if the entry is not in cache
+     */
+    @VisibleForTesting
+    EntryImpl getEntry(long ledgerId, long entryId) {
+        rwLock.readLock().lock();
+        try {
+            Segment segment = findSegment(ledgerId, entryId);
+            return segment != null ? segment.getEntry(entryId) : null;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get all the entries in the range, only if they're all present in the cache.
+     *
+     * @return the list of entries or null if at least one entry in the range is not cached
+     */
+    private List<EntryImpl> getEntries(long ledgerId, long firstEntry, long lastEntry) {
+        final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
+
+        rwLock.readLock().lock();
+        try {
+            // Check that the whole range is covered before creating any entry
+            long entryId = firstEntry;
+            Segment segment = findSegment(ledgerId, entryId);
+            while (segment != null && segment.lastEntryId() < lastEntry) {
+                entryId = segment.lastEntryId() + 1;
+                segment = findSegment(ledgerId, entryId);
+            }
+            if (segment == null) {
+                return null;
+            }
+
+            final List<EntryImpl> entries = Lists.newArrayListWithExpectedSize(entriesToRead);
+            for (entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                if (segment == null || !segment.contains(ledgerId, entryId)) {
+                    segment = findSegment(ledgerId, entryId);
+                }
+                entries.add(segment.getEntry(entryId));
+            }
+            return entries;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void asyncReadEntry(ReadHandle lh, PositionImpl position, final ReadEntryCallback callback,
+            final Object ctx) {
+        try {
+            asyncReadEntry0(lh, position, callback, ctx);
+        } catch (Throwable t) {
+            log.warn("failed to read entries for {}-{}", lh.getId(), position, t);
+            invalidateAllEntries(lh.getId());
+            callback.readEntryFailed(createManagedLedgerException(t), ctx);
+        }
+    }
+
+    private void asyncReadEntry0(ReadHandle lh, PositionImpl position, final ReadEntryCallback callback,
+            final Object ctx) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entry ledger {}: {}", ml.getName(), lh.getId(), position.getEntryId());
+        }
+        EntryImpl cachedEntry = getEntry(position.getLedgerId(), position.getEntryId());
+        if (cachedEntry != null) {
+            manager.recordCacheHits(this, 1, cachedEntry.getLength());
+            callback.readEntryComplete(cachedEntry, ctx);
+        } else {
+            lh.readAsync(position.getEntryId(), position.getEntryId()).whenCompleteAsync(
+                    (ledgerEntries, exception) -> {
+                        if (exception != null) {
+                            ml.invalidateLedgerHandle(lh, exception);
+                            callback.readEntryFailed(createManagedLedgerException(exception), ctx);
+                            return;
+                        }
+
+                        try {
+                            Iterator<LedgerEntry> iterator = ledgerEntries.iterator();
+                            if (iterator.hasNext()) {
+                                LedgerEntry ledgerEntry = iterator.next();
+                                EntryImpl returnEntry = EntryImpl.create(ledgerEntry);
+
+                                manager.recordCacheMiss(this, 1, returnEntry.getLength());
+                                ml.mbean.addReadEntriesSample(1, returnEntry.getLength());
+                                callback.readEntryComplete(returnEntry, ctx);
+                            } else {
+                                // got an empty sequence
+                                callback.readEntryFailed(new ManagedLedgerException("Could not read given position"),
+                                                         ctx);
+                            }
+                        } finally {
+                            ledgerEntries.close();
+                        }
+                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception -> {
+                        ml.invalidateLedgerHandle(lh, exception);
+                        callback.readEntryFailed(createManagedLedgerException(exception), ctx);
+                        return null;
+                    });
+        }
+    }
+
+    @Override
+    public void asyncReadEntry(ReadHandle lh, long firstEntry, long lastEntry, boolean isSlowestReader,
+            final ReadEntriesCallback callback, Object ctx) {
+        try {
+            asyncReadEntry0(lh, firstEntry, lastEntry, isSlowestReader, callback, ctx);
+        } catch (Throwable t) {
+            log.warn("failed to read entries for {}--{}-{}", lh.getId(), firstEntry, lastEntry, t);
+            invalidateAllEntries(lh.getId());
+            callback.readEntriesFailed(createManagedLedgerException(t), ctx);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void asyncReadEntry0(ReadHandle lh, long firstEntry, long lastEntry, boolean isSlowestReader,
+            final ReadEntriesCallback callback, Object ctx) {
+        final long ledgerId = lh.getId();
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries range ledger {}: {} to {}", ml.getName(), ledgerId, firstEntry, lastEntry);
+        }
+
+        List<EntryImpl> cachedEntries = getEntries(ledgerId, firstEntry, lastEntry);
+        if (cachedEntries != null) {
+            long totalCachedSize = 0;
+            for (EntryImpl entry : cachedEntries) {
+                totalCachedSize += entry.getLength();
+            }
+
+            manager.recordCacheHits(this, cachedEntries.size(), totalCachedSize);
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
+                        lastEntry);
+            }
+
+            callback.readEntriesComplete((List) cachedEntries, ctx);
+            return;
+        }
+
+        // Read all the entries from bookkeeper, sharing the reads already in progress
+        pendingReadsManager.readEntries(lh, firstEntry, lastEntry, callback, ctx);
+    }
+
+    @VisibleForTesting
+    int getNumberOfSegments() {
+        rwLock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A contiguous sequence of entries of a single ledger, stored in one direct memory buffer.
+     */
+    private static final class Segment {
+        final long ledgerId;
+        final long firstEntryId;
+        // First entry id that belongs to the following segment of the same ledger, if any
+        final long entryIdLimit;
+        final ByteBuf data;
+
+        // offsets[i] is the start of the entry (firstEntryId + i). The entry ends where the next one starts.
+        int[] offsets = new int[INITIAL_INDEX_CAPACITY];
+        int count = 0;
+        long lastInsertTimestamp;
+
+        Segment(long ledgerId, long firstEntryId, long entryIdLimit, ByteBuf data) {
+            this.ledgerId = ledgerId;
+            this.firstEntryId = firstEntryId;
+            this.entryIdLimit = entryIdLimit;
+            this.data = data;
+        }
+
+        boolean canAppend(long ledgerId, long entryId, int length) {
+            return this.ledgerId == ledgerId
+                    && entryId == firstEntryId + count
+                    && entryId < entryIdLimit
+                    && data.writableBytes() >= length;
+        }
+
+        void append(ByteBuf entryData, int length) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = data.writerIndex();
+            data.writeBytes(entryData, entryData.readerIndex(), length);
+            lastInsertTimestamp = System.nanoTime();
+        }
+
+        boolean contains(long ledgerId, long entryId) {
+            return this.ledgerId == ledgerId && entryId >= firstEntryId && entryId < firstEntryId + count;
+        }
+
+        long lastEntryId() {
+            return firstEntryId + count - 1;
+        }
+
+        int capacity() {
+            return data.capacity();
+        }
+
+        EntryImpl getEntry(long entryId) {
+            int idx = (int) (entryId - firstEntryId);
+            int start = offsets[idx];
+            int end = idx + 1 < count ? offsets[idx + 1] : data.writerIndex();
+            ByteBuf slice = data.retainedSlice(start, end - start);
+            EntryImpl entry = EntryImpl.create(ledgerId, entryId, slice);
+            slice.release();
+            return entry;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedEntryCacheImpl.class);
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.Arrays;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LedgerTimestampIndex;
+
+/**
+ * Timestamps of a sample of the entries of a ledger, taken every {@code samplingInterval} entries starting with the
+ * first one.
+ *
+ * <p/>The samples are added by a single thread, in order, while the index can be read concurrently by other threads.
+ */
+final class TimestampIndex {
+
+    private final long samplingInterval;
+    private volatile long[] timestamps;
+    // Written after the timestamps, so that the readers never see a sample that is not set
+    private volatile int size = 0;
+
+    TimestampIndex(long samplingInterval) {
+        this(samplingInterval, new long[16], 0);
+    }
+
+    private TimestampIndex(long samplingInterval, long[] timestamps, int size) {
+        this.samplingInterval = samplingInterval;
+        this.timestamps = timestamps;
+        this.size = size;
+    }
+
+    static TimestampIndex fromProto(LedgerTimestampIndex index) {
+        long[] timestamps = new long[index.getTimestampDeltasCount()];
+        long timestamp = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += index.getTimestampDeltas(i);
+            timestamps[i] = timestamp;
+        }
+        return new TimestampIndex(index.getSamplingInterval(), timestamps, timestamps.length);
+    }
+
+    LedgerTimestampIndex toProto() {
+        int currentSize = size;
+        LedgerTimestampIndex.Builder builder = LedgerTimestampIndex.newBuilder()
+                .setSamplingInterval(samplingInterval);
+        long previousTimestamp = 0;
+        for (int i = 0; i < currentSize; i++) {
+            long timestamp = timestamps[i];
+            builder.addTimestampDeltas(timestamp - previousTimestamp);
+            previousTimestamp = timestamp;
+        }
+        return builder.build();
+    }
+
+    boolean isSampled(long entryId) {
+        return entryId % samplingInterval == 0;
+    }
+
+    /**
+     * Add the timestamp of a sampled entry. The entries must be added in order.
+     *
+     * @param timestamp
+     *            the timestamp of the entry, or -1 if it is unknown, in which case the timestamp of the previous sample
+     *            is used
+     */
+    void add(long entryId, long timestamp) {
+        int idx = (int) (entryId / samplingInterval);
+        if (idx != size) {
+            // The entry was already sampled, or the previous sample is missing
+            return;
+        }
+        if (timestamp < 0) {
+            timestamp = idx > 0 ? timestamps[idx - 1] : 0;
+        }
+        if (idx == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, idx * 2);
+        }
+        timestamps[idx] = timestamp;
+        size = idx + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the first sample after an entry
+     */
+    int indexAfter(long entryId) {
+        return (int) Math.floorDiv(entryId, samplingInterval) + 1;
+    }
+
+    /**
+     * Binary search of the first sample whose timestamp is not older than a timestamp, assuming that the timestamps
+     * are increasing.
+     *
+     * @param fromIdx
+     *            the first sample to consider (inclusive)
+     * @param toIdx
+     *            the last sample to consider (exclusive)
+     * @return the index of the sample, or {@code toIdx} if all the samples are older
+     */
+    int ceilingIndex(int fromIdx, int toIdx, long timestamp) {
+        long[] currentTimestamps = timestamps;
+        int low = fromIdx;
+        int high = toIdx;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (currentTimestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    long getEntryId(int idx) {
+        return idx * samplingInterval;
+    }
+
+    long getTimestamp(int idx) {
+        return timestamps[idx];
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.awaitility.Awaitility;
+import org.testng.annotations.Test;
+
+public class CursorJournalTest extends MockedBookKeeperTestCase {
+
+    private static ManagedLedgerFactoryConfig journalConfig() {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setCursorJournalEnabled(true);
+        config.setCursorJournalMaxBatchDelayMillis(1);
+        return config;
+    }
+
+    private static List<Position> addEntries(ManagedLedger ledger, int count) throws Exception {
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        return positions;
+    }
+
+    private long getLastEntryId(long ledgerId) throws Exception {
+        return bkc.openLedgerNoRecovery(ledgerId, DigestType.CRC32C, new byte[0]).getLastAddConfirmed();
+    }
+
+    private static CompletableFuture<Void> markDelete(ManagedCursorImpl cursor, Position position) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        cursor.asyncMarkDelete(position, new MarkDeleteCallback() {
+            @Override
+            public void markDeleteComplete(Object ctx) {
+                future.complete(null);
+            }
+
+            @Override
+            public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future;
+    }
+
+    @Test(timeOut = 20000)
+    public void testCursorsShareJournalLedger() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = journalConfig();
+        factoryConfig.setCursorJournalMaxBatchDelayMillis(100);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig);
+        try {
+            ManagedLedger ledger = factory1.open("my_test_ledger", new ManagedLedgerConfig());
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+            ManagedCursorImpl c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+            ManagedCursorImpl c3 = (ManagedCursorImpl) factory1.open("other_ledger").openCursor("c1");
+
+            long journalLedgerId = factory1.getCursorJournal().getCurrentLedgerId();
+            assertNotEquals(journalLedgerId, -1L);
+            assertEquals(c1.getCursorLedger(), journalLedgerId);
+            assertEquals(c2.getCursorLedger(), journalLedgerId);
+            assertEquals(c3.getCursorLedger(), journalLedgerId);
+            long initialEntryId = getLastEntryId(journalLedgerId);
+
+            // The concurrent updates of the cursors are written in the same journal entries
+            List<Position> positions = addEntries(ledger, 10);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Position position : positions) {
+                futures.add(markDelete(c1, position));
+                futures.add(markDelete(c2, position));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            assertEquals(c1.getMarkDeletedPosition(), positions.get(9));
+            assertEquals(c2.getMarkDeletedPosition(), positions.get(9));
+            assertTrue(getLastEntryId(journalLedgerId) - initialEntryId < futures.size());
+            assertTrue(bkc.getLedgers().contains(journalLedgerId));
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testRecoveryAfterCrash() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = journalConfig();
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig);
+        ManagedLedger ledger = factory1.open("my_test_ledger", new ManagedLedgerConfig());
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        List<Position> positions = addEntries(ledger, 10);
+        c1.markDelete(positions.get(4));
+
+        // The last update is never written into the journal
+        factoryConfig.setCursorJournalMaxBatchDelayMillis(60000);
+        CountDownLatch lastUpdate = new CountDownLatch(1);
+        markDelete(c1, positions.get(6)).thenRun(lastUpdate::countDown);
+
+        // Recover the cursor without closing the previous instance
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zkc, journalConfig());
+        try {
+            ManagedLedger recoveredLedger = factory2.open("my_test_ledger", new ManagedLedgerConfig());
+            ManagedCursorImpl recoveredCursor = (ManagedCursorImpl) recoveredLedger.openCursor("c1");
+            assertEquals(recoveredCursor.getMarkDeletedPosition(), positions.get(4));
+            assertEquals(lastUpdate.getCount(), 1);
+
+            // The recovered cursor moves to the journal of the new instance
+            recoveredCursor.markDelete(positions.get(8));
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                    recoveredCursor.getCursorLedger() == factory2.getCursorJournal().getCurrentLedgerId());
+        } finally {
+            factory2.shutdown();
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testJournalLedgerRollover() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = journalConfig();
+        factoryConfig.setCursorJournalMaxEntriesPerLedger(5);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig);
+        try {
+            ManagedLedger ledger = factory1.open("my_test_ledger", new ManagedLedgerConfig());
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+            long firstJournalLedgerId = c1.getCursorLedger();
+            assertTrue(bkc.getLedgers().contains(firstJournalLedgerId));
+
+            List<Position> positions = addEntries(ledger, 20);
+            for (Position position : positions) {
+                c1.markDelete(position);
+            }
+
+            // Once the cursor has moved to a new journal ledger, the old ledger is deleted
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                    !bkc.getLedgers().contains(firstJournalLedgerId));
+            assertNotEquals(c1.getCursorLedger(), firstJournalLedgerId);
+            assertFalse(factory1.getCursorJournal().getLedgerIds().contains(firstJournalLedgerId));
+            assertEquals(c1.getMarkDeletedPosition(), positions.get(19));
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testRecoverRangesAfterClose() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig();
+        config.setMaxUnackedRangesToPersistInZk(0);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, zkc, journalConfig());
+        ManagedLedger ledger = factory1.open("my_test_ledger", config);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        ManagedCursorImpl c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+        List<Position> positions = addEntries(ledger, 10);
+        c1.delete(positions.get(0));
+        c1.delete(positions.get(2));
+        c1.delete(positions.get(5));
+        c2.markDelete(positions.get(3));
+        String deletedMessages = c1.getIndividuallyDeletedMessages();
+
+        // The journal ledger is still used by the other cursors, so the closed cursor refers to its last entry
+        long journalLedgerId = c1.getCursorLedger();
+        c1.close();
+        assertTrue(factory1.getCursorJournal().getLedgerIds().contains(journalLedgerId));
+
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zkc, journalConfig());
+        try {
+            ManagedLedger recoveredLedger = factory2.open("my_test_ledger", config);
+            ManagedCursorImpl recoveredCursor = (ManagedCursorImpl) recoveredLedger.openCursor("c1");
+            assertEquals(recoveredCursor.getMarkDeletedPosition(), positions.get(0));
+            assertEquals(recoveredCursor.getIndividuallyDeletedMessages(), deletedMessages);
+        } finally {
+            factory2.shutdown();
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testOrphanJournalAdopted() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig1 = journalConfig();
+        factoryConfig1.setCursorJournalName("broker-1");
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig1);
+        ManagedLedger ledger = factory1.open("my_test_ledger", new ManagedLedgerConfig());
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        List<Position> positions = addEntries(ledger, 10);
+        c1.markDelete(positions.get(4));
+        long orphanLedgerId = c1.getCursorLedger();
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                zkc.exists(CursorJournal.OWNERS_PATH + "/broker-1", false) != null);
+
+        // The factory never comes back with the same name
+        factory1.shutdown();
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                zkc.exists(CursorJournal.OWNERS_PATH + "/broker-1", false) == null);
+
+        ManagedLedgerFactoryConfig factoryConfig2 = journalConfig();
+        factoryConfig2.setCursorJournalName("broker-2");
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig2);
+        try {
+            ManagedLedger recoveredLedger = factory2.open("my_test_ledger", new ManagedLedgerConfig());
+            ManagedCursorImpl recoveredCursor = (ManagedCursorImpl) recoveredLedger.openCursor("c1");
+            recoveredCursor.markDelete(positions.get(8));
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                    recoveredCursor.getCursorLedger() == factory2.getCursorJournal().getCurrentLedgerId());
+
+            // The ledgers of the orphan journal are deleted by the other journal
+            factory2.getCursorJournal().checkOrphanJournals().get(10, TimeUnit.SECONDS);
+            assertNull(zkc.exists(CursorJournal.JOURNALS_PATH + "/broker-1", false));
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                    !factory2.getCursorJournal().getLedgerIds().contains(orphanLedgerId));
+            assertFalse(bkc.getLedgers().contains(orphanLedgerId));
+        } finally {
+            factory2.shutdown();
+        }
+    }
+}
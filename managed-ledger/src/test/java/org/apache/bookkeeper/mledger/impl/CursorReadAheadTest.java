@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import com.google.common.base.Charsets;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.awaitility.Awaitility;
+import org.testng.annotations.Test;
+
+public class CursorReadAheadTest extends MockedBookKeeperTestCase {
+
+    private static final Charset Encoding = Charsets.UTF_8;
+
+    private ManagedLedgerImpl openLedger() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setReadAheadEnabled(true).setReadAheadMaxEntries(100);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        for (int i = 0; i < 100; i++) {
+            ledger.addEntry(("entry-" + i).getBytes(Encoding));
+        }
+        return ledger;
+    }
+
+    private static void readAndVerify(ManagedCursorImpl cursor, int firstEntry, int count) throws Exception {
+        List<Entry> entries = cursor.readEntries(count);
+        assertEquals(entries.size(), count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(new String(entries.get(i).getData(), Encoding), "entry-" + (firstEntry + i));
+        }
+        entries.forEach(Entry::release);
+    }
+
+    @Test(timeOut = 20000)
+    public void testSequentialReadsArePrefetched() throws Exception {
+        ManagedLedgerImpl ledger = openLedger();
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+
+        // The read-ahead kicks in only after a few sequential reads
+        readAndVerify(cursor, 0, 10);
+        readAndVerify(cursor, 10, 10);
+        CursorReadAhead readAhead = cursor.getReadAhead();
+        assertNotNull(readAhead);
+        assertEquals(readAhead.getBufferedEntries(), 0);
+
+        readAndVerify(cursor, 20, 10);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> readAhead.getBufferedEntries() == 10);
+        assertEquals(readAhead.getWindowEntries(), 10);
+        assertEquals(cacheManager.getReadAheadSize(), readAhead.getBufferedSize());
+
+        // The next read is served from the buffer, and the following entries get prefetched
+        readAndVerify(cursor, 30, 10);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> readAhead.getBufferedEntries() == 10);
+
+        // A partially buffered read is completed with the entries read from the ledger
+        readAndVerify(cursor, 40, 15);
+        readAndVerify(cursor, 55, 10);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .until(() -> cacheManager.getReadAheadSize() == readAhead.getBufferedSize());
+
+        // Non sequential reads discard the prefetched entries
+        cursor.rewind();
+        readAndVerify(cursor, 0, 5);
+        assertEquals(readAhead.getBufferedEntries(), 0);
+        assertEquals(cacheManager.getReadAheadSize(), 0);
+
+        ledger.close();
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadAheadReleasedOnClose() throws Exception {
+        ManagedLedgerImpl ledger = openLedger();
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+
+        for (int i = 0; i < 3; i++) {
+            readAndVerify(cursor, i * 10, 10);
+        }
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> cacheManager.getReadAheadSize() > 0);
+
+        cursor.close();
+        assertNull(cursor.getReadAhead());
+        assertEquals(cacheManager.getReadAheadSize(), 0);
+
+        ledger.close();
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadAheadDisabledAtRuntime() throws Exception {
+        ManagedLedgerImpl ledger = openLedger();
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+
+        for (int i = 0; i < 3; i++) {
+            readAndVerify(cursor, i * 10, 10);
+        }
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> cacheManager.getReadAheadSize() > 0);
+
+        // The buffer is released with the next read, that goes straight to the ledger
+        ledger.getConfig().setReadAheadEnabled(false);
+        readAndVerify(cursor, 30, 10);
+        assertNull(cursor.getReadAhead());
+        assertEquals(cacheManager.getReadAheadSize(), 0);
+
+        ledger.close();
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadAheadBudgetReservedBeforePrefetch() throws Exception {
+        // Less than the estimated size of the first prefetch: 10 entries of about 7 bytes
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setReadAheadMaxMemorySize(50);
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), factoryConfig);
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setReadAheadEnabled(true).setReadAheadMaxEntries(100);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger", config);
+        for (int i = 0; i < 100; i++) {
+            ledger.addEntry(("entry-" + i).getBytes(Encoding));
+        }
+        ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        for (int i = 0; i < 3; i++) {
+            readAndVerify(cursor, i * 10, 10);
+        }
+
+        // The first prefetch was not issued, even though no entry size was known yet
+        CursorReadAhead readAhead = cursor.getReadAhead();
+        assertEquals(readAhead.getBufferedEntries(), 0);
+        assertEquals(readAhead.getWindowEntries(), 5);
+        assertEquals(factory2.getEntryCacheManager().getReadAheadSize(), 0);
+
+        ledger.close();
+        factory2.shutdown();
+    }
+}
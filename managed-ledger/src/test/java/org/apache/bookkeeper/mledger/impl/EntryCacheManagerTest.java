@@ -20,12 +20,14 @@ package org.apache.bookkeeper.mledger.impl;
 
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import com.google.common.collect.Lists;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -39,6 +41,7 @@ import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.commons.lang3.tuple.Pair;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -250,6 +253,8 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getCacheMissesRate(), 0.0);
         assertEquals(cacheManager.mlFactoryMBean.getCacheHitsThroughput(), 70.0);
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyHits(), 10);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyMisses(), 0);
 
         ledger.deactivateCursor(c1);
 
@@ -281,6 +286,12 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getCacheMissesRate(), 0.0);
         assertEquals(cacheManager.mlFactoryMBean.getCacheHitsThroughput(), 0.0);
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
+
+        // The policy counters are cumulative
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyHits(), 20);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyMisses(), 0);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyEvictions(), 0);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicyAdmissionRejections(), 0);
     }
 
     @Test
@@ -319,6 +330,163 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         factory.shutdown();
     }
 
+    @Test
+    public void frequencyEvictionPolicy() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(10);
+        config.setEntryCacheEvictionPolicyClassName(EntryCacheFrequencyEvictionPolicy.class.getName());
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        assertTrue(factory.getEntryCacheManager().getEvictionPolicy() instanceof EntryCacheFrequencyEvictionPolicy);
+        assertEquals(factory.getCacheStats().getCacheEvictionPolicy(),
+                EntryCacheFrequencyEvictionPolicy.class.getName());
+
+        EntryCacheFrequencyEvictionPolicy policy = new EntryCacheFrequencyEvictionPolicy();
+        policy.initialize(factory);
+
+        EntryCache hot = mockEntryCache("hot", 5);
+        EntryCache cold = mockEntryCache("cold", 5);
+
+        for (int i = 0; i < 3; i++) {
+            policy.recordAccess(hot, 1, true);
+        }
+        assertEquals(policy.frequency(hot), 3);
+        assertEquals(policy.frequency(cold), 0);
+
+        // The least read cache is evicted first, even if it's not the biggest
+        Pair<Integer, Long> evicted = policy.doEviction(Lists.newArrayList(hot, cold), 2);
+        assertEquals(evicted, Pair.of(1, 2L));
+        verify(cold).evictEntries(2);
+        verify(hot, never()).evictEntries(anyLong());
+        assertEquals(policy.getVictimFrequency(), 0);
+
+        evicted = policy.doEviction(Lists.newArrayList(hot, cold), 7);
+        assertEquals(evicted, Pair.of(2, 7L));
+        verify(cold).evictEntries(5);
+        verify(hot).evictEntries(2);
+        assertEquals(policy.getVictimFrequency(), 3);
+
+        // Only caches read at least as frequently as the last victim can receive new entries
+        EntryImpl entry = EntryImpl.create(1, 1, new byte[1]);
+        assertTrue(policy.admit(hot, entry));
+        assertFalse(policy.admit(cold, entry));
+        entry.release();
+    }
+
+    @Test
+    public void frequencyEvictionPolicyWithReplayingReader() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(100);
+        config.setEntryCacheEvictionPolicyClassName(EntryCacheFrequencyEvictionPolicy.class.getName());
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheFrequencyEvictionPolicy policy = new EntryCacheFrequencyEvictionPolicy();
+        policy.initialize(factory);
+
+        EntryCache tailing = mockEntryCache("tailing", 50);
+        EntryCache replaying = mockEntryCache("replaying", 50);
+
+        // The tailing reader is served from the cache, while the replaying reader reads its whole backlog from the
+        // bookies
+        for (int i = 0; i < 5; i++) {
+            policy.recordAccess(tailing, 1, true);
+        }
+        for (int i = 0; i < 1000; i++) {
+            policy.recordAccess(replaying, 100, false);
+        }
+        assertEquals(policy.frequency(tailing), 5);
+        assertEquals(policy.frequency(replaying), 0);
+
+        // The replayed ledger is drained first, and the entries of the tailing reader stay in the cache
+        Pair<Integer, Long> evicted = policy.doEviction(Lists.newArrayList(tailing, replaying), 50);
+        assertEquals(evicted, Pair.of(1, 50L));
+        verify(replaying).evictEntries(50);
+        verify(tailing, never()).evictEntries(anyLong());
+
+        evicted = policy.doEviction(Lists.newArrayList(tailing, replaying), 20);
+        assertEquals(evicted, Pair.of(1, 20L));
+        verify(replaying).evictEntries(20);
+        verify(tailing, never()).evictEntries(anyLong());
+    }
+
+    @Test
+    public void frequencySketchConcurrentIncrements() throws Exception {
+        EntryCacheFrequencyEvictionPolicy.FrequencySketch sketch =
+                new EntryCacheFrequencyEvictionPolicy.FrequencySketch(1024);
+
+        int threads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 3; j++) {
+                        sketch.increment(42);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // No increment is lost without the lock
+        assertEquals(sketch.frequency(42), 12);
+
+        // The counters are halved once the sample size is reached
+        boolean aged = false;
+        for (int key = 0; !aged; key++) {
+            aged = sketch.increment(key + 1000);
+        }
+        assertTrue(sketch.frequency(42) <= 7);
+    }
+
+    private static EntryCache mockEntryCache(String name, long size) {
+        EntryCache cache = mock(EntryCache.class);
+        when(cache.getName()).thenReturn(name);
+        when(cache.getSize()).thenReturn(size);
+        when(cache.evictEntries(anyLong())).thenAnswer(invocation -> Pair.of(1, (Long) invocation.getArgument(0)));
+        return cache;
+    }
+
+    @Test
+    public void activeCursorsEvictionPolicy() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(1000);
+        config.setEntryCacheEvictionPolicyClassName(EntryCacheActiveCursorsEvictionPolicy.class.getName());
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        assertTrue(cacheManager.getEvictionPolicy() instanceof EntryCacheActiveCursorsEvictionPolicy);
+
+        ManagedLedgerImpl ledger1 = (ManagedLedgerImpl) factory.open("ledger1");
+        ledger1.openCursor("c1");
+        ledger1.openCursor("c2");
+        ManagedLedgerImpl ledger2 = (ManagedLedgerImpl) factory.open("ledger2");
+        ledger2.openCursor("c3");
+
+        for (int i = 0; i < 10; i++) {
+            ledger1.addEntry(("entry-" + i).getBytes());
+            ledger2.addEntry(("entry-" + i).getBytes());
+        }
+
+        EntryCache cache1 = cacheManager.getEntryCache(ledger1);
+        EntryCache cache2 = cacheManager.getEntryCache(ledger2);
+        assertEquals(cache1.getSize(), 70);
+        assertEquals(cache2.getSize(), 70);
+
+        // Entries are evicted first from the cache that is needed by fewer active cursors
+        Pair<Integer, Long> evicted = cacheManager.getEvictionPolicy()
+                .doEviction(Lists.newArrayList(cache1, cache2), 20);
+        assertEquals(evicted, Pair.of(3, 21L));
+        assertEquals(cache1.getSize(), 70);
+        assertEquals(cache2.getSize(), 49);
+    }
+
     @Test(timeOut = 5000)
     void entryCacheDisabledAsyncReadEntry() throws Exception {
         ReadHandle lh = EntryCacheTest.getLedgerHandle();
@@ -23,17 +23,25 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 import io.netty.buffer.Unpooled;
 
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.bookkeeper.client.BKException.BKNoSuchLedgerExistsException;
 import org.apache.bookkeeper.client.api.LedgerEntries;
@@ -238,6 +246,70 @@ public class EntryCacheTest extends MockedBookKeeperTestCase {
         counter.await();
     }
 
+    @Test(timeOut = 5000)
+    public void testReadCoalescing() throws Exception {
+        final ReadHandle lh = mock(ReadHandle.class);
+        when(lh.getId()).thenReturn((long) 0);
+
+        Map<Long, CompletableFuture<LedgerEntries>> pendingReads = new ConcurrentHashMap<>();
+        doAnswer((invocation) -> {
+                CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+                pendingReads.put((Long) invocation.getArguments()[0], future);
+                return future;
+            }).when(lh).readAsync(anyLong(), anyLong());
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        final CountDownLatch counter = new CountDownLatch(2);
+        final List<Integer> readSizes = new Vector<>();
+        ReadEntriesCallback callback = new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                readSizes.add(entries.size());
+                entries.forEach(e -> e.release());
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        };
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, callback, null);
+        // Overlaps with the pending read, only the missing entries are read from bookkeeper
+        entryCache.asyncReadEntry(lh, 5, 14, false, callback, null);
+
+        verify(lh).readAsync(0, 9);
+        verify(lh).readAsync(10, 14);
+        verify(lh, times(2)).readAsync(anyLong(), anyLong());
+
+        pendingReads.get(0L).complete(getLedgerEntries(10));
+        pendingReads.get(10L).complete(getLedgerEntries(5));
+        counter.await();
+
+        assertEquals(readSizes.size(), 2);
+        assertEquals(readSizes.get(0).intValue(), 10);
+        assertEquals(readSizes.get(1).intValue(), 10);
+
+        cacheManager.mlFactoryMBean.refreshStats(1, TimeUnit.SECONDS);
+        assertEquals(cacheManager.mlFactoryMBean.getCoalescedReadsRate(), 1.0);
+        assertEquals(cacheManager.mlFactoryMBean.getCoalescedReadEntriesRate(), 5.0);
+    }
+
+    static LedgerEntries getLedgerEntries(int count) {
+        final LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
+        doReturn(Unpooled.wrappedBuffer(new byte[10])).when(ledgerEntry).getEntryBuffer();
+        doReturn((long) 10).when(ledgerEntry).getLength();
+
+        Vector<LedgerEntry> entries = new Vector<LedgerEntry>();
+        for (int i = 0; i < count; i++) {
+            entries.add(ledgerEntry);
+        }
+        LedgerEntries ledgerEntries = mock(LedgerEntries.class);
+        doAnswer((invocation) -> entries.iterator()).when(ledgerEntries).iterator();
+        return ledgerEntries;
+    }
+
     static ReadHandle getLedgerHandle() {
         final ReadHandle lh = mock(ReadHandle.class);
         final LedgerEntry ledgerEntry = mock(LedgerEntry.class, Mockito.CALLS_REAL_METHODS);
@@ -261,4 +333,80 @@ public class EntryCacheTest extends MockedBookKeeperTestCase {
         return lh;
     }
 
+
+    @Test(timeOut = 5000)
+    public void testDecodedDataSharedByCachedEntries() throws Exception {
+        ReadHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        EntryImpl entry = EntryImpl.create(0, 0, new byte[10]);
+        assertFalse(entry.isDecodedDataShared());
+        entryCache.insert(entry);
+        entry.release();
+        assertEquals(entryCache.getSize(), 10);
+        assertEquals(cacheManager.getSize(), 10);
+
+        // Every read returns a different copy of the cached entry, which decodes the data only once
+        AtomicInteger decodeCount = new AtomicInteger();
+        String decoded = null;
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+            entryCache.asyncReadEntry(lh, 0, 0, false, new ReadEntriesCallback() {
+                public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                    future.complete(entries);
+                }
+
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+            EntryImpl copy = (EntryImpl) future.get().get(0);
+            assertTrue(copy.isDecodedDataShared());
+            String value = copy.getDecodedData(String.class, data -> {
+                decodeCount.incrementAndGet();
+                return "decoded-" + data.readableBytes();
+            }, v -> 100);
+            assertEquals(value, "decoded-10");
+            if (decoded != null) {
+                assertSame(value, decoded);
+            }
+            decoded = value;
+            copy.release();
+        }
+        assertEquals(decodeCount.get(), 1);
+
+        // The decoded data is accounted once in the size of the cache, until the entry leaves the cache
+        assertEquals(entryCache.getSize(), 110);
+        assertEquals(cacheManager.getSize(), 110);
+
+        // A copy can replace the decoded data with a bigger view, which is seen by the next copies
+        EntryImpl copy = (EntryImpl) readEntry(entryCache, lh);
+        copy.setDecodedData("decoded-more", 150);
+        copy.release();
+        copy = (EntryImpl) readEntry(entryCache, lh);
+        assertEquals(copy.getDecodedData(String.class, data -> "decoded-again", v -> 100), "decoded-more");
+        copy.release();
+        assertEquals(entryCache.getSize(), 160);
+        assertEquals(cacheManager.getSize(), 160);
+        entryCache.invalidateAllEntries(0);
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(cacheManager.getSize(), 0);
+    }
+
+    private static Entry readEntry(EntryCache entryCache, ReadHandle lh) throws Exception {
+        CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+        entryCache.asyncReadEntry(lh, 0, 0, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries);
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future.get().get(0);
+    }
 }
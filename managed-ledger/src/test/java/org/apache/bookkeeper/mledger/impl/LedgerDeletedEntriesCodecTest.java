@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LedgerDeletedEntries;
+import org.testng.annotations.Test;
+
+public class LedgerDeletedEntriesCodecTest {
+
+    private static List<Long> decode(LedgerDeletedEntries deletedEntries) throws Exception {
+        List<Long> runs = new ArrayList<>();
+        LedgerDeletedEntriesCodec.forEachRun(deletedEntries, (firstEntry, lastEntry) -> {
+            runs.add(firstEntry);
+            runs.add(lastEntry);
+        });
+        return runs;
+    }
+
+    @Test
+    public void testLongRunsAreEncodedAsRuns() throws Exception {
+        LedgerDeletedEntriesCodec.Builder builder = new LedgerDeletedEntriesCodec.Builder(5);
+        builder.addRun(0, 999);
+        builder.addRun(1000, 1999);
+        builder.addRun(100000, 200000);
+
+        LedgerDeletedEntries deletedEntries = builder.build();
+        assertEquals(deletedEntries.getLedgerId(), 5);
+        assertTrue(deletedEntries.hasRuns());
+        assertFalse(deletedEntries.hasBitmap());
+        assertEquals(decode(deletedEntries), Arrays.asList(0L, 1999L, 100000L, 200000L));
+    }
+
+    @Test
+    public void testScatteredHolesAreEncodedAsBitmap() throws Exception {
+        LedgerDeletedEntriesCodec.Builder builder = new LedgerDeletedEntriesCodec.Builder(5);
+        List<Long> expected = new ArrayList<>();
+        for (long entryId = 1000; entryId < 11000; entryId += 2) {
+            builder.addRun(entryId, entryId);
+            expected.add(entryId);
+            expected.add(entryId);
+        }
+        // A run that ends on the last bit of the bitmap
+        builder.addRun(11000, 11007);
+        expected.add(11000L);
+        expected.add(11007L);
+
+        LedgerDeletedEntries deletedEntries = builder.build();
+        assertTrue(deletedEntries.hasBitmap());
+        assertFalse(deletedEntries.hasRuns());
+        assertEquals(deletedEntries.getBitmapOffset(), 1000);
+        assertEquals(deletedEntries.getBitmap().size(), 10008 / 8);
+        assertEquals(decode(deletedEntries), expected);
+    }
+
+    @Test
+    public void testEmptyLedger() throws Exception {
+        LedgerDeletedEntries deletedEntries = new LedgerDeletedEntriesCodec.Builder(5).build();
+        assertFalse(deletedEntries.hasRuns());
+        assertFalse(deletedEntries.hasBitmap());
+        assertTrue(decode(deletedEntries).isEmpty());
+    }
+}
@@ -315,6 +315,11 @@ public class ManagedCursorContainerTest {
             return 0;
         }
 
+        @Override
+        public long getNonContiguousDeletedMessagesRangeMemorySize() {
+            return 0;
+        }
+
         @Override
         public long getEstimatedSizeSinceMarkDeletePosition() {
             return 0L;
@@ -59,6 +59,7 @@ import java.util.stream.Collectors;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.BookKeeper.DigestType;
@@ -81,6 +82,7 @@ import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.VoidCallback;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
 import org.apache.pulsar.metadata.api.Stat;
@@ -2334,6 +2336,86 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         internalTestFindNewestMatchingAllEntries(ledgerAndCursorName, entriesPerLedger, expectedEntryId);
     }
 
+    private static Position findNewestOlderThan(ManagedCursor cursor, long timestamp, List<Position> readPositions)
+            throws Exception {
+        CompletableFuture<Position> future = new CompletableFuture<>();
+        cursor.asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries, entry -> {
+            try {
+                readPositions.add(entry.getPosition());
+                return entry.getDataBuffer().getLong(entry.getDataBuffer().readerIndex()) < timestamp;
+            } finally {
+                entry.release();
+            }
+        }, timestamp, new AsyncCallbacks.FindEntryCallback() {
+            @Override
+            public void findEntryComplete(Position position, Object ctx) {
+                future.complete(position);
+            }
+
+            @Override
+            public void findEntryFailed(ManagedLedgerException exception, Optional<Position> failedReadPosition,
+                    Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future.get();
+    }
+
+    @Test(timeOut = 20000)
+    void testFindNewestMatchingWithTimestampIndex() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig();
+        config.setMaxEntriesPerLedger(50);
+        config.setTimestampIndexSamplingInterval(10);
+        config.setEntryTimestampExtractor(data -> data.getLong(data.readerIndex()));
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        ManagedCursor c1 = ledger.openCursor("c1");
+
+        // The timestamp of the entry i is i * 10
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 230; i++) {
+            ByteBuf data = ByteBufAllocator.DEFAULT.buffer(8).writeLong(i * 10);
+            positions.add(ledger.addEntry(ByteBufUtil.getBytes(data)));
+            data.release();
+        }
+
+        // The closed ledgers store their index
+        assertEquals(ledger.getLedgersInfo().size(), 5);
+        LedgerInfo closedLedger = ledger.getLedgersInfo().firstEntry().getValue();
+        assertEquals(closedLedger.getTimestampIndex().getSamplingInterval(), 10);
+        assertEquals(closedLedger.getTimestampIndex().getTimestampDeltasList(),
+                Lists.newArrayList(0L, 100L, 100L, 100L, 100L));
+
+        // The search starts from the last sampled entry before the timestamp, in a closed ledger
+        List<Position> readPositions = new ArrayList<>();
+        assertEquals(findNewestOlderThan(c1, 1005, readPositions), positions.get(100));
+        assertEquals(readPositions.get(0), positions.get(100));
+
+        // And in the ledger being written
+        readPositions.clear();
+        assertEquals(findNewestOlderThan(c1, 2255, readPositions), positions.get(225));
+        assertEquals(readPositions.get(0), positions.get(220));
+
+        readPositions.clear();
+        assertNull(findNewestOlderThan(c1, 0, readPositions));
+        assertEquals(readPositions, Lists.newArrayList(positions.get(0)));
+
+        // The entries whose timestamps don't follow the index are still found
+        ManagedLedgerConfig config2 = new ManagedLedgerConfig();
+        config2.setMaxEntriesPerLedger(50);
+        config2.setTimestampIndexSamplingInterval(10);
+        config2.setEntryTimestampExtractor(data -> 0);
+        ManagedLedgerImpl ledger2 = (ManagedLedgerImpl) factory.open("my_test_ledger_2", config2);
+        ManagedCursor c2 = ledger2.openCursor("c2");
+        for (int i = 0; i < 100; i++) {
+            ByteBuf data = ByteBufAllocator.DEFAULT.buffer(8).writeLong(i * 10);
+            positions.add(ledger2.addEntry(ByteBufUtil.getBytes(data)));
+            data.release();
+        }
+        readPositions.clear();
+        assertEquals(findNewestOlderThan(c2, 505, readPositions), positions.get(230 + 50));
+        assertEquals(readPositions.get(0), positions.get(230 + 90));
+    }
+
     @Test(timeOut = 20000)
     void testReplayEntries() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger");
@@ -2879,6 +2961,78 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         assertEquals(entries.size(), totalAddEntries / 2);
     }
 
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceAsBitmap() throws Exception {
+        final int totalAddEntries = 100;
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setPersistIndividualDeletedMessagesAsBitmap(true)
+                .setIndividualDeletedMessagesSnapshotInterval(7).setMaxUnackedRangesToPersist(10)
+                .setMaxEntriesPerLedger(30);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            addedPositions.add(ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding)));
+        }
+
+        // Leave more holes than the max number of ranges to persist, spread over multiple ledgers. Every delete is
+        // persisted in the cursor ledger, with a full snapshot every few entries
+        for (int i = 2; i < totalAddEntries; i += 2) {
+            c1.delete(addedPositions.get(i));
+        }
+        c1.delete(addedPositions.get(0));
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2);
+        assertEquals(c1.getMarkDeletedPosition(), addedPositions.get(0));
+
+        // Reopen without closing the cursor, so that it is recovered from the cursor ledger
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger", config);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        assertEquals(c1.getMarkDeletedPosition(), addedPositions.get(0));
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2);
+        for (int i = 1; i < totalAddEntries; i++) {
+            assertEquals(c1.isMessageDeleted(addedPositions.get(i)), i % 2 == 0);
+        }
+
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), totalAddEntries / 2);
+        entries.forEach(Entry::release);
+        factory2.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeleteOffHeap() throws Exception {
+        final int totalAddEntries = 100;
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setUnackedRangesOffHeapEnabled(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        assertEquals(c1.getNonContiguousDeletedMessagesRangeMemorySize(), 0);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            addedPositions.add(ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding)));
+        }
+        for (int i = 2; i < totalAddEntries; i += 2) {
+            c1.delete(addedPositions.get(i));
+        }
+        assertEquals(c1.getTotalNonContiguousDeletedMessagesRange(), totalAddEntries / 2 - 1);
+        assertTrue(c1.getNonContiguousDeletedMessagesRangeMemorySize() > 0);
+
+        // The off-heap memory is released once the position is persisted
+        c1.close();
+        assertEquals(c1.getNonContiguousDeletedMessagesRangeMemorySize(), 0);
+        ledger.close();
+
+        ledger = (ManagedLedgerImpl) factory.open("my_test_ledger", config);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2 + 1);
+        for (int i = 0; i < totalAddEntries; i++) {
+            assertEquals(c1.isMessageDeleted(addedPositions.get(i)), i > 0 && i % 2 == 0);
+        }
+        ledger.close();
+    }
+
     /**
      * Close Cursor without MaxUnackedRangesToPersistInZK: It should store individually unack range into Zk
      *
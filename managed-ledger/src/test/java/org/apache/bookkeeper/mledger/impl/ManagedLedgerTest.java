@@ -43,6 +43,7 @@ import java.nio.ReadOnlyBufferException;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -94,6 +95,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.ManagedLedgerNotFoun
 import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactory;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.NewEntryListener;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.VoidCallback;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
@@ -2909,4 +2911,26 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         Assert.assertEquals(ledger.getLedgersInfoAsList().size(), 1);
         Assert.assertEquals(ledger.getTotalSize(), 0);
     }
+
+    @Test(timeOut = 20000)
+    public void testNewEntryListener() throws Exception {
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("my_test_ledger");
+        ledger.openCursor("c1");
+
+        List<Position> positions = new ArrayList<>();
+        List<String> data = new ArrayList<>();
+        NewEntryListener listener = (position, entryData) -> {
+            positions.add(position);
+            data.add(entryData.toString(Encoding));
+        };
+        ledger.addNewEntryListener(listener);
+        Position p1 = ledger.addEntry("entry-1".getBytes(Encoding));
+        Position p2 = ledger.addEntry("entry-2".getBytes(Encoding));
+
+        // The listener gets the entries once they are persisted, until it's removed
+        ledger.removeNewEntryListener(listener);
+        ledger.addEntry("entry-3".getBytes(Encoding));
+        assertEquals(positions, Arrays.asList(p1, p2));
+        assertEquals(data, Arrays.asList("entry-1", "entry-2"));
+    }
 }
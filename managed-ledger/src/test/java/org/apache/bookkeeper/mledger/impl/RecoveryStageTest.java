@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenLedgerCallback;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.awaitility.Awaitility;
+import org.testng.annotations.Test;
+
+public class RecoveryStageTest extends MockedBookKeeperTestCase {
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecoveryStage stage = new RecoveryStage(2, executor);
+            List<Runnable> runningOperations = new ArrayList<>();
+            AtomicInteger completedOperations = new AtomicInteger();
+            for (int i = 0; i < 5; i++) {
+                stage.execute(completed -> {
+                    synchronized (runningOperations) {
+                        runningOperations.add(() -> {
+                            completed.run();
+                            completedOperations.incrementAndGet();
+                        });
+                    }
+                });
+            }
+            assertEquals(stage.getRunningOperations(), 2);
+            assertEquals(stage.getWaitingOperations(), 3);
+
+            // Each completed operation lets a waiting one start
+            for (int i = 0; i < 5; i++) {
+                Runnable operation;
+                synchronized (runningOperations) {
+                    operation = runningOperations.remove(0);
+                }
+                operation.run();
+                int expectedRunning = Math.min(2, 4 - i);
+                Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> {
+                    synchronized (runningOperations) {
+                        return runningOperations.size() == expectedRunning;
+                    }
+                });
+            }
+            assertEquals(completedOperations.get(), 5);
+            assertEquals(stage.getRunningOperations(), 0);
+            assertEquals(stage.getWaitingOperations(), 0);
+
+            // An operation failing to start doesn't hold its slot
+            try {
+                stage.execute(completed -> {
+                    throw new IllegalStateException();
+                });
+                fail("Should have failed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(stage.getRunningOperations(), 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testRecoveryWithConcurrencyLimits() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ManagedLedger ledger = factory.open("my_test_ledger_" + i, new ManagedLedgerConfig());
+            for (int j = 0; j < 3; j++) {
+                ManagedCursor cursor = ledger.openCursor("c" + j);
+                cursor.markDelete(ledger.addEntry(("entry-" + j).getBytes()));
+            }
+            ledger.close();
+        }
+
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setRecoveryMaxConcurrentMetadataOperations(1);
+        factoryConfig.setRecoveryMaxConcurrentLedgerOpens(1);
+        factoryConfig.setRecoveryMaxConcurrentCursorRecoveries(2);
+        ManagedLedgerFactoryImpl factory2 = new ManagedLedgerFactoryImpl(bkc, zkc, factoryConfig);
+        try {
+            List<CompletableFuture<ManagedLedger>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                CompletableFuture<ManagedLedger> future = new CompletableFuture<>();
+                factory2.asyncOpen("my_test_ledger_" + i, new OpenLedgerCallback() {
+                    @Override
+                    public void openLedgerComplete(ManagedLedger ledger, Object ctx) {
+                        future.complete(ledger);
+                    }
+
+                    @Override
+                    public void openLedgerFailed(ManagedLedgerException exception, Object ctx) {
+                        future.completeExceptionally(exception);
+                    }
+                }, null);
+                futures.add(future);
+            }
+
+            for (CompletableFuture<ManagedLedger> future : futures) {
+                ManagedLedger ledger = future.get(10, TimeUnit.SECONDS);
+                int cursors = 0;
+                for (ManagedCursor cursor : ledger.getCursors()) {
+                    assertEquals(((PositionImpl) cursor.getMarkDeletedPosition()).getEntryId(),
+                            Integer.parseInt(cursor.getName().substring(1)));
+                    cursors++;
+                }
+                assertEquals(cursors, 3);
+            }
+            assertEquals(factory2.getRecoveryMetadataStage().getRunningOperations(), 0);
+            assertEquals(factory2.getRecoveryLedgerOpenStage().getRunningOperations(), 0);
+            assertEquals(factory2.getRecoveryCursorStage().getRunningOperations(), 0);
+        } finally {
+            factory2.shutdown();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.commons.lang3.tuple.Pair;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SegmentedEntryCacheTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedgerImpl ml;
+
+    @BeforeMethod
+    public void setUp(Method method) throws Exception {
+        super.setUp(method);
+        ml = mock(ManagedLedgerImpl.class);
+        when(ml.getName()).thenReturn("name");
+        when(ml.getExecutor()).thenReturn(executor);
+        when(ml.getMBean()).thenReturn(new ManagedLedgerMBeanImpl(ml));
+
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setSegmentedEntryCacheEnabled(true);
+        // Each segment holds 3 entries of 10 bytes
+        config.setEntryCacheSegmentSize(32);
+
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+    }
+
+    private static byte[] entryData(int i) {
+        byte[] data = new byte[10];
+        data[0] = (byte) i;
+        return data;
+    }
+
+    @Test(timeOut = 5000)
+    public void testRead() throws Exception {
+        ReadHandle lh = EntryCacheTest.getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+        assertTrue(entryCache instanceof SegmentedEntryCacheImpl);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(entryCache.insert(EntryImpl.create(0, i, entryData(i))));
+        }
+
+        // Entries already cached are not inserted twice
+        assertFalse(entryCache.insert(EntryImpl.create(0, 5, entryData(5))));
+
+        assertEquals(((SegmentedEntryCacheImpl) entryCache).getNumberOfSegments(), 4);
+        assertEquals(entryCache.getSize(), 4 * 32);
+        assertEquals(factory.getEntryCacheManager().getSize(), 4 * 32);
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 10);
+                for (int i = 0; i < 10; i++) {
+                    Entry entry = entries.get(i);
+                    assertEquals(entry.getEntryId(), i);
+                    assertEquals(entry.getLength(), 10);
+                    assertEquals(entry.getData()[0], (byte) i);
+                    entry.release();
+                }
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        // Verify no entries were read from bookkeeper
+        verify(lh, never()).readAsync(anyLong(), anyLong());
+    }
+
+    @Test(timeOut = 5000)
+    public void testReadMissing() throws Exception {
+        ReadHandle lh = EntryCacheTest.getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        for (int i = 0; i < 8; i++) {
+            entryCache.insert(EntryImpl.create(0, i, entryData(i)));
+        }
+
+        final CountDownLatch counter = new CountDownLatch(1);
+
+        entryCache.asyncReadEntry(lh, 0, 9, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 10);
+                entries.forEach(Entry::release);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        counter.await();
+
+        verify(lh, times(1)).readAsync(0, 9);
+    }
+
+    @Test
+    public void testEvictWholeSegments() throws Exception {
+        SegmentedEntryCacheImpl entryCache = (SegmentedEntryCacheImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        for (int i = 0; i < 10; i++) {
+            entryCache.insert(EntryImpl.create(0, i, entryData(i)));
+        }
+
+        Pair<Integer, Long> evicted = entryCache.evictEntries(1);
+        assertEquals(evicted.getLeft().intValue(), 3);
+        assertEquals(evicted.getRight().longValue(), 32);
+        assertEquals(entryCache.getNumberOfSegments(), 3);
+        assertNull(entryCache.getEntry(0, 2));
+        EntryImpl entry = entryCache.getEntry(0, 3);
+        assertNotNull(entry);
+        entry.release();
+
+        // Only the segments that are entirely before the position can be released
+        entryCache.invalidateEntries(PositionImpl.get(0, 7));
+        assertEquals(entryCache.getNumberOfSegments(), 2);
+        assertNull(entryCache.getEntry(0, 5));
+        entry = entryCache.getEntry(0, 6);
+        assertNotNull(entry);
+        entry.release();
+
+        entryCache.invalidateAllEntries(0);
+        assertEquals(entryCache.getNumberOfSegments(), 0);
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(factory.getEntryCacheManager().getSize(), 0);
+    }
+
+    @Test
+    public void testNewSegmentForEachLedger() throws Exception {
+        SegmentedEntryCacheImpl entryCache = (SegmentedEntryCacheImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        entryCache.insert(EntryImpl.create(1, 0, entryData(0)));
+        entryCache.insert(EntryImpl.create(2, 0, entryData(1)));
+        entryCache.insert(EntryImpl.create(2, 1, entryData(2)));
+        assertEquals(entryCache.getNumberOfSegments(), 2);
+
+        // An entry bigger than the segment size gets its own segment
+        entryCache.insert(EntryImpl.create(2, 2, new byte[100]));
+        assertEquals(entryCache.getNumberOfSegments(), 3);
+        assertEquals(entryCache.getSize(), 32 + 32 + 100);
+
+        entryCache.invalidateAllEntries(2);
+        assertEquals(entryCache.getNumberOfSegments(), 1);
+        assertEquals(entryCache.getSize(), 32);
+    }
+
+    @Test
+    public void testSegmentsGrowUpToSegmentSize() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setSegmentedEntryCacheEnabled(true);
+        config.setEntryCacheSegmentSize(64 * 1024);
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+        SegmentedEntryCacheImpl entryCache = (SegmentedEntryCacheImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        // The first segment of a ledger is small
+        entryCache.insert(EntryImpl.create(0, 0, entryData(0)));
+        assertEquals(entryCache.getSize(), 16 * 1024);
+        entryCache.clear();
+
+        // Then each segment doubles in size, up to the segment size
+        for (int i = 0; i < 29; i++) {
+            assertTrue(entryCache.insert(EntryImpl.create(1, i, new byte[4 * 1024])));
+        }
+        assertEquals(entryCache.getNumberOfSegments(), 4);
+        assertEquals(entryCache.getSize(), (16 + 32 + 64 + 64) * 1024);
+
+        // The segments of a new ledger start small again
+        entryCache.insert(EntryImpl.create(2, 0, entryData(0)));
+        assertEquals(entryCache.getSize(), (16 + 32 + 64 + 64 + 16) * 1024);
+        entryCache.clear();
+    }
+
+    @Test
+    public void testBackfillDoesNotResetTailSegment() throws Exception {
+        SegmentedEntryCacheImpl entryCache = (SegmentedEntryCacheImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        // The tail segment is partly filled
+        entryCache.insert(EntryImpl.create(0, 10, entryData(10)));
+        entryCache.insert(EntryImpl.create(0, 11, entryData(11)));
+        assertEquals(entryCache.getNumberOfSegments(), 1);
+
+        // Older entries of the same ledger are read back into the cache
+        entryCache.insert(EntryImpl.create(0, 0, entryData(0)));
+        entryCache.insert(EntryImpl.create(0, 1, entryData(1)));
+        assertEquals(entryCache.getNumberOfSegments(), 2);
+
+        // The next tail entry is appended to the tail segment, not to a new one
+        assertTrue(entryCache.insert(EntryImpl.create(0, 12, entryData(12))));
+        assertEquals(entryCache.getNumberOfSegments(), 2);
+        assertEquals(entryCache.getSize(), 32 + 32);
+
+        // And the backfill keeps filling its own segment, up to the tail segment
+        assertTrue(entryCache.insert(EntryImpl.create(0, 2, entryData(2))));
+        assertEquals(entryCache.getNumberOfSegments(), 2);
+        for (int i : new int[] { 0, 1, 2, 10, 11, 12 }) {
+            EntryImpl entry = entryCache.getEntry(0, i);
+            assertEquals(entry.getData()[0], (byte) i);
+            entry.release();
+        }
+        entryCache.clear();
+    }
+
+    @Test
+    public void testEntriesOutliveEviction() throws Exception {
+        SegmentedEntryCacheImpl entryCache = (SegmentedEntryCacheImpl) factory.getEntryCacheManager()
+                .getEntryCache(ml);
+
+        entryCache.insert(EntryImpl.create(0, 0, entryData(7)));
+        EntryImpl entry = entryCache.getEntry(0, 0);
+        entryCache.clear();
+
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(entry.getData()[0], (byte) 7);
+        entry.release();
+    }
+}
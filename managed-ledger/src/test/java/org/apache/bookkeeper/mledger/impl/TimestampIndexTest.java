@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class TimestampIndexTest {
+
+    @Test
+    public void testCeilingIndex() {
+        TimestampIndex index = new TimestampIndex(10);
+        for (int i = 0; i < 100; i++) {
+            index.add(i * 10, i * 100);
+        }
+        assertEquals(index.size(), 100);
+
+        assertEquals(index.ceilingIndex(0, 100, 0), 0);
+        assertEquals(index.ceilingIndex(0, 100, 1), 1);
+        assertEquals(index.ceilingIndex(0, 100, 500), 5);
+        assertEquals(index.ceilingIndex(0, 100, 501), 6);
+        assertEquals(index.ceilingIndex(0, 100, 100000), 100);
+        assertEquals(index.ceilingIndex(10, 100, 0), 10);
+        assertEquals(index.ceilingIndex(10, 20, 5000), 20);
+    }
+
+    @Test
+    public void testIndexAfter() {
+        TimestampIndex index = new TimestampIndex(10);
+        assertEquals(index.indexAfter(-1), 0);
+        assertEquals(index.indexAfter(0), 1);
+        assertEquals(index.indexAfter(9), 1);
+        assertEquals(index.indexAfter(10), 2);
+    }
+
+    @Test
+    public void testProtoRoundTrip() {
+        TimestampIndex index = new TimestampIndex(10);
+        index.add(0, 1000);
+        index.add(10, 1500);
+        index.add(20, -1);
+
+        TimestampIndex decoded = TimestampIndex.fromProto(index.toProto());
+        assertEquals(decoded.size(), 3);
+        assertEquals(decoded.getEntryId(2), 20);
+        assertEquals(decoded.getTimestamp(0), 1000);
+        assertEquals(decoded.getTimestamp(1), 1500);
+        assertEquals(decoded.getTimestamp(2), 1500);
+    }
+}
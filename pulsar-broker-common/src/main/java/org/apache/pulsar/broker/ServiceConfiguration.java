@@ -231,6 +231,15 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " affecting the accuracy of the delivery time compared to the scheduled time. Default is 1 second.")
     private long delayedDeliveryTickTimeMillis = 1000;
 
+    @FieldContext(category = CATEGORY_SERVER, doc = "Duration of the time buckets of the bucketed delayed delivery"
+            + " tracker. The messages of the current and the next buckets are kept in memory, and the messages of"
+            + " the later buckets are written in snapshots. Default is 5 minutes.")
+    private long delayedDeliveryBucketDurationMillis = 300000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Max number of messages of the later buckets that the bucketed"
+            + " delayed delivery tracker keeps in memory, per subscription, before writing them in a snapshot.")
+    private int delayedDeliveryBucketMaxBufferedMessages = 50000;
+
     @FieldContext(category = CATEGORY_SERVER, doc = "Whether to enable the acknowledge of batch local index")
     private boolean acknowledgmentAtBatchIndexLevelEnabled = false;
 
@@ -396,6 +405,20 @@ public class ServiceConfiguration implements PulsarConfiguration {
                     + "count to consumer (default is enabled)"
         )
     private boolean subscriptionRedeliveryTrackerEnabled = true;
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Min delay before a negatively acknowledged or timed out message is redelivered to a Shared"
+                + " subscription. The delay is doubled with every redelivery of the message, up to"
+                + " subscriptionRedeliveryBackoffMaxDelayMillis. The redeliveries are immediate if set to 0"
+                + " (default is 0)"
+    )
+    private long subscriptionRedeliveryBackoffMinDelayMillis = 0;
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Max delay before a negatively acknowledged or timed out message is redelivered to a Shared"
+                + " subscription (default is 1 minute)"
+    )
+    private long subscriptionRedeliveryBackoffMaxDelayMillis = 60000;
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "How frequently to proactively check and purge expired subscription"
@@ -420,6 +443,12 @@ public class ServiceConfiguration implements PulsarConfiguration {
                 + "The higher the number, the more equal the assignment of keys to consumers")
     private int subscriptionKeySharedConsistentHashingReplicaPoints = 100;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "On KeyShared subscriptions using consistent hashing, select the consumers from an immutable copy of "
+                + "the hash ring, without locking it. The keys are assigned to the same consumers")
+    private boolean subscriptionKeySharedConsistentHashingLockFree = false;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "Set the default behavior for message deduplication in the broker.\n\n"
@@ -671,6 +700,47 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int dispatcherMinReadBatchSize = 1;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Whether the shared subscriptions adapt the size of their reads from bookkeeper to the size of the"
+            + " entries, the read latency and the throughput of the consumers. By default it is disabled."
+    )
+    private boolean dispatcherAdaptiveReadBatchEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Target latency of a read of the adaptive read batch, in milliseconds. By default it is 50 ms."
+    )
+    private long dispatcherAdaptiveReadBatchTargetLatencyMillis = 50;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max number of entries of a read of the adaptive read batch, which replaces dispatcherMaxReadBatchSize"
+            + " when it is enabled. By default it is 1000 entries."
+    )
+    private int dispatcherAdaptiveReadBatchMaxSize = 1000;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Whether the reads of the backlog of the shared subscriptions are scheduled by the broker, which shares"
+            + " them between the subscriptions in proportion to their dispatch weight. The weight of a subscription"
+            + " is 1 unless the subscriptionDispatchWeight policy of its namespace is set."
+    )
+    private boolean dispatcherFairSchedulingEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max number of reads of the backlog scheduled by the broker that are in progress at the same time."
+    )
+    private int dispatcherFairSchedulingMaxOutstandingReads = 100;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max number of reads of the backlog scheduled by the broker that are in progress at the same time for"
+            + " the topics of a thread of the topic ordered executor."
+    )
+    private int dispatcherFairSchedulingMaxOutstandingReadsPerThread = 10;
+
     @FieldContext(
         dynamic = true,
         category = CATEGORY_SERVER,
@@ -685,6 +755,15 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private boolean preciseDispatcherFlowControl = false;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Whether the flush of the messages dispatched on a connection is deferred until the dispatches already"
+            + " queued on the connection have written their messages, so that they share a single flush. It saves"
+            + " system calls when many consumers share a connection, at the cost of an extra event loop task before"
+            + " each flush"
+    )
+    private boolean dispatcherCoalesceConnectionFlushes = false;
+
     @FieldContext(
         category = CATEGORY_SERVER,
         doc = "Whether to use streaming read dispatcher. Currently is in preview and can be changed " +
@@ -1264,6 +1343,70 @@ public class ServiceConfiguration implements PulsarConfiguration {
             doc = "How frequently to flush the cursor positions that were accumulated due to rate limiting. (seconds). Default is 60 seconds")
     private int managedLedgerCursorPositionFlushSeconds = 60;
 
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Whether to persist the mark-delete positions of the cursors into a journal shared by all the cursors of"
+            + " the broker, instead of a ledger per cursor. It reduces the number of ledgers and of writes to"
+            + " BookKeeper when there are many subscriptions"
+    )
+    private boolean managedLedgerCursorJournalEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Name of the cursor journal, which must be unique per broker and stable across restarts."
+            + " Default is the advertised address and the web service port of the broker. The journal of a broker"
+            + " that is not running anymore is adopted and cleaned up by the other brokers"
+    )
+    private String managedLedgerCursorJournalName = "";
+
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max time to wait for more cursor updates before writing an entry into the cursor journal (millis)"
+    )
+    private int managedLedgerCursorJournalMaxBatchDelayMillis = 10;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max size of an entry of the cursor journal (bytes)"
+    )
+    private int managedLedgerCursorJournalMaxBatchSizeBytes = 1024 * 1024;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max number of entries to append to a cursor journal ledger before switching to a new ledger"
+    )
+    private int managedLedgerCursorJournalMaxEntriesPerLedger = 50000;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max time before switching to a new cursor journal ledger (seconds)"
+    )
+    private int managedLedgerCursorJournalLedgerRolloverTimeSeconds = 4 * 3600;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Number of bookies to use when creating a cursor journal ledger"
+    )
+    private int managedLedgerCursorJournalEnsembleSize = 2;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Number of copies to store for each cursor journal entry"
+    )
+    private int managedLedgerCursorJournalWriteQuorum = 2;
+
+    @FieldContext(
+        minValue = 1,
+        category = CATEGORY_STORAGE_ML,
+        doc = "Number of guaranteed copies of each cursor journal entry (acks to wait before write is complete)"
+    )
+    private int managedLedgerCursorJournalAckQuorum = 2;
+
     //
     //
     @FieldContext(
@@ -1306,6 +1449,14 @@ public class ServiceConfiguration implements PulsarConfiguration {
             (int) (PlatformDependent.maxDirectMemory() / 5 / (1024 * 1024)));
     @FieldContext(category = CATEGORY_STORAGE_ML, doc = "Whether we should make a copy of the entry payloads when inserting in cache")
     private boolean managedLedgerCacheCopyEntries = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether the managed ledger cache should store entries into pre-allocated direct memory segments"
+                    + " instead of keeping one cache node per entry")
+    private boolean managedLedgerCacheSegmentedEnabled = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max size of each memory segment allocated by the segmented managed ledger cache. The segments"
+                    + " of a ledger start at 16 KB and double in size up to this value")
+    private int managedLedgerCacheSegmentSizeKB = 1024;
     @FieldContext(
         category = CATEGORY_STORAGE_ML,
         doc = "Threshold to which bring down the cache level when eviction is triggered"
@@ -1317,6 +1468,15 @@ public class ServiceConfiguration implements PulsarConfiguration {
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "All entries that have stayed in cache for more than the configured time, will be evicted")
     private long managedLedgerCacheEvictionTimeThresholdMillis = 1000;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Class name of the eviction policy used by the managed ledger cache. Available policies are"
+                    + " `org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy` (evict from the"
+                    + " biggest caches), `org.apache.bookkeeper.mledger.impl.EntryCacheFrequencyEvictionPolicy`"
+                    + " (evict from the least read caches) and"
+                    + " `org.apache.bookkeeper.mledger.impl.EntryCacheActiveCursorsEvictionPolicy` (keep the entries"
+                    + " still needed by active cursors)")
+    private String managedLedgerCacheEvictionPolicyClassName =
+            "org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy";
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "Configure the threshold (in number of entries) from where a cursor should be considered 'backlogged'"
                     + " and thus should be set as inactive.")
@@ -1422,11 +1582,31 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + "If number of unack message range is higher than this limit then broker will persist"
             + " unacked ranges into bookkeeper to avoid additional data overhead into zookeeper.")
     private int managedLedgerMaxUnackedRangesToPersistInZooKeeper = 1000;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Persist the `acknowledgment holes` in the cursor ledger as compressed per-ledger bitmaps.\n\n"
+            + "Each entry of the cursor ledger only carries the ledgers whose acknowledgments changed since the"
+            + " previous one, and the number of holes is not capped by managedLedgerMaxUnackedRangesToPersist."
+            + " Older brokers cannot read the bitmaps, enable it only after all the brokers are upgraded.")
+    private boolean managedLedgerPersistUnackedRangesAsBitmap = false;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Max number of entries written to a cursor ledger between two full snapshots of the"
+            + " `acknowledgment holes`, when they are persisted as bitmaps. The recovery of a cursor reads"
+            + " all the entries since the last full snapshot.")
+    private int managedLedgerUnackedRangesSnapshotInterval = 100;
     @FieldContext(
             category = CATEGORY_STORAGE_OFFLOADING,
             doc = "Use Open Range-Set to cache unacked messages (it is memory efficient but it can take more cpu)"
         )
     private boolean managedLedgerUnackedRangesOpenCacheSetEnabled = true;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Store the unacked messages ranges of the durable subscriptions in direct memory, using a few bytes"
+            + " per range instead of a few objects per range. It takes precedence over"
+            + " `managedLedgerUnackedRangesOpenCacheSetEnabled`"
+    )
+    private boolean managedLedgerUnackedRangesOffHeapEnabled = false;
     @FieldContext(
         dynamic = true,
         category = CATEGORY_STORAGE_ML,
@@ -1471,6 +1651,49 @@ public class ServiceConfiguration implements PulsarConfiguration {
                     + "Of course, this may degrade consumption throughput. Default is 10ms.")
     private int managedLedgerNewEntriesCheckDelayInMillis = 10;
 
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether catch-up cursors should prefetch the entries that follow their current read, while the"
+                    + " current batch is dispatched. The read-ahead kicks in once a cursor is detected to be reading"
+                    + " sequentially and its window adapts to the consume rate.\n"
+                    + "It can be overridden for each namespace through the namespace policies.")
+    private boolean managedLedgerReadAheadEnabled = false;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max number of entries that each cursor can prefetch with the read-ahead")
+    private int managedLedgerReadAheadMaxEntries = 1000;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max size, in KB, of the entries that each cursor can prefetch with the read-ahead")
+    private int managedLedgerReadAheadMaxSizeKB = 5 * 1024;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Amount of memory, in MB, that can be used by the read-ahead buffers of all the cursors. Once the"
+                    + " limit is reached, the cursors stop prefetching and shrink their read-ahead window")
+    private int managedLedgerReadAheadMemoryLimitMB = 64;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether to store the publish time of a sample of the entries in the metadata of each ledger, so that"
+                    + " the message expiry and the searches by publish time read fewer entries")
+    private boolean managedLedgerTimestampIndexEnabled = false;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Number of entries between two samples of the publish time index of the ledgers")
+    private int managedLedgerTimestampIndexSamplingInterval = 1000;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max number of metadata store operations fetching the list of ledgers or cursors of the topics being"
+                    + " loaded, running concurrently (0 for no limit)")
+    private int managedLedgerRecoveryMaxConcurrentMetadataOperations = 0;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max number of topics being loaded that open and recover their last ledger concurrently"
+                    + " (0 for no limit)")
+    private int managedLedgerRecoveryMaxConcurrentLedgerOpens = 0;
+
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Max number of subscription cursors recovered concurrently while loading topics (0 for no limit)")
+    private int managedLedgerRecoveryMaxConcurrentCursorRecoveries = 0;
+
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "Read priority when ledgers exists in both bookkeeper and the second layer storage.")
     private String managedLedgerDataReadPriority = OffloadPolicies.OffloadedReadPriority.TIERED_STORAGE_FIRST
@@ -34,6 +34,7 @@ import org.apache.bookkeeper.stats.NullStatsProvider;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.StatsProvider;
 import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.broker.stats.prometheus.metrics.PrometheusMetricsProvider;
 import org.apache.pulsar.broker.storage.ManagedLedgerStorage;
 import org.apache.pulsar.common.policies.data.EnsemblePlacementPolicyConfig;
@@ -61,11 +62,35 @@ public class ManagedLedgerClientFactory implements ManagedLedgerStorage {
         managedLedgerFactoryConfig.setCacheEvictionFrequency(conf.getManagedLedgerCacheEvictionFrequency());
         managedLedgerFactoryConfig.setCacheEvictionTimeThresholdMillis(
                 conf.getManagedLedgerCacheEvictionTimeThresholdMillis());
+        managedLedgerFactoryConfig.setEntryCacheEvictionPolicyClassName(
+                conf.getManagedLedgerCacheEvictionPolicyClassName());
         managedLedgerFactoryConfig.setCopyEntriesInCache(conf.isManagedLedgerCacheCopyEntries());
+        managedLedgerFactoryConfig.setSegmentedEntryCacheEnabled(conf.isManagedLedgerCacheSegmentedEnabled());
+        managedLedgerFactoryConfig.setEntryCacheSegmentSize(conf.getManagedLedgerCacheSegmentSizeKB() * 1024);
+        managedLedgerFactoryConfig.setReadAheadMaxMemorySize(
+                conf.getManagedLedgerReadAheadMemoryLimitMB() * 1024L * 1024L);
         managedLedgerFactoryConfig.setPrometheusStatsLatencyRolloverSeconds(
                 conf.getManagedLedgerPrometheusStatsLatencyRolloverSeconds());
         managedLedgerFactoryConfig.setTraceTaskExecution(conf.isManagedLedgerTraceTaskExecution());
         managedLedgerFactoryConfig.setCursorPositionFlushSeconds(conf.getManagedLedgerCursorPositionFlushSeconds());
+        managedLedgerFactoryConfig.setCursorJournalEnabled(conf.isManagedLedgerCursorJournalEnabled());
+        managedLedgerFactoryConfig.setCursorJournalName(getCursorJournalName(conf));
+        managedLedgerFactoryConfig.setCursorJournalMaxBatchDelayMillis(
+                conf.getManagedLedgerCursorJournalMaxBatchDelayMillis());
+        managedLedgerFactoryConfig.setCursorJournalMaxBatchSize(conf.getManagedLedgerCursorJournalMaxBatchSizeBytes());
+        managedLedgerFactoryConfig.setCursorJournalMaxEntriesPerLedger(
+                conf.getManagedLedgerCursorJournalMaxEntriesPerLedger());
+        managedLedgerFactoryConfig.setCursorJournalLedgerRolloverTimeSeconds(
+                conf.getManagedLedgerCursorJournalLedgerRolloverTimeSeconds());
+        managedLedgerFactoryConfig.setCursorJournalEnsembleSize(conf.getManagedLedgerCursorJournalEnsembleSize());
+        managedLedgerFactoryConfig.setCursorJournalWriteQuorumSize(conf.getManagedLedgerCursorJournalWriteQuorum());
+        managedLedgerFactoryConfig.setCursorJournalAckQuorumSize(conf.getManagedLedgerCursorJournalAckQuorum());
+        managedLedgerFactoryConfig.setRecoveryMaxConcurrentMetadataOperations(
+                conf.getManagedLedgerRecoveryMaxConcurrentMetadataOperations());
+        managedLedgerFactoryConfig.setRecoveryMaxConcurrentLedgerOpens(
+                conf.getManagedLedgerRecoveryMaxConcurrentLedgerOpens());
+        managedLedgerFactoryConfig.setRecoveryMaxConcurrentCursorRecoveries(
+                conf.getManagedLedgerRecoveryMaxConcurrentCursorRecoveries());
 
         Configuration configuration = new ClientConfiguration();
         if (conf.isBookkeeperClientExposeStatsToPrometheus()) {
@@ -105,6 +130,15 @@ public class ManagedLedgerClientFactory implements ManagedLedgerStorage {
                 new ManagedLedgerFactoryImpl(bkFactory, zkClient, managedLedgerFactoryConfig, statsLogger);
     }
 
+    private static String getCursorJournalName(ServiceConfiguration conf) {
+        if (StringUtils.isNotBlank(conf.getManagedLedgerCursorJournalName())) {
+            return conf.getManagedLedgerCursorJournalName();
+        }
+        // The journal ledgers of a broker are recovered by the same broker after a restart
+        return ServiceConfigurationUtils.getDefaultOrConfiguredAddress(conf.getAdvertisedAddress()) + ":"
+                + conf.getWebServicePort().orElseGet(() -> conf.getWebServicePortTls().orElse(0));
+    }
+
     public ManagedLedgerFactory getManagedLedgerFactory() {
         return managedLedgerFactory;
     }
@@ -24,6 +24,7 @@ import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import static org.apache.pulsar.broker.cache.LocalZooKeeperCacheService.LOCAL_POLICIES_ROOT;
 import static org.apache.pulsar.common.policies.data.Policies.getBundles;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import java.lang.reflect.Field;
@@ -53,6 +54,7 @@ import org.apache.pulsar.broker.PulsarServerException;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.authorization.AuthorizationService;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionBusyException;
+import org.apache.pulsar.broker.service.MessagePropertiesFilter;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.broker.service.persistent.PersistentReplicator;
@@ -1965,6 +1967,62 @@ public abstract class NamespacesBase extends AdminResource {
         internalSetPolicies("deduplicationSnapshotIntervalSeconds", interval);
     }
 
+    protected Boolean internalGetReadAheadEnabled() {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.READ_AHEAD, PolicyOperation.READ);
+        return getNamespacePolicies(namespaceName).readAheadEnabled;
+    }
+
+    protected void internalSetReadAheadEnabled(Boolean readAheadEnabled) {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.READ_AHEAD, PolicyOperation.WRITE);
+        validatePoliciesReadOnlyAccess();
+        internalSetPolicies("readAheadEnabled", readAheadEnabled);
+    }
+
+    protected Integer internalGetSubscriptionDispatchWeight() {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.SUBSCRIPTION_DISPATCH_WEIGHT, PolicyOperation.READ);
+        return getNamespacePolicies(namespaceName).subscriptionDispatchWeight;
+    }
+
+    protected void internalSetSubscriptionDispatchWeight(Integer subscriptionDispatchWeight) {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.SUBSCRIPTION_DISPATCH_WEIGHT,
+                PolicyOperation.WRITE);
+        validatePoliciesReadOnlyAccess();
+        if (subscriptionDispatchWeight != null && subscriptionDispatchWeight <= 0) {
+            throw new RestException(Status.PRECONDITION_FAILED, "subscriptionDispatchWeight must be greater than 0");
+        }
+        internalSetPolicies("subscriptionDispatchWeight", subscriptionDispatchWeight);
+    }
+
+    protected Map<String, String> internalGetSubscriptionFilters() {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.SUBSCRIPTION_FILTER, PolicyOperation.READ);
+        return getNamespacePolicies(namespaceName).subscriptionFilters;
+    }
+
+    protected void internalSetSubscriptionFilter(String subscription, String filter) {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.SUBSCRIPTION_FILTER, PolicyOperation.WRITE);
+        validatePoliciesReadOnlyAccess();
+        if (filter != null) {
+            try {
+                MessagePropertiesFilter.parse(filter);
+            } catch (IllegalArgumentException e) {
+                throw new RestException(Status.PRECONDITION_FAILED, e.getMessage());
+            }
+        }
+        log.info("[{}] Setting the filter of subscription {} on namespace {}: {}", clientAppId(), subscription,
+                namespaceName, filter);
+        updatePolicies(path(POLICIES, namespaceName.toString()), policies -> {
+            if (policies.subscriptionFilters == null) {
+                policies.subscriptionFilters = Maps.newHashMap();
+            }
+            if (filter != null) {
+                policies.subscriptionFilters.put(subscription, filter);
+            } else {
+                policies.subscriptionFilters.remove(subscription);
+            }
+            return policies;
+        });
+    }
+
     protected void internalSetMaxProducersPerTopic(Integer maxProducersPerTopic) {
         validateNamespacePolicyOperation(namespaceName, PolicyName.MAX_PRODUCERS, PolicyOperation.WRITE);
         validatePoliciesReadOnlyAccess();
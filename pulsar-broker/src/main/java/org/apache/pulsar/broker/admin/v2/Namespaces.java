@@ -1026,6 +1026,122 @@ public class Namespaces extends NamespacesBase {
         internalSetDeduplicationSnapshotInterval(interval);
     }
 
+    @GET
+    @Path("/{tenant}/{namespace}/readAhead")
+    @ApiOperation(value = "Get whether the read-ahead of catch-up cursors is enabled on a namespace.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist") })
+    public Boolean getReadAheadEnabled(@PathParam("tenant") String tenant,
+                                       @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        return internalGetReadAheadEnabled();
+    }
+
+    @POST
+    @Path("/{tenant}/{namespace}/readAhead")
+    @ApiOperation(value = "Enable or disable the read-ahead of catch-up cursors for all topics in a namespace.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification") })
+    public void setReadAheadEnabled(@PathParam("tenant") String tenant,
+                                    @PathParam("namespace") String namespace,
+                                    @ApiParam(value = "Flag for disabling or enabling the read-ahead of catch-up "
+                                            + "cursors for all topics in the specified namespace", required = true)
+                                            boolean readAheadEnabled) {
+        validateNamespaceName(tenant, namespace);
+        internalSetReadAheadEnabled(readAheadEnabled);
+    }
+
+    @DELETE
+    @Path("/{tenant}/{namespace}/readAhead")
+    @ApiOperation(value = "Remove the read-ahead override on a namespace, falling back to the broker settings.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification") })
+    public void removeReadAheadEnabled(@PathParam("tenant") String tenant,
+                                       @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        internalSetReadAheadEnabled(null);
+    }
+
+    @GET
+    @Path("/{tenant}/{namespace}/subscriptionDispatchWeight")
+    @ApiOperation(value = "Get the weight of the subscriptions of a namespace in the reads scheduled by the broker.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist") })
+    public Integer getSubscriptionDispatchWeight(@PathParam("tenant") String tenant,
+                                                 @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        return internalGetSubscriptionDispatchWeight();
+    }
+
+    @POST
+    @Path("/{tenant}/{namespace}/subscriptionDispatchWeight")
+    @ApiOperation(value = "Set the weight of the subscriptions of a namespace in the reads scheduled by the broker.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification"),
+            @ApiResponse(code = 412, message = "subscriptionDispatchWeight must be greater than 0") })
+    public void setSubscriptionDispatchWeight(@PathParam("tenant") String tenant,
+                                              @PathParam("namespace") String namespace,
+                                              @ApiParam(value = "Weight of the subscriptions of the namespace",
+                                                      required = true) int subscriptionDispatchWeight) {
+        validateNamespaceName(tenant, namespace);
+        internalSetSubscriptionDispatchWeight(subscriptionDispatchWeight);
+    }
+
+    @DELETE
+    @Path("/{tenant}/{namespace}/subscriptionDispatchWeight")
+    @ApiOperation(value = "Remove the weight of the subscriptions of a namespace, falling back to the default weight.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification") })
+    public void removeSubscriptionDispatchWeight(@PathParam("tenant") String tenant,
+                                                 @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        internalSetSubscriptionDispatchWeight(null);
+    }
+
+    @GET
+    @Path("/{tenant}/{namespace}/subscriptionFilters")
+    @ApiOperation(value = "Get the filters on the message properties of the subscriptions of a namespace.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist") })
+    public Map<String, String> getSubscriptionFilters(@PathParam("tenant") String tenant,
+                                                      @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        return internalGetSubscriptionFilters();
+    }
+
+    @POST
+    @Path("/{tenant}/{namespace}/subscriptionFilter/{subscription}")
+    @ApiOperation(value = "Set the filter on the message properties of a subscription of the topics of a namespace.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification"),
+            @ApiResponse(code = 412, message = "Invalid filter expression") })
+    public void setSubscriptionFilter(@PathParam("tenant") String tenant,
+                                      @PathParam("namespace") String namespace,
+                                      @PathParam("subscription") String subscription,
+                                      @ApiParam(value = "Filter expression on the message properties",
+                                              required = true) String filter) {
+        validateNamespaceName(tenant, namespace);
+        internalSetSubscriptionFilter(subscription, filter);
+    }
+
+    @DELETE
+    @Path("/{tenant}/{namespace}/subscriptionFilter/{subscription}")
+    @ApiOperation(value = "Remove the filter on the message properties of a subscription of the topics of a namespace.")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace does not exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification") })
+    public void removeSubscriptionFilter(@PathParam("tenant") String tenant,
+                                         @PathParam("namespace") String namespace,
+                                         @PathParam("subscription") String subscription) {
+        validateNamespaceName(tenant, namespace);
+        internalSetSubscriptionFilter(subscription, null);
+    }
+
     @GET
     @Path("/{tenant}/{namespace}/maxConsumersPerTopic")
     @ApiOperation(value = "Get maxConsumersPerTopic config on a namespace.")
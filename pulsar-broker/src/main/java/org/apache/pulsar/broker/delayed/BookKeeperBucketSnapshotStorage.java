@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.metadata.api.GetResult;
+import org.apache.pulsar.metadata.api.MetadataStore;
+import org.apache.pulsar.metadata.api.Stat;
+import org.apache.pulsar.metadata.api.MetadataStoreException.NotFoundException;
+
+/**
+ * Stores every snapshot in a BookKeeper ledger, with one entry per segment, and the indexes in the metadata store.
+ */
+@Slf4j
+public class BookKeeperBucketSnapshotStorage implements BucketSnapshotStorage {
+
+    static final String INDEX_ROOT_PATH = "/delayed-delivery";
+    private static final BookKeeper.DigestType DIGEST_TYPE = BookKeeper.DigestType.CRC32C;
+    private static final byte[] PASSWORD = "".getBytes(UTF_8);
+
+    private final BookKeeper bookKeeper;
+    private final MetadataStore store;
+    private final ServiceConfiguration config;
+
+    // Handles of the snapshots whose segments are read, which are opened once for all the segments
+    private final Map<Long, CompletableFuture<LedgerHandle>> openSnapshots = new ConcurrentHashMap<>();
+
+    public BookKeeperBucketSnapshotStorage(BookKeeper bookKeeper, MetadataStore store, ServiceConfiguration config) {
+        this.bookKeeper = bookKeeper;
+        this.store = store;
+        this.config = config;
+    }
+
+    @Override
+    public CompletableFuture<Long> createSnapshot(String topic, String subscription, List<long[]> segments) {
+        if (segments.isEmpty()) {
+            // There would be no entry to wait for before closing the ledger
+            return FutureUtil.failedFuture(new IllegalArgumentException("A snapshot must have at least one segment"));
+        }
+
+        CompletableFuture<LedgerHandle> createFuture = new CompletableFuture<>();
+        bookKeeper.asyncCreateLedger(config.getManagedLedgerDefaultEnsembleSize(),
+                config.getManagedLedgerDefaultWriteQuorum(), config.getManagedLedgerDefaultAckQuorum(),
+                DIGEST_TYPE, PASSWORD, (rc, lh, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        createFuture.completeExceptionally(BKException.create(rc));
+                    } else {
+                        createFuture.complete(lh);
+                    }
+                }, null, LedgerMetadataUtils.buildMetadataForDelayedDeliverySnapshot(topic, subscription));
+
+        return createFuture.thenCompose(lh -> {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            // The entries are pipelined, the ledger is closed once the last one is written
+            int[] pendingEntries = new int[] { segments.size() };
+            for (long[] segment : segments) {
+                lh.asyncAddEntry(encode(segment), (rc, handle, entryId, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        if (future.completeExceptionally(BKException.create(rc))) {
+                            deleteSnapshot(lh.getId());
+                        }
+                    } else if (--pendingEntries[0] == 0) {
+                        lh.asyncClose((closeRc, handle1, ctx1) -> {
+                            if (closeRc != BKException.Code.OK) {
+                                future.completeExceptionally(BKException.create(closeRc));
+                                deleteSnapshot(lh.getId());
+                            } else {
+                                future.complete(lh.getId());
+                            }
+                        }, null);
+                    }
+                }, null);
+            }
+            return future;
+        });
+    }
+
+    @Override
+    public CompletableFuture<long[]> getSegment(long snapshotId, int segment) {
+        return openSnapshot(snapshotId).thenCompose(lh -> {
+            CompletableFuture<long[]> future = new CompletableFuture<>();
+            lh.asyncReadEntries(segment, segment, (rc, handle, entries, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    future.completeExceptionally(BKException.create(rc));
+                } else {
+                    future.complete(decode(entries.nextElement().getEntry()));
+                }
+            }, null);
+            return future;
+        });
+    }
+
+    private CompletableFuture<LedgerHandle> openSnapshot(long snapshotId) {
+        CompletableFuture<LedgerHandle> future = openSnapshots.computeIfAbsent(snapshotId, id -> {
+            CompletableFuture<LedgerHandle> openFuture = new CompletableFuture<>();
+            bookKeeper.asyncOpenLedgerNoRecovery(id, DIGEST_TYPE, PASSWORD, (rc, lh, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    openFuture.completeExceptionally(BKException.create(rc));
+                } else {
+                    openFuture.complete(lh);
+                }
+            }, null);
+            return openFuture;
+        });
+        future.exceptionally(ex -> {
+            // The snapshot is opened again on the next read
+            openSnapshots.remove(snapshotId, future);
+            return null;
+        });
+        return future;
+    }
+
+    @Override
+    public void closeSnapshot(long snapshotId) {
+        CompletableFuture<LedgerHandle> future = openSnapshots.remove(snapshotId);
+        if (future == null) {
+            return;
+        }
+        future.thenAccept(lh -> lh.asyncClose((rc, handle, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                log.warn("Failed to close the delayed delivery snapshot {}", snapshotId, BKException.create(rc));
+            }
+        }, null));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSnapshot(long snapshotId) {
+        closeSnapshot(snapshotId);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        bookKeeper.asyncDeleteLedger(snapshotId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException
+                    && rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Optional<GetResult>> getIndex(String name) {
+        return store.get(getIndexPath(name));
+    }
+
+    @Override
+    public CompletableFuture<Long> putIndex(String name, byte[] index, Optional<Long> expectedVersion) {
+        return store.put(getIndexPath(name), index, expectedVersion).thenApply(Stat::getVersion);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteIndex(String name) {
+        return store.delete(getIndexPath(name), Optional.empty()).exceptionally(ex -> {
+            if (FutureUtil.unwrapCompletionException(ex) instanceof NotFoundException) {
+                return null;
+            }
+            throw new CompletionException(FutureUtil.unwrapCompletionException(ex));
+        });
+    }
+
+    @Override
+    public void close() {
+        openSnapshots.keySet().forEach(this::closeSnapshot);
+    }
+
+    private static String getIndexPath(String name) {
+        return INDEX_ROOT_PATH + "/" + name;
+    }
+
+    private static byte[] encode(long[] segment) {
+        ByteBuffer buffer = ByteBuffer.allocate(segment.length * Long.BYTES);
+        buffer.asLongBuffer().put(segment);
+        return buffer.array();
+    }
+
+    private static long[] decode(byte[] data) {
+        LongBuffer buffer = ByteBuffer.wrap(data).asLongBuffer();
+        long[] segment = new long[buffer.remaining()];
+        buffer.get(segment);
+        return segment;
+    }
+}
@@ -0,0 +1,713 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.client.impl.Backoff;
+import org.apache.pulsar.common.util.Codec;
+import org.apache.pulsar.common.util.ObjectMapperFactory;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+
+/**
+ * Delayed delivery tracker which only keeps the nearest messages in memory.
+ *
+ * <p>The messages are partitioned in time buckets. The messages of the current and the next buckets are kept in
+ * memory, like in the {@link InMemoryDelayedDeliveryTracker}. The messages of the later buckets are buffered, and
+ * written in an immutable snapshot once there are too many of them. The segments of the snapshots, one per bucket,
+ * are loaded back in memory when their bucket becomes the next one.
+ *
+ * <p>Every snapshot covers a range of positions, and holds all the messages of this range whose bucket was not
+ * loaded yet when the snapshot was written. After a topic reload, the messages that are read again from the backlog
+ * and that are already in a snapshot are ignored, so that only the messages that were in memory are tracked again.
+ *
+ * <p>When a snapshot can't be written, it stays in memory and its write is retried with a backoff. No other snapshot
+ * is created until then, the later messages stay in the buffer.
+ *
+ * <p>All the methods must be called with the lock of the dispatcher held.
+ */
+@Slf4j
+public class BucketDelayedDeliveryTracker implements DelayedDeliveryTracker, TimerTask {
+
+    private final PersistentDispatcherMultipleConsumers dispatcher;
+    private final BucketSnapshotStorage storage;
+    private final String topicName;
+    private final String subscriptionName;
+    // Name of the index of the snapshots in the storage
+    private final String name;
+
+    // Reference to the shared (per-broker) timer for delayed delivery
+    private final Timer timer;
+
+    // Current timeout or null if not set
+    private Timeout timeout;
+
+    // Timestamp at which the timeout is currently set
+    private long currentTimeoutTarget = -1;
+
+    private long tickTimeMillis;
+    private final long bucketDurationMillis;
+    private final int maxBufferedMessages;
+    private final Clock clock;
+
+    // Messages of the loaded buckets
+    private final TripleLongPriorityQueue priorityQueue = new TripleLongPriorityQueue();
+    // Messages of the later buckets, which are not in a snapshot yet
+    private final TripleLongPriorityQueue buffer = new TripleLongPriorityQueue();
+    // Messages added while the index of the snapshots is loaded
+    private final TripleLongPriorityQueue pendingMessages = new TripleLongPriorityQueue();
+
+    // Snapshots sorted by the last position they cover
+    private final TreeMap<PositionImpl, Snapshot> snapshots = new TreeMap<>();
+    private PositionImpl lastSnapshotPosition = null;
+    private PositionImpl lastAddedPosition = null;
+
+    // All the buckets up to this one are in memory
+    private long loadedBucket;
+
+    private boolean indexLoaded = false;
+    private boolean snapshotInProgress = false;
+    private boolean closed = false;
+    private CompletableFuture<Void> lastIndexUpdate = CompletableFuture.completedFuture(null);
+    // Version of the stored index, -1 if there's none, or empty if it couldn't be read
+    private Optional<Long> indexVersion = Optional.of(-1L);
+
+    // The snapshot whose write failed, which is written again before any other snapshot is created
+    private Snapshot unpersistedSnapshot = null;
+    private long nextSnapshotWriteMillis = 0;
+    private final Backoff snapshotFailureBackoff = new Backoff(1, TimeUnit.SECONDS, 1, TimeUnit.MINUTES,
+            0, TimeUnit.MILLISECONDS);
+
+    /**
+     * Metadata of a snapshot, as stored in the index.
+     */
+    @Data
+    static class SnapshotMetadata {
+        private long snapshotId;
+        // The snapshot covers the positions after the first one, up to the last one
+        private long fromLedgerId;
+        private long fromEntryId;
+        private long toLedgerId;
+        private long toEntryId;
+        // The last bucket that was loaded when the snapshot was written
+        private long loadedBucket;
+        // The bucket and the number of messages of each segment
+        private long[] buckets;
+        private int[] counts;
+    }
+
+    private static class Snapshot {
+        private final SnapshotMetadata metadata;
+        // The segments, until they're written in the storage
+        private List<long[]> segments;
+        private boolean persisted;
+        private int loadedSegments = 0;
+        private boolean loading = false;
+
+        Snapshot(SnapshotMetadata metadata, List<long[]> segments, boolean persisted) {
+            this.metadata = metadata;
+            this.segments = segments;
+            this.persisted = persisted;
+        }
+
+        boolean hasSegmentToLoad(long loadedBucket) {
+            return !loading && loadedSegments < metadata.buckets.length
+                    && metadata.buckets[loadedSegments] <= loadedBucket;
+        }
+
+        long getNumberOfMessagesToLoad() {
+            long count = 0;
+            for (int i = loadedSegments; i < metadata.counts.length; i++) {
+                count += metadata.counts[i];
+            }
+            return count;
+        }
+    }
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, BucketSnapshotStorage storage,
+                                 String topicName, String cursorName, Timer timer, long tickTimeMillis,
+                                 long bucketDurationMillis, int maxBufferedMessages) {
+        this(dispatcher, storage, topicName, cursorName, timer, tickTimeMillis, bucketDurationMillis,
+                maxBufferedMessages, Clock.systemUTC());
+    }
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, BucketSnapshotStorage storage,
+                                 String topicName, String cursorName, Timer timer, long tickTimeMillis,
+                                 long bucketDurationMillis, int maxBufferedMessages, Clock clock) {
+        this.dispatcher = dispatcher;
+        this.storage = storage;
+        this.topicName = topicName;
+        this.subscriptionName = Codec.decode(cursorName);
+        this.name = BucketDelayedDeliveryTrackerFactory.getSnapshotsName(topicName, cursorName);
+        this.timer = timer;
+        this.tickTimeMillis = tickTimeMillis;
+        this.bucketDurationMillis = bucketDurationMillis;
+        this.maxBufferedMessages = maxBufferedMessages;
+        this.clock = clock;
+        this.loadedBucket = getBucket(clock.millis()) + 1;
+
+        storage.getIndex(name).whenComplete((index, exception) -> {
+            synchronized (dispatcher) {
+                if (closed) {
+                    return;
+                }
+                if (exception != null) {
+                    // The messages of the existing snapshots are tracked again as they're read from the backlog, and
+                    // the index is overwritten
+                    log.error("[{}] Failed to load the index of the delayed delivery snapshots", dispatcher.getName(),
+                            exception);
+                    indexVersion = Optional.empty();
+                } else if (index.isPresent()) {
+                    indexVersion = Optional.of(index.get().getStat().getVersion());
+                    loadIndex(index.get().getValue());
+                }
+                indexLoaded = true;
+                while (!pendingMessages.isEmpty()) {
+                    trackMessage(pendingMessages.peekN2(), pendingMessages.peekN3(), pendingMessages.peekN1());
+                    pendingMessages.pop();
+                }
+                loadBuckets();
+                updateTimer();
+            }
+        });
+    }
+
+    private long getBucket(long timestamp) {
+        return timestamp / bucketDurationMillis;
+    }
+
+    @Override
+    public boolean addMessage(long ledgerId, long entryId, long deliveryAt) {
+        long now = clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms ", dispatcher.getName(), ledgerId, entryId,
+                    deliveryAt - now);
+        }
+        if (deliveryAt < (now + tickTimeMillis)) {
+            // It's already about time to deliver this message
+            return false;
+        }
+
+        if (!indexLoaded) {
+            // The message may already be in a snapshot, this is checked once the index is loaded
+            pendingMessages.add(deliveryAt, ledgerId, entryId);
+            return true;
+        }
+
+        trackMessage(ledgerId, entryId, deliveryAt);
+        loadBuckets();
+        updateTimer();
+        return true;
+    }
+
+    private void trackMessage(long ledgerId, long entryId, long deliveryAt) {
+        long bucket = getBucket(deliveryAt);
+        PositionImpl position = null;
+        if (lastSnapshotPosition != null && compare(ledgerId, entryId, lastSnapshotPosition) <= 0) {
+            position = PositionImpl.get(ledgerId, entryId);
+            Map.Entry<PositionImpl, Snapshot> entry = snapshots.ceilingEntry(position);
+            if (entry != null) {
+                SnapshotMetadata metadata = entry.getValue().metadata;
+                if (compare(ledgerId, entryId, metadata.fromLedgerId, metadata.fromEntryId) > 0
+                        && bucket > metadata.loadedBucket) {
+                    // The message is read again from the backlog, and it's already in this snapshot
+                    return;
+                }
+            }
+        }
+
+        if (lastAddedPosition == null || compare(ledgerId, entryId, lastAddedPosition) > 0) {
+            lastAddedPosition = position != null ? position : PositionImpl.get(ledgerId, entryId);
+        }
+
+        if (bucket <= loadedBucket) {
+            priorityQueue.add(deliveryAt, ledgerId, entryId);
+        } else {
+            buffer.add(deliveryAt, ledgerId, entryId);
+            if (buffer.size() >= maxBufferedMessages) {
+                createSnapshot();
+            }
+        }
+    }
+
+    private static int compare(long ledgerId, long entryId, PositionImpl position) {
+        return compare(ledgerId, entryId, position.getLedgerId(), position.getEntryId());
+    }
+
+    private static int compare(long ledgerId1, long entryId1, long ledgerId2, long entryId2) {
+        return ledgerId1 != ledgerId2 ? Long.compare(ledgerId1, ledgerId2) : Long.compare(entryId1, entryId2);
+    }
+
+    /**
+     * Move the buffered messages in a new snapshot, which is then written in the storage. If the write of the previous
+     * snapshot failed, it's written again instead.
+     */
+    private void createSnapshot() {
+        if (snapshotInProgress || clock.millis() < nextSnapshotWriteMillis) {
+            return;
+        }
+        if (unpersistedSnapshot != null) {
+            writeSnapshot(unpersistedSnapshot);
+            return;
+        }
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        List<long[]> segments = new ArrayList<>();
+        List<Long> buckets = new ArrayList<>();
+        while (!buffer.isEmpty()) {
+            long bucket = getBucket(buffer.peekN1());
+            List<Long> segment = new ArrayList<>();
+            while (!buffer.isEmpty() && getBucket(buffer.peekN1()) == bucket) {
+                segment.add(buffer.peekN1());
+                segment.add(buffer.peekN2());
+                segment.add(buffer.peekN3());
+                buffer.pop();
+            }
+            segments.add(segment.stream().mapToLong(Long::longValue).toArray());
+            buckets.add(bucket);
+        }
+
+        SnapshotMetadata metadata = new SnapshotMetadata();
+        metadata.setFromLedgerId(lastSnapshotPosition != null ? lastSnapshotPosition.getLedgerId() : -1);
+        metadata.setFromEntryId(lastSnapshotPosition != null ? lastSnapshotPosition.getEntryId() : -1);
+        metadata.setToLedgerId(lastAddedPosition.getLedgerId());
+        metadata.setToEntryId(lastAddedPosition.getEntryId());
+        metadata.setLoadedBucket(loadedBucket);
+        metadata.setBuckets(buckets.stream().mapToLong(Long::longValue).toArray());
+        metadata.setCounts(segments.stream().mapToInt(segment -> segment.length / 3).toArray());
+
+        // The snapshot is used from memory until it's written
+        Snapshot snapshot = new Snapshot(metadata, segments, false);
+        snapshots.put(lastAddedPosition, snapshot);
+        lastSnapshotPosition = lastAddedPosition;
+        writeSnapshot(snapshot);
+    }
+
+    private void writeSnapshot(Snapshot snapshot) {
+        SnapshotMetadata metadata = snapshot.metadata;
+        List<long[]> segments = snapshot.segments;
+        snapshotInProgress = true;
+
+        storage.createSnapshot(topicName, subscriptionName, segments).thenCompose(snapshotId -> {
+            synchronized (dispatcher) {
+                metadata.setSnapshotId(snapshotId);
+                if (snapshots.get(getLastPosition(snapshot)) != snapshot) {
+                    // The tracker was cleared, or the snapshot was loaded, in the meantime
+                    return storage.deleteSnapshot(snapshotId);
+                }
+                snapshot.persisted = true;
+            }
+            return updateIndex();
+        }).whenComplete((ignore, exception) -> {
+            synchronized (dispatcher) {
+                snapshotInProgress = false;
+                if (exception != null) {
+                    // The snapshot stays in memory, it will be loaded from there until it can be written
+                    long retryDelayMillis = snapshotFailureBackoff.next();
+                    log.error("[{}] Failed to write a delayed delivery snapshot, retrying in {} ms",
+                            dispatcher.getName(), retryDelayMillis, exception);
+                    if (snapshot.persisted) {
+                        snapshot.persisted = false;
+                        storage.deleteSnapshot(metadata.getSnapshotId());
+                    }
+                    if (snapshots.get(getLastPosition(snapshot)) == snapshot) {
+                        unpersistedSnapshot = snapshot;
+                    }
+                    nextSnapshotWriteMillis = clock.millis() + retryDelayMillis;
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Wrote delayed delivery snapshot {} with {} buckets", dispatcher.getName(),
+                                metadata.getSnapshotId(), segments.size());
+                    }
+                    snapshot.segments = null;
+                    if (unpersistedSnapshot == snapshot) {
+                        unpersistedSnapshot = null;
+                    }
+                    snapshotFailureBackoff.reset();
+                    nextSnapshotWriteMillis = 0;
+                }
+                if ((unpersistedSnapshot != null || buffer.size() >= maxBufferedMessages) && !closed) {
+                    createSnapshot();
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the segments of the snapshots whose buckets are due, and the buffered messages of these buckets.
+     */
+    private void loadBuckets() {
+        long bucket = getBucket(clock.millis()) + 1;
+        if (bucket > loadedBucket) {
+            loadedBucket = bucket;
+            while (!buffer.isEmpty() && getBucket(buffer.peekN1()) <= loadedBucket) {
+                priorityQueue.add(buffer.peekN1(), buffer.peekN2(), buffer.peekN3());
+                buffer.pop();
+            }
+        }
+
+        // Loading the last segment of a snapshot removes it
+        for (Snapshot snapshot : new ArrayList<>(snapshots.values())) {
+            if (snapshot.hasSegmentToLoad(loadedBucket)) {
+                loadSegment(snapshot);
+            }
+        }
+    }
+
+    private void loadSegment(Snapshot snapshot) {
+        int segment = snapshot.loadedSegments;
+        if (snapshot.segments != null) {
+            segmentLoaded(snapshot, snapshot.segments.get(segment));
+            return;
+        }
+
+        snapshot.loading = true;
+        storage.getSegment(snapshot.metadata.getSnapshotId(), segment).whenComplete((data, exception) -> {
+            synchronized (dispatcher) {
+                snapshot.loading = false;
+                if (closed || snapshots.get(getLastPosition(snapshot)) != snapshot) {
+                    return;
+                }
+                if (exception != null) {
+                    // Retried on the next timer tick
+                    log.error("[{}] Failed to load segment {} of delayed delivery snapshot {}", dispatcher.getName(),
+                            segment, snapshot.metadata.getSnapshotId(), exception);
+                    return;
+                }
+                segmentLoaded(snapshot, data);
+                updateTimer();
+                if (hasMessageAvailable()) {
+                    dispatcher.readMoreEntries();
+                }
+            }
+        });
+    }
+
+    private void segmentLoaded(Snapshot snapshot, long[] data) {
+        for (int i = 0; i + 2 < data.length; i += 3) {
+            priorityQueue.add(data[i], data[i + 1], data[i + 2]);
+        }
+        snapshot.loadedSegments++;
+
+        if (snapshot.loadedSegments == snapshot.metadata.buckets.length) {
+            // All the messages of the snapshot are in memory
+            snapshots.remove(getLastPosition(snapshot));
+            if (unpersistedSnapshot == snapshot) {
+                unpersistedSnapshot = null;
+            }
+            if (snapshot.persisted) {
+                long snapshotId = snapshot.metadata.getSnapshotId();
+                updateIndex().thenCompose(ignore -> storage.deleteSnapshot(snapshotId)).exceptionally(ex -> {
+                    log.warn("[{}] Failed to delete delayed delivery snapshot {}", dispatcher.getName(), snapshotId,
+                            ex);
+                    return null;
+                });
+            }
+        } else if (snapshot.hasSegmentToLoad(loadedBucket)) {
+            loadSegment(snapshot);
+        }
+    }
+
+    private static PositionImpl getLastPosition(Snapshot snapshot) {
+        return PositionImpl.get(snapshot.metadata.getToLedgerId(), snapshot.metadata.getToEntryId());
+    }
+
+    /**
+     * Write the index of the persisted snapshots. The updates are serialized, and every update writes the latest
+     * state of the index.
+     */
+    private CompletableFuture<Void> updateIndex() {
+        lastIndexUpdate = lastIndexUpdate.exceptionally(ex -> null).thenCompose(ignore -> {
+            byte[] index;
+            Optional<Long> expectedVersion;
+            synchronized (dispatcher) {
+                expectedVersion = indexVersion;
+                List<SnapshotMetadata> persisted = new ArrayList<>();
+                snapshots.values().stream().filter(snapshot -> snapshot.persisted)
+                        .forEach(snapshot -> persisted.add(snapshot.metadata));
+                try {
+                    index = ObjectMapperFactory.getThreadLocal().writeValueAsBytes(persisted);
+                } catch (IOException e) {
+                    CompletableFuture<Void> future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                    return future;
+                }
+            }
+            return storage.putIndex(name, index, expectedVersion).thenAccept(version -> {
+                synchronized (dispatcher) {
+                    indexVersion = Optional.of(version);
+                }
+            });
+        });
+        return lastIndexUpdate;
+    }
+
+    private void loadIndex(byte[] index) {
+        try {
+            SnapshotMetadata[] persisted = ObjectMapperFactory.getThreadLocal()
+                    .readValue(index, SnapshotMetadata[].class);
+            for (SnapshotMetadata metadata : persisted) {
+                Snapshot snapshot = new Snapshot(metadata, null, true);
+                snapshots.put(getLastPosition(snapshot), snapshot);
+            }
+            if (!snapshots.isEmpty()) {
+                lastSnapshotPosition = snapshots.lastKey();
+            }
+            log.info("[{}] Loaded {} delayed delivery snapshots", dispatcher.getName(), persisted.length);
+        } catch (IOException e) {
+            log.error("[{}] Failed to parse the index of the delayed delivery snapshots", dispatcher.getName(), e);
+        }
+    }
+
+    /**
+     * Return true if there's at least a message that is scheduled to be delivered already.
+     */
+    @Override
+    public boolean hasMessageAvailable() {
+        if (indexLoaded) {
+            loadBuckets();
+        }
+        return !priorityQueue.isEmpty() && priorityQueue.peekN1() <= clock.millis();
+    }
+
+    /**
+     * Get a set of position of messages that have already reached.
+     */
+    @Override
+    public Set<PositionImpl> getScheduledMessages(int maxMessages) {
+        int n = maxMessages;
+        Set<PositionImpl> positions = new TreeSet<>();
+        long now = clock.millis();
+        // Pick all the messages that will be ready within the tick time period.
+        // This is to avoid keeping rescheduling the timer for each message at
+        // very short delay
+        long cutoffTime = now + tickTimeMillis;
+
+        while (n > 0 && !priorityQueue.isEmpty()) {
+            long timestamp = priorityQueue.peekN1();
+            if (timestamp > cutoffTime) {
+                break;
+            }
+
+            long ledgerId = priorityQueue.peekN2();
+            long entryId = priorityQueue.peekN3();
+            positions.add(new PositionImpl(ledgerId, entryId));
+
+            priorityQueue.pop();
+            --n;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages - found {}", dispatcher.getName(), positions.size());
+        }
+        updateTimer();
+        return positions;
+    }
+
+    @Override
+    public void resetTickTime(long tickTime) {
+        if (this.tickTimeMillis != tickTime) {
+            this.tickTimeMillis = tickTime;
+        }
+    }
+
+    @Override
+    public void clear() {
+        priorityQueue.clear();
+        buffer.clear();
+        pendingMessages.clear();
+        List<Long> snapshotIds = new ArrayList<>();
+        snapshots.values().stream().filter(snapshot -> snapshot.persisted)
+                .forEach(snapshot -> snapshotIds.add(snapshot.metadata.getSnapshotId()));
+        snapshots.clear();
+        unpersistedSnapshot = null;
+        lastSnapshotPosition = null;
+        lastAddedPosition = null;
+        // The snapshots are deleted once the index doesn't refer to them anymore
+        lastIndexUpdate = lastIndexUpdate.exceptionally(ex -> null)
+                .thenCompose(ignore -> storage.deleteIndex(name))
+                .thenRun(() -> {
+                    synchronized (dispatcher) {
+                        indexVersion = Optional.of(-1L);
+                    }
+                })
+                .thenCompose(ignore -> deleteSnapshots(storage, snapshotIds))
+                .exceptionally(ex -> {
+                    log.warn("[{}] Failed to delete the delayed delivery snapshots", name, ex);
+                    return null;
+                });
+    }
+
+    private static CompletableFuture<Void> deleteSnapshots(BucketSnapshotStorage storage, List<Long> snapshotIds) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        snapshotIds.forEach(snapshotId -> futures.add(storage.deleteSnapshot(snapshotId)));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Delete all the snapshots of a subscription, when it's not used by any tracker.
+     */
+    static CompletableFuture<Void> deleteSnapshots(BucketSnapshotStorage storage, String name) {
+        return storage.getIndex(name).thenCompose(index -> {
+            List<Long> snapshotIds = new ArrayList<>();
+            if (index.isPresent()) {
+                try {
+                    Arrays.stream(ObjectMapperFactory.getThreadLocal().readValue(index.get().getValue(),
+                            SnapshotMetadata[].class)).forEach(metadata -> snapshotIds.add(metadata.getSnapshotId()));
+                } catch (IOException e) {
+                    log.warn("[{}] Failed to parse the index of the delayed delivery snapshots", name, e);
+                }
+            }
+            // The snapshots are deleted once the index doesn't refer to them anymore
+            return storage.deleteIndex(name).thenCompose(ignore -> deleteSnapshots(storage, snapshotIds));
+        }).exceptionally(ex -> {
+            log.warn("[{}] Failed to delete the delayed delivery snapshots", name, ex);
+            return null;
+        });
+    }
+
+    @Override
+    public long getNumberOfDelayedMessages() {
+        long count = priorityQueue.size() + buffer.size() + pendingMessages.size();
+        for (Snapshot snapshot : snapshots.values()) {
+            count += snapshot.getNumberOfMessagesToLoad();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of messages that are kept in memory
+     */
+    long getNumberOfMessagesInMemory() {
+        long count = priorityQueue.size() + buffer.size() + pendingMessages.size();
+        for (Snapshot snapshot : snapshots.values()) {
+            if (snapshot.segments != null) {
+                count += snapshot.getNumberOfMessagesToLoad();
+            }
+        }
+        return count;
+    }
+
+    int getNumberOfSnapshots() {
+        return snapshots.size();
+    }
+
+    private void updateTimer() {
+        // The timer also triggers the loading of the next bucket
+        long timestamp = Long.MAX_VALUE;
+        if (!priorityQueue.isEmpty()) {
+            timestamp = priorityQueue.peekN1();
+        }
+        if (!buffer.isEmpty() || !snapshots.isEmpty()) {
+            timestamp = Math.min(timestamp, loadedBucket * bucketDurationMillis);
+        }
+
+        if (timestamp == Long.MAX_VALUE) {
+            if (timeout != null) {
+                currentTimeoutTarget = -1;
+                timeout.cancel();
+                timeout = null;
+            }
+            return;
+        }
+
+        if (timestamp == currentTimeoutTarget) {
+            // The timer is already set to the correct target time
+            return;
+        }
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        long delayMillis = timestamp - clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
+        }
+
+        if (delayMillis < 0) {
+            // There are messages that are already ready to be delivered. If
+            // the dispatcher is not getting them is because the consumer is
+            // either not connected or slow.
+            // We don't need to keep retriggering the timer. When the consumer
+            // catches up, the dispatcher will do the readMoreEntries() and
+            // get these messages
+            return;
+        }
+
+        currentTimeoutTarget = timestamp;
+        timeout = timer.newTimeout(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        synchronized (dispatcher) {
+            if (closed) {
+                return;
+            }
+            currentTimeoutTarget = -1;
+            this.timeout = null;
+            loadBuckets();
+            if (unpersistedSnapshot != null) {
+                createSnapshot();
+            }
+            updateTimer();
+            dispatcher.readMoreEntries();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        snapshots.values().stream().filter(snapshot -> snapshot.persisted)
+                .forEach(snapshot -> storage.closeSnapshot(snapshot.metadata.getSnapshotId()));
+        priorityQueue.close();
+        buffer.close();
+        pendingMessages.close();
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.util.Codec;
+
+/**
+ * Factory of {@link BucketDelayedDeliveryTracker} objects, whose snapshots are stored in BookKeeper.
+ */
+public class BucketDelayedDeliveryTrackerFactory implements DelayedDeliveryTrackerFactory {
+
+    private Timer timer;
+
+    private long tickTimeMillis;
+    private long bucketDurationMillis;
+    private int maxBufferedMessages;
+
+    // Created with the first tracker, since the BookKeeper client is not available yet when the factory is initialized
+    private volatile BucketSnapshotStorage storage;
+
+    @Override
+    public void initialize(ServiceConfiguration config) {
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("pulsar-delayed-delivery"),
+                config.getDelayedDeliveryTickTimeMillis(), TimeUnit.MILLISECONDS);
+        this.tickTimeMillis = config.getDelayedDeliveryTickTimeMillis();
+        this.bucketDurationMillis = config.getDelayedDeliveryBucketDurationMillis();
+        this.maxBufferedMessages = config.getDelayedDeliveryBucketMaxBufferedMessages();
+    }
+
+    @Override
+    public DelayedDeliveryTracker newTracker(PersistentDispatcherMultipleConsumers dispatcher) {
+        PersistentTopic topic = dispatcher.getTopic();
+        return new BucketDelayedDeliveryTracker(dispatcher, getStorage(topic), topic.getName(),
+                dispatcher.getCursor().getName(), timer, tickTimeMillis, bucketDurationMillis, maxBufferedMessages);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSubscriptionState(PersistentTopic topic, String subscriptionName) {
+        return BucketDelayedDeliveryTracker.deleteSnapshots(getStorage(topic),
+                getSnapshotsName(topic.getName(), Codec.encode(subscriptionName)));
+    }
+
+    private BucketSnapshotStorage getStorage(PersistentTopic topic) {
+        if (storage == null) {
+            synchronized (this) {
+                if (storage == null) {
+                    PulsarService pulsar = topic.getBrokerService().pulsar();
+                    storage = new BookKeeperBucketSnapshotStorage(pulsar.getBookKeeperClient(),
+                            pulsar.getLocalMetadataStore(), pulsar.getConfiguration());
+                }
+            }
+        }
+        return storage;
+    }
+
+    static String getSnapshotsName(String topic, String cursorName) {
+        return TopicName.get(topic).getPersistenceNamingEncoding() + "/" + cursorName;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.stop();
+        }
+        if (storage != null) {
+            storage.close();
+        }
+    }
+}
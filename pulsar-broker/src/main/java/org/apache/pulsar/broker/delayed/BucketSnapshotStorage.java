@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.apache.pulsar.metadata.api.GetResult;
+
+/**
+ * Storage of the snapshots written by the {@link BucketDelayedDeliveryTracker}.
+ *
+ * <p>A snapshot is an immutable list of segments, one per time bucket, where each segment is a sequence of
+ * (delivery time, ledger id, entry id) triples. The index of the snapshots of a subscription is stored separately,
+ * under the name of the subscription.
+ */
+public interface BucketSnapshotStorage extends AutoCloseable {
+
+    /**
+     * Write a new snapshot.
+     *
+     * @param topic the topic of the subscription, recorded with the snapshot
+     * @param subscription the subscription whose messages are in the snapshot, recorded with the snapshot
+     * @return the id of the snapshot
+     */
+    CompletableFuture<Long> createSnapshot(String topic, String subscription, List<long[]> segments);
+
+    /**
+     * Read a segment of a snapshot.
+     */
+    CompletableFuture<long[]> getSegment(long snapshotId, int segment);
+
+    /**
+     * Release the resources held to read the segments of a snapshot, which stays in the storage.
+     */
+    void closeSnapshot(long snapshotId);
+
+    CompletableFuture<Void> deleteSnapshot(long snapshotId);
+
+    /**
+     * @return the index and its version, if it exists
+     */
+    CompletableFuture<Optional<GetResult>> getIndex(String name);
+
+    /**
+     * Write an index.
+     *
+     * @param expectedVersion
+     *            if present, the version that the stored index must have for the write to succeed, -1 when the index
+     *            must not exist yet
+     * @return the new version of the index
+     */
+    CompletableFuture<Long> putIndex(String name, byte[] index, Optional<Long> expectedVersion);
+
+    CompletableFuture<Void> deleteIndex(String name);
+
+    @Override
+    default void close() {
+    }
+}
@@ -20,8 +20,10 @@ package org.apache.pulsar.broker.delayed;
 
 import com.google.common.annotations.Beta;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 
 /**
  * Factory of InMemoryDelayedDeliveryTracker objects. This is the entry point for implementations.
@@ -45,6 +47,18 @@ public interface DelayedDeliveryTrackerFactory extends AutoCloseable {
      */
     DelayedDeliveryTracker newTracker(PersistentDispatcherMultipleConsumers dispatcher);
 
+    /**
+     * Delete the state that the trackers of a subscription have persisted, once the subscription is deleted.
+     *
+     * @param topic
+     *            the topic of the subscription
+     * @param subscriptionName
+     *            the name of the deleted subscription
+     */
+    default CompletableFuture<Void> deleteSubscriptionState(PersistentTopic topic, String subscriptionName) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Close the factory and release all the resources.
      */
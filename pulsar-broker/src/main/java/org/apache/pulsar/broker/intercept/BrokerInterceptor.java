@@ -49,7 +49,9 @@ public interface BrokerInterceptor extends AutoCloseable {
      * @param subscription pulsar subscription
      * @param entry entry
      * @param ackSet entry ack bitset. it is either <tt>null</tt> or an array of long-based bitsets.
-     * @param msgMetadata message metadata. The message metadata will be recycled after this call.
+     * @param msgMetadata message metadata. The message metadata will be recycled after this call, and may be shared by
+     *                    all the subscriptions that dispatch the entry, so it must not be modified. An interceptor
+     *                    that needs to change it must work on its own copy.
      */
     default void beforeSendMessage(Subscription subscription,
                                    Entry entry,
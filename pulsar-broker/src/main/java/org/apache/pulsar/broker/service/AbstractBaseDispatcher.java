@@ -20,6 +20,7 @@
 package org.apache.pulsar.broker.service;
 
 import io.netty.buffer.ByteBuf;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
@@ -31,6 +32,7 @@ import org.apache.pulsar.broker.intercept.BrokerInterceptor;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.transaction.TxnID;
 import org.apache.pulsar.common.api.proto.CommandAck.AckType;
+import org.apache.pulsar.common.api.proto.KeyValue;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.api.proto.ReplicatedSubscriptionsSnapshot;
 import org.apache.pulsar.common.protocol.Commands;
@@ -53,7 +55,12 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
      * <li>Checksum or metadata corrupted
      * <li>Message is an internal marker
      * <li>Message is not meant to be delivered immediately
+     * <li>Message properties don't match the filter of the subscription
      * </ul>
+     * <p>
+     * The messages of a batch that don't match the filter are acked at the batch index level and skipped by the
+     * consumer through the ack set of the entry. This needs the batch index acknowledgment to be enabled, otherwise
+     * a batch with at least one matching message is dispatched whole. The encrypted batches are always dispatched.
      *
      * @param entries
      *            a list of entries as read from storage
@@ -71,6 +78,7 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         int totalMessages = 0;
         long totalBytes = 0;
         int totalChunkedMessages = 0;
+        MessagePropertiesFilter messageFilter = subscription.getMessageFilter();
         for (int i = 0, entriesSize = entries.size(); i < entriesSize; i++) {
             Entry entry = entries.get(i);
             if (entry == null) {
@@ -79,7 +87,7 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
 
             ByteBuf metadataAndPayload = entry.getDataBuffer();
 
-            MessageMetadata msgMetadata = Commands.peekMessageMetadata(metadataAndPayload, subscription.toString(), -1);
+            MessageMetadata msgMetadata = EntryMessageMetadata.peekMessageMetadata(entry, subscription.toString());
 
             if (!isReplayRead && msgMetadata != null
                     && msgMetadata.hasTxnidMostBits() && msgMetadata.hasTxnidLeastBits()) {
@@ -117,14 +125,53 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
             }
 
             int batchSize = msgMetadata.getNumMessagesInBatch();
+            long[] ackSet = null;
+            if (indexesAcks != null && cursor != null) {
+                ackSet = cursor.getDeletedBatchIndexesAsLongArray(
+                        PositionImpl.get(entry.getLedgerId(), entry.getEntryId()));
+            }
+
+            if (messageFilter != null) {
+                if (!msgMetadata.hasNumMessagesInBatch()) {
+                    if (!messageFilter.matches(msgMetadata)) {
+                        subscription.acknowledgeMessage(Collections.singletonList(entry.getPosition()),
+                                AckType.Individual, Collections.emptyMap());
+                        entries.set(i, null);
+                        entry.release();
+                        continue;
+                    }
+                } else {
+                    BitSet matching = filterBatch(entry, msgMetadata, messageFilter);
+                    if (matching != null && matching.cardinality() < batchSize) {
+                        if (ackSet != null) {
+                            matching.and(BitSet.valueOf(ackSet));
+                        }
+                        if (matching.isEmpty()) {
+                            subscription.acknowledgeMessage(Collections.singletonList(entry.getPosition()),
+                                    AckType.Individual, Collections.emptyMap());
+                            entries.set(i, null);
+                            entry.release();
+                            continue;
+                        }
+                        if (indexesAcks != null && isBatchIndexAckEnabled()) {
+                            // The messages that don't match are acked at the batch index level, and skipped by the
+                            // consumer through the ack set
+                            ackSet = matching.toLongArray();
+                            subscription.acknowledgeMessage(Collections.singletonList(
+                                    PositionImpl.get(entry.getLedgerId(), entry.getEntryId(), ackSet)),
+                                    AckType.Individual, Collections.emptyMap());
+                        }
+                        // Otherwise a batch with some matching messages can't be partially acked and is dispatched
+                        // whole
+                    }
+                }
+            }
+
             totalMessages += batchSize;
             totalBytes += metadataAndPayload.readableBytes();
             totalChunkedMessages += msgMetadata.hasChunkId() ? 1 : 0;
             batchSizes.setBatchSize(i, batchSize);
-            long[] ackSet = null;
             if (indexesAcks != null && cursor != null) {
-                ackSet = cursor.getDeletedBatchIndexesAsLongArray(
-                        PositionImpl.get(entry.getLedgerId(), entry.getEntryId()));
                 if (ackSet != null) {
                     indexesAcks.setIndexesAcks(i, Pair.of(batchSize, ackSet));
                 } else {
@@ -134,6 +181,8 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
 
             BrokerInterceptor interceptor = subscription.interceptor();
             if (null != interceptor) {
+                // The metadata may be shared by all the subscriptions that dispatch the entry, the interceptor only
+                // reads it
                 interceptor.beforeSendMessage(
                     subscription,
                     entry,
@@ -148,6 +197,36 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         sendMessageInfo.setTotalChunkedMessages(totalChunkedMessages);
     }
 
+    /**
+     * Evaluate the filter against each message of a batch.
+     *
+     * @return the indexes of the messages that match the filter, or null if the messages of the batch can't be read
+     *         because the batch is encrypted or corrupted
+     */
+    private BitSet filterBatch(Entry entry, MessageMetadata msgMetadata, MessagePropertiesFilter messageFilter) {
+        // The properties are decoded once and shared by the subscriptions that filter the batch
+        List<List<KeyValue>> batchProperties = EntryMessageMetadata.peekBatchProperties(entry, msgMetadata);
+        if (batchProperties == null) {
+            return null;
+        }
+        BitSet matching = new BitSet(batchProperties.size());
+        for (int i = 0; i < batchProperties.size(); i++) {
+            List<KeyValue> properties = batchProperties.get(i);
+            if (properties != null && messageFilter.matches(properties)) {
+                matching.set(i);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * @return true if the messages of a batch can be acknowledged individually, so that the messages of a batch that
+     *         don't match the filter of the subscription can be skipped
+     */
+    protected boolean isBatchIndexAckEnabled() {
+        return false;
+    }
+
     private void processReplicatedSubscriptionSnapshot(PositionImpl pos, ByteBuf headersAndPayload) {
         // Remove the protobuf headers
         Commands.skipMessageMetadata(headersAndPayload);
@@ -165,6 +244,14 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         // noop
     }
 
+    protected byte[] peekStickyKey(Entry entry) {
+        return EntryMessageMetadata.peekStickyKey(entry, subscription.getTopicName(), subscription.getName());
+    }
+
+    protected int peekStickyKeyHash(Entry entry) {
+        return EntryMessageMetadata.peekStickyKeyHash(entry, subscription.getTopicName(), subscription.getName());
+    }
+
     protected byte[] peekStickyKey(ByteBuf metadataAndPayload) {
         return Commands.peekStickyKey(metadataAndPayload, subscription.getTopicName(), subscription.getName());
     }
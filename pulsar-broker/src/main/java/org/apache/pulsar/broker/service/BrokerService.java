@@ -107,6 +107,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException.ServerMetadataExc
 import org.apache.pulsar.broker.service.BrokerServiceException.ServiceUnitNotReadyException;
 import org.apache.pulsar.broker.service.nonpersistent.NonPersistentTopic;
 import org.apache.pulsar.broker.service.persistent.DispatchRateLimiter;
+import org.apache.pulsar.broker.service.persistent.FairDispatchScheduler;
 import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.broker.service.persistent.SystemTopic;
@@ -151,6 +152,7 @@ import org.apache.pulsar.common.policies.data.RetentionPolicies;
 import org.apache.pulsar.common.policies.data.TopicPolicies;
 import org.apache.pulsar.common.policies.data.TopicStats;
 import org.apache.pulsar.common.policies.data.TopicType;
+import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.protocol.schema.SchemaVersion;
 import org.apache.pulsar.common.stats.Metrics;
 import org.apache.pulsar.common.util.FieldParser;
@@ -246,6 +248,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final DelayedDeliveryTrackerFactory delayedDeliveryTrackerFactory;
+    private final Optional<FairDispatchScheduler> dispatchScheduler;
     private final ServerBootstrap defaultServerBootstrap;
 
     private Channel listenChannel;
@@ -352,6 +355,11 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
 
         this.delayedDeliveryTrackerFactory = DelayedDeliveryTrackerLoader
                 .loadDelayedDeliveryTrackerFactory(pulsar.getConfiguration());
+        this.dispatchScheduler = pulsar.getConfiguration().isDispatcherFairSchedulingEnabled()
+                ? Optional.of(new FairDispatchScheduler(
+                        pulsar.getConfiguration().getDispatcherFairSchedulingMaxOutstandingReads(),
+                        pulsar.getConfiguration().getDispatcherFairSchedulingMaxOutstandingReadsPerThread()))
+                : Optional.empty();
 
         this.defaultServerBootstrap = defaultServerBootstrap();
 
@@ -1255,6 +1263,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             managedLedgerConfig.setMaxUnackedRangesToPersist(serviceConfig.getManagedLedgerMaxUnackedRangesToPersist());
             managedLedgerConfig.setMaxUnackedRangesToPersistInZk(
                     serviceConfig.getManagedLedgerMaxUnackedRangesToPersistInZooKeeper());
+            managedLedgerConfig.setPersistIndividualDeletedMessagesAsBitmap(
+                    serviceConfig.isManagedLedgerPersistUnackedRangesAsBitmap());
+            managedLedgerConfig.setIndividualDeletedMessagesSnapshotInterval(
+                    serviceConfig.getManagedLedgerUnackedRangesSnapshotInterval());
             managedLedgerConfig.setMaxEntriesPerLedger(serviceConfig.getManagedLedgerMaxEntriesPerLedger());
             managedLedgerConfig.setMinimumRolloverTime(serviceConfig.getManagedLedgerMinLedgerRolloverTimeMinutes(),
                     TimeUnit.MINUTES);
@@ -1269,6 +1281,8 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             managedLedgerConfig.setMetadataEnsembleSize(serviceConfig.getManagedLedgerDefaultEnsembleSize());
             managedLedgerConfig.setUnackedRangesOpenCacheSetEnabled(
                     serviceConfig.isManagedLedgerUnackedRangesOpenCacheSetEnabled());
+            managedLedgerConfig.setUnackedRangesOffHeapEnabled(
+                    serviceConfig.isManagedLedgerUnackedRangesOffHeapEnabled());
             managedLedgerConfig.setMetadataWriteQuorumSize(serviceConfig.getManagedLedgerDefaultWriteQuorum());
             managedLedgerConfig.setMetadataAckQuorumSize(serviceConfig.getManagedLedgerDefaultAckQuorum());
             managedLedgerConfig
@@ -1302,6 +1316,15 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
                     serviceConfig.isAcknowledgmentAtBatchIndexLevelEnabled());
             managedLedgerConfig.setNewEntriesCheckDelayInMillis(
                     serviceConfig.getManagedLedgerNewEntriesCheckDelayInMillis());
+            managedLedgerConfig.setReadAheadEnabled(policies.map(p -> p.readAheadEnabled)
+                    .orElse(serviceConfig.isManagedLedgerReadAheadEnabled()));
+            managedLedgerConfig.setReadAheadMaxEntries(serviceConfig.getManagedLedgerReadAheadMaxEntries());
+            managedLedgerConfig.setReadAheadMaxSizeBytes(serviceConfig.getManagedLedgerReadAheadMaxSizeKB() * 1024L);
+            if (serviceConfig.isManagedLedgerTimestampIndexEnabled()) {
+                managedLedgerConfig.setEntryTimestampExtractor(Commands::peekEntryTimestamp);
+            }
+            managedLedgerConfig.setTimestampIndexSamplingInterval(
+                    serviceConfig.getManagedLedgerTimestampIndexSamplingInterval());
 
 
             future.complete(managedLedgerConfig);
@@ -2053,6 +2076,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         return delayedDeliveryTrackerFactory;
     }
 
+    public Optional<FairDispatchScheduler> getDispatchScheduler() {
+        return dispatchScheduler;
+    }
+
     public static List<String> getDynamicConfiguration() {
         return dynamicConfigurationMap.keys();
     }
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.prometheus.client.Counter;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+
+/**
+ * Counts the bytes written on the connections of the broker, before the {@link ByteBufPair} are split by the encoder.
+ *
+ * <p>The payloads of the messages are counted as passed through when they are handed to the transport as they are,
+ * and as copied when the connection is encrypted. The headers of the messages and the other commands are counted as
+ * serialized. The counters are broker-wide, so a single instance is shared by all the connections.
+ */
+@Sharable
+class ConnectionBytesCounter extends ChannelOutboundHandlerAdapter {
+
+    private static final Counter passedThroughBytes = Counter
+            .build("pulsar_broker_connection_passed_through_bytes_total", "-").register();
+    private static final Counter copiedBytes = Counter
+            .build("pulsar_broker_connection_copied_bytes_total", "-").register();
+    private static final Counter serializedBytes = Counter
+            .build("pulsar_broker_connection_serialized_bytes_total", "-").register();
+
+    static final ConnectionBytesCounter PASSING_THROUGH = new ConnectionBytesCounter(passedThroughBytes);
+    static final ConnectionBytesCounter COPYING = new ConnectionBytesCounter(copiedBytes);
+
+    private final Counter payloadBytes;
+
+    private ConnectionBytesCounter(Counter payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBufPair) {
+            ByteBufPair b = (ByteBufPair) msg;
+            serializedBytes.inc(b.getFirst().readableBytes());
+            payloadBytes.inc(b.getSecond().readableBytes());
+        } else if (msg instanceof ByteBuf) {
+            serializedBytes.inc(((ByteBuf) msg).readableBytes());
+        }
+        ctx.write(msg, promise);
+    }
+
+    static double getPassedThroughBytes() {
+        return passedThroughBytes.get();
+    }
+
+    static double getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    static double getSerializedBytes() {
+        return serializedBytes.get();
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.compression.CompressionCodec;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.protocol.Commands;
+
+/**
+ * Immutable view of the message metadata of an entry.
+ *
+ * <p>When an entry is read from the managed ledger cache, the view is parsed once and shared by all the subscriptions
+ * and replicators that dispatch the entry, instead of parsing the metadata again for every one of them. The view must
+ * not be modified.
+ *
+ * <p>The properties of the messages of a batch are only decoded when a subscription filters the batch, and are then
+ * kept in the shared view.
+ */
+@Slf4j
+public final class EntryMessageMetadata {
+
+    // Corrupted entries are dispatched with the default sticky key
+    private static final EntryMessageMetadata INVALID =
+            new EntryMessageMetadata(null, Commands.getStickyKey(new MessageMetadata()), null);
+
+    // Properties of a batch whose messages can't be read, because the batch is encrypted or corrupted
+    private static final List<List<KeyValue>> UNREADABLE_BATCH = Collections.emptyList();
+
+    // Estimated heap size of the view, besides the serialized size of the metadata and of the sticky key
+    private static final int OBJECTS_OVERHEAD = 128;
+    // Estimated heap size of the properties of a message of a batch and of each property, besides their content
+    private static final int BATCH_PROPERTIES_OVERHEAD = 64;
+
+    private final MessageMetadata messageMetadata;
+    private final byte[] stickyKey;
+    private final int stickyKeyHash;
+    // The properties of the messages of the batch, null until a subscription filters the batch
+    private final List<List<KeyValue>> batchProperties;
+
+    private EntryMessageMetadata(MessageMetadata messageMetadata, byte[] stickyKey,
+                                 List<List<KeyValue>> batchProperties) {
+        this.messageMetadata = messageMetadata;
+        this.stickyKey = stickyKey;
+        this.stickyKeyHash = StickyKeyConsumerSelector.makeStickyKeyHash(stickyKey);
+        this.batchProperties = batchProperties;
+    }
+
+    /**
+     * @return the metadata of the entry, parsed once if the entry is shared by the managed ledger cache
+     */
+    public static EntryMessageMetadata of(Entry entry) {
+        if (entry instanceof EntryImpl) {
+            return ((EntryImpl) entry).getDecodedData(EntryMessageMetadata.class, EntryMessageMetadata::parse,
+                    EntryMessageMetadata::getEstimatedSize);
+        }
+        return parse(entry.getDataBuffer());
+    }
+
+    /**
+     * Peek the metadata of an entry, reusing the shared view of the entry if there is one.
+     *
+     * <p>The returned metadata may be a thread local instance, which is only valid until the next peek, or the
+     * instance shared by all the subscriptions and replicators that dispatch the entry. It must not be modified: a
+     * caller that needs to change it, or to hand it to code that may change it, must work on a copy.
+     *
+     * @return the metadata, or null if the metadata is corrupted
+     */
+    public static MessageMetadata peekMessageMetadata(Entry entry, String subscription) {
+        if (isShared(entry)) {
+            return of(entry).getMessageMetadata();
+        }
+        return Commands.peekMessageMetadata(entry.getDataBuffer(), subscription, -1);
+    }
+
+    /**
+     * Peek the sticky key of an entry, reusing the shared view of the entry if there is one.
+     */
+    public static byte[] peekStickyKey(Entry entry, String topic, String subscription) {
+        if (isShared(entry)) {
+            return of(entry).getStickyKey();
+        }
+        return Commands.peekStickyKey(entry.getDataBuffer(), topic, subscription);
+    }
+
+    /**
+     * Peek the hash of the sticky key of an entry, reusing the shared view of the entry if there is one.
+     */
+    public static int peekStickyKeyHash(Entry entry, String topic, String subscription) {
+        if (isShared(entry)) {
+            return of(entry).getStickyKeyHash();
+        }
+        return StickyKeyConsumerSelector.makeStickyKeyHash(
+                Commands.peekStickyKey(entry.getDataBuffer(), topic, subscription));
+    }
+
+    /**
+     * Peek the properties of the messages of a batched entry, reusing the shared view of the entry if there is one.
+     * The batch is decompressed and parsed the first time its properties are peeked, and the properties are then kept
+     * in the shared view, so that the subscriptions that filter the batch don't decode it again.
+     *
+     * @param metadata
+     *            the metadata of the entry
+     * @return the properties of each message of the batch, null for the messages that were compacted out, or null if
+     *         the messages can't be read because the batch is encrypted or corrupted
+     */
+    public static List<List<KeyValue>> peekBatchProperties(Entry entry, MessageMetadata metadata) {
+        List<List<KeyValue>> properties;
+        if (isShared(entry)) {
+            EntryMessageMetadata view = of(entry);
+            properties = view.batchProperties;
+            if (properties == null) {
+                properties = parseBatchProperties(entry, metadata);
+                EntryMessageMetadata decoded = new EntryMessageMetadata(view.messageMetadata, view.stickyKey,
+                        properties);
+                ((EntryImpl) entry).setDecodedData(decoded, decoded.getEstimatedSize());
+            }
+        } else {
+            properties = parseBatchProperties(entry, metadata);
+        }
+        return properties != UNREADABLE_BATCH ? properties : null;
+    }
+
+    private static boolean isShared(Entry entry) {
+        return entry instanceof EntryImpl && ((EntryImpl) entry).isDecodedDataShared();
+    }
+
+    static EntryMessageMetadata parse(ByteBuf metadataAndPayload) {
+        // save the reader index and restore after parsing
+        int readerIdx = metadataAndPayload.readerIndex();
+        try {
+            Commands.skipBrokerEntryMetadataIfExist(metadataAndPayload);
+            // The parsed metadata is a thread local instance that refers to the buffer, so it must be copied
+            MessageMetadata metadata = new MessageMetadata()
+                    .copyFrom(Commands.parseMessageMetadata(metadataAndPayload));
+            return new EntryMessageMetadata(metadata, Commands.getStickyKey(metadata), null);
+        } catch (Throwable t) {
+            log.error("Failed to parse message metadata", t);
+            return INVALID;
+        } finally {
+            metadataAndPayload.readerIndex(readerIdx);
+        }
+    }
+
+    private static List<List<KeyValue>> parseBatchProperties(Entry entry, MessageMetadata metadata) {
+        if (metadata.getEncryptionKeysCount() > 0) {
+            return UNREADABLE_BATCH;
+        }
+        int batchSize = metadata.getNumMessagesInBatch();
+        ByteBuf payload = entry.getDataBuffer().duplicate();
+        ByteBuf uncompressedPayload = null;
+        try {
+            Commands.skipMessageMetadata(payload);
+            CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(metadata.getCompression());
+            uncompressedPayload = codec.decode(payload, metadata.getUncompressedSize());
+            SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+            List<List<KeyValue>> batchProperties = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                int singleMetadataSize = (int) uncompressedPayload.readUnsignedInt();
+                singleMessageMetadata.parseFrom(uncompressedPayload, singleMetadataSize);
+                uncompressedPayload.skipBytes(singleMessageMetadata.getPayloadSize());
+                if (singleMessageMetadata.isCompactedOut()) {
+                    batchProperties.add(null);
+                    continue;
+                }
+                // The parsed properties refer to the payload, so they must be copied
+                List<KeyValue> properties = new ArrayList<>(singleMessageMetadata.getPropertiesCount());
+                for (KeyValue property : singleMessageMetadata.getPropertiesList()) {
+                    properties.add(new KeyValue().setKey(property.getKey()).setValue(property.getValue()));
+                }
+                batchProperties.add(properties);
+            }
+            return batchProperties;
+        } catch (Throwable t) {
+            log.warn("Failed to read the messages of the batch at {}:{} -- {}", entry.getLedgerId(),
+                    entry.getEntryId(), t.getMessage());
+            return UNREADABLE_BATCH;
+        } finally {
+            if (uncompressedPayload != null) {
+                uncompressedPayload.release();
+            }
+        }
+    }
+
+    /**
+     * @return the metadata of the entry, or null if the metadata is corrupted
+     */
+    public MessageMetadata getMessageMetadata() {
+        return messageMetadata;
+    }
+
+    /**
+     * @return the estimated heap size of the view, which is accounted in the size of the managed ledger cache
+     */
+    public long getEstimatedSize() {
+        int metadataSize = messageMetadata != null ? messageMetadata.getSerializedSize() : 0;
+        long size = OBJECTS_OVERHEAD + metadataSize + stickyKey.length;
+        if (batchProperties != null) {
+            for (List<KeyValue> properties : batchProperties) {
+                size += BATCH_PROPERTIES_OVERHEAD;
+                if (properties != null) {
+                    for (KeyValue property : properties) {
+                        size += BATCH_PROPERTIES_OVERHEAD + property.getSerializedSize();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the key used to select the consumer of the entry in the sticky key dispatchers
+     */
+    public byte[] getStickyKey() {
+        return stickyKey;
+    }
+
+    /**
+     * @return the hash of the sticky key, as computed by {@link StickyKeyConsumerSelector#makeStickyKeyHash(byte[])}
+     */
+    public int getStickyKeyHash() {
+        return stickyKeyHash;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.pulsar.common.util.Murmur3_32Hash;
+
+/**
+ * Consistent hashing consumer selector which doesn't lock the ring when selecting a consumer.
+ *
+ * <p>The keys are assigned to the consumers exactly like {@link ConsistentHashingStickyKeyConsumerSelector}, but the
+ * ring is an immutable set of sorted arrays, which is rebuilt and swapped when a consumer is added or removed. The
+ * lookup of a hash starts from a bucket index, so it only compares a few points of the ring in average.
+ */
+public class LockFreeConsistentHashingStickyKeyConsumerSelector implements StickyKeyConsumerSelector {
+
+    // The hashes are positive integers, so there are 2^31 of them
+    private static final int HASH_BITS = 31;
+    private static final int MAX_BUCKET_BITS = 16;
+
+    private final int numberOfPoints;
+
+    // Consumers of each point of the ring, only accessed with the lock of the selector held
+    private final NavigableMap<Integer, List<Consumer>> points = new TreeMap<>();
+
+    private volatile Ring ring = new Ring(new TreeMap<>());
+
+    public LockFreeConsistentHashingStickyKeyConsumerSelector(int numberOfPoints) {
+        this.numberOfPoints = numberOfPoints;
+    }
+
+    private static final class Ring {
+        // Sorted hashes of the points, and the consumers of each point sorted by name
+        private final int[] hashes;
+        private final Consumer[][] consumers;
+        // Index of the first point whose hash is in the bucket or after it
+        private final int[] bucketIndexes;
+        private final int bucketShift;
+
+        private Ring(NavigableMap<Integer, List<Consumer>> points) {
+            int size = points.size();
+            this.hashes = new int[size];
+            this.consumers = new Consumer[size][];
+            int i = 0;
+            for (Map.Entry<Integer, List<Consumer>> entry : points.entrySet()) {
+                hashes[i] = entry.getKey();
+                consumers[i] = entry.getValue().toArray(new Consumer[0]);
+                i++;
+            }
+
+            int bucketBits = 0;
+            while (bucketBits < MAX_BUCKET_BITS && (1 << bucketBits) < size) {
+                bucketBits++;
+            }
+            this.bucketShift = HASH_BITS - bucketBits;
+            this.bucketIndexes = new int[1 << bucketBits];
+            int index = 0;
+            for (int bucket = 0; bucket < bucketIndexes.length; bucket++) {
+                long bucketStart = (long) bucket << bucketShift;
+                while (index < size && hashes[index] < bucketStart) {
+                    index++;
+                }
+                bucketIndexes[bucket] = index;
+            }
+        }
+
+        Consumer select(int hash) {
+            int size = hashes.length;
+            if (size == 0) {
+                return null;
+            }
+
+            // Find the first point at or after the hash, wrapping around the ring
+            int index = bucketIndexes[hash >>> bucketShift];
+            while (index < size && hashes[index] < hash) {
+                index++;
+            }
+            Consumer[] pointConsumers = consumers[index < size ? index : 0];
+            return pointConsumers[hash % pointConsumers.length];
+        }
+    }
+
+    @Override
+    public synchronized void addConsumer(Consumer consumer) {
+        // Insert multiple points on the hash ring for every consumer
+        // The points are deterministically added based on the hash of the consumer name
+        for (int i = 0; i < numberOfPoints; i++) {
+            List<Consumer> pointConsumers = points.computeIfAbsent(pointHash(consumer, i), k -> new ArrayList<>());
+            if (!pointConsumers.contains(consumer)) {
+                pointConsumers.add(consumer);
+                pointConsumers.sort(Comparator.comparing(Consumer::consumerName, String::compareTo));
+            }
+        }
+        ring = new Ring(points);
+    }
+
+    @Override
+    public synchronized void removeConsumer(Consumer consumer) {
+        // Remove all the points that were added for this consumer
+        for (int i = 0; i < numberOfPoints; i++) {
+            points.computeIfPresent(pointHash(consumer, i), (k, pointConsumers) -> {
+                pointConsumers.removeIf(c -> c.consumerName().equals(consumer.consumerName()));
+                return pointConsumers.isEmpty() ? null : pointConsumers;
+            });
+        }
+        ring = new Ring(points);
+    }
+
+    private static int pointHash(Consumer consumer, int point) {
+        String key = consumer.consumerName() + point;
+        return Murmur3_32Hash.getInstance().makeHash(key.getBytes());
+    }
+
+    @Override
+    public Consumer select(int hash) {
+        return ring.select(hash);
+    }
+
+    @Override
+    public Map<String, List<String>> getConsumerKeyHashRanges() {
+        Ring ring = this.ring;
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        int start = 0;
+        for (int i = 0; i < ring.hashes.length; i++) {
+            for (Consumer consumer : ring.consumers[i]) {
+                result.computeIfAbsent(consumer.consumerName(), key -> new ArrayList<>())
+                        .add("[" + start + ", " + ring.hashes[i] + "]");
+            }
+            start = ring.hashes[i] + 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+
+/**
+ * Filter of the messages dispatched to a subscription, evaluated against the properties of the messages.
+ *
+ * <p>The expression compares the values of the properties with string literals, and combines the comparisons with
+ * {@code AND}, {@code OR}, {@code NOT} and parentheses. For example:
+ * <pre>
+ * region = 'eu' AND (type IN ('order', 'refund') OR NOT EXISTS priority)
+ * </pre>
+ *
+ * <p>{@code key = 'value'} is true if the message has a property with this key and value, {@code key != 'value'} is
+ * true if it hasn't. The keywords are case-insensitive, the keys and the values are not. The keys can be quoted with
+ * double quotes when they are not made of letters, digits, {@code _}, {@code .} and {@code -}.
+ *
+ * <p>The filter is immutable and can be shared by multiple threads.
+ */
+public class MessagePropertiesFilter {
+
+    /**
+     * Name of the consumer property that sets the filter of the subscription when the consumer subscribes.
+     */
+    public static final String CONSUMER_PROPERTY = "pulsar.subscription.filter";
+
+    private interface Node {
+        boolean matches(List<KeyValue> properties);
+    }
+
+    private final String expression;
+    private final Node root;
+
+    private MessagePropertiesFilter(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    /**
+     * Parse a filter expression.
+     *
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static MessagePropertiesFilter parse(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("Missing filter expression");
+        }
+        Parser parser = new Parser(expression);
+        Node root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("Unexpected token '" + parser.peek() + "'");
+        }
+        return new MessagePropertiesFilter(expression, root);
+    }
+
+    /**
+     * @return true if the message must be dispatched
+     */
+    public boolean matches(MessageMetadata metadata) {
+        return root.matches(metadata.getPropertiesList());
+    }
+
+    /**
+     * @return true if the message of a batch must be dispatched
+     */
+    public boolean matches(SingleMessageMetadata metadata) {
+        return root.matches(metadata.getPropertiesList());
+    }
+
+    /**
+     * @return true if the message with the given properties must be dispatched
+     */
+    public boolean matches(List<KeyValue> properties) {
+        return root.matches(properties);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static boolean hasProperty(List<KeyValue> properties, String key) {
+        for (int i = 0, size = properties.size(); i < size; i++) {
+            if (properties.get(i).getKey().equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasProperty(List<KeyValue> properties, String key, Set<String> values) {
+        for (int i = 0, size = properties.size(); i < size; i++) {
+            KeyValue property = properties.get(i);
+            if (property.getKey().equals(key) && values.contains(property.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Parser {
+        private final String expression;
+        private final List<Token> tokens = new ArrayList<>();
+        private int next = 0;
+
+        private static final class Token {
+            private final String text;
+            private final boolean quoted;
+            private final int offset;
+
+            private Token(String text, boolean quoted, int offset) {
+                this.text = text;
+                this.quoted = quoted;
+                this.offset = offset;
+            }
+
+            boolean isKeyword(String keyword) {
+                return !quoted && text.equalsIgnoreCase(keyword);
+            }
+
+            @Override
+            public String toString() {
+                return text;
+            }
+        }
+
+        Parser(String expression) {
+            this.expression = expression;
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    int end = expression.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw error("Unterminated string at offset " + i);
+                    }
+                    tokens.add(new Token(expression.substring(i + 1, end), true, i));
+                    i = end + 1;
+                } else if (c == '!' && i + 1 < expression.length() && expression.charAt(i + 1) == '=') {
+                    tokens.add(new Token("!=", false, i));
+                    i += 2;
+                } else if (c == '=' || c == '(' || c == ')' || c == ',') {
+                    tokens.add(new Token(String.valueOf(c), false, i));
+                    i++;
+                } else if (isWordChar(c)) {
+                    int start = i;
+                    while (i < expression.length() && isWordChar(expression.charAt(i))) {
+                        i++;
+                    }
+                    tokens.add(new Token(expression.substring(start, i), false, start));
+                } else {
+                    throw error("Unexpected character '" + c + "' at offset " + i);
+                }
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in filter expression: " + expression);
+        }
+
+        Token peek() {
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+
+        private Token nextToken() {
+            Token token = peek();
+            if (token == null) {
+                throw error("Unexpected end");
+            }
+            next++;
+            return token;
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            Token token = peek();
+            if (token != null && token.isKeyword(keyword)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String symbol) {
+            Token token = nextToken();
+            if (token.quoted || !token.text.equals(symbol)) {
+                throw error("Expected '" + symbol + "' at offset " + token.offset);
+            }
+        }
+
+        Node parseOr() {
+            Node left = parseAnd();
+            while (acceptKeyword("OR")) {
+                Node l = left;
+                Node r = parseAnd();
+                left = properties -> l.matches(properties) || r.matches(properties);
+            }
+            return left;
+        }
+
+        private Node parseAnd() {
+            Node left = parseNot();
+            while (acceptKeyword("AND")) {
+                Node l = left;
+                Node r = parseNot();
+                left = properties -> l.matches(properties) && r.matches(properties);
+            }
+            return left;
+        }
+
+        private Node parseNot() {
+            if (acceptKeyword("NOT")) {
+                Node node = parseNot();
+                return properties -> !node.matches(properties);
+            }
+            return parseComparison();
+        }
+
+        private Node parseComparison() {
+            Token token = peek();
+            if (token != null && !token.quoted && token.text.equals("(")) {
+                next++;
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            if (acceptKeyword("EXISTS")) {
+                String key = parseKey();
+                return properties -> hasProperty(properties, key);
+            }
+
+            String key = parseKey();
+            Token operator = nextToken();
+            if (operator.quoted) {
+                throw error("Expected an operator at offset " + operator.offset);
+            }
+            if (operator.text.equals("=") || operator.text.equals("!=")) {
+                Set<String> values = new HashSet<>();
+                values.add(parseValue());
+                return operator.text.equals("=") ? properties -> hasProperty(properties, key, values)
+                        : properties -> !hasProperty(properties, key, values);
+            } else if (operator.isKeyword("IN")) {
+                expect("(");
+                Set<String> values = new HashSet<>();
+                values.add(parseValue());
+                while (acceptSymbol(",")) {
+                    values.add(parseValue());
+                }
+                expect(")");
+                return properties -> hasProperty(properties, key, values);
+            }
+            throw error("Unexpected operator '" + operator + "' at offset " + operator.offset);
+        }
+
+        private boolean acceptSymbol(String symbol) {
+            Token token = peek();
+            if (token != null && !token.quoted && token.text.equals(symbol)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private String parseKey() {
+            Token token = nextToken();
+            if (!token.quoted && !isWordChar(token.text.charAt(0))) {
+                throw error("Expected a property name at offset " + token.offset);
+            }
+            return token.text;
+        }
+
+        private String parseValue() {
+            Token token = nextToken();
+            if (!token.quoted) {
+                throw error("Expected a quoted value at offset " + token.offset);
+            }
+            return token.text;
+        }
+    }
+}
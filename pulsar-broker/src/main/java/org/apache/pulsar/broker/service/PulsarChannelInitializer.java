@@ -114,8 +114,10 @@ public class PulsarChannelInitializer extends ChannelInitializer<SocketChannel>
                 ch.pipeline().addLast(TLS_HANDLER, sslCtxRefresher.get().newHandler(ch.alloc()));
             }
             ch.pipeline().addLast("ByteBufPairEncoder", ByteBufPair.COPYING_ENCODER);
+            ch.pipeline().addLast("bytesCounter", ConnectionBytesCounter.COPYING);
         } else {
             ch.pipeline().addLast("ByteBufPairEncoder", ByteBufPair.ENCODER);
+            ch.pipeline().addLast("bytesCounter", ConnectionBytesCounter.PASSING_THROUGH);
         }
 
         if (pulsar.getConfiguration().isHaProxyProtocolEnabled()) {
@@ -261,16 +261,20 @@ public class PulsarCommandSenderImpl implements PulsarCommandSender {
                     redeliveryCount = redeliveryTracker.incrementAndGetRedeliveryCount(position);
                 }
 
+                // The headers of the messages are written next to each other, in the buffer of the connection
                 ctx.write(
                         cnx.newMessageAndIntercept(consumerId, entry.getLedgerId(), entry.getEntryId(), partitionIdx,
                                 redeliveryCount, metadataAndPayload,
-                                batchIndexesAcks == null ? null : batchIndexesAcks.getAckSet(i), topicName),
+                                batchIndexesAcks == null ? null : batchIndexesAcks.getAckSet(i), topicName,
+                                cnx.headersArena()),
                         ctx.voidPromise());
                 entry.release();
             }
 
-            // Use an empty write here so that we can just tie the flush with the write promise for last entry
-            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER, writePromise);
+            // Use an empty write here so that we can just tie the flush with the write promise for last entry. The
+            // flush may be shared with the other consumers of the connection that are dispatching at the same time.
+            ctx.write(Unpooled.EMPTY_BUFFER, writePromise);
+            cnx.flushDispatchedMessages();
             batchSizes.recyle();
             if (batchIndexesAcks != null) {
                 batchIndexesAcks.recycle();
@@ -27,6 +27,7 @@ import static org.apache.pulsar.common.protocol.Commands.newLookupErrorResponse;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
@@ -75,6 +76,7 @@ import org.apache.pulsar.client.api.transaction.TxnID;
 import org.apache.pulsar.client.impl.BatchMessageIdImpl;
 import org.apache.pulsar.client.impl.ClientCnx;
 import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 import org.apache.pulsar.common.api.AuthData;
 import org.apache.pulsar.common.api.proto.BaseCommand;
 import org.apache.pulsar.common.api.proto.CommandAck;
@@ -169,6 +171,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
     private String authMethod = "none";
     private final int maxMessageSize;
     private boolean preciseDispatcherFlowControl;
+    private final boolean coalesceConnectionFlushes;
 
     private boolean preciseTopicPublishRateLimitingEnable;
     private boolean encryptionRequireOnProducer;
@@ -182,6 +185,18 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
             AtomicLongFieldUpdater.newUpdater(ServerCnx.class, "messagePublishBufferSize");
     private volatile long messagePublishBufferSize = 0;
     private PulsarCommandSender commandSender;
+    // Only accessed from the event loop
+    private boolean pendingFlush = false;
+    // Chunk where the headers of the dispatched messages are written, only accessed from the event loop. Every
+    // header is a retained slice of it, so a chunk is freed once the connection moved to the next one and all its
+    // headers are written on the socket. The chunk of an idle connection is released by the reclaim task.
+    private ByteBuf headersArena = null;
+    private boolean headersArenaUsed = false;
+    private boolean headersArenaReclaimScheduled = false;
+    private boolean headersArenaClosed = false;
+    private static final int HEADERS_ARENA_CHUNK_SIZE = 16 * 1024;
+    private static final int MIN_HEADERS_ARENA_WRITABLE_BYTES = 1024;
+    private static final long HEADERS_ARENA_IDLE_MILLIS = 1000;
 
     private static final KeySharedMeta emptyKeySharedMeta = new KeySharedMeta()
             .setKeySharedMode(KeySharedMode.AUTO_SPLIT);
@@ -209,6 +224,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         this.maxPendingSendRequests = pulsar.getConfiguration().getMaxPendingPublishRequestsPerConnection();
         this.resumeReadsThreshold = maxPendingSendRequests / 2;
         this.preciseDispatcherFlowControl = pulsar.getConfiguration().isPreciseDispatcherFlowControl();
+        this.coalesceConnectionFlushes = pulsar.getConfiguration().isDispatcherCoalesceConnectionFlushes();
         this.preciseTopicPublishRateLimitingEnable = pulsar.getConfiguration().isPreciseTopicPublishRateLimiterEnable();
         this.encryptionRequireOnProducer = pulsar.getConfiguration().isEncryptionRequireOnProducer();
     }
@@ -226,6 +242,11 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         super.channelInactive(ctx);
         isActive = false;
         log.info("Closed connection from {}", remoteAddress);
+        headersArenaClosed = true;
+        if (headersArena != null) {
+            headersArena.release();
+            headersArena = null;
+        }
         BrokerInterceptor brokerInterceptor = getBrokerService().getInterceptor();
         if (brokerInterceptor != null) {
             brokerInterceptor.onConnectionClosed(this);
@@ -2182,12 +2203,94 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         BaseCommand command = Commands.newMessageCommand(consumerId, ledgerId, entryId, partition, redeliveryCount,
                 ackSet);
         ByteBufPair res = Commands.serializeCommandMessageWithSize(command, metadataAndPayload);
+        interceptMessage(command);
+        return res;
+    }
+
+    /**
+     * Same as {@link #newMessageAndIntercept(long, long, long, int, int, ByteBuf, long[], String)}, but the headers of
+     * the message are written in the given buffer, which is shared by the messages dispatched together.
+     */
+    public ByteBufPair newMessageAndIntercept(long consumerId, long ledgerId, long entryId, int partition,
+            int redeliveryCount, ByteBuf metadataAndPayload, long[] ackSet, String topic, ByteBuf headersBuffer) {
+        BaseCommand command = Commands.newMessageCommand(consumerId, ledgerId, entryId, partition, redeliveryCount,
+                ackSet);
+        ByteBufPair res = Commands.serializeCommandMessageWithSize(command, metadataAndPayload, headersBuffer);
+        interceptMessage(command);
+        return res;
+    }
+
+    private void interceptMessage(BaseCommand command) {
         try {
             getBrokerService().getInterceptor().onPulsarCommand(command, this);
         } catch (Exception e) {
             log.error("Exception occur when intercept messages.", e);
         }
-        return res;
+    }
+
+    /**
+     * Flush the messages dispatched on this connection. When the flushes are coalesced, the channel is flushed once the
+     * tasks already queued in the event loop have run, so that the messages dispatched at the same time to the
+     * consumers of this connection are written with a single flush. Otherwise, the channel is flushed right away.
+     *
+     * <p>Must be called from the event loop of the channel.
+     */
+    void flushDispatchedMessages() {
+        if (!coalesceConnectionFlushes) {
+            ctx.flush();
+            return;
+        }
+        if (pendingFlush) {
+            return;
+        }
+        pendingFlush = true;
+        ctx.channel().eventLoop().execute(() -> {
+            pendingFlush = false;
+            ctx.flush();
+        });
+    }
+
+    /**
+     * Get the buffer where the headers of the next message dispatched on this connection are written. The buffer is a
+     * chunk shared by the dispatches of the connection. A new chunk is allocated when there's not enough room left in
+     * the current one, and the chunk is released once the connection didn't dispatch anything for a second.
+     *
+     * <p>Must be called from the event loop of the channel. The chunk can't grow, the headers that don't fit in it
+     * must be written in their own buffer, and the returned buffer must not be released: the headers written in it
+     * are retained slices.
+     */
+    ByteBuf headersArena() {
+        if (headersArenaClosed) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        headersArenaUsed = true;
+        if (headersArena == null || headersArena.writableBytes() < MIN_HEADERS_ARENA_WRITABLE_BYTES) {
+            if (headersArena != null) {
+                headersArena.release();
+            }
+            headersArena = PulsarByteBufAllocator.DEFAULT.directBuffer(HEADERS_ARENA_CHUNK_SIZE,
+                    HEADERS_ARENA_CHUNK_SIZE);
+            if (!headersArenaReclaimScheduled) {
+                headersArenaReclaimScheduled = true;
+                ctx.channel().eventLoop().schedule(this::reclaimHeadersArena, HEADERS_ARENA_IDLE_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        return headersArena;
+    }
+
+    private void reclaimHeadersArena() {
+        if (headersArenaUsed && !headersArenaClosed) {
+            headersArenaUsed = false;
+            ctx.channel().eventLoop().schedule(this::reclaimHeadersArena, HEADERS_ARENA_IDLE_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            return;
+        }
+        headersArenaReclaimScheduled = false;
+        if (headersArena != null) {
+            headersArena.release();
+            headersArena = null;
+        }
     }
 
     private static final Logger log = LoggerFactory.getLogger(ServerCnx.class);
@@ -21,6 +21,7 @@ package org.apache.pulsar.broker.service;
 import java.util.List;
 import java.util.Map;
 import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerAssignException;
+import org.apache.pulsar.common.util.Murmur3_32Hash;
 
 public interface StickyKeyConsumerSelector {
 
@@ -45,11 +46,28 @@ public interface StickyKeyConsumerSelector {
      * @param stickyKey sticky key
      * @return consumer
      */
-    Consumer select(byte[] stickyKey);
+    default Consumer select(byte[] stickyKey) {
+        return select(makeStickyKeyHash(stickyKey));
+    }
+
+    /**
+     * Select a consumer by the hash of the sticky key, when the hash was already computed.
+     *
+     * @param hash hash of the sticky key, as returned by {@link #makeStickyKeyHash(byte[])}
+     * @return consumer
+     */
+    Consumer select(int hash);
 
     /**
      * Get key hash ranges handled by each consumer.
      * @return A map where key is a consumer name and value is list of hash range it receiving message for.
      */
     Map<String, List<String>> getConsumerKeyHashRanges();
+
+    /**
+     * @return the hash of a sticky key, used to select its consumer
+     */
+    static int makeStickyKeyHash(byte[] stickyKey) {
+        return Murmur3_32Hash.getInstance().makeHash(stickyKey);
+    }
 }
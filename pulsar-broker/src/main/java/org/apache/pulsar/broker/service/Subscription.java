@@ -107,6 +107,13 @@ public interface Subscription {
 
     CompletableFuture<Void> endTxn(long txnidMostBits, long txnidLeastBits, int txnAction);
 
+    /**
+     * @return the filter of the messages dispatched to the subscription, or null if all the messages are dispatched
+     */
+    default MessagePropertiesFilter getMessageFilter() {
+        return null;
+    }
+
     // Subscription utils
     static boolean isCumulativeAckMode(SubType subType) {
         return SubType.Exclusive.equals(subType) || SubType.Failover.equals(subType);
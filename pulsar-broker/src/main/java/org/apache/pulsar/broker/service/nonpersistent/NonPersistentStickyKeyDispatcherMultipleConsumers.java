@@ -88,7 +88,7 @@ public class NonPersistentStickyKeyDispatcherMultipleConsumers extends NonPersis
         groupedEntries.clear();
 
         for (Entry entry : entries) {
-            Consumer consumer = selector.select(peekStickyKey(entry.getDataBuffer()));
+            Consumer consumer = selector.select(peekStickyKeyHash(entry));
             groupedEntries.computeIfAbsent(consumer, k -> new ArrayList<>()).add(entry);
         }
 
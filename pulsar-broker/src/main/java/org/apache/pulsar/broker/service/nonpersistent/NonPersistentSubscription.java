@@ -38,6 +38,7 @@ import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
 import org.apache.pulsar.broker.service.HashRangeAutoSplitStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeExclusiveStickyKeyConsumerSelector;
+import org.apache.pulsar.broker.service.LockFreeConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.StickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.broker.service.Topic;
@@ -147,7 +148,11 @@ public class NonPersistentSubscription implements Subscription {
                         default:
                             StickyKeyConsumerSelector selector;
                             ServiceConfiguration conf = topic.getBrokerService().getPulsar().getConfiguration();
-                            if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+                            if (conf.isSubscriptionKeySharedUseConsistentHashing()
+                                    && conf.isSubscriptionKeySharedConsistentHashingLockFree()) {
+                                selector = new LockFreeConsistentHashingStickyKeyConsumerSelector(
+                                        conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+                            } else if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
                                 selector = new ConsistentHashingStickyKeyConsumerSelector(
                                         conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
                             } else {
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the number of entries and the number of bytes of the reads of a dispatcher, so that reading a batch takes
+ * about the target latency.
+ *
+ * <p>The controller tracks the average size of the entries, the average time to read an entry from the backlog, and
+ * the rate of the permits that the consumers grant as they process the messages. The batch size is the number of
+ * entries that can be read within the target latency, but not more than what the consumers process during that time
+ * nor than what fits in the max read size. The byte budget covers the batch with some headroom for larger entries.
+ *
+ * <p>This class is not thread safe, it's used with the lock of the dispatcher held.
+ */
+public class DispatchReadBatchController {
+
+    private static final double SMOOTHING_FACTOR = 0.2;
+    private static final double READ_SIZE_HEADROOM = 1.5;
+    // The rate of the permits is measured over windows of at least this duration
+    private static final long PERMITS_RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long targetLatencyNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long maxReadSizeBytes;
+
+    // The averages are negative until the first sample
+    private double avgEntrySize = -1;
+    private double avgReadNanosPerEntry = -1;
+    private double permitsRate = -1;
+
+    private long permitsWindowStartNanos;
+    private long permitsInWindow = 0;
+
+    private int batchSize;
+    private long readSizeBytes;
+
+    public DispatchReadBatchController(long targetLatencyMillis, int minBatchSize, int maxBatchSize,
+                                       long maxReadSizeBytes, long nowNanos) {
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.minBatchSize = Math.max(minBatchSize, 1);
+        this.maxBatchSize = Math.max(maxBatchSize, this.minBatchSize);
+        this.maxReadSizeBytes = maxReadSizeBytes;
+        this.permitsWindowStartNanos = nowNanos;
+        this.batchSize = this.maxBatchSize;
+        this.readSizeBytes = maxReadSizeBytes;
+    }
+
+    /**
+     * Record the permits granted by a consumer.
+     */
+    public void recordPermits(int permits, long nowNanos) {
+        permitsInWindow += permits;
+        long elapsedNanos = nowNanos - permitsWindowStartNanos;
+        if (elapsedNanos >= PERMITS_RATE_WINDOW_NANOS) {
+            permitsRate = smooth(permitsRate, permitsInWindow * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+            permitsWindowStartNanos = nowNanos;
+            permitsInWindow = 0;
+            update();
+        }
+    }
+
+    /**
+     * Record a completed read.
+     *
+     * @param entries
+     *            the number of entries that were read
+     * @param bytes
+     *            the size of the entries
+     * @param latencyNanos
+     *            the duration of the read
+     * @param fromBacklog
+     *            whether the entries were already available when the read was issued, so that the duration of the
+     *            read doesn't include the wait for new entries
+     */
+    public void recordRead(int entries, long bytes, long latencyNanos, boolean fromBacklog) {
+        if (entries <= 0) {
+            return;
+        }
+        avgEntrySize = smooth(avgEntrySize, (double) bytes / entries);
+        if (fromBacklog) {
+            avgReadNanosPerEntry = smooth(avgReadNanosPerEntry, (double) latencyNanos / entries);
+        }
+        update();
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    private void update() {
+        double batch = maxBatchSize;
+        if (avgReadNanosPerEntry > 0) {
+            batch = Math.min(batch, targetLatencyNanos / avgReadNanosPerEntry);
+        }
+        if (permitsRate >= 0) {
+            batch = Math.min(batch, permitsRate * targetLatencyNanos / TimeUnit.SECONDS.toNanos(1));
+        }
+        if (avgEntrySize > 0) {
+            batch = Math.min(batch, maxReadSizeBytes / avgEntrySize);
+        }
+        batchSize = (int) Math.max(minBatchSize, Math.min(maxBatchSize, batch));
+
+        if (avgEntrySize > 0) {
+            long budget = (long) Math.ceil(batchSize * avgEntrySize * READ_SIZE_HEADROOM);
+            readSizeBytes = Math.max(Math.min(budget, maxReadSizeBytes), (long) Math.ceil(avgEntrySize));
+        }
+    }
+
+    /**
+     * @return the max number of entries of the next read
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the max number of bytes of the next read
+     */
+    public long getReadSizeBytes() {
+        return readSizeBytes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public double getAvgEntrySize() {
+        return avgEntrySize;
+    }
+
+    public double getPermitsRate() {
+        return permitsRate;
+    }
+}
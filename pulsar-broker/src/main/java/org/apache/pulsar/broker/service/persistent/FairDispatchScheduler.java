@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules the reads of the dispatchers of a broker, so that the subscriptions with a large backlog don't starve the
+ * other subscriptions of the bookie reads and of the threads of the topics.
+ *
+ * <p>Every dispatcher has a {@link Share} with a weight, and requests to issue its reads through it. The requests are
+ * granted in the order of start-time fair queuing: each request gets a virtual finish tag, which is its start tag plus
+ * its cost divided by the weight of its share, and the pending request with the lowest finish tag is granted first.
+ * Over time, every share gets a part of the reads proportional to its weight.
+ *
+ * <p>The number of granted reads which are not completed yet is bounded for the whole broker and for every executor, so
+ * a burst of reads is queued in the scheduler instead of the bookies and the executors. A granted read is run on the
+ * executor of its share.
+ */
+public class FairDispatchScheduler {
+
+    // The part of the reads of every share is measured over windows of this duration
+    private static final long SHARE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int maxOutstandingReads;
+    private final int maxOutstandingReadsPerExecutor;
+    private final LongSupplier nanoClock;
+
+    // The fields below are guarded by the lock of the scheduler
+    private final TreeSet<ReadRequest> pendingReads = new TreeSet<>(Comparator
+            .comparingDouble((ReadRequest request) -> request.finishTag)
+            .thenComparingLong(request -> request.sequence));
+    private final Map<Executor, int[]> outstandingReadsPerExecutor = new IdentityHashMap<>();
+    private int outstandingReads = 0;
+    private double virtualTime = 0;
+    private long sequence = 0;
+
+    private long windowIndex = 0;
+    private long windowStartNanos;
+    private long currentWindowCost = 0;
+    private long lastWindowCost = 0;
+
+    public FairDispatchScheduler(int maxOutstandingReads, int maxOutstandingReadsPerExecutor) {
+        this(maxOutstandingReads, maxOutstandingReadsPerExecutor, System::nanoTime);
+    }
+
+    FairDispatchScheduler(int maxOutstandingReads, int maxOutstandingReadsPerExecutor, LongSupplier nanoClock) {
+        checkArgument(maxOutstandingReads > 0);
+        checkArgument(maxOutstandingReadsPerExecutor > 0);
+        this.maxOutstandingReads = maxOutstandingReads;
+        this.maxOutstandingReadsPerExecutor = maxOutstandingReadsPerExecutor;
+        this.nanoClock = nanoClock;
+        this.windowStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Create the share of a dispatcher.
+     *
+     * @param executor
+     *            the executor where the granted reads are run
+     * @param weight
+     *            the weight of the share, which must be positive
+     */
+    public Share newShare(Executor executor, int weight) {
+        return new Share(executor, weight);
+    }
+
+    /**
+     * The part of the reads of the broker that belongs to a dispatcher.
+     */
+    public class Share {
+        private final Executor executor;
+        private volatile int weight;
+
+        // The fields below are guarded by the lock of the scheduler
+        private double lastFinishTag = 0;
+        private ReadRequest pendingRead = null;
+        private long windowIndex = -1;
+        private long currentWindowCost = 0;
+        private long lastWindowCost = 0;
+
+        private Share(Executor executor, int weight) {
+            checkArgument(weight > 0);
+            this.executor = executor;
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            checkArgument(weight > 0);
+            this.weight = weight;
+        }
+
+        /**
+         * Request to issue a read. The share can have only one pending read.
+         *
+         * @param cost
+         *            the cost of the read, like its number of entries
+         * @param read
+         *            the task which issues the read, run on the executor of the share once the read is granted. Then
+         *            {@link #readCompleted()} must be called when the read completes.
+         */
+        public void requestRead(long cost, Runnable read) {
+            FairDispatchScheduler.this.requestRead(this, cost, read);
+        }
+
+        /**
+         * Release a granted read.
+         */
+        public void readCompleted() {
+            FairDispatchScheduler.this.readCompleted(this);
+        }
+
+        /**
+         * Cancel the pending read.
+         *
+         * @return true if the read was pending, or false if it's already granted
+         */
+        public boolean cancelRead() {
+            return FairDispatchScheduler.this.cancelRead(this);
+        }
+
+        /**
+         * @return the fraction of the cost of the reads granted by the scheduler that was granted to this share, over
+         *         the last complete window
+         */
+        public double getReadShare() {
+            return FairDispatchScheduler.this.getReadShare(this);
+        }
+    }
+
+    private static class ReadRequest {
+        private final Share share;
+        private final long cost;
+        private final double startTag;
+        private final double finishTag;
+        private final long sequence;
+        private final Runnable read;
+
+        private ReadRequest(Share share, long cost, double startTag, double finishTag, long sequence, Runnable read) {
+            this.share = share;
+            this.cost = cost;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+            this.read = read;
+        }
+    }
+
+    private void requestRead(Share share, long cost, Runnable read) {
+        List<ReadRequest> grantedReads;
+        synchronized (this) {
+            checkState(share.pendingRead == null, "The share already has a pending read");
+            double startTag = Math.max(virtualTime, share.lastFinishTag);
+            double finishTag = startTag + (double) Math.max(cost, 1) / share.weight;
+            ReadRequest request = new ReadRequest(share, cost, startTag, finishTag, sequence++, read);
+            share.lastFinishTag = finishTag;
+            share.pendingRead = request;
+            pendingReads.add(request);
+            grantedReads = grantReads();
+        }
+        runReads(grantedReads);
+    }
+
+    private void readCompleted(Share share) {
+        List<ReadRequest> grantedReads;
+        synchronized (this) {
+            checkState(outstandingReads > 0, "No read is outstanding");
+            outstandingReads--;
+            int[] executorReads = outstandingReadsPerExecutor.get(share.executor);
+            if (executorReads != null && --executorReads[0] == 0) {
+                outstandingReadsPerExecutor.remove(share.executor);
+            }
+            grantedReads = grantReads();
+        }
+        runReads(grantedReads);
+    }
+
+    private synchronized boolean cancelRead(Share share) {
+        ReadRequest request = share.pendingRead;
+        if (request == null) {
+            return false;
+        }
+        pendingReads.remove(request);
+        share.pendingRead = null;
+        // The share gets back the virtual time it was charged for the read
+        share.lastFinishTag = request.startTag;
+        return true;
+    }
+
+    /**
+     * Grant the pending reads in the order of their finish tags, skipping the reads of the executors that reached their
+     * limit.
+     */
+    private List<ReadRequest> grantReads() {
+        List<ReadRequest> grantedReads = null;
+        Iterator<ReadRequest> iterator = pendingReads.iterator();
+        while (outstandingReads < maxOutstandingReads && iterator.hasNext()) {
+            ReadRequest request = iterator.next();
+            int[] executorReads = outstandingReadsPerExecutor.computeIfAbsent(request.share.executor, e -> new int[1]);
+            if (executorReads[0] >= maxOutstandingReadsPerExecutor) {
+                continue;
+            }
+            iterator.remove();
+            executorReads[0]++;
+            outstandingReads++;
+            request.share.pendingRead = null;
+            virtualTime = Math.max(virtualTime, request.startTag);
+            recordGrant(request.share, request.cost);
+
+            if (grantedReads == null) {
+                grantedReads = new ArrayList<>();
+            }
+            grantedReads.add(request);
+        }
+        return grantedReads;
+    }
+
+    private static void runReads(List<ReadRequest> grantedReads) {
+        if (grantedReads != null) {
+            for (ReadRequest request : grantedReads) {
+                request.share.executor.execute(request.read);
+            }
+        }
+    }
+
+    private void recordGrant(Share share, long cost) {
+        rollWindow();
+        if (share.windowIndex != windowIndex) {
+            share.lastWindowCost = share.windowIndex == windowIndex - 1 ? share.currentWindowCost : 0;
+            share.currentWindowCost = 0;
+            share.windowIndex = windowIndex;
+        }
+        share.currentWindowCost += cost;
+        currentWindowCost += cost;
+    }
+
+    private void rollWindow() {
+        long elapsedNanos = nanoClock.getAsLong() - windowStartNanos;
+        if (elapsedNanos >= SHARE_WINDOW_NANOS) {
+            long elapsedWindows = elapsedNanos / SHARE_WINDOW_NANOS;
+            lastWindowCost = elapsedWindows == 1 ? currentWindowCost : 0;
+            currentWindowCost = 0;
+            windowIndex += elapsedWindows;
+            windowStartNanos += elapsedWindows * SHARE_WINDOW_NANOS;
+        }
+    }
+
+    private synchronized double getReadShare(Share share) {
+        rollWindow();
+        long shareCost;
+        if (share.windowIndex == windowIndex) {
+            shareCost = share.lastWindowCost;
+        } else if (share.windowIndex == windowIndex - 1) {
+            shareCost = share.currentWindowCost;
+        } else {
+            shareCost = 0;
+        }
+        return lastWindowCost > 0 ? (double) shareCost / lastWindowCost : 0;
+    }
+
+    public synchronized int getOutstandingReads() {
+        return outstandingReads;
+    }
+
+    public synchronized int getPendingReads() {
+        return pendingReads.size();
+    }
+}
@@ -66,6 +66,7 @@ import org.apache.pulsar.common.policies.data.TopicPolicies;
 import org.apache.pulsar.common.util.Codec;
 import org.apache.pulsar.common.util.collections.ConcurrentSortedLongPairSet;
 import org.apache.pulsar.common.util.collections.LongPairSet;
+import org.apache.pulsar.common.util.collections.LongPairTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,6 +84,12 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
     protected LongPairSet messagesToRedeliver = new ConcurrentSortedLongPairSet(128, 2);
     protected final RedeliveryTracker redeliveryTracker;
 
+    // Messages waiting for their redelivery backoff, before they're added to messagesToRedeliver
+    private LongPairTimingWheel redeliveryBackoffWheel = null;
+    private boolean redeliveryBackoffTaskScheduled = false;
+    private static final long REDELIVERY_BACKOFF_TICK_MILLIS = 100;
+    private static final int MAX_REDELIVERY_BACKOFF_SHIFT = 30;
+
     private Optional<DelayedDeliveryTracker> delayedDeliveryTracker = Optional.empty();
 
     protected volatile boolean havePendingRead = false;
@@ -96,6 +103,13 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                     "totalAvailablePermits");
     protected volatile int totalAvailablePermits = 0;
     protected volatile int readBatchSize;
+    protected final Optional<DispatchReadBatchController> readBatchController;
+    // Start of the pending normal read, and whether it was issued on the backlog
+    private long readStartNanos;
+    private boolean readFromBacklog;
+    // Share of the dispatcher in the reads scheduled by the broker, and whether it has a granted read in progress
+    private final Optional<FairDispatchScheduler.Share> dispatchShare;
+    private boolean scheduledReadInProgress = false;
     protected final Backoff readFailureBackoff = new Backoff(15, TimeUnit.SECONDS,
             1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
     private static final AtomicIntegerFieldUpdater<PersistentDispatcherMultipleConsumers>
@@ -127,6 +141,17 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 ? new InMemoryRedeliveryTracker()
                 : RedeliveryTrackerDisabled.REDELIVERY_TRACKER_DISABLED;
         this.readBatchSize = serviceConfig.getDispatcherMaxReadBatchSize();
+        this.readBatchController = serviceConfig.isDispatcherAdaptiveReadBatchEnabled()
+                ? Optional.of(new DispatchReadBatchController(
+                        serviceConfig.getDispatcherAdaptiveReadBatchTargetLatencyMillis(),
+                        serviceConfig.getDispatcherMinReadBatchSize(),
+                        serviceConfig.getDispatcherAdaptiveReadBatchMaxSize(),
+                        serviceConfig.getDispatcherMaxReadSizeBytes(), System.nanoTime()))
+                : Optional.empty();
+        this.dispatchShare = topic.getBrokerService().getDispatchScheduler()
+                .map(scheduler -> scheduler.newShare(
+                        topic.getBrokerService().getTopicOrderedExecutor().chooseThread(topic.getName()),
+                        getDispatchWeight(getNamespacePolicies())));
         this.initializeDispatchRateLimiterIfNeeded(Optional.empty());
     }
 
@@ -146,6 +171,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 shouldRewindBeforeReadingOrReplaying = false;
             }
             messagesToRedeliver.clear();
+            clearRedeliveryBackoff();
         }
 
         if (isConsumersExceededOnSubscription()) {
@@ -202,6 +228,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 cancelPendingRead();
 
                 messagesToRedeliver.clear();
+                clearRedeliveryBackoff();
                 redeliveryTracker.clear();
                 if (closeFuture != null) {
                     log.info("[{}] All consumers removed. Subscription is disconnected", name);
@@ -234,6 +261,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         }
 
         totalAvailablePermits += additionalNumberOfMessages;
+        readBatchController.ifPresent(c -> c.recordPermits(additionalNumberOfMessages, System.nanoTime()));
 
         if (log.isDebugEnabled()) {
             log.debug("[{}-{}] Trigger new read after receiving flow control message with permits {}", name, consumer,
@@ -283,9 +311,13 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                             consumerList.size());
                 }
                 havePendingRead = true;
-                cursor.asyncReadEntriesOrWait(messagesToRead, serviceConfig.getDispatcherMaxReadSizeBytes(),
-                        this,
-                        ReadType.Normal, topic.getMaxReadPosition());
+                if (dispatchShare.isPresent() && cursor.hasMoreEntries()) {
+                    // The reads of the backlog wait for their turn in the broker, the reads at the tail are served
+                    // from the cache
+                    dispatchShare.get().requestRead(messagesToRead, () -> readScheduledEntries(messagesToRead));
+                } else {
+                    readEntries(messagesToRead);
+                }
             } else {
                 log.debug("[{}] Cannot schedule next read until previous one is done", name);
             }
@@ -296,15 +328,41 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         }
     }
 
+    private void readEntries(int messagesToRead) {
+        readStartNanos = System.nanoTime();
+        readFromBacklog = cursor.hasMoreEntries();
+        cursor.asyncReadEntriesOrWait(messagesToRead, getReadMaxSizeBytes(),
+                this,
+                ReadType.Normal, topic.getMaxReadPosition());
+    }
+
+    private synchronized void readScheduledEntries(int messagesToRead) {
+        if (IS_CLOSED_UPDATER.get(this) == TRUE || !havePendingRead) {
+            dispatchShare.get().readCompleted();
+            havePendingRead = false;
+            return;
+        }
+        scheduledReadInProgress = true;
+        readEntries(messagesToRead);
+    }
+
+    private void completeScheduledRead() {
+        if (scheduledReadInProgress) {
+            scheduledReadInProgress = false;
+            dispatchShare.get().readCompleted();
+        }
+    }
+
     protected int calculateNumOfMessageToRead(int currentTotalAvailablePermits) {
-        int messagesToRead = Math.min(currentTotalAvailablePermits, readBatchSize);
+        int batchSize = getReadBatchSize();
+        int messagesToRead = Math.min(currentTotalAvailablePermits, batchSize);
 
         Consumer c = getRandomConsumer();
         // if turn on precise dispatcher flow control, adjust the record to read
         if (c != null && c.isPreciseDispatcherFlowControl()) {
             messagesToRead = Math.min(
                     (int) Math.ceil(currentTotalAvailablePermits * 1.0 / c.getAvgMessagesPerEntry()),
-                    readBatchSize);
+                    batchSize);
         }
 
         if (!isConsumerWritable()) {
@@ -392,6 +450,11 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return consumerList;
     }
 
+    @Override
+    protected boolean isBatchIndexAckEnabled() {
+        return serviceConfig.isAcknowledgmentAtBatchIndexLevelEnabled();
+    }
+
     @Override
     public synchronized boolean canUnsubscribe(Consumer consumer) {
         return consumerList.size() == 1 && consumerSet.contains(consumer);
@@ -428,8 +491,12 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
     @Override
     protected void cancelPendingRead() {
-        if (havePendingRead && cursor.cancelPendingReadRequest()) {
+        if (havePendingRead && dispatchShare.isPresent() && dispatchShare.get().cancelRead()) {
+            // The read was still waiting for its turn in the broker
             havePendingRead = false;
+        } else if (havePendingRead && cursor.cancelPendingReadRequest()) {
+            havePendingRead = false;
+            completeScheduledRead();
         }
     }
 
@@ -459,12 +526,23 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         ReadType readType = (ReadType) ctx;
         if (readType == ReadType.Normal) {
             havePendingRead = false;
+            completeScheduledRead();
+            if (readBatchController.isPresent()) {
+                long bytes = 0;
+                for (Entry entry : entries) {
+                    bytes += entry.getLength();
+                }
+                readBatchController.get().recordRead(entries.size(), bytes, System.nanoTime() - readStartNanos,
+                        readFromBacklog);
+            }
         } else {
             havePendingReplayRead = false;
         }
 
-        if (readBatchSize < serviceConfig.getDispatcherMaxReadBatchSize()) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, serviceConfig.getDispatcherMaxReadBatchSize());
+        int maxReadBatchSize = readBatchController.map(DispatchReadBatchController::getMaxBatchSize)
+                .orElse(serviceConfig.getDispatcherMaxReadBatchSize());
+        if (readBatchSize < maxReadBatchSize) {
+            int newReadBatchSize = Math.min(readBatchSize * 2, maxReadBatchSize);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Increasing read batch size from {} to {}", name, readBatchSize, newReadBatchSize);
             }
@@ -615,6 +693,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
         if (readType == ReadType.Normal) {
             havePendingRead = false;
+            completeScheduledRead();
         } else {
             havePendingReplayRead = false;
             if (exception instanceof ManagedLedgerException.InvalidReplayPositionException) {
@@ -701,8 +780,14 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
     @Override
     public synchronized void redeliverUnacknowledgedMessages(Consumer consumer, List<PositionImpl> positions) {
+        long now = System.currentTimeMillis();
         positions.forEach(position -> {
-            messagesToRedeliver.add(position.getLedgerId(), position.getEntryId());
+            long backoffMillis = getRedeliveryBackoffMillis(position);
+            if (backoffMillis > 0) {
+                scheduleRedelivery(position, now + backoffMillis, now);
+            } else {
+                messagesToRedeliver.add(position.getLedgerId(), position.getEntryId());
+            }
             redeliveryTracker.addIfAbsent(position);
         });
         if (log.isDebugEnabled()) {
@@ -711,6 +796,69 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         readMoreEntries();
     }
 
+    /**
+     * Whether the redeliveries of the messages can be delayed, so that the other messages are dispatched first.
+     */
+    protected boolean isRedeliveryBackoffAllowed() {
+        return true;
+    }
+
+    private long getRedeliveryBackoffMillis(PositionImpl position) {
+        long minDelayMillis = serviceConfig.getSubscriptionRedeliveryBackoffMinDelayMillis();
+        if (minDelayMillis <= 0 || !isRedeliveryBackoffAllowed()) {
+            return 0;
+        }
+        // The delay is doubled with every redelivery of the message
+        int shift = Math.min(redeliveryTracker.getRedeliveryCount(position), MAX_REDELIVERY_BACKOFF_SHIFT);
+        return Math.min(minDelayMillis << shift, serviceConfig.getSubscriptionRedeliveryBackoffMaxDelayMillis());
+    }
+
+    private void scheduleRedelivery(PositionImpl position, long redeliverAt, long now) {
+        if (redeliveryBackoffWheel == null) {
+            // A round of the wheel covers the max delay, so that most messages expire in their first round
+            long maxDelayMillis = serviceConfig.getSubscriptionRedeliveryBackoffMaxDelayMillis();
+            int wheelSize = (int) Math.min(Math.max(maxDelayMillis / REDELIVERY_BACKOFF_TICK_MILLIS, 1), 4096);
+            redeliveryBackoffWheel = new LongPairTimingWheel(REDELIVERY_BACKOFF_TICK_MILLIS, wheelSize, now);
+        }
+        redeliveryBackoffWheel.add(position.getLedgerId(), position.getEntryId(), redeliverAt);
+        scheduleRedeliveryBackoffTask();
+    }
+
+    private void scheduleRedeliveryBackoffTask() {
+        if (redeliveryBackoffTaskScheduled) {
+            return;
+        }
+        redeliveryBackoffTaskScheduled = true;
+        topic.getBrokerService().executor().schedule(() -> {
+            synchronized (PersistentDispatcherMultipleConsumers.this) {
+                redeliveryBackoffTaskScheduled = false;
+                if (redeliveryBackoffWheel == null || redeliveryBackoffWheel.isEmpty()) {
+                    return;
+                }
+                int expired = redeliveryBackoffWheel.poll(System.currentTimeMillis(), messagesToRedeliver::add);
+                if (!redeliveryBackoffWheel.isEmpty()) {
+                    scheduleRedeliveryBackoffTask();
+                }
+                if (expired > 0) {
+                    readMoreEntries();
+                }
+            }
+        }, REDELIVERY_BACKOFF_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void clearRedeliveryBackoff() {
+        if (redeliveryBackoffWheel != null) {
+            redeliveryBackoffWheel.clear();
+        }
+    }
+
+    /**
+     * @return the number of messages whose redelivery is delayed by a backoff
+     */
+    public synchronized int getNumberOfMessagesInRedeliveryBackoff() {
+        return redeliveryBackoffWheel != null ? redeliveryBackoffWheel.size() : 0;
+    }
+
     @Override
     public void addUnAckedMessages(int numberOfMessages) {
         int maxUnackedMessages = topic.getMaxUnackedMessagesOnSubscription();
@@ -859,5 +1007,66 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return topic;
     }
 
+    /**
+     * Update the weight of the dispatcher in the reads scheduled by the broker.
+     */
+    public void updateDispatchWeight(Policies policies) {
+        dispatchShare.ifPresent(share -> share.setWeight(getDispatchWeight(policies)));
+    }
+
+    private Policies getNamespacePolicies() {
+        try {
+            return topic.getBrokerService().pulsar().getConfigurationCache().policiesCache()
+                    .getDataIfPresent(AdminResource.path(POLICIES, TopicName.get(topic.getName()).getNamespace()));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int getDispatchWeight(Policies policies) {
+        return policies != null && policies.subscriptionDispatchWeight != null
+                ? Math.max(policies.subscriptionDispatchWeight, 1) : 1;
+    }
+
+    /**
+     * @return the weight of the dispatcher in the reads scheduled by the broker, or 0 if the reads are not scheduled
+     */
+    public int getDispatchWeight() {
+        return dispatchShare.map(FairDispatchScheduler.Share::getWeight).orElse(0);
+    }
+
+    /**
+     * @return the fraction of the reads scheduled by the broker that were granted to the dispatcher recently
+     */
+    public double getDispatchReadShare() {
+        return dispatchShare.map(FairDispatchScheduler.Share::getReadShare).orElse(0.0);
+    }
+
+    /**
+     * @return whether the size of the reads is adapted to the consumers throughput, the entries size and the latency
+     */
+    public boolean isAdaptiveReadBatchEnabled() {
+        return readBatchController.isPresent();
+    }
+
+    /**
+     * @return the max number of entries of the next read
+     */
+    public int getReadBatchSize() {
+        return readBatchController.map(c -> Math.min(readBatchSize, c.getBatchSize())).orElse(readBatchSize);
+    }
+
+    /**
+     * @return the max number of bytes of the next read
+     */
+    public long getReadMaxSizeBytes() {
+        return readBatchController.map(DispatchReadBatchController::getReadSizeBytes)
+                .orElse((long) serviceConfig.getDispatcherMaxReadSizeBytes());
+    }
+
+    public ManagedCursor getCursor() {
+        return cursor;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(PersistentDispatcherMultipleConsumers.class);
 }
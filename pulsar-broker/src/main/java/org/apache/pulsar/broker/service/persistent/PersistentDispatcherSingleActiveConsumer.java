@@ -164,6 +164,11 @@ public class PersistentDispatcherSingleActiveConsumer extends AbstractDispatcher
         return false;
     }
 
+    @Override
+    protected boolean isBatchIndexAckEnabled() {
+        return serviceConfig.isAcknowledgmentAtBatchIndexLevelEnabled();
+    }
+
     @Override
     protected void cancelPendingRead() {
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
@@ -204,7 +209,7 @@ public class PersistentDispatcherSingleActiveConsumer extends AbstractDispatcher
             Iterator<Entry> iterator = entries.iterator();
             while (iterator.hasNext()) {
                 Entry entry = iterator.next();
-                byte[] key = peekStickyKey(entry.getDataBuffer());
+                byte[] key = peekStickyKey(entry);
                 Consumer consumer = stickyKeyConsumerSelector.select(key);
                 if (consumer == null || currentConsumer != consumer) {
                     iterator.remove();
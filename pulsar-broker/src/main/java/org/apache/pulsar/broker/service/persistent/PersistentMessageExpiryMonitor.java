@@ -20,6 +20,7 @@ package org.apache.pulsar.broker.service.persistent;
 
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.LongAdder;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.FindEntryCallback;
@@ -72,6 +73,8 @@ public class PersistentMessageExpiryMonitor implements FindEntryCallback {
             log.info("[{}][{}] Starting message expiry check, ttl= {} seconds", topicName, subName,
                     messageTTLInSeconds);
 
+            // The messages published before this time are expired
+            long expiryTimestamp = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(messageTTLInSeconds);
             cursor.asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchActiveEntries, entry -> {
                 MessageImpl<byte[]> msg = null;
                 try {
@@ -86,7 +89,7 @@ public class PersistentMessageExpiryMonitor implements FindEntryCallback {
                     }
                 }
                 return false;
-            }, this, null);
+            }, expiryTimestamp, this, null);
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("[{}][{}] Ignore expire-message scheduled task, last check is still running", topicName,
@@ -42,12 +42,14 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.CursorAlreadyClosedException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.AbstractReplicator;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.broker.service.BrokerServiceException.NamingException;
 import org.apache.pulsar.broker.service.BrokerServiceException.PersistenceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.TopicBusyException;
+import org.apache.pulsar.broker.service.EntryMessageMetadata;
 import org.apache.pulsar.broker.service.Replicator;
 import org.apache.pulsar.broker.service.persistent.DispatchRateLimiter.Type;
 import org.apache.pulsar.client.api.MessageId;
@@ -58,6 +60,7 @@ import org.apache.pulsar.client.impl.ProducerImpl;
 import org.apache.pulsar.client.impl.SendCallback;
 import org.apache.pulsar.common.api.proto.CommandSubscribe.InitialPosition;
 import org.apache.pulsar.common.api.proto.MarkerType;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.ReplicatorStats;
 import org.apache.pulsar.common.stats.Rate;
@@ -349,6 +352,15 @@ public class PersistentReplicator extends AbstractReplicator
                 Entry entry = entries.get(i);
                 int length = entry.getLength();
                 ByteBuf headersAndPayload = entry.getDataBuffer();
+                if (canDiscardBeforeDeserialize(entry, isEnableReplicatedSubscriptions)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}][{} -> {}] Skipping message at position {}", topicName, localCluster,
+                                remoteCluster, entry.getPosition());
+                    }
+                    cursor.asyncDelete(entry.getPosition(), this, entry.getPosition());
+                    entry.release();
+                    continue;
+                }
                 MessageImpl msg;
                 try {
                     msg = MessageImpl.deserializeSkipBrokerEntryMetaData(headersAndPayload);
@@ -752,6 +764,22 @@ public class PersistentReplicator extends AbstractReplicator
         }
     }
 
+    /**
+     * Check with the metadata view shared by the managed ledger cache if the entry doesn't need to be replicated, to
+     * avoid deserializing the messages that are discarded anyway.
+     */
+    private boolean canDiscardBeforeDeserialize(Entry entry, boolean isEnableReplicatedSubscriptions) {
+        if (!(entry instanceof EntryImpl) || !((EntryImpl) entry).isDecodedDataShared()) {
+            return false;
+        }
+        MessageMetadata metadata = EntryMessageMetadata.of(entry).getMessageMetadata();
+        if (metadata == null || (isEnableReplicatedSubscriptions && metadata.hasMarkerType())) {
+            return false;
+        }
+        return metadata.hasReplicatedFrom()
+                || (metadata.getReplicateTosCount() > 0 && !metadata.getReplicateTosList().contains(remoteCluster));
+    }
+
     private void checkReplicatedSubscriptionMarker(Position position, MessageImpl<?> msg, ByteBuf payload) {
         if (!msg.getMessageBuilder().hasMarkerType()) {
             // No marker is defined
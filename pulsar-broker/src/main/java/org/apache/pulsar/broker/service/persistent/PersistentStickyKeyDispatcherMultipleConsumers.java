@@ -42,6 +42,7 @@ import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
 import org.apache.pulsar.broker.service.HashRangeAutoSplitStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeExclusiveStickyKeyConsumerSelector;
+import org.apache.pulsar.broker.service.LockFreeConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.SendMessageInfo;
 import org.apache.pulsar.broker.service.StickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Subscription;
@@ -78,7 +79,11 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
 
         switch (ksm.getKeySharedMode()) {
         case AUTO_SPLIT:
-            if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+            if (conf.isSubscriptionKeySharedUseConsistentHashing()
+                    && conf.isSubscriptionKeySharedConsistentHashingLockFree()) {
+                selector = new LockFreeConsistentHashingStickyKeyConsumerSelector(
+                        conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+            } else if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
                 selector = new ConsistentHashingStickyKeyConsumerSelector(
                         conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
             } else {
@@ -165,7 +170,7 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         groupedEntries.clear();
 
         for (Entry entry : entries) {
-            Consumer c = selector.select(peekStickyKey(entry.getDataBuffer()));
+            Consumer c = selector.select(peekStickyKeyHash(entry));
             groupedEntries.computeIfAbsent(c, k -> new ArrayList<>()).add(entry);
         }
 
@@ -364,6 +369,12 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         }
     }
 
+    @Override
+    protected boolean isRedeliveryBackoffAllowed() {
+        // Delaying a redelivery would let the later messages of the same key be dispatched first
+        return false;
+    }
+
     @Override
     public SubType getType() {
         return SubType.Key_Shared;
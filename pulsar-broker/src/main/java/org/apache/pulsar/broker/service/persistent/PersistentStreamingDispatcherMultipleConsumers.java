@@ -20,6 +20,7 @@ package org.apache.pulsar.broker.service.persistent;
 
 import com.google.common.collect.Lists;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
@@ -127,6 +128,12 @@ public class PersistentStreamingDispatcherMultipleConsumers extends PersistentDi
         }
     }
 
+    @Override
+    public CompletableFuture<Void> close() {
+        streamingEntryReader.close();
+        return super.close();
+    }
+
     @Override
     protected void cancelPendingRead() {
         if (havePendingRead && streamingEntryReader.cancelReadRequests()) {
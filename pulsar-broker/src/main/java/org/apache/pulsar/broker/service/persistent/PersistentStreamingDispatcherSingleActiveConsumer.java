@@ -20,6 +20,8 @@ package org.apache.pulsar.broker.service.persistent;
 
 import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
@@ -80,6 +82,12 @@ public class PersistentStreamingDispatcherSingleActiveConsumer extends Persisten
                 ? readFailureBackoff.next() : 0, TimeUnit.MILLISECONDS);
     }
 
+    @Override
+    public CompletableFuture<Void> close() {
+        streamingEntryReader.close();
+        return super.close();
+    }
+
     @Override
     protected void cancelPendingRead() {
         if (havePendingRead && streamingEntryReader.cancelReadRequests()) {
@@ -132,7 +140,7 @@ public class PersistentStreamingDispatcherSingleActiveConsumer extends Persisten
         Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
 
         if (isKeyHashRangeFiltered) {
-            byte[] key = peekStickyKey(entry.getDataBuffer());
+            byte[] key = peekStickyKey(entry);
             Consumer consumer = stickyKeyConsumerSelector.select(key);
             // Skip the entry if it's not for current active consumer.
             if (consumer == null || currentConsumer != consumer) {
@@ -160,13 +168,12 @@ public class PersistentStreamingDispatcherSingleActiveConsumer extends Persisten
             EntryBatchSizes batchSizes = EntryBatchSizes.get(1);
             SendMessageInfo sendMessageInfo = SendMessageInfo.getThreadLocal();
             EntryBatchIndexesAcks batchIndexesAcks = EntryBatchIndexesAcks.get(1);
-            filterEntriesForConsumer(Lists.newArrayList(entry), batchSizes, sendMessageInfo, batchIndexesAcks,
-                    cursor, false);
+            List<Entry> entries = Lists.newArrayList(entry);
+            filterEntriesForConsumer(entries, batchSizes, sendMessageInfo, batchIndexesAcks, cursor, false);
             // Update cursor's read position.
             cursor.seek(((ManagedLedgerImpl) cursor.getManagedLedger())
                     .getNextValidPosition((PositionImpl) entry.getPosition()));
-            dispatchEntriesToConsumer(currentConsumer, Lists.newArrayList(entry), batchSizes,
-                    batchIndexesAcks, sendMessageInfo);
+            dispatchEntriesToConsumer(currentConsumer, entries, batchSizes, batchIndexesAcks, sendMessageInfo);
         }
     }
 
@@ -18,12 +18,14 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
@@ -44,6 +46,7 @@ import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.intercept.BrokerInterceptor;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.NotAllowedException;
@@ -53,6 +56,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionFence
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionInvalidCursorPosition;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.MessagePropertiesFilter;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.broker.transaction.pendingack.PendingAckHandle;
@@ -67,6 +71,7 @@ import org.apache.pulsar.common.api.proto.ReplicatedSubscriptionsSnapshot;
 import org.apache.pulsar.common.api.proto.TxnAction;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.ConsumerStats;
+import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.SubscriptionStats;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.protocol.Markers;
@@ -109,6 +114,10 @@ public class PersistentSubscription implements Subscription {
     private volatile boolean isDeleteTransactionMarkerInProcess = false;
     private final PendingAckHandle pendingAckHandle;
 
+    // The filter set by the namespace policies takes precedence over the filter set by the consumers
+    private volatile MessagePropertiesFilter policyMessageFilter;
+    private volatile MessagePropertiesFilter consumerMessageFilter;
+
     static {
         REPLICATED_SUBSCRIPTION_CURSOR_PROPERTIES.put(REPLICATED_SUBSCRIPTION_PROPERTY, 1L);
     }
@@ -136,6 +145,7 @@ public class PersistentSubscription implements Subscription {
             this.pendingAckHandle = new PendingAckHandleDisabled();
         }
         IS_FENCED_UPDATER.set(this, FALSE);
+        updateMessageFilter(getNamespacePolicies());
     }
 
     public void updateLastMarkDeleteAdvancedTimestamp() {
@@ -179,6 +189,16 @@ public class PersistentSubscription implements Subscription {
             throw new SubscriptionFencedException("Subscription is fenced");
         }
 
+        String filterExpression = consumer.getMetadata().get(MessagePropertiesFilter.CONSUMER_PROPERTY);
+        MessagePropertiesFilter filter = null;
+        if (filterExpression != null) {
+            try {
+                filter = MessagePropertiesFilter.parse(filterExpression);
+            } catch (IllegalArgumentException e) {
+                throw new NotAllowedException(e.getMessage());
+            }
+        }
+
         if (dispatcher == null || !dispatcher.isConsumerConnected()) {
             Dispatcher previousDispatcher = null;
             boolean useStreamingDispatcher = topic.getBrokerService().getPulsar()
@@ -241,9 +261,18 @@ public class PersistentSubscription implements Subscription {
             if (consumer.subType() != dispatcher.getType()) {
                 throw new SubscriptionBusyException("Subscription is of different type");
             }
+            MessagePropertiesFilter activeFilter = consumerMessageFilter;
+            if (!Objects.equals(activeFilter != null ? activeFilter.getExpression() : null, filterExpression)) {
+                throw new SubscriptionBusyException("Subscription has a different message filter");
+            }
         }
 
         dispatcher.addConsumer(consumer);
+        // The filter is shared by all the consumers, it's set by the first one
+        if (filter != null && consumerMessageFilter == null) {
+            warnIfBatchesNotFiltered(filter);
+        }
+        consumerMessageFilter = filter;
     }
 
     @Override
@@ -254,6 +283,7 @@ public class PersistentSubscription implements Subscription {
         }
         if (dispatcher.getConsumers().isEmpty()) {
             deactivateCursor();
+            consumerMessageFilter = null;
 
             if (!cursor.isDurable()) {
                 // If cursor is not durable, we need to clean up the subscription as well
@@ -837,6 +867,7 @@ public class PersistentSubscription implements Subscription {
             synchronized (this) {
                 (dispatcher != null ? dispatcher.close() : CompletableFuture.completedFuture(null)).thenRun(() -> {
                     log.info("[{}][{}] Successfully deleted subscription", topicName, subName);
+                    deleteDelayedDeliveryState();
                     deleteFuture.complete(null);
                 }).exceptionally(ex -> {
                     IS_FENCED_UPDATER.set(this, FALSE);
@@ -858,6 +889,14 @@ public class PersistentSubscription implements Subscription {
         return deleteFuture;
     }
 
+    CompletableFuture<Void> deleteDelayedDeliveryState() {
+        return topic.getBrokerService().getDelayedDeliveryTrackerFactory().deleteSubscriptionState(topic, subName)
+                .exceptionally(ex -> {
+                    log.warn("[{}][{}] Failed to delete the delayed delivery state", topicName, subName, ex);
+                    return null;
+                });
+    }
+
     /**
      * Handle unsubscribe command from the client API Check with the dispatcher is this consumer can proceed with
      * unsubscribe.
@@ -917,6 +956,48 @@ public class PersistentSubscription implements Subscription {
         return cursor.getEstimatedSizeSinceMarkDeletePosition();
     }
 
+    @Override
+    public MessagePropertiesFilter getMessageFilter() {
+        MessagePropertiesFilter filter = policyMessageFilter;
+        return filter != null ? filter : consumerMessageFilter;
+    }
+
+    /**
+     * Update the filter of the subscription set by the namespace policies.
+     */
+    public void updateMessageFilter(Policies policies) {
+        String expression = policies != null && policies.subscriptionFilters != null
+                ? policies.subscriptionFilters.get(subName) : null;
+        MessagePropertiesFilter filter = policyMessageFilter;
+        if (expression == null) {
+            policyMessageFilter = null;
+        } else if (filter == null || !filter.getExpression().equals(expression)) {
+            try {
+                policyMessageFilter = MessagePropertiesFilter.parse(expression);
+                warnIfBatchesNotFiltered(policyMessageFilter);
+            } catch (IllegalArgumentException e) {
+                log.warn("[{}][{}] Ignoring invalid subscription filter: {}", topicName, subName, e.getMessage());
+                policyMessageFilter = null;
+            }
+        }
+    }
+
+    private void warnIfBatchesNotFiltered(MessagePropertiesFilter filter) {
+        if (!topic.getBrokerService().getPulsar().getConfiguration().isAcknowledgmentAtBatchIndexLevelEnabled()) {
+            log.warn("[{}][{}] The batch index acknowledgment is disabled, the batches with at least one message"
+                    + " matching the subscription filter '{}' are dispatched whole", topicName, subName, filter);
+        }
+    }
+
+    private Policies getNamespacePolicies() {
+        try {
+            return topic.getBrokerService().pulsar().getConfigurationCache().policiesCache()
+                    .getDataIfPresent(AdminResource.path(POLICIES, TopicName.get(topicName).getNamespace()));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public SubscriptionStats getStats(Boolean getPreciseBacklog, boolean subscriptionBacklogSize) {
         SubscriptionStats subStats = new SubscriptionStats();
         subStats.lastExpireTimestamp = lastExpireTimestamp;
@@ -958,6 +1039,12 @@ public class PersistentSubscription implements Subscription {
                 subStats.unackedMessages = d.getTotalUnackedMessages();
                 subStats.blockedSubscriptionOnUnackedMsgs = d.isBlockedDispatcherOnUnackedMsgs();
                 subStats.msgDelayed = d.getNumberOfDelayedMessages();
+                if (d.isAdaptiveReadBatchEnabled()) {
+                    subStats.dispatchReadBatchSize = d.getReadBatchSize();
+                    subStats.dispatchReadMaxSizeBytes = d.getReadMaxSizeBytes();
+                }
+                subStats.dispatchWeight = d.getDispatchWeight();
+                subStats.dispatchReadShare = d.getDispatchReadShare();
             }
         }
         subStats.msgBacklog = getNumberOfEntriesInBacklog(getPreciseBacklog);
@@ -982,6 +1069,7 @@ public class PersistentSubscription implements Subscription {
         subStats.nonContiguousDeletedMessagesRanges = cursor.getTotalNonContiguousDeletedMessagesRange();
         subStats.nonContiguousDeletedMessagesRangesSerializedSize =
                 cursor.getNonContiguousDeletedMessagesRangeSerializedSize();
+        subStats.nonContiguousDeletedMessagesRangesMemorySize = cursor.getNonContiguousDeletedMessagesRangeMemorySize();
         return subStats;
     }
 
@@ -1000,6 +1000,8 @@ public class PersistentTopic extends AbstractTopic
                             ledger.asyncDelete(new AsyncCallbacks.DeleteLedgerCallback() {
                                 @Override
                                 public void deleteLedgerComplete(Object ctx) {
+                                    // The delayed delivery state of the subscriptions is stored out of the ledger
+                                    subscriptions.forEach((s, sub) -> sub.deleteDelayedDeliveryState());
                                     brokerService.removeTopicFromCache(topic);
 
                                     dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
@@ -2076,10 +2078,17 @@ public class PersistentTopic extends AbstractTopic
             if (dispatcher != null && (topicPolicies == null || !topicPolicies.isSubscriptionDispatchRateSet())) {
                 dispatcher.getRateLimiter().ifPresent(rateLimiter -> rateLimiter.onPoliciesUpdate(data));
             }
+            if (dispatcher instanceof PersistentDispatcherMultipleConsumers) {
+                ((PersistentDispatcherMultipleConsumers) dispatcher).updateDispatchWeight(data);
+            }
+            sub.updateMessageFilter(data);
         });
         replicators.forEach((name, replicator) ->
                 replicator.getRateLimiter().ifPresent(DispatchRateLimiter::updateDispatchRate)
         );
+        // The cursors pick up the read-ahead policy with their next read
+        ledger.getConfig().setReadAheadEnabled(data.readAheadEnabled != null ? data.readAheadEnabled
+                : brokerService.pulsar().getConfiguration().isManagedLedgerReadAheadEnabled());
         checkMessageExpiry();
         CompletableFuture<Void> replicationFuture = checkReplicationAndRetryOnFailure();
         CompletableFuture<Void> dedupFuture = checkDeduplicationStatus();
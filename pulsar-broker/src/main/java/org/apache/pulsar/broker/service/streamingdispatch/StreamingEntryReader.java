@@ -18,6 +18,8 @@
  */
 package org.apache.pulsar.broker.service.streamingdispatch;
 
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
@@ -30,8 +32,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.NewEntryListener;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.WaitingEntryCallBack;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
@@ -42,10 +46,14 @@ import org.apache.pulsar.client.impl.Backoff;
 
 /**
  * Entry reader that fulfill read request by streamline the read instead of reading with micro batch.
+ *
+ * <p>Once the reader has caught up with the managed ledger, the entries added to the managed ledger are pushed to the
+ * pending read requests as they are added, without being read back from the cache.
  */
 @Slf4j
 @RequiredArgsConstructor
-public class StreamingEntryReader implements AsyncCallbacks.ReadEntryCallback, WaitingEntryCallBack {
+public class StreamingEntryReader implements AsyncCallbacks.ReadEntryCallback, WaitingEntryCallBack,
+        NewEntryListener {
 
     private final int maxRetry = 3;
 
@@ -73,6 +81,10 @@ public class StreamingEntryReader implements AsyncCallbacks.ReadEntryCallback, W
     private final Backoff readFailureBackoff = new Backoff(10, TimeUnit.MILLISECONDS,
             1, TimeUnit.SECONDS, 0, TimeUnit.MILLISECONDS);
 
+    // Whether the reader is registered to get the entries added to the managed ledger. It stays registered until the
+    // dispatcher is closed, the entries added while no request waits for them are ignored
+    private boolean listeningNewEntries = false;
+
     /**
      * Read entries in streaming way, that said instead reading with micro batch and send entries to consumer after all
      * entries in the batch are read from ledger, this method will fire numEntriesToRead requests to managedLedger
@@ -127,6 +139,10 @@ public class StreamingEntryReader implements AsyncCallbacks.ReadEntryCallback, W
                 log.debug("[{}} Streaming entry reader has {} pending read requests waiting on new entry."
                         , cursor.getName(), pendingReads.size());
             }
+            if (!listeningNewEntries) {
+                managedLedger.addNewEntryListener(this);
+                listeningNewEntries = true;
+            }
             // If new entries are available after we put request into pending queue, fire read.
             // Else register callback with managed ledger to get notify when new entries are available.
             if (managedLedger.hasMoreEntries(pendingReads.peek().position)) {
@@ -327,6 +343,59 @@ public class StreamingEntryReader implements AsyncCallbacks.ReadEntryCallback, W
         }
     }
 
+    @Override
+    public void newEntryAdded(Position position, ByteBuf data) {
+        // Only the requests waiting at the tail take the new entries, the other ones are read from the cache
+        if (pendingReads.isEmpty() || STATE_UPDATER.get(this) != State.Issued) {
+            return;
+        }
+        ByteBuf duplicate = data.retainedDuplicate();
+        Entry entry = EntryImpl.create((PositionImpl) position, duplicate);
+        duplicate.release();
+        // Don't block the managed ledger thread, complete the request with dispatcher dedicated thread.
+        topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(dispatcher.getName(), SafeRun.safeRun(() -> {
+            internalNewEntryAdded(entry);
+        }));
+    }
+
+    private synchronized void internalNewEntryAdded(Entry entry) {
+        ManagedLedgerImpl managedLedger = (ManagedLedgerImpl) cursor.getManagedLedger();
+        PendingReadEntryRequest next = pendingReads.peek();
+        if (next != null && STATE_UPDATER.get(this) == State.Issued) {
+            // Edge case, when a old ledger is full and new ledger is not yet opened, position can point to next
+            // position of the last confirmed position, but it'll be an invalid position. So try to update the position.
+            if (!managedLedger.isValidPosition(next.position)) {
+                next.position = managedLedger.getNextValidPosition(next.position);
+            }
+            if (next.position.equals(entry.getPosition())) {
+                pendingReads.poll();
+                issuedReads.offer(next);
+                if (!pendingReads.isEmpty()) {
+                    pendingReads.peek().position = managedLedger.getNextValidPosition(next.position);
+                }
+                internalReadEntryComplete(entry, next);
+                return;
+            }
+        }
+        // The entry was already read, or will be read from the cache
+        entry.release();
+    }
+
+    @VisibleForTesting
+    synchronized boolean isListeningNewEntries() {
+        return listeningNewEntries;
+    }
+
+    /**
+     * Stop getting the entries added to the managed ledger.
+     */
+    public synchronized void close() {
+        if (listeningNewEntries) {
+            ((ManagedLedgerImpl) cursor.getManagedLedger()).removeNewEntryListener(this);
+            listeningNewEntries = false;
+        }
+    }
+
     protected State getState() {
         return STATE_UPDATER.get(this);
     }
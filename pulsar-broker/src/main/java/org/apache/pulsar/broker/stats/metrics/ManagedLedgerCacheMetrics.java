@@ -19,11 +19,13 @@
 package org.apache.pulsar.broker.stats.metrics;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import io.netty.buffer.PoolArenaMetric;
 import io.netty.buffer.PoolChunkListMetric;
 import io.netty.buffer.PoolChunkMetric;
 import io.netty.buffer.PooledByteBufAllocator;
 import java.util.List;
+import java.util.Map;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryMXBean;
 import org.apache.bookkeeper.mledger.impl.EntryCacheImpl;
 import org.apache.pulsar.broker.PulsarService;
@@ -53,6 +55,20 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_misses_rate", mlCacheStats.getCacheMissesRate());
         m.put("brk_ml_cache_hits_throughput", mlCacheStats.getCacheHitsThroughput());
         m.put("brk_ml_cache_misses_throughput", mlCacheStats.getCacheMissesThroughput());
+        m.put("brk_ml_cache_evicted_entries_rate", mlCacheStats.getCacheEvictedEntriesRate());
+        m.put("brk_ml_cache_evicted_entries_throughput", mlCacheStats.getCacheEvictedEntriesThroughput());
+        m.put("brk_ml_cache_admission_rejections_rate", mlCacheStats.getCacheAdmissionRejectionsRate());
+        m.put("brk_ml_cache_coalesced_reads_rate", mlCacheStats.getCoalescedReadsRate());
+        m.put("brk_ml_cache_coalesced_read_entries_rate", mlCacheStats.getCoalescedReadEntriesRate());
+        m.put("brk_ml_read_ahead_buffered_size", mlCacheStats.getReadAheadBufferedSize());
+        m.put("brk_ml_read_ahead_budget_rejections_rate", mlCacheStats.getReadAheadBudgetRejectionsRate());
+        m.put("brk_ml_recovery_waiting_operations", mlCacheStats.getRecoveryWaitingOperations());
+        m.put("brk_ml_recovery_metadata_wait_time_ms", mlCacheStats.getRecoveryMetadataWaitTimeMs());
+        m.put("brk_ml_recovery_metadata_latency_ms", mlCacheStats.getRecoveryMetadataLatencyMs());
+        m.put("brk_ml_recovery_ledger_open_wait_time_ms", mlCacheStats.getRecoveryLedgerOpenWaitTimeMs());
+        m.put("brk_ml_recovery_ledger_open_latency_ms", mlCacheStats.getRecoveryLedgerOpenLatencyMs());
+        m.put("brk_ml_recovery_cursor_wait_time_ms", mlCacheStats.getRecoveryCursorWaitTimeMs());
+        m.put("brk_ml_recovery_cursor_latency_ms", mlCacheStats.getRecoveryCursorLatencyMs());
 
         PooledByteBufAllocator allocator = EntryCacheImpl.ALLOCATOR;
         long activeAllocations = 0;
@@ -89,8 +105,19 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_pool_active_allocations_normal", activeAllocationsNormal);
         m.put("brk_ml_cache_pool_active_allocations_huge", activeAllocationsHuge);
 
+        // The counters of the eviction policy are reported with the policy in use as dimension
+        Map<String, String> policyDimension = Maps.newHashMap();
+        policyDimension.put("policy", mlCacheStats.getCacheEvictionPolicy());
+        Metrics policyMetrics = createMetrics(policyDimension);
+        policyMetrics.put("brk_ml_cache_policy_hits", mlCacheStats.getCacheEvictionPolicyHits());
+        policyMetrics.put("brk_ml_cache_policy_misses", mlCacheStats.getCacheEvictionPolicyMisses());
+        policyMetrics.put("brk_ml_cache_policy_evictions", mlCacheStats.getCacheEvictionPolicyEvictions());
+        policyMetrics.put("brk_ml_cache_policy_admission_rejections",
+                mlCacheStats.getCacheEvictionPolicyAdmissionRejections());
+
         metrics.clear();
         metrics.add(m);
+        metrics.add(policyMetrics);
         return metrics;
 
     }
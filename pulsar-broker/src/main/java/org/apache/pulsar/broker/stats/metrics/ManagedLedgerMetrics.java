@@ -96,6 +96,16 @@ public class ManagedLedgerMetrics extends AbstractMetrics {
                         (double) lStats.getReadEntriesSucceeded());
                 populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_StoredMessagesSize",
                         (double) lStats.getStoredMessagesSize());
+                populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_ReadAheadHitsRate",
+                        lStats.getReadAheadHitsRate());
+                populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_ReadAheadHitsBytesRate",
+                        lStats.getReadAheadHitsBytesRate());
+                populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_ReadAheadPrefetchedRate",
+                        lStats.getReadAheadPrefetchedRate());
+                populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_ReadAheadPrefetchedBytesRate",
+                        lStats.getReadAheadPrefetchedBytesRate());
+                populateAggregationMapWithSum(tempAggregatedMetricsMap, "brk_ml_ReadAheadDiscardedRate",
+                        lStats.getReadAheadDiscardedRate());
 
                 // handle bucket entries initialization here
                 populateBucketEntries(tempAggregatedMetricsMap, "brk_ml_AddEntryLatencyBuckets",
@@ -40,6 +40,14 @@ public class AggregatedSubscriptionStats {
 
     public long msgDelayed;
 
+    public int dispatchReadBatchSize;
+
+    public long dispatchReadMaxSizeBytes;
+
+    public int dispatchWeight;
+
+    public double dispatchReadShare;
+
     long msgOutCounter;
 
     long bytesOutCounter;
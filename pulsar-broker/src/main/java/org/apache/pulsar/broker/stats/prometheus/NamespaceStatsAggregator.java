@@ -142,6 +142,10 @@ public class NamespaceStatsAggregator {
                     .computeIfAbsent(subName, k -> new AggregatedSubscriptionStats());
             subsStats.msgBacklog = subscriptionStats.msgBacklog;
             subsStats.msgDelayed = subscriptionStats.msgDelayed;
+            subsStats.dispatchReadBatchSize = subscriptionStats.dispatchReadBatchSize;
+            subsStats.dispatchReadMaxSizeBytes = subscriptionStats.dispatchReadMaxSizeBytes;
+            subsStats.dispatchWeight = subscriptionStats.dispatchWeight;
+            subsStats.dispatchReadShare = subscriptionStats.dispatchReadShare;
             subsStats.msgRateExpired = subscriptionStats.msgRateExpired;
             subsStats.totalMsgExpired = subscriptionStats.totalMsgExpired;
             subsStats.msgBacklogNoDelayed = subsStats.msgBacklog - subsStats.msgDelayed;
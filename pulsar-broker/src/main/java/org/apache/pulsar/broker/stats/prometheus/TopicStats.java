@@ -170,6 +170,20 @@ class TopicStats {
                     subsStats.msgBacklogNoDelayed);
             metric(stream, cluster, namespace, topic, n, "pulsar_subscription_delayed",
                     subsStats.msgDelayed);
+            // Only the dispatchers that adapt the size of their reads report it
+            if (subsStats.dispatchReadBatchSize > 0) {
+                metric(stream, cluster, namespace, topic, n, "pulsar_subscription_dispatch_read_batch_size",
+                        subsStats.dispatchReadBatchSize);
+                metric(stream, cluster, namespace, topic, n, "pulsar_subscription_dispatch_read_max_size_bytes",
+                        subsStats.dispatchReadMaxSizeBytes);
+            }
+            // Only the dispatchers whose reads are scheduled by the broker have a weight
+            if (subsStats.dispatchWeight > 0) {
+                metric(stream, cluster, namespace, topic, n, "pulsar_subscription_dispatch_weight",
+                        subsStats.dispatchWeight);
+                metric(stream, cluster, namespace, topic, n, "pulsar_subscription_dispatch_read_share",
+                        subsStats.dispatchReadShare);
+            }
             metric(stream, cluster, namespace, topic, n, "pulsar_subscription_msg_rate_redeliver",
                     subsStats.msgRateRedeliver);
             metric(stream, cluster, namespace, topic, n, "pulsar_subscription_unacked_messages",
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.metadata.api.MetadataStoreConfig;
+import org.apache.pulsar.metadata.api.MetadataStoreException.BadVersionException;
+import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BookKeeperBucketSnapshotStorageTest {
+
+    private static final String TOPIC = "persistent://public/default/topic";
+    private static final String NAME = "public/default/persistent/topic/sub";
+
+    private ExecutorService executor;
+    private PulsarMockBookKeeper bookKeeper;
+    private MetadataStoreExtended store;
+    private BookKeeperBucketSnapshotStorage storage;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        bookKeeper = spy(new PulsarMockBookKeeper(null, executor));
+        store = MetadataStoreExtended.create("memory://local", MetadataStoreConfig.builder().build());
+        storage = new BookKeeperBucketSnapshotStorage(bookKeeper, store, new ServiceConfiguration());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void teardown() throws Exception {
+        storage.close();
+        store.close();
+        bookKeeper.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSnapshot() throws Exception {
+        long[] segment0 = new long[] { 100, 1, 1 };
+        long[] segment1 = new long[] { 200, 2, 2, 210, 3, 3 };
+        long snapshotId = storage.createSnapshot(TOPIC, "sub", Arrays.asList(segment0, segment1)).get();
+
+        // The ledger of the snapshot is tagged with the subscription
+        ArgumentCaptor<Map<String, byte[]>> metadata = ArgumentCaptor.forClass(Map.class);
+        verify(bookKeeper).asyncCreateLedger(anyInt(), anyInt(), anyInt(), any(), any(), any(), any(),
+                metadata.capture());
+        assertEquals(new String(metadata.getValue().get("component"), UTF_8), "delayed-delivery-snapshot");
+        assertEquals(new String(metadata.getValue().get("pulsar/topic"), UTF_8), TOPIC);
+        assertEquals(new String(metadata.getValue().get("pulsar/subscription"), UTF_8), "sub");
+
+        // The ledger is opened once for all the segments
+        assertEquals(storage.getSegment(snapshotId, 0).get(), segment0);
+        assertEquals(storage.getSegment(snapshotId, 1).get(), segment1);
+        verify(bookKeeper, times(1)).asyncOpenLedgerNoRecovery(eq(snapshotId), any(), any(), any(), any());
+
+        storage.deleteSnapshot(snapshotId).get();
+        assertFalse(bookKeeper.getLedgers().contains(snapshotId));
+    }
+
+    @Test
+    public void testEmptySnapshot() throws Exception {
+        try {
+            storage.createSnapshot(TOPIC, "sub", Collections.emptyList()).get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+    }
+
+    @Test
+    public void testIndexVersion() throws Exception {
+        assertFalse(storage.getIndex(NAME).get().isPresent());
+        long version = storage.putIndex(NAME, new byte[] { 1 }, Optional.of(-1L)).get();
+
+        // The index can't be created twice, or updated from a previous version
+        try {
+            storage.putIndex(NAME, new byte[] { 2 }, Optional.of(-1L)).get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BadVersionException);
+        }
+        long newVersion = storage.putIndex(NAME, new byte[] { 3 }, Optional.of(version)).get();
+        try {
+            storage.putIndex(NAME, new byte[] { 4 }, Optional.of(version)).get();
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BadVersionException);
+        }
+
+        assertEquals(storage.getIndex(NAME).get().get().getValue(), new byte[] { 3 });
+        assertEquals(storage.getIndex(NAME).get().get().getStat().getVersion(), newVersion);
+        storage.deleteIndex(NAME).get();
+        assertFalse(storage.getIndex(NAME).get().isPresent());
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.util.Timer;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Cleanup;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.common.util.ObjectMapperFactory;
+import org.apache.pulsar.metadata.api.GetResult;
+import org.apache.pulsar.metadata.api.MetadataStoreException.BadVersionException;
+import org.apache.pulsar.metadata.api.Stat;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BucketDelayedDeliveryTrackerTest {
+
+    private static final String TOPIC = "persistent://public/default/topic";
+    private static final String NAME = "public/default/persistent/topic/sub";
+
+    private PersistentDispatcherMultipleConsumers dispatcher;
+    private Timer timer;
+    private AtomicLong clockTime;
+    private Clock clock;
+    private MemoryBucketSnapshotStorage storage;
+
+    static class MemoryBucketSnapshotStorage implements BucketSnapshotStorage {
+        private final AtomicLong nextSnapshotId = new AtomicLong();
+        final Map<Long, List<long[]>> snapshots = new ConcurrentHashMap<>();
+        final Map<String, GetResult> indexes = new ConcurrentHashMap<>();
+        final AtomicInteger snapshotWrites = new AtomicInteger();
+        volatile boolean failWrites = false;
+
+        @Override
+        public CompletableFuture<Long> createSnapshot(String topic, String subscription, List<long[]> segments) {
+            snapshotWrites.incrementAndGet();
+            if (failWrites) {
+                return FutureUtil.failedFuture(new IOException("Failed to write the snapshot"));
+            }
+            long snapshotId = nextSnapshotId.getAndIncrement();
+            snapshots.put(snapshotId, segments);
+            return CompletableFuture.completedFuture(snapshotId);
+        }
+
+        @Override
+        public CompletableFuture<long[]> getSegment(long snapshotId, int segment) {
+            return CompletableFuture.completedFuture(snapshots.get(snapshotId).get(segment));
+        }
+
+        @Override
+        public void closeSnapshot(long snapshotId) {
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteSnapshot(long snapshotId) {
+            snapshots.remove(snapshotId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Optional<GetResult>> getIndex(String name) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(indexes.get(name)));
+        }
+
+        @Override
+        public synchronized CompletableFuture<Long> putIndex(String name, byte[] index,
+                                                             Optional<Long> expectedVersion) {
+            GetResult existing = indexes.get(name);
+            long version = existing != null ? existing.getStat().getVersion() : -1;
+            if (expectedVersion.isPresent() && expectedVersion.get() != version) {
+                return FutureUtil.failedFuture(new BadVersionException("Index " + name + " is at version " + version));
+            }
+            indexes.put(name, new GetResult(index, new Stat(name, version + 1, 0, 0)));
+            return CompletableFuture.completedFuture(version + 1);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteIndex(String name) {
+            indexes.remove(name);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @BeforeMethod
+    public void setup() {
+        dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        timer = mock(Timer.class);
+        clockTime = new AtomicLong();
+        clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+        storage = new MemoryBucketSnapshotStorage();
+    }
+
+    private BucketDelayedDeliveryTracker newTracker() {
+        // Buckets of 100 ms, the buckets 0 and 1 are loaded at the start
+        return new BucketDelayedDeliveryTracker(dispatcher, storage, TOPIC, "sub", timer, 1, 100, 3, clock);
+    }
+
+    private int getIndexSize() throws Exception {
+        return ObjectMapperFactory.getThreadLocal().readValue(storage.indexes.get(NAME).getValue(),
+                BucketDelayedDeliveryTracker.SnapshotMetadata[].class).length;
+    }
+
+    private void addMessages(BucketDelayedDeliveryTracker tracker) {
+        assertTrue(tracker.addMessage(1, 1, 150));
+        assertTrue(tracker.addMessage(2, 2, 250));
+        assertTrue(tracker.addMessage(3, 3, 350));
+        assertTrue(tracker.addMessage(4, 4, 450));
+    }
+
+    @Test
+    public void testSnapshotAndLoadBuckets() throws Exception {
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addMessages(tracker);
+
+        // The messages of the buckets 2, 3 and 4 are written in a snapshot
+        assertEquals(tracker.getNumberOfSnapshots(), 1);
+        assertEquals(storage.snapshots.size(), 1);
+        assertEquals(storage.snapshots.values().iterator().next().size(), 3);
+        assertEquals(getIndexSize(), 1);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 4);
+        assertEquals(tracker.getNumberOfMessagesInMemory(), 1);
+
+        // The buckets 2 and 3 are loaded
+        clockTime.set(210);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getNumberOfMessagesInMemory(), 3);
+        Set<PositionImpl> scheduled = tracker.getScheduledMessages(10);
+        assertEquals(scheduled.size(), 1);
+        assertTrue(scheduled.contains(PositionImpl.get(1, 1)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 3);
+
+        // Once all the buckets are loaded, the snapshot is deleted
+        clockTime.set(460);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getNumberOfSnapshots(), 0);
+        assertTrue(storage.snapshots.isEmpty());
+        assertEquals(getIndexSize(), 0);
+        assertEquals(tracker.getScheduledMessages(10).size(), 3);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertFalse(tracker.hasMessageAvailable());
+    }
+
+    @Test
+    public void testRecoverFromSnapshots() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addMessages(tracker);
+        tracker.close();
+        assertEquals(storage.snapshots.size(), 1);
+
+        // The messages are read again from the backlog, only the messages that were in memory are tracked again
+        @Cleanup
+        BucketDelayedDeliveryTracker recovered = newTracker();
+        assertEquals(recovered.getNumberOfSnapshots(), 1);
+        addMessages(recovered);
+        assertEquals(recovered.getNumberOfDelayedMessages(), 4);
+        assertEquals(recovered.getNumberOfMessagesInMemory(), 1);
+
+        clockTime.set(460);
+        assertTrue(recovered.hasMessageAvailable());
+        assertEquals(recovered.getScheduledMessages(10).size(), 4);
+        assertTrue(storage.snapshots.isEmpty());
+
+        // The new messages are tracked
+        assertTrue(recovered.addMessage(5, 5, 500));
+        assertEquals(recovered.getNumberOfDelayedMessages(), 1);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addMessages(tracker);
+        assertEquals(storage.snapshots.size(), 1);
+
+        tracker.clear();
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertTrue(storage.snapshots.isEmpty());
+        assertTrue(storage.indexes.isEmpty());
+    }
+
+    @Test
+    public void testDeleteSubscriptionSnapshots() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addMessages(tracker);
+        tracker.close();
+
+        BucketDelayedDeliveryTracker.deleteSnapshots(storage, NAME).get();
+        assertTrue(storage.snapshots.isEmpty());
+        assertTrue(storage.indexes.isEmpty());
+    }
+
+    @Test
+    public void testFailedSnapshotWriteRetried() throws Exception {
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        storage.failWrites = true;
+        assertTrue(tracker.addMessage(1, 1, 5050));
+        assertTrue(tracker.addMessage(2, 2, 5150));
+        assertTrue(tracker.addMessage(3, 3, 5250));
+
+        // The snapshot stays in memory, and no other snapshot is created until it's written
+        assertEquals(storage.snapshotWrites.get(), 1);
+        assertEquals(tracker.getNumberOfSnapshots(), 1);
+        assertTrue(tracker.addMessage(4, 4, 5350));
+        assertTrue(tracker.addMessage(5, 5, 5450));
+        assertTrue(tracker.addMessage(6, 6, 5550));
+        assertEquals(storage.snapshotWrites.get(), 1);
+        assertEquals(tracker.getNumberOfSnapshots(), 1);
+        assertEquals(tracker.getNumberOfMessagesInMemory(), 6);
+
+        // After the backoff, the snapshot is written again, and then the buffered messages are moved in a new one
+        storage.failWrites = false;
+        clockTime.set(1000);
+        assertTrue(tracker.addMessage(7, 7, 5650));
+        assertEquals(storage.snapshotWrites.get(), 3);
+        assertEquals(tracker.getNumberOfSnapshots(), 2);
+        assertEquals(storage.snapshots.size(), 2);
+        assertEquals(getIndexSize(), 2);
+        assertEquals(tracker.getNumberOfMessagesInMemory(), 0);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 7);
+    }
+
+    @Test
+    public void testIndexWrittenWithExpectedVersion() throws Exception {
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        addMessages(tracker);
+        assertEquals(storage.indexes.get(NAME).getStat().getVersion(), 0);
+
+        // The index is overwritten by another writer, the tracker doesn't update it anymore
+        byte[] otherIndex = "[]".getBytes();
+        storage.putIndex(NAME, otherIndex, Optional.empty()).get();
+        clockTime.set(460);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getNumberOfSnapshots(), 0);
+        assertEquals(storage.indexes.get(NAME).getStat().getVersion(), 1);
+        assertEquals(storage.indexes.get(NAME).getValue(), otherIndex);
+    }
+}
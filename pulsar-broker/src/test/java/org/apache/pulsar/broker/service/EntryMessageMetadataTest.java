@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.List;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.Test;
+
+public class EntryMessageMetadataTest {
+
+    private static ByteBuf createMessage(String key) {
+        MessageMetadata messageMetadata = new MessageMetadata()
+                .setSequenceId(1)
+                .setProducerName("testProducer")
+                .setPartitionKey(key)
+                .setPartitionKeyB64Encoded(false)
+                .setPublishTime(System.currentTimeMillis());
+        return Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, messageMetadata,
+                Unpooled.copiedBuffer("message".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testParse() {
+        ByteBuf buffer = createMessage("key-1");
+        EntryImpl entry = EntryImpl.create(1, 1, buffer);
+        buffer.release();
+        int readerIndex = entry.getDataBuffer().readerIndex();
+
+        EntryMessageMetadata view = EntryMessageMetadata.of(entry);
+        assertEquals(entry.getDataBuffer().readerIndex(), readerIndex);
+        assertEquals(view.getStickyKey(), "key-1".getBytes(UTF_8));
+
+        // The view doesn't refer to the thread local metadata, which is reused by the next parsing
+        ByteBuf other = createMessage("key-2");
+        Commands.parseMessageMetadata(other);
+        other.release();
+        assertEquals(view.getMessageMetadata().getPartitionKey(), "key-1");
+        assertEquals(view.getMessageMetadata().getProducerName(), "testProducer");
+        entry.release();
+    }
+
+    private static ByteBuf createBatch(MessageMetadata messageMetadata) {
+        ByteBuf batchBuffer = Unpooled.buffer();
+        for (int i = 0; i < 3; i++) {
+            SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata()
+                    .setCompactedOut(i == 1);
+            singleMessageMetadata.addProperty().setKey("index").setValue(String.valueOf(i));
+            ByteBuf payload = Unpooled.copiedBuffer(("message-" + i).getBytes(UTF_8));
+            Commands.serializeSingleMessageInBatchWithPayload(singleMessageMetadata, payload, batchBuffer);
+            payload.release();
+        }
+        messageMetadata
+                .setSequenceId(1)
+                .setProducerName("testProducer")
+                .setPublishTime(System.currentTimeMillis())
+                .setNumMessagesInBatch(3)
+                .setUncompressedSize(batchBuffer.readableBytes());
+        return Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, messageMetadata, batchBuffer);
+    }
+
+    @Test
+    public void testPeekBatchProperties() {
+        MessageMetadata messageMetadata = new MessageMetadata();
+        ByteBuf buffer = createBatch(messageMetadata);
+        EntryImpl entry = EntryImpl.create(1, 1, buffer);
+        buffer.release();
+        int readerIndex = entry.getDataBuffer().readerIndex();
+
+        List<List<KeyValue>> batchProperties = EntryMessageMetadata.peekBatchProperties(entry, messageMetadata);
+        assertEquals(entry.getDataBuffer().readerIndex(), readerIndex);
+        assertEquals(batchProperties.size(), 3);
+        assertEquals(batchProperties.get(0).get(0).getKey(), "index");
+        assertEquals(batchProperties.get(0).get(0).getValue(), "0");
+        // The messages that were compacted out have no properties
+        assertNull(batchProperties.get(1));
+        assertEquals(batchProperties.get(2).get(0).getValue(), "2");
+
+        // The properties don't refer to the data of the entry
+        entry.release();
+        assertEquals(batchProperties.get(2).get(0).getValue(), "2");
+    }
+
+    @Test
+    public void testPeekEncryptedBatchProperties() {
+        MessageMetadata messageMetadata = new MessageMetadata();
+        messageMetadata.addEncryptionKey().setKey("key").setValue(new byte[16]);
+        ByteBuf buffer = createBatch(messageMetadata);
+        EntryImpl entry = EntryImpl.create(1, 1, buffer);
+        buffer.release();
+        assertNull(EntryMessageMetadata.peekBatchProperties(entry, messageMetadata));
+        entry.release();
+    }
+
+    @Test
+    public void testCorruptedMetadata() {
+        EntryImpl entry = EntryImpl.create(1, 1, "not a message".getBytes(UTF_8));
+        EntryMessageMetadata view = EntryMessageMetadata.of(entry);
+        assertNull(view.getMessageMetadata());
+        assertEquals(view.getStickyKey(), Commands.getStickyKey(new MessageMetadata()));
+        entry.release();
+    }
+}
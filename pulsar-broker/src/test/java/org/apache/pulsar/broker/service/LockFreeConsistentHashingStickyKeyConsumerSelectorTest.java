@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerAssignException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LockFreeConsistentHashingStickyKeyConsumerSelectorTest {
+
+    private static Consumer consumer(String name) {
+        Consumer consumer = mock(Consumer.class);
+        when(consumer.consumerName()).thenReturn(name);
+        return consumer;
+    }
+
+    private static void assertSameSelection(StickyKeyConsumerSelector selector,
+                                            StickyKeyConsumerSelector expected) {
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = UUID.randomUUID().toString().getBytes();
+            Assert.assertEquals(selector.select(key), expected.select(key));
+        }
+        // The bounds of the hash ring
+        Assert.assertEquals(selector.select(0), expected.select(0));
+        Assert.assertEquals(selector.select(Integer.MAX_VALUE), expected.select(Integer.MAX_VALUE));
+        Assert.assertEquals(selector.getConsumerKeyHashRanges(), expected.getConsumerKeyHashRanges());
+    }
+
+    @Test
+    public void testSameAssignmentAsConsistentHashing() throws ConsumerAssignException {
+        LockFreeConsistentHashingStickyKeyConsumerSelector selector =
+                new LockFreeConsistentHashingStickyKeyConsumerSelector(100);
+        ConsistentHashingStickyKeyConsumerSelector expected = new ConsistentHashingStickyKeyConsumerSelector(100);
+        Assert.assertNull(selector.select("anyKey".getBytes()));
+
+        List<Consumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Consumer consumer = consumer("c" + i);
+            consumers.add(consumer);
+            selector.addConsumer(consumer);
+            expected.addConsumer(consumer);
+            if (i % 10 == 0) {
+                assertSameSelection(selector, expected);
+            }
+        }
+        assertSameSelection(selector, expected);
+
+        for (int i = 0; i < 49; i++) {
+            selector.removeConsumer(consumers.get(i));
+            expected.removeConsumer(consumers.get(i));
+            if (i % 10 == 0) {
+                assertSameSelection(selector, expected);
+            }
+        }
+        Assert.assertEquals(selector.select("anyKey".getBytes()), consumers.get(49));
+
+        selector.removeConsumer(consumers.get(49));
+        Assert.assertNull(selector.select("anyKey".getBytes()));
+        Assert.assertTrue(selector.getConsumerKeyHashRanges().isEmpty());
+    }
+
+    @Test
+    public void testSelectByPrecomputedHash() throws ConsumerAssignException {
+        LockFreeConsistentHashingStickyKeyConsumerSelector selector =
+                new LockFreeConsistentHashingStickyKeyConsumerSelector(10);
+        for (int i = 0; i < 5; i++) {
+            selector.addConsumer(consumer("c" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            byte[] key = ("key-" + i).getBytes();
+            Assert.assertEquals(selector.select(StickyKeyConsumerSelector.makeStickyKeyHash(key)),
+                    selector.select(key));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.testng.annotations.Test;
+
+public class MessagePropertiesFilterTest {
+
+    private static MessageMetadata message(String... properties) {
+        MessageMetadata metadata = new MessageMetadata();
+        for (int i = 0; i < properties.length; i += 2) {
+            metadata.addProperty().setKey(properties[i]).setValue(properties[i + 1]);
+        }
+        return metadata;
+    }
+
+    @Test
+    public void testComparisons() {
+        MessagePropertiesFilter filter = MessagePropertiesFilter.parse("region = 'eu'");
+        assertTrue(filter.matches(message("region", "eu")));
+        assertTrue(filter.matches(message("type", "order", "region", "eu")));
+        assertFalse(filter.matches(message("region", "us")));
+        assertFalse(filter.matches(message()));
+
+        filter = MessagePropertiesFilter.parse("region != 'eu'");
+        assertFalse(filter.matches(message("region", "eu")));
+        assertTrue(filter.matches(message("region", "us")));
+        assertTrue(filter.matches(message()));
+
+        filter = MessagePropertiesFilter.parse("type in ('order', 'refund')");
+        assertTrue(filter.matches(message("type", "order")));
+        assertTrue(filter.matches(message("type", "refund")));
+        assertFalse(filter.matches(message("type", "invoice")));
+
+        filter = MessagePropertiesFilter.parse("EXISTS priority");
+        assertTrue(filter.matches(message("priority", "")));
+        assertFalse(filter.matches(message("region", "eu")));
+
+        // Keys that aren't identifiers are quoted
+        filter = MessagePropertiesFilter.parse("\"event type\" = 'a=b'");
+        assertTrue(filter.matches(message("event type", "a=b")));
+    }
+
+    @Test
+    public void testLogicalOperators() {
+        MessagePropertiesFilter filter = MessagePropertiesFilter.parse(
+                "region = 'eu' AND (type IN ('order', 'refund') OR NOT EXISTS priority)");
+        assertTrue(filter.matches(message("region", "eu", "type", "order", "priority", "high")));
+        assertTrue(filter.matches(message("region", "eu", "type", "invoice")));
+        assertFalse(filter.matches(message("region", "eu", "type", "invoice", "priority", "high")));
+        assertFalse(filter.matches(message("region", "us", "type", "order")));
+
+        // AND has precedence over OR
+        filter = MessagePropertiesFilter.parse("a = '1' or b = '1' and c = '1'");
+        assertTrue(filter.matches(message("a", "1")));
+        assertFalse(filter.matches(message("b", "1")));
+        assertTrue(filter.matches(message("b", "1", "c", "1")));
+    }
+
+    @Test
+    public void testInvalidExpressions() {
+        String[] expressions = { "", "region", "region = eu", "region = 'eu", "region = 'eu' AND",
+                "(region = 'eu'", "region = 'eu')", "region IN 'eu'", "region > 'eu'", "region = 'eu' region = 'us'" };
+        for (String expression : expressions) {
+            try {
+                MessagePropertiesFilter.parse(expression);
+                fail("Should have failed to parse: " + expression);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -89,6 +89,7 @@ import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.cache.ConfigurationCacheService;
 import org.apache.pulsar.broker.cache.LocalZooKeeperCacheService;
+import org.apache.pulsar.broker.delayed.DelayedDeliveryTrackerFactory;
 import org.apache.pulsar.broker.namespace.NamespaceService;
 import org.apache.pulsar.broker.service.nonpersistent.NonPersistentReplicator;
 import org.apache.pulsar.broker.service.persistent.CompactorSubscription;
@@ -1017,6 +1018,21 @@ public class PersistentTopicTest extends MockedBookKeeperTestCase {
         topic.unsubscribe(successSubName);
     }
 
+    @Test
+    public void testDeleteTopicDeletesDelayedDeliveryState() throws Exception {
+        DelayedDeliveryTrackerFactory trackerFactory = mock(DelayedDeliveryTrackerFactory.class);
+        when(trackerFactory.deleteSubscriptionState(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        doReturn(trackerFactory).when(brokerService).getDelayedDeliveryTrackerFactory();
+
+        PersistentTopic topic = (PersistentTopic) brokerService.getOrCreateTopic(successTopicName).get();
+        topic.getSubscriptions().put(successSubName,
+                new PersistentSubscription(topic, successSubName, cursorMock, false));
+
+        // The state of the subscriptions is deleted with the topic
+        topic.delete().get();
+        verify(trackerFactory).deleteSubscriptionState(topic, successSubName);
+    }
+
     @Test
     public void testDeleteAndUnsubscribeTopic() throws Exception {
         // create topic
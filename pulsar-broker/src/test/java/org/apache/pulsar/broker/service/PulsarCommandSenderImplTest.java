@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.common.api.proto.BaseCommand;
+import org.apache.pulsar.common.api.proto.ProtocolVersion;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.Test;
+
+public class PulsarCommandSenderImplTest {
+
+    @Test
+    public void testHeadersAreWrittenInTheArenaOfTheConnection() throws Exception {
+        // The counters are broker-wide, so only their increments are checked
+        double passedThroughBytes = ConnectionBytesCounter.getPassedThroughBytes();
+        double serializedBytes = ConnectionBytesCounter.getSerializedBytes();
+        EmbeddedChannel channel = new EmbeddedChannel(ByteBufPair.ENCODER, ConnectionBytesCounter.PASSING_THROUGH,
+                new ChannelInboundHandlerAdapter());
+
+        ByteBuf arena = Unpooled.directBuffer(1024, 1024);
+        ServerCnx cnx = mock(ServerCnx.class);
+        doReturn(arena).when(cnx).headersArena();
+        doReturn(channel.pipeline().lastContext()).when(cnx).ctx();
+        doReturn(ProtocolVersion.v17.getValue()).when(cnx).getRemoteEndpointProtocolVersion();
+        doAnswer(invocation -> {
+            BaseCommand command = Commands.newMessageCommand(invocation.getArgument(0), invocation.getArgument(1),
+                    invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4),
+                    invocation.getArgument(6));
+            return Commands.serializeCommandMessageWithSize(command, invocation.getArgument(5),
+                    invocation.getArgument(8));
+        }).when(cnx).newMessageAndIntercept(anyLong(), anyLong(), anyLong(), anyInt(), anyInt(), any(), any(),
+                anyString(), any());
+
+        final int numEntries = 3;
+        List<Entry> entries = new ArrayList<>();
+        EntryBatchSizes batchSizes = EntryBatchSizes.get(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            entries.add(EntryImpl.create(1, i, ("message-" + i).getBytes(StandardCharsets.UTF_8)));
+            batchSizes.setBatchSize(i, 1);
+        }
+
+        PulsarCommandSenderImpl sender = new PulsarCommandSenderImpl(null, cnx);
+        sender.sendMessagesToConsumer(1, "persistent://prop/ns/topic", null, -1, entries, batchSizes, null,
+                new InMemoryRedeliveryTracker());
+        channel.runPendingTasks();
+        channel.flush();
+
+        // The headers of all the messages are slices of the arena, which is kept by the connection once they are
+        // all written
+        long headersBytes = 0;
+        long payloadBytes = 0;
+        for (int i = 0; i < numEntries; i++) {
+            ByteBuf headers = channel.readOutbound();
+            ByteBuf payload = channel.readOutbound();
+            assertSame(root(headers), arena);
+            assertEquals(payload.toString(StandardCharsets.UTF_8), "message-" + i);
+            headersBytes += headers.readableBytes();
+            payloadBytes += payload.readableBytes();
+            headers.release();
+            payload.release();
+        }
+        ByteBuf emptyWrite = channel.readOutbound();
+        emptyWrite.release();
+        assertNull(channel.readOutbound());
+
+        assertEquals(arena.refCnt(), 1);
+        assertEquals(arena.writerIndex(), headersBytes);
+        assertEquals(ConnectionBytesCounter.getPassedThroughBytes() - passedThroughBytes, (double) payloadBytes);
+        assertEquals(ConnectionBytesCounter.getSerializedBytes() - serializedBytes, (double) headersBytes);
+        arena.release();
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuf root(ByteBuf buffer) {
+        while (buffer.unwrap() != null) {
+            buffer = buffer.unwrap();
+        }
+        return buffer;
+    }
+}
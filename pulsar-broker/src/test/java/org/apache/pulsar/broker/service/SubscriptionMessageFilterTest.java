@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.broker.service.persistent.PersistentSubscription;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.admin.PulsarAdminException;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.awaitility.Awaitility;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SubscriptionMessageFilterTest extends BrokerTestBase {
+
+    @BeforeMethod
+    @Override
+    protected void setup() throws Exception {
+        conf.setAcknowledgmentAtBatchIndexLevelEnabled(true);
+        super.baseSetup();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    private static void produce(Producer<String> producer) throws Exception {
+        for (int i = 0; i < 10; i++) {
+            producer.newMessage().property("region", i % 2 == 0 ? "eu" : "us").value("msg-" + i).send();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testConsumerFilter() throws Exception {
+        final String topicName = "persistent://prop/ns-abc/testConsumerFilter";
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topicName).subscriptionName("sub").subscriptionType(SubscriptionType.Shared)
+                .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'eu'").subscribe();
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topicName).enableBatching(false).create();
+        produce(producer);
+
+        for (int i = 0; i < 10; i += 2) {
+            Message<String> message = consumer.receive();
+            assertEquals(message.getValue(), "msg-" + i);
+            consumer.acknowledge(message);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+
+        // The filtered messages are acknowledged by the broker
+        PersistentTopic topic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topicName).get();
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(topic.getSubscription("sub").getNumberOfEntriesInBacklog(false), 0));
+
+        // Invalid filters are rejected
+        try {
+            pulsarClient.newConsumer().topic(topicName).subscriptionName("sub")
+                    .subscriptionType(SubscriptionType.Shared)
+                    .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = eu").subscribe();
+            fail("Should have failed to subscribe");
+        } catch (PulsarClientException e) {
+            // Expected
+        }
+
+        // The consumers of a subscription share the same filter
+        try {
+            pulsarClient.newConsumer().topic(topicName).subscriptionName("sub")
+                    .subscriptionType(SubscriptionType.Shared)
+                    .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'us'").subscribe();
+            fail("Should have failed to subscribe");
+        } catch (PulsarClientException e) {
+            // Expected
+        }
+        try {
+            pulsarClient.newConsumer().topic(topicName).subscriptionName("sub")
+                    .subscriptionType(SubscriptionType.Shared).subscribe();
+            fail("Should have failed to subscribe");
+        } catch (PulsarClientException e) {
+            // Expected
+        }
+        Consumer<byte[]> consumer2 = pulsarClient.newConsumer().topic(topicName).subscriptionName("sub")
+                .subscriptionType(SubscriptionType.Shared)
+                .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'eu'").subscribe();
+        assertEquals(topic.getSubscription("sub").getMessageFilter().getExpression(), "region = 'eu'");
+        consumer2.close();
+
+        // Once all the consumers are gone, the next consumer sets the filter
+        consumer.close();
+        Consumer<byte[]> consumer3 = pulsarClient.newConsumer().topic(topicName).subscriptionName("sub")
+                .subscriptionType(SubscriptionType.Shared)
+                .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'us'").subscribe();
+        assertEquals(topic.getSubscription("sub").getMessageFilter().getExpression(), "region = 'us'");
+        consumer3.close();
+    }
+
+    @Test(timeOut = 20000)
+    public void testNamespacePolicyFilter() throws Exception {
+        final String namespace = "prop/ns-abc";
+        final String topicName = "persistent://prop/ns-abc/testNamespacePolicyFilter";
+        admin.namespaces().setSubscriptionFilter(namespace, "sub", "region != 'eu'");
+        assertEquals(admin.namespaces().getSubscriptionFilters(namespace),
+                Collections.singletonMap("sub", "region != 'eu'"));
+        try {
+            admin.namespaces().setSubscriptionFilter(namespace, "sub", "region != ");
+            fail("Should have failed to set an invalid filter");
+        } catch (PulsarAdminException.PreconditionFailedException e) {
+            // Expected
+        }
+
+        // The policy takes precedence over the filter of the consumer
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topicName).subscriptionName("sub")
+                .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'eu'").subscribe();
+        PersistentTopic topic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topicName).get();
+        PersistentSubscription subscription = topic.getSubscription("sub");
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(subscription.getMessageFilter().getExpression(), "region != 'eu'"));
+
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topicName).enableBatching(false).create();
+        produce(producer);
+        for (int i = 1; i < 10; i += 2) {
+            Message<String> message = consumer.receive();
+            assertEquals(message.getValue(), "msg-" + i);
+            consumer.acknowledge(message);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+
+        admin.namespaces().removeSubscriptionFilter(namespace, "sub");
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(subscription.getMessageFilter().getExpression(), "region = 'eu'"));
+        assertEquals(admin.namespaces().getSubscriptionFilters(namespace), Collections.emptyMap());
+    }
+
+    @Test(timeOut = 20000)
+    public void testBatchedMessagesFilter() throws Exception {
+        final String topicName = "persistent://prop/ns-abc/testBatchedMessagesFilter";
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topicName).subscriptionName("sub").subscriptionType(SubscriptionType.Shared)
+                .enableBatchIndexAcknowledgment(true)
+                .property(MessagePropertiesFilter.CONSUMER_PROPERTY, "region = 'eu'").subscribe();
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topicName).enableBatching(true).compressionType(CompressionType.LZ4)
+                .batchingMaxMessages(10).batchingMaxPublishDelay(1, TimeUnit.HOURS).create();
+
+        // A batch with some matching messages, then a batch without any
+        for (int i = 0; i < 10; i++) {
+            producer.newMessage().property("region", i % 2 == 0 ? "eu" : "us").value("msg-" + i).sendAsync();
+        }
+        for (int i = 10; i < 20; i++) {
+            producer.newMessage().property("region", "us").value("msg-" + i).sendAsync();
+        }
+        producer.flush();
+
+        for (int i = 0; i < 10; i += 2) {
+            Message<String> message = consumer.receive();
+            assertEquals(message.getValue(), "msg-" + i);
+            consumer.acknowledge(message);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+
+        // The messages that don't match are acknowledged by the broker at the batch index level
+        PersistentTopic topic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topicName).get();
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(topic.getSubscription("sub").getNumberOfEntriesInBacklog(false), 0));
+    }
+}
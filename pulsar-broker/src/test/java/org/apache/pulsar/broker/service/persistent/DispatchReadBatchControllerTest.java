@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+public class DispatchReadBatchControllerTest {
+
+    private static final long MAX_READ_SIZE_BYTES = 5 * 1024 * 1024;
+
+    private static DispatchReadBatchController newController() {
+        // Target latency of 50 ms, between 1 and 1000 entries per read
+        return new DispatchReadBatchController(50, 1, 1000, MAX_READ_SIZE_BYTES, 0);
+    }
+
+    @Test
+    public void testDefaults() {
+        DispatchReadBatchController controller = newController();
+        assertEquals(controller.getBatchSize(), 1000);
+        assertEquals(controller.getReadSizeBytes(), MAX_READ_SIZE_BYTES);
+    }
+
+    @Test
+    public void testSmallEntries() {
+        DispatchReadBatchController controller = newController();
+
+        // 100 entries of 100 bytes read in 1 ms: the batch is only limited by the max batch size
+        controller.recordRead(100, 100 * 100, TimeUnit.MILLISECONDS.toNanos(1), true);
+        assertEquals(controller.getBatchSize(), 1000);
+        assertEquals(controller.getReadSizeBytes(), 1000 * 100 * 3 / 2);
+    }
+
+    @Test
+    public void testLargeEntries() {
+        DispatchReadBatchController controller = newController();
+
+        // Entries of 1 MB, the byte budget limits the batch
+        controller.recordRead(2, 2 * 1024 * 1024, TimeUnit.MILLISECONDS.toNanos(1), true);
+        assertEquals(controller.getBatchSize(), 5);
+        assertEquals(controller.getReadSizeBytes(), MAX_READ_SIZE_BYTES);
+    }
+
+    @Test
+    public void testReadLatency() {
+        DispatchReadBatchController controller = newController();
+
+        // 1 ms per entry: 50 entries fit in the target latency
+        controller.recordRead(10, 10 * 1024, TimeUnit.MILLISECONDS.toNanos(10), true);
+        assertEquals(controller.getBatchSize(), 50);
+        assertEquals(controller.getReadSizeBytes(), 50 * 1024 * 3 / 2);
+
+        // The latency of the reads which waited for new entries is ignored
+        controller.recordRead(1, 1024, TimeUnit.SECONDS.toNanos(10), false);
+        assertEquals(controller.getBatchSize(), 50);
+    }
+
+    @Test
+    public void testConsumerThroughput() {
+        DispatchReadBatchController controller = newController();
+        controller.recordRead(10, 10 * 1024, TimeUnit.MILLISECONDS.toNanos(1), true);
+        assertEquals(controller.getBatchSize(), 500);
+
+        // The consumers process 2000 msg/s, so they take 100 messages in the target latency
+        controller.recordPermits(1000, TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(controller.getBatchSize(), 500);
+        controller.recordPermits(1000, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(controller.getPermitsRate(), 2000.0);
+        assertEquals(controller.getBatchSize(), 100);
+
+        // The batch is never smaller than the min batch size
+        controller.recordPermits(0, TimeUnit.SECONDS.toNanos(100));
+        assertEquals(controller.getBatchSize(), 80);
+        for (int i = 0; i < 100; i++) {
+            controller.recordPermits(0, TimeUnit.SECONDS.toNanos(101 + i));
+        }
+        assertEquals(controller.getBatchSize(), 1);
+    }
+}
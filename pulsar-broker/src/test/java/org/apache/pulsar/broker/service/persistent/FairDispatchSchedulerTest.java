@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.pulsar.broker.service.persistent.FairDispatchScheduler.Share;
+import org.testng.annotations.Test;
+
+public class FairDispatchSchedulerTest {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @Test
+    public void testWeightedShares() {
+        AtomicLong clock = new AtomicLong(0);
+        FairDispatchScheduler scheduler = new FairDispatchScheduler(1, 1, clock::get);
+        Share heavy = scheduler.newShare(DIRECT_EXECUTOR, 3);
+        List<Share> shares = new ArrayList<>();
+        shares.add(heavy);
+        for (int i = 0; i < 3; i++) {
+            shares.add(scheduler.newShare(DIRECT_EXECUTOR, 1));
+        }
+
+        // All the shares always have a read to do, and request the next one once their read completes
+        Deque<Share> grantedReads = new ArrayDeque<>();
+        for (Share share : shares) {
+            share.requestRead(10, () -> grantedReads.add(share));
+        }
+        assertEquals(grantedReads.size(), 1);
+        assertEquals(scheduler.getOutstandingReads(), 1);
+        assertEquals(scheduler.getPendingReads(), 3);
+
+        Map<Share, Integer> reads = new HashMap<>();
+        for (int i = 0; i < 600; i++) {
+            Share share = grantedReads.poll();
+            reads.merge(share, 1, Integer::sum);
+            share.readCompleted();
+            share.requestRead(10, () -> grantedReads.add(share));
+        }
+        // The heavy share gets 3 / 6 of the reads, and every light share 1 / 6
+        assertEquals(reads.get(heavy), 300, 5);
+        for (Share share : shares.subList(1, shares.size())) {
+            assertEquals(reads.get(share), 100, 5);
+        }
+
+        // Once the window is complete, the shares report their part of the reads
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(heavy.getReadShare(), 0.5, 0.01);
+        assertEquals(shares.get(1).getReadShare(), 1.0 / 6, 0.01);
+
+        // A new window without reads resets the shares
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(heavy.getReadShare(), 0.0);
+        assertEquals(shares.get(1).getReadShare(), 0.0);
+    }
+
+    @Test
+    public void testOutstandingReadsPerExecutor() {
+        FairDispatchScheduler scheduler = new FairDispatchScheduler(10, 1);
+        Executor executor1 = command -> command.run();
+        Executor executor2 = command -> command.run();
+        Deque<Share> grantedReads = new ArrayDeque<>();
+        Share share1 = scheduler.newShare(executor1, 1);
+        Share share2 = scheduler.newShare(executor1, 1);
+        Share share3 = scheduler.newShare(executor2, 1);
+
+        share1.requestRead(1, () -> grantedReads.add(share1));
+        share2.requestRead(1, () -> grantedReads.add(share2));
+        share3.requestRead(1, () -> grantedReads.add(share3));
+
+        // The read of share2 waits for the read of share1, since they run on the same executor
+        assertEquals(grantedReads.size(), 2);
+        assertEquals(grantedReads.poll(), share1);
+        assertEquals(grantedReads.poll(), share3);
+        assertEquals(scheduler.getPendingReads(), 1);
+
+        share3.readCompleted();
+        assertTrue(grantedReads.isEmpty());
+        share1.readCompleted();
+        assertEquals(grantedReads.poll(), share2);
+        share2.readCompleted();
+        assertEquals(scheduler.getOutstandingReads(), 0);
+        assertEquals(scheduler.getPendingReads(), 0);
+    }
+
+    @Test
+    public void testCancelRead() {
+        FairDispatchScheduler scheduler = new FairDispatchScheduler(1, 1);
+        Deque<Share> grantedReads = new ArrayDeque<>();
+        Share share1 = scheduler.newShare(DIRECT_EXECUTOR, 1);
+        Share share2 = scheduler.newShare(DIRECT_EXECUTOR, 1);
+
+        share1.requestRead(1, () -> grantedReads.add(share1));
+        share2.requestRead(1, () -> grantedReads.add(share2));
+        assertFalse(share1.cancelRead());
+        assertTrue(share2.cancelRead());
+        assertFalse(share2.cancelRead());
+
+        // The cancelled read is never granted, and the share can request another one
+        share1.readCompleted();
+        assertEquals(grantedReads.size(), 1);
+        assertEquals(scheduler.getOutstandingReads(), 0);
+        share2.requestRead(1, () -> grantedReads.add(share2));
+        assertEquals(grantedReads.size(), 2);
+        assertEquals(grantedReads.peekLast(), share2);
+    }
+}
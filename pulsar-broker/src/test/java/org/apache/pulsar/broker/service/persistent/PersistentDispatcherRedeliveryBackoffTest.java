@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.Consumer;
+import org.mockito.ArgumentCaptor;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.testng.IObjectFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.ObjectFactory;
+import org.testng.annotations.Test;
+
+@PrepareForTest({ DispatchRateLimiter.class })
+@PowerMockIgnore({"org.apache.logging.log4j.*"})
+public class PersistentDispatcherRedeliveryBackoffTest {
+
+    private ServiceConfiguration configMock;
+    private ScheduledExecutorService executorMock;
+    private Consumer consumerMock;
+    private PersistentDispatcherMultipleConsumers persistentDispatcher;
+
+    @ObjectFactory
+    public IObjectFactory getObjectFactory() {
+        return new org.powermock.modules.testng.PowerMockObjectFactory();
+    }
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        configMock = mock(ServiceConfiguration.class);
+        doReturn(true).when(configMock).isSubscriptionRedeliveryTrackerEnabled();
+        doReturn(100).when(configMock).getDispatcherMaxReadBatchSize();
+        doReturn(100L).when(configMock).getSubscriptionRedeliveryBackoffMinDelayMillis();
+        doReturn(1000L).when(configMock).getSubscriptionRedeliveryBackoffMaxDelayMillis();
+
+        PulsarService pulsarMock = mock(PulsarService.class);
+        doReturn(configMock).when(pulsarMock).getConfiguration();
+
+        executorMock = mock(ScheduledExecutorService.class);
+        BrokerService brokerMock = mock(BrokerService.class);
+        doReturn(pulsarMock).when(brokerMock).pulsar();
+        doReturn(executorMock).when(brokerMock).executor();
+
+        PersistentTopic topicMock = mock(PersistentTopic.class);
+        doReturn(brokerMock).when(topicMock).getBrokerService();
+        doReturn("persistent://public/default/testTopic").when(topicMock).getName();
+
+        ManagedCursorImpl cursorMock = mock(ManagedCursorImpl.class);
+        doReturn(null).when(cursorMock).getLastIndividualDeletedRange();
+        doReturn("testSubscription").when(cursorMock).getName();
+
+        consumerMock = mock(Consumer.class);
+
+        PowerMockito.mockStatic(DispatchRateLimiter.class);
+        PowerMockito.when(DispatchRateLimiter.isDispatchRateNeeded(
+                any(BrokerService.class),
+                any(Optional.class),
+                anyString(),
+                any(DispatchRateLimiter.Type.class))
+        ).thenReturn(false);
+
+        persistentDispatcher = new PersistentDispatcherMultipleConsumers(topicMock, cursorMock,
+                mock(PersistentSubscription.class));
+    }
+
+    private List<Runnable> getScheduledTasks(int count) {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorMock, times(count)).schedule(taskCaptor.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+        return taskCaptor.getAllValues();
+    }
+
+    @Test
+    public void testRedeliveryBackoff() throws Exception {
+        PositionImpl position = PositionImpl.get(1, 1);
+        persistentDispatcher.redeliverUnacknowledgedMessages(consumerMock, Collections.singletonList(position));
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 1);
+        assertTrue(persistentDispatcher.getMessagesToReplayNow(10).isEmpty());
+
+        // The message is not redelivered before its backoff
+        getScheduledTasks(1).get(0).run();
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 1);
+        assertTrue(persistentDispatcher.getMessagesToReplayNow(10).isEmpty());
+
+        Thread.sleep(200);
+        getScheduledTasks(2).get(1).run();
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 0);
+        assertEquals(persistentDispatcher.getMessagesToReplayNow(10), Collections.singleton(position));
+
+        // The backoff is doubled with every redelivery
+        persistentDispatcher.getRedeliveryTracker().incrementAndGetRedeliveryCount(position);
+        persistentDispatcher.getRedeliveryTracker().incrementAndGetRedeliveryCount(position);
+        persistentDispatcher.redeliverUnacknowledgedMessages(consumerMock,
+                Collections.singletonList(PositionImpl.get(1, 2)));
+        persistentDispatcher.redeliverUnacknowledgedMessages(consumerMock, Collections.singletonList(position));
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 2);
+
+        Thread.sleep(200);
+        getScheduledTasks(3).get(2).run();
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 1);
+    }
+
+    @Test
+    public void testRedeliveryWithoutBackoff() {
+        doReturn(0L).when(configMock).getSubscriptionRedeliveryBackoffMinDelayMillis();
+
+        PositionImpl position = PositionImpl.get(1, 1);
+        persistentDispatcher.redeliverUnacknowledgedMessages(consumerMock, Collections.singletonList(position));
+        assertEquals(persistentDispatcher.getNumberOfMessagesInRedeliveryBackoff(), 0);
+        assertEquals(persistentDispatcher.getMessagesToReplayNow(10), Collections.singleton(position));
+        verify(executorMock, never()).schedule(any(Runnable.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+}
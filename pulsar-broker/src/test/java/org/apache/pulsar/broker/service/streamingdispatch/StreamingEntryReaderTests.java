@@ -19,6 +19,8 @@
 package org.apache.pulsar.broker.service.streamingdispatch;
 
 import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
@@ -42,10 +44,13 @@ import org.testng.annotations.Test;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -56,12 +61,16 @@ import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.spy;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Tests for {@link StreamingEntryReader}
@@ -430,4 +439,65 @@ public class StreamingEntryReaderTests extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test
+    public void testNewEntriesPushedToPendingReads() throws Exception {
+        List<String> entries = new CopyOnWriteArrayList<>();
+        StreamingEntryReader streamingEntryReader =
+                new StreamingEntryReader((ManagedCursorImpl) cursor, mockDispatcher, mockTopic);
+
+        doAnswer((InvocationOnMock invocationOnMock) -> {
+                Entry entry = invocationOnMock.getArgument(0, Entry.class);
+                entries.add(new String(entry.getData(), Encoding));
+                cursor.seek(ledger.getNextValidPosition((PositionImpl) entry.getPosition()));
+                entry.release();
+                return null;
+            }
+        ).when(mockDispatcher).readEntryComplete(any(Entry.class), any(PendingReadEntryRequest.class));
+
+        // The ledger is empty, all the requests wait for new entries
+        streamingEntryReader.asyncReadEntries(3, 1000, null);
+        assertTrue(streamingEntryReader.isListeningNewEntries());
+
+        // An entry which isn't the next one to read is released
+        PositionImpl readPosition = (PositionImpl) cursor.getReadPosition();
+        ByteBuf unexpected = Unpooled.wrappedBuffer("unexpected".getBytes(Encoding));
+        streamingEntryReader.newEntryAdded(
+                PositionImpl.get(readPosition.getLedgerId(), readPosition.getEntryId() + 5), unexpected);
+        await().atMost(500, TimeUnit.MILLISECONDS).until(() -> unexpected.refCnt() == 1);
+        assertTrue(entries.isEmpty());
+
+        // The added entries are pushed to the requests, without reading them back from the managed ledger
+        List<ByteBuf> payloads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuf payload = Unpooled.wrappedBuffer(String.format("message-%d", i).getBytes(Encoding));
+            payloads.add(payload);
+            CompletableFuture<Position> future = new CompletableFuture<>();
+            ledger.asyncAddEntry(payload, new AsyncCallbacks.AddEntryCallback() {
+                @Override
+                public void addComplete(Position position, ByteBuf entryData, Object ctx) {
+                    future.complete(position);
+                }
+
+                @Override
+                public void addFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+            future.get();
+            int expectedEntries = i + 1;
+            await().atMost(500, TimeUnit.MILLISECONDS).until(() -> entries.size() == expectedEntries);
+        }
+        assertEquals(entries, Arrays.asList("message-0", "message-1", "message-2"));
+        verify(ledger, never()).asyncReadEntry(any(), any(), any());
+
+        // The reader stays registered once the requests are completed, until the dispatcher is closed
+        assertTrue(streamingEntryReader.isListeningNewEntries());
+        streamingEntryReader.close();
+        assertFalse(streamingEntryReader.isListeningNewEntries());
+
+        // Apart from the cache, nothing retains the entries anymore
+        factory.getEntryCacheManager().clear();
+        await().atMost(500, TimeUnit.MILLISECONDS)
+                .until(() -> payloads.stream().allMatch(payload -> payload.refCnt() == 1));
+    }
 }
@@ -61,6 +61,7 @@ import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.broker.stats.prometheus.PrometheusMetricsGenerator;
 import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.SubscriptionType;
 import org.awaitility.Awaitility;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
@@ -455,6 +456,49 @@ public class PrometheusMetricsTest extends BrokerTestBase {
         c2.close();
     }
 
+    @Test
+    public void testSubscriptionDispatchReadMetrics() throws Exception {
+        Consumer<byte[]> c1 = pulsarClient.newConsumer()
+                .topic("persistent://my-property/use/my-ns/my-topic1")
+                .subscriptionName("test")
+                .subscriptionType(SubscriptionType.Shared)
+                .subscribe();
+
+        // The size of the reads is not adapted by default, so it's not reported
+        ByteArrayOutputStream statsOut = new ByteArrayOutputStream();
+        PrometheusMetricsGenerator.generate(pulsar, true, false, statsOut);
+        Multimap<String, Metric> metrics = parseMetrics(new String(statsOut.toByteArray()));
+        assertTrue(metrics.get("pulsar_subscription_dispatch_read_batch_size").isEmpty());
+        assertTrue(metrics.get("pulsar_subscription_dispatch_read_max_size_bytes").isEmpty());
+        // The reads are not scheduled by the broker by default either
+        assertTrue(metrics.get("pulsar_subscription_dispatch_weight").isEmpty());
+        assertTrue(metrics.get("pulsar_subscription_dispatch_read_share").isEmpty());
+
+        pulsar.getConfiguration().setDispatcherAdaptiveReadBatchEnabled(true);
+        try {
+            Consumer<byte[]> c2 = pulsarClient.newConsumer()
+                    .topic("persistent://my-property/use/my-ns/my-topic2")
+                    .subscriptionName("test")
+                    .subscriptionType(SubscriptionType.Shared)
+                    .subscribe();
+
+            statsOut = new ByteArrayOutputStream();
+            PrometheusMetricsGenerator.generate(pulsar, true, false, statsOut);
+            metrics = parseMetrics(new String(statsOut.toByteArray()));
+            List<Metric> cm = (List<Metric>) metrics.get("pulsar_subscription_dispatch_read_batch_size");
+            assertEquals(cm.size(), 1);
+            assertEquals(cm.get(0).tags.get("topic"), "persistent://my-property/use/my-ns/my-topic2");
+            assertTrue(cm.get(0).value > 0);
+            cm = (List<Metric>) metrics.get("pulsar_subscription_dispatch_read_max_size_bytes");
+            assertEquals(cm.size(), 1);
+            assertEquals(cm.get(0).tags.get("topic"), "persistent://my-property/use/my-ns/my-topic2");
+            c2.close();
+        } finally {
+            pulsar.getConfiguration().setDispatcherAdaptiveReadBatchEnabled(false);
+        }
+        c1.close();
+    }
+
     /** Checks for duplicate type definitions for a metric in the Prometheus metrics output. If the Prometheus parser
      finds a TYPE definition for the same metric more than once, it errors out:
      https://github.com/prometheus/prometheus/blob/f04b1b5559a80a4fd1745cf891ce392a056460c9/vendor/github.com/prometheus/common/expfmt/text_parse.go#L499-L502
@@ -41,7 +41,7 @@ import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.ClusterData;
 import org.apache.pulsar.common.policies.data.TenantInfo;
-import org.apache.pulsar.common.util.collections.BitSetRecyclable;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairBitSetMap;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
@@ -52,7 +52,6 @@ import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.assertEquals;
@@ -205,7 +204,7 @@ public class PendingAckInMemoryDeleteTest extends TransactionTestBase {
         HashMap<TxnID, HashMap<PositionImpl, PositionImpl>> individualAckOfTransaction = null;
         ManagedCursorImpl managedCursor = null;
 
-        ConcurrentSkipListMap<PositionImpl, BitSetRecyclable> batchDeletedIndexes = null;
+        ConcurrentLongPairBitSetMap batchDeletedIndexes = null;
 
         for (int retryCnt = 0; retryCnt < 2; retryCnt++) {
 
@@ -256,8 +255,7 @@ public class PendingAckInMemoryDeleteTest extends TransactionTestBase {
                         managedCursor = (ManagedCursorImpl) persistentSubscription.getCursor();
                         field = ManagedCursorImpl.class.getDeclaredField("batchDeletedIndexes");
                         field.setAccessible(true);
-                        batchDeletedIndexes =
-                                (ConcurrentSkipListMap<PositionImpl, BitSetRecyclable>) field.get(managedCursor);
+                        batchDeletedIndexes = (ConcurrentLongPairBitSetMap) field.get(managedCursor);
                         if (retryCnt == 0) {
                             //one message are not ack
                             assertEquals(batchDeletedIndexes.size(), 1);
@@ -2479,6 +2479,174 @@ public interface Namespaces {
      */
     CompletableFuture<Void> removeDeduplicationSnapshotIntervalAsync(String namespace);
 
+    /**
+     * Get whether the read-ahead of catch-up cursors is enabled for a namespace.
+     *
+     * @param namespace
+     * @return the namespace override, or null if the broker settings are used
+     * @throws PulsarAdminException
+     */
+    Boolean getReadAheadEnabled(String namespace) throws PulsarAdminException;
+
+    /**
+     * Get whether the read-ahead of catch-up cursors is enabled for a namespace asynchronously.
+     *
+     * @param namespace
+     * @return
+     */
+    CompletableFuture<Boolean> getReadAheadEnabledAsync(String namespace);
+
+    /**
+     * Enable or disable the read-ahead of catch-up cursors for all the topics of a namespace.
+     * <p/>
+     * When enabled, the cursors that read a topic sequentially prefetch the entries that follow their current read,
+     * while the current batch is dispatched to the consumers.
+     *
+     * @param namespace
+     * @param readAheadEnabled
+     * @throws PulsarAdminException
+     */
+    void setReadAheadEnabled(String namespace, boolean readAheadEnabled) throws PulsarAdminException;
+
+    /**
+     * Enable or disable the read-ahead of catch-up cursors for all the topics of a namespace asynchronously.
+     *
+     * @param namespace
+     * @param readAheadEnabled
+     * @return
+     */
+    CompletableFuture<Void> setReadAheadEnabledAsync(String namespace, boolean readAheadEnabled);
+
+    /**
+     * Remove the read-ahead override of a namespace, falling back to the broker settings.
+     * @param namespace
+     * @throws PulsarAdminException
+     */
+    void removeReadAheadEnabled(String namespace) throws PulsarAdminException;
+
+    /**
+     * Remove the read-ahead override of a namespace asynchronously.
+     * @param namespace
+     * @return
+     */
+    CompletableFuture<Void> removeReadAheadEnabledAsync(String namespace);
+
+    /**
+     * Get the weight of the subscriptions of a namespace in the reads scheduled by the broker.
+     *
+     * @param namespace
+     * @return the weight, or null if the default weight is used
+     * @throws PulsarAdminException
+     */
+    Integer getSubscriptionDispatchWeight(String namespace) throws PulsarAdminException;
+
+    /**
+     * Get the weight of the subscriptions of a namespace in the reads scheduled by the broker asynchronously.
+     *
+     * @param namespace
+     * @return
+     */
+    CompletableFuture<Integer> getSubscriptionDispatchWeightAsync(String namespace);
+
+    /**
+     * Set the weight of the subscriptions of a namespace in the reads scheduled by the broker.
+     * <p/>
+     * When the fair scheduling of the dispatcher reads is enabled on the brokers, every subscription gets a part of
+     * the reads of the backlog proportional to its weight. The default weight is 1.
+     *
+     * @param namespace
+     * @param subscriptionDispatchWeight
+     *            the weight, which must be greater than 0
+     * @throws PulsarAdminException
+     */
+    void setSubscriptionDispatchWeight(String namespace, int subscriptionDispatchWeight) throws PulsarAdminException;
+
+    /**
+     * Set the weight of the subscriptions of a namespace in the reads scheduled by the broker asynchronously.
+     *
+     * @param namespace
+     * @param subscriptionDispatchWeight
+     * @return
+     */
+    CompletableFuture<Void> setSubscriptionDispatchWeightAsync(String namespace, int subscriptionDispatchWeight);
+
+    /**
+     * Remove the weight of the subscriptions of a namespace, falling back to the default weight.
+     * @param namespace
+     * @throws PulsarAdminException
+     */
+    void removeSubscriptionDispatchWeight(String namespace) throws PulsarAdminException;
+
+    /**
+     * Remove the weight of the subscriptions of a namespace asynchronously.
+     * @param namespace
+     * @return
+     */
+    CompletableFuture<Void> removeSubscriptionDispatchWeightAsync(String namespace);
+
+    /**
+     * Get the filters on the message properties of the subscriptions of a namespace.
+     *
+     * @param namespace
+     * @return the filter expressions, by subscription name
+     * @throws PulsarAdminException
+     */
+    Map<String, String> getSubscriptionFilters(String namespace) throws PulsarAdminException;
+
+    /**
+     * Get the filters on the message properties of the subscriptions of a namespace asynchronously.
+     *
+     * @param namespace
+     * @return
+     */
+    CompletableFuture<Map<String, String>> getSubscriptionFiltersAsync(String namespace);
+
+    /**
+     * Set the filter on the message properties of a subscription of the topics of a namespace.
+     * <p/>
+     * The brokers only dispatch to the subscription the messages whose properties match the filter, and acknowledge
+     * the other ones. For example:
+     * <pre>
+     * <code>region = 'eu' AND type IN ('order', 'refund')</code>
+     * </pre>
+     * The batched messages are always dispatched, since their properties are not visible to the brokers. The filter
+     * overrides the filter set by the consumers when they subscribe.
+     *
+     * @param namespace
+     * @param subscription
+     *            the name of the subscription
+     * @param filter
+     *            the filter expression
+     * @throws PulsarAdminException
+     */
+    void setSubscriptionFilter(String namespace, String subscription, String filter) throws PulsarAdminException;
+
+    /**
+     * Set the filter on the message properties of a subscription of the topics of a namespace asynchronously.
+     *
+     * @param namespace
+     * @param subscription
+     * @param filter
+     * @return
+     */
+    CompletableFuture<Void> setSubscriptionFilterAsync(String namespace, String subscription, String filter);
+
+    /**
+     * Remove the filter on the message properties of a subscription of the topics of a namespace.
+     * @param namespace
+     * @param subscription
+     * @throws PulsarAdminException
+     */
+    void removeSubscriptionFilter(String namespace, String subscription) throws PulsarAdminException;
+
+    /**
+     * Remove the filter on the message properties of a subscription of the topics of a namespace asynchronously.
+     * @param namespace
+     * @param subscription
+     * @return
+     */
+    CompletableFuture<Void> removeSubscriptionFilterAsync(String namespace, String subscription);
+
     /**
      * Get the maxSubscriptionsPerTopic for a namespace.
      *
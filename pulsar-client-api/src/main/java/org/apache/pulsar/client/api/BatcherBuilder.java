@@ -19,6 +19,7 @@
 package org.apache.pulsar.client.api;
 
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 import org.apache.pulsar.client.internal.DefaultImplementation;
 import org.apache.pulsar.common.classification.InterfaceAudience;
 import org.apache.pulsar.common.classification.InterfaceStability;
@@ -52,6 +53,30 @@ public interface BatcherBuilder extends Serializable {
      */
     BatcherBuilder KEY_BASED = DefaultImplementation.newKeyBasedBatcherBuilder();
 
+    /**
+     * Adaptive batch message container, which batches the messages like {@link #DEFAULT}, but sizes the batches to
+     * meet a publish latency target.
+     *
+     * <p>The container tracks the publish rate of the producer and the time the broker takes to acknowledge a batch,
+     * and sends a batch as soon as it holds the messages that are expected to be published within the latency target.
+     * The batching max messages, max bytes and max publish delay of the producer still bound the batches.
+     *
+     * @param latencyTarget
+     *            the target latency of the published messages
+     * @param unit
+     *            the time unit of the latency target
+     * @param flushOnIdle
+     *            whether a batch is sent right away when no other message of the producer is waiting for an
+     *            acknowledgment of the broker
+     * @return the batcher builder
+     */
+    static BatcherBuilder adaptive(long latencyTarget, TimeUnit unit, boolean flushOnIdle) {
+        if (latencyTarget <= 0) {
+            throw new IllegalArgumentException("latencyTarget needs to be > 0");
+        }
+        return DefaultImplementation.newAdaptiveBatcherBuilder(unit.toNanos(latencyTarget), flushOnIdle);
+    }
+
     /**
      * Build a new batch message container.
      * @return new batch message container
@@ -209,6 +209,21 @@ public interface ConsumerBuilder<T> extends Cloneable {
      */
     ConsumerBuilder<T> ackTimeoutTickTime(long tickTime, TimeUnit timeUnit);
 
+    /**
+     * Set the max ack-timeout of the messages that are redelivered.
+     *
+     * <p>When the max ack-timeout is greater than the ack-timeout, the ack-timeout of a message doubles on every
+     * redelivery of the message, up to the max ack-timeout. By default, all the messages have the same
+     * ack-timeout.
+     *
+     * @param maxAckTimeout
+     *            the max ack-timeout of the redelivered messages
+     * @param timeUnit
+     *            unit in which the timeout is provided.
+     * @return the consumer builder instance
+     */
+    ConsumerBuilder<T> maxAckTimeout(long maxAckTimeout, TimeUnit timeUnit);
+
     /**
      * Set the delay to wait before re-delivering messages that have failed to be process.
      *
@@ -91,6 +91,22 @@ public interface ProducerStats extends Serializable {
      */
     double getSendLatencyMillisMax();
 
+    /**
+     * @return the number of batches sent by the adaptive batcher in the last interval because they had reached the
+     *         size that meets the publish latency target
+     */
+    default long getNumBatchesFlushedOnTargetSize() {
+        return 0;
+    }
+
+    /**
+     * @return the number of batches sent by the adaptive batcher in the last interval because no other message was
+     *         waiting for an acknowledgment of the broker
+     */
+    default long getNumBatchesFlushedOnIdle() {
+        return 0;
+    }
+
     /**
      * @return the total number of messages published by this producer
      */
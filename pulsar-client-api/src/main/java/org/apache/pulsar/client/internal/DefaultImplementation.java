@@ -494,4 +494,10 @@ public class DefaultImplementation {
                 () -> (BatcherBuilder) getConstructor("org.apache.pulsar.client.impl.KeyBasedBatcherBuilder")
                         .newInstance());
     }
+
+    public static BatcherBuilder newAdaptiveBatcherBuilder(long latencyTargetNanos, boolean flushOnIdle) {
+        return catchExceptions(
+                () -> (BatcherBuilder) getConstructor("org.apache.pulsar.client.impl.AdaptiveBatcherBuilder",
+                        Long.TYPE, Boolean.TYPE).newInstance(latencyTargetNanos, flushOnIdle));
+    }
 }
@@ -1267,6 +1267,143 @@ public class CmdNamespaces extends CmdBase {
         }
     }
 
+    @Parameters(commandDescription = "Get whether the read-ahead of catch-up cursors is enabled for a namespace")
+    private class GetReadAhead extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            print(getAdmin().namespaces().getReadAheadEnabled(namespace));
+        }
+    }
+
+    @Parameters(commandDescription = "Enable or disable the read-ahead of catch-up cursors for a namespace, "
+            + "overriding broker settings")
+    private class SetReadAhead extends CliCommand {
+        @Parameter(description = "tenant/namespace", required = true)
+        private java.util.List<String> params;
+
+        @Parameter(names = { "--enable", "-e" }, description = "Enable read-ahead")
+        private boolean enable = false;
+
+        @Parameter(names = { "--disable", "-d" }, description = "Disable read-ahead")
+        private boolean disable = false;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+
+            if (enable == disable) {
+                throw new ParameterException("Need to specify either --enable or --disable");
+            }
+            getAdmin().namespaces().setReadAheadEnabled(namespace, enable);
+        }
+    }
+
+    @Parameters(commandDescription = "Remove the read-ahead override for a namespace")
+    private class RemoveReadAhead extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            getAdmin().namespaces().removeReadAheadEnabled(namespace);
+        }
+    }
+
+    @Parameters(commandDescription = "Get the weight of the subscriptions of a namespace in the reads scheduled by "
+            + "the broker")
+    private class GetSubscriptionDispatchWeight extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            print(getAdmin().namespaces().getSubscriptionDispatchWeight(namespace));
+        }
+    }
+
+    @Parameters(commandDescription = "Set the weight of the subscriptions of a namespace in the reads scheduled by "
+            + "the broker")
+    private class SetSubscriptionDispatchWeight extends CliCommand {
+        @Parameter(description = "tenant/namespace", required = true)
+        private java.util.List<String> params;
+
+        @Parameter(names = { "--weight", "-w" }, description = "Weight of the subscriptions (greater than 0)",
+                required = true)
+        private int weight;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            getAdmin().namespaces().setSubscriptionDispatchWeight(namespace, weight);
+        }
+    }
+
+    @Parameters(commandDescription = "Remove the weight of the subscriptions of a namespace")
+    private class RemoveSubscriptionDispatchWeight extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            getAdmin().namespaces().removeSubscriptionDispatchWeight(namespace);
+        }
+    }
+
+    @Parameters(commandDescription = "Get the filters on the message properties of the subscriptions of a namespace")
+    private class GetSubscriptionFilters extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            print(getAdmin().namespaces().getSubscriptionFilters(namespace));
+        }
+    }
+
+    @Parameters(commandDescription = "Set the filter on the message properties of a subscription of the topics of a "
+            + "namespace")
+    private class SetSubscriptionFilter extends CliCommand {
+        @Parameter(description = "tenant/namespace", required = true)
+        private java.util.List<String> params;
+
+        @Parameter(names = { "--subscription", "-s" }, description = "Subscription name", required = true)
+        private String subscription;
+
+        @Parameter(names = { "--filter", "-f" }, description = "Filter expression on the message properties, "
+                + "e.g. \"region = 'eu' AND type IN ('order', 'refund')\"", required = true)
+        private String filter;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            getAdmin().namespaces().setSubscriptionFilter(namespace, subscription, filter);
+        }
+    }
+
+    @Parameters(commandDescription = "Remove the filter on the message properties of a subscription of the topics of "
+            + "a namespace")
+    private class RemoveSubscriptionFilter extends CliCommand {
+        @Parameter(description = "tenant/namespace", required = true)
+        private java.util.List<String> params;
+
+        @Parameter(names = { "--subscription", "-s" }, description = "Subscription name", required = true)
+        private String subscription;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            getAdmin().namespaces().removeSubscriptionFilter(namespace, subscription);
+        }
+    }
+
     @Parameters(commandDescription = "Get maxProducersPerTopic for a namespace")
     private class GetMaxProducersPerTopic extends CliCommand {
         @Parameter(description = "tenant/namespace\n", required = true)
@@ -2073,6 +2210,17 @@ public class CmdNamespaces extends CmdBase {
         jcommander.addCommand("get-deduplication-snapshot-interval", new GetDeduplicationSnapshotInterval());
         jcommander.addCommand("remove-deduplication-snapshot-interval", new RemoveDeduplicationSnapshotInterval());
 
+        jcommander.addCommand("set-read-ahead", new SetReadAhead());
+        jcommander.addCommand("get-read-ahead", new GetReadAhead());
+        jcommander.addCommand("remove-read-ahead", new RemoveReadAhead());
+
+        jcommander.addCommand("set-subscription-dispatch-weight", new SetSubscriptionDispatchWeight());
+        jcommander.addCommand("get-subscription-dispatch-weight", new GetSubscriptionDispatchWeight());
+        jcommander.addCommand("remove-subscription-dispatch-weight", new RemoveSubscriptionDispatchWeight());
+        jcommander.addCommand("set-subscription-filter", new SetSubscriptionFilter());
+        jcommander.addCommand("get-subscription-filters", new GetSubscriptionFilters());
+        jcommander.addCommand("remove-subscription-filter", new RemoveSubscriptionFilter());
+
         jcommander.addCommand("set-max-topics-per-namespace", new SetMaxTopicsPerNamespace());
         jcommander.addCommand("get-max-topics-per-namespace", new GetMaxTopicsPerNamespace());
         jcommander.addCommand("remove-max-topics-per-namespace", new RemoveMaxTopicsPerNamespace());
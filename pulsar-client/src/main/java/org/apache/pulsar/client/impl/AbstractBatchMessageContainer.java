@@ -88,6 +88,11 @@ public abstract class AbstractBatchMessageContainer implements BatchMessageConta
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void onSendAcknowledged(long latencyNanos) {
+        // Do nothing
+    }
+
     @Override
     public void setProducer(ProducerImpl<?> producer) {
         this.producer = producer;
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+/**
+ * Batch message container which sizes the batches to meet a publish latency target.
+ *
+ * <p>The messages are batched like {@link BatchMessageContainerImpl}, but a batch is sent as soon as it holds the
+ * number of messages that are expected to be published while the first message of the batch waits, which is the
+ * latency target minus the round trip time of the previous batches. The batching max publish delay still bounds the
+ * time a message can wait in the batch.
+ *
+ * <p>When flushing on idle is enabled, a batch is also sent as soon as there is no other message waiting for an
+ * acknowledgment of the broker, so that the messages published at a low rate are not delayed.
+ *
+ * <p>Like the other containers, it is only accessed with the lock of the producer held.
+ */
+class AdaptiveBatchMessageContainer extends BatchMessageContainerImpl {
+
+    // Weight of a new sample in the moving averages
+    private static final double EWMA_ALPHA = 0.125;
+
+    // A batch keeps collecting messages for at least this share of the latency target, so that the producer still
+    // batches the messages when the round trip time is higher than the target
+    private static final double MIN_BATCHING_RATIO = 0.25;
+
+    private final long latencyTargetNanos;
+    private final boolean flushOnIdle;
+
+    // Moving averages of the time between 2 added messages and of the round trip time of the batches
+    private double avgAddIntervalNanos = -1;
+    private double avgRoundTripNanos = 0;
+    private long lastAddNanos = -1;
+
+    AdaptiveBatchMessageContainer(long latencyTargetNanos, boolean flushOnIdle) {
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.flushOnIdle = flushOnIdle;
+    }
+
+    @Override
+    public boolean add(MessageImpl<?> msg, SendCallback callback) {
+        updatePublishRate(System.nanoTime());
+        if (super.add(msg, callback)) {
+            return true;
+        }
+        if (flushOnIdle && producer.getPendingQueueSize() == 0) {
+            producer.getStats().incrementNumBatchesFlushedOnIdle();
+            return true;
+        }
+        if (numMessagesInBatch >= getTargetNumMessages()) {
+            producer.getStats().incrementNumBatchesFlushedOnTargetSize();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onSendAcknowledged(long latencyNanos) {
+        avgRoundTripNanos = avgRoundTripNanos == 0 ? latencyNanos
+                : avgRoundTripNanos + (latencyNanos - avgRoundTripNanos) * EWMA_ALPHA;
+    }
+
+    void updatePublishRate(long nowNanos) {
+        if (lastAddNanos != -1) {
+            // A pause in the publishing only means that the next batch should be sent right away
+            long interval = Math.min(nowNanos - lastAddNanos, latencyTargetNanos);
+            avgAddIntervalNanos = avgAddIntervalNanos < 0 ? interval
+                    : avgAddIntervalNanos + (interval - avgAddIntervalNanos) * EWMA_ALPHA;
+        }
+        lastAddNanos = nowNanos;
+    }
+
+    /**
+     * @return the number of messages a batch should hold before it is sent
+     */
+    int getTargetNumMessages() {
+        if (avgAddIntervalNanos <= 0) {
+            // The publish rate is not known yet, let the other limits of the batch apply
+            return Integer.MAX_VALUE;
+        }
+        double batchingNanos = Math.max(latencyTargetNanos - avgRoundTripNanos,
+                latencyTargetNanos * MIN_BATCHING_RATIO);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, batchingNanos / avgAddIntervalNanos));
+    }
+}
@@ -83,4 +83,11 @@ public interface BatchMessageContainerBase extends BatchMessageContainer {
      * @return belong to the same txn or not
      */
     boolean hasSameTxn(MessageImpl<?> msg);
+
+    /**
+     * Notify the container that a message sent by the producer has been acknowledged by the broker.
+     *
+     * @param latencyNanos time elapsed since the message was ready to be sent
+     */
+    void onSendAcknowledged(long latencyNanos);
 }
@@ -218,6 +218,13 @@ public class ConsumerBuilderImpl<T> implements ConsumerBuilder<T> {
         return this;
     }
 
+    @Override
+    public ConsumerBuilder<T> maxAckTimeout(long maxAckTimeout, TimeUnit timeUnit) {
+        checkArgument(maxAckTimeout >= 0, "maxAckTimeout needs to be >= 0");
+        conf.setMaxAckTimeoutMillis(timeUnit.toMillis(maxAckTimeout));
+        return this;
+    }
+
     @Override
     public ConsumerBuilder<T> negativeAckRedeliveryDelay(long redeliveryDelay, TimeUnit timeUnit) {
         checkArgument(redeliveryDelay >= 0, "redeliveryDelay needs to be >= 0");
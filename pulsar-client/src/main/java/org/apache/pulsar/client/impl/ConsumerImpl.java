@@ -263,7 +263,8 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         if (conf.getAckTimeoutMillis() != 0) {
             if (conf.getTickDurationMillis() > 0) {
                 this.unAckedMessageTracker = new UnAckedMessageTracker(client, this, conf.getAckTimeoutMillis(),
-                        Math.min(conf.getTickDurationMillis(), conf.getAckTimeoutMillis()));
+                        Math.min(conf.getTickDurationMillis(), conf.getAckTimeoutMillis()),
+                        conf.getMaxAckTimeoutMillis());
             } else {
                 this.unAckedMessageTracker = new UnAckedMessageTracker(client, this, conf.getAckTimeoutMillis());
             }
@@ -1386,11 +1387,15 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
 
     protected void trackMessage(Message<?> msg) {
         if (msg != null) {
-            trackMessage(msg.getMessageId());
+            trackMessage(msg.getMessageId(), msg.getRedeliveryCount());
         }
     }
 
     protected void trackMessage(MessageId messageId) {
+        trackMessage(messageId, 0);
+    }
+
+    protected void trackMessage(MessageId messageId, int redeliveryCount) {
         if (conf.getAckTimeoutMillis() > 0 && messageId instanceof MessageIdImpl) {
             MessageIdImpl id = (MessageIdImpl)messageId;
             if (id instanceof BatchMessageIdImpl) {
@@ -1402,7 +1407,7 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
                 // we should no longer track this message, TopicsConsumer will take care from now onwards
                 unAckedMessageTracker.remove(id);
             } else {
-                unAckedMessageTracker.add(id);
+                unAckedMessageTracker.add(id, redeliveryCount);
             }
         }
     }
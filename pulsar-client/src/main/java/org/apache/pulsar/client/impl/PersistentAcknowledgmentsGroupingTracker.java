@@ -23,13 +23,10 @@ import io.netty.channel.EventLoopGroup;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -42,12 +39,16 @@ import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.impl.conf.ConsumerConfigurationData;
 import org.apache.pulsar.client.util.TimedCompletableFuture;
+import org.apache.pulsar.common.api.proto.BaseCommand;
 import org.apache.pulsar.common.api.proto.CommandAck;
 import org.apache.pulsar.common.api.proto.CommandAck.AckType;
+import org.apache.pulsar.common.api.proto.MessageIdData;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.util.FutureUtil;
 import org.apache.pulsar.common.util.collections.BitSetRecyclable;
 import org.apache.pulsar.common.util.collections.ConcurrentBitSetRecyclable;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairBitSetMap;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet;
 
 /**
  * Group the acknowledgements for a certain time and then sends them out in a single protobuf command.
@@ -79,11 +80,12 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
             .newUpdater(PersistentAcknowledgmentsGroupingTracker.class, LastCumulativeAck.class, "lastCumulativeAck");
 
     /**
-     * This is a set of all the individual acks that the application has issued and that were not already sent to
-     * broker.
+     * This is a set of the (ledgerId, entryId) of all the individual acks that the application has issued and that
+     * were not already sent to broker. The partition index is the one of the consumer.
      */
-    private final ConcurrentSkipListSet<MessageIdImpl> pendingIndividualAcks;
-    private final ConcurrentHashMap<MessageIdImpl, ConcurrentBitSetRecyclable> pendingIndividualBatchIndexAcks;
+    private final ConcurrentLongPairSet pendingIndividualAcks;
+    // Batch indexes that are not acknowledged yet, for each (ledgerId, entryId) partially acknowledged
+    private final ConcurrentLongPairBitSetMap pendingIndividualBatchIndexAcks;
 
     private final ScheduledFuture<?> scheduledTask;
     private final boolean batchIndexAckEnabled;
@@ -92,8 +94,8 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
     public PersistentAcknowledgmentsGroupingTracker(ConsumerImpl<?> consumer, ConsumerConfigurationData<?> conf,
                                                     EventLoopGroup eventLoopGroup) {
         this.consumer = consumer;
-        this.pendingIndividualAcks = new ConcurrentSkipListSet<>();
-        this.pendingIndividualBatchIndexAcks = new ConcurrentHashMap<>();
+        this.pendingIndividualAcks = new ConcurrentLongPairSet();
+        this.pendingIndividualBatchIndexAcks = new ConcurrentLongPairBitSetMap();
         this.acknowledgementGroupTimeMicros = conf.getAcknowledgementsGroupTimeMicros();
         this.batchIndexAckEnabled = conf.isBatchIndexAckEnabled();
         this.ackReceiptEnabled = conf.isAckReceiptEnabled();
@@ -118,7 +120,8 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
             // Already included in a cumulative ack
             return true;
         } else {
-            return pendingIndividualAcks.contains(messageId);
+            MessageIdImpl msgId = (MessageIdImpl) messageId;
+            return pendingIndividualAcks.contains(msgId.getLedgerId(), msgId.getEntryId());
         }
     }
 
@@ -283,8 +286,8 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
 
 
     private void doIndividualAckAsync(MessageIdImpl messageId) {
-        pendingIndividualAcks.add(messageId);
-        pendingIndividualBatchIndexAcks.remove(messageId);
+        pendingIndividualAcks.add(messageId.getLedgerId(), messageId.getEntryId());
+        pendingIndividualBatchIndexAcks.remove(messageId.getLedgerId(), messageId.getEntryId());
     }
 
     private CompletableFuture<Void> doIndividualBatchAck(BatchMessageIdImpl batchMessageId,
@@ -348,20 +351,19 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
     }
 
     private void doIndividualBatchAckAsync(BatchMessageIdImpl batchMessageId) {
-        ConcurrentBitSetRecyclable bitSet = pendingIndividualBatchIndexAcks.computeIfAbsent(
-                new MessageIdImpl(batchMessageId.getLedgerId(), batchMessageId.getEntryId(),
-                        batchMessageId.getPartitionIndex()), (v) -> {
-                    ConcurrentBitSetRecyclable value;
+        pendingIndividualBatchIndexAcks.clearBit(batchMessageId.getLedgerId(), batchMessageId.getEntryId(),
+                batchMessageId.getBatchIndex(), () -> {
                     if (batchMessageId.getAcker() != null &&
                             !(batchMessageId.getAcker() instanceof BatchMessageAckerDisabled)) {
-                        value = ConcurrentBitSetRecyclable.create(batchMessageId.getAcker().getBitSet());
+                        return batchMessageId.getAcker().getBitSet().toLongArray();
                     } else {
-                        value = ConcurrentBitSetRecyclable.create();
+                        BitSetRecyclable value = BitSetRecyclable.create();
                         value.set(0, batchMessageId.getBatchIndex());
+                        long[] words = value.toLongArray();
+                        value.recycle();
+                        return words;
                     }
-                    return value;
                 });
-        bitSet.clear(batchMessageId.getBatchIndex());
     }
 
     private void doCumulativeAckAsync(MessageIdImpl msgId, BitSetRecyclable bitSet) {
@@ -482,60 +484,43 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
         }
 
         // Flush all individual acks
-        List<Triple<Long, Long, ConcurrentBitSetRecyclable>> entriesToAck = new ArrayList<>(pendingIndividualAcks.size() + pendingIndividualBatchIndexAcks.size());
-        if (!pendingIndividualAcks.isEmpty()) {
-            if (Commands.peerSupportsMultiMessageAcknowledgment(cnx.getRemoteEndpointProtocolVersion())) {
-                // We can send 1 single protobuf command with all individual acks
-                while (true) {
-                    MessageIdImpl msgId = pendingIndividualAcks.pollFirst();
-                    if (msgId == null) {
-                        break;
-                    }
-
-                    // if messageId is checked then all the chunked related to that msg also processed so, ack all of
-                    // them
-                    MessageIdImpl[] chunkMsgIds = this.consumer.unAckedChunkedMessageIdSequenceMap.get(msgId);
-                    if (chunkMsgIds != null && chunkMsgIds.length > 1) {
-                        for (MessageIdImpl cMsgId : chunkMsgIds) {
-                            if (cMsgId != null) {
-                                entriesToAck.add(Triple.of(cMsgId.getLedgerId(), cMsgId.getEntryId(), null));
-                            }
-                        }
-                        // messages will be acked so, remove checked message sequence
-                        this.consumer.unAckedChunkedMessageIdSequenceMap.remove(msgId);
-                    } else {
-                        entriesToAck.add(Triple.of(msgId.getLedgerId(), msgId.getEntryId(), null));
-                    }
-                }
-            } else {
-                // When talking to older brokers, send the acknowledgements individually
-                while (true) {
-                    MessageIdImpl msgId = pendingIndividualAcks.pollFirst();
-                    if (msgId == null) {
-                        break;
-                    }
-                    newMessageAckCommandAndWrite(cnx, consumer.consumerId, msgId.getLedgerId(), msgId.getEntryId(), null,
-                            AckType.Individual, null, Collections.emptyMap(), false, null, null);
-                    shouldFlush = true;
-                }
-            }
+        boolean multiMessageAck = Commands.peerSupportsMultiMessageAcknowledgment(
+                cnx.getRemoteEndpointProtocolVersion());
+        if (!pendingIndividualAcks.isEmpty() && !multiMessageAck) {
+            // When talking to older brokers, send the acknowledgements individually
+            pendingIndividualAcks.removeIf((ledgerId, entryId) -> {
+                newMessageAckCommandAndWrite(cnx, consumer.consumerId, ledgerId, entryId, null,
+                        AckType.Individual, null, Collections.emptyMap(), false, null, null);
+                return true;
+            });
+            shouldFlush = true;
         }
 
-        if (!pendingIndividualBatchIndexAcks.isEmpty()) {
-            Iterator<Map.Entry<MessageIdImpl, ConcurrentBitSetRecyclable>> iterator = pendingIndividualBatchIndexAcks.entrySet().iterator();
-
-            while (iterator.hasNext()) {
-                Map.Entry<MessageIdImpl, ConcurrentBitSetRecyclable> entry = iterator.next();
-                entriesToAck.add(Triple.of(entry.getKey().ledgerId, entry.getKey().entryId, entry.getValue()));
-                iterator.remove();
+        if ((multiMessageAck && !pendingIndividualAcks.isEmpty()) || !pendingIndividualBatchIndexAcks.isEmpty()) {
+            // We can send 1 single protobuf command with all individual acks, which are directly added to the command
+            final long requestId = isAckReceiptEnabled(cnx) ? consumer.getClient().newRequestId() : -1;
+            BaseCommand cmd = Commands.newMultiMessageAckCommand(consumer.consumerId, requestId);
+            CommandAck ack = cmd.getAck();
+            if (multiMessageAck) {
+                pendingIndividualAcks.removeIf((ledgerId, entryId) -> {
+                    addIndividualAck(ack, ledgerId, entryId);
+                    return true;
+                });
+            }
+            pendingIndividualBatchIndexAcks.drain((ledgerId, entryId, words, offset, length) -> {
+                MessageIdData msgId = ack.addMessageId()
+                        .setLedgerId(ledgerId)
+                        .setEntryId(entryId);
+                for (int i = 0; i < length; i++) {
+                    msgId.addAckSet(words[offset + i]);
+                }
+                return true;
+            });
+            if (ack.getMessageIdsCount() > 0) {
+                writeAckCommand(cnx, Commands.serializeWithSize(cmd), requestId, AckType.Individual, true,
+                        currentIndividualAckFuture);
+                shouldFlush = true;
             }
-        }
-
-        if (entriesToAck.size() > 0) {
-
-            newMessageAckCommandAndWrite(cnx, consumer.consumerId, 0L, 0L,
-                    null, AckType.Individual, null, null, true, currentIndividualAckFuture, entriesToAck);
-            shouldFlush = true;
         }
 
         if (shouldFlush) {
@@ -548,6 +533,29 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
 
     }
 
+    private void addIndividualAck(CommandAck ack, long ledgerId, long entryId) {
+        if (!consumer.unAckedChunkedMessageIdSequenceMap.isEmpty()) {
+            // if messageId is checked then all the chunked related to that msg also processed so, ack all of them
+            MessageIdImpl msgId = new MessageIdImpl(ledgerId, entryId, consumer.getPartitionIndex());
+            MessageIdImpl[] chunkMsgIds = this.consumer.unAckedChunkedMessageIdSequenceMap.get(msgId);
+            if (chunkMsgIds != null && chunkMsgIds.length > 1) {
+                for (MessageIdImpl cMsgId : chunkMsgIds) {
+                    if (cMsgId != null) {
+                        ack.addMessageId()
+                                .setLedgerId(cMsgId.getLedgerId())
+                                .setEntryId(cMsgId.getEntryId());
+                    }
+                }
+                // messages will be acked so, remove checked message sequence
+                this.consumer.unAckedChunkedMessageIdSequenceMap.remove(msgId);
+                return;
+            }
+        }
+        ack.addMessageId()
+                .setLedgerId(ledgerId)
+                .setEntryId(entryId);
+    }
+
     @Override
     public void flushAndClean() {
         flush();
@@ -601,15 +609,21 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
                                                                  Map<String, Long> properties, boolean flush,
                                                                  TimedCompletableFuture<Void> timedCompletableFuture,
                                                                  List<Triple<Long, Long, ConcurrentBitSetRecyclable>> entriesToAck) {
-        if (isAckReceiptEnabled(consumer.getClientCnx())) {
-            final long requestId = consumer.getClient().newRequestId();
-            final ByteBuf cmd;
-            if (entriesToAck == null) {
-                cmd = Commands.newAck(consumerId, ledgerId, entryId, ackSet,
-                        ackType, null, properties, requestId);
-            } else {
-                cmd = Commands.newMultiMessageAck(consumerId, entriesToAck, requestId);
-            }
+        final long requestId = isAckReceiptEnabled(consumer.getClientCnx()) ? consumer.getClient().newRequestId() : -1;
+        final ByteBuf cmd;
+        if (entriesToAck == null) {
+            cmd = Commands.newAck(consumerId, ledgerId, entryId, ackSet,
+                    ackType, null, properties, requestId);
+        } else {
+            cmd = Commands.newMultiMessageAck(consumerId, entriesToAck, requestId);
+        }
+        return writeAckCommand(cnx, cmd, requestId, ackType, flush, timedCompletableFuture);
+    }
+
+    private CompletableFuture<Void> writeAckCommand(ClientCnx cnx, ByteBuf cmd, long requestId, AckType ackType,
+                                                    boolean flush,
+                                                    TimedCompletableFuture<Void> timedCompletableFuture) {
+        if (requestId >= 0) {
             if (timedCompletableFuture == null) {
                 return cnx.newAckForReceipt(cmd, requestId);
             } else {
@@ -634,13 +648,6 @@ public class PersistentAcknowledgmentsGroupingTracker implements Acknowledgments
                     }
                 }
             }
-            final ByteBuf cmd;
-            if (entriesToAck == null) {
-                cmd = Commands.newAck(consumerId, ledgerId, entryId, ackSet,
-                        ackType, null, properties, -1);
-            } else {
-                cmd = Commands.newMultiMessageAck(consumerId, entriesToAck, -1);
-            }
             if (flush) {
                 cnx.ctx().writeAndFlush(cmd, cnx.ctx().voidPromise());
             } else {
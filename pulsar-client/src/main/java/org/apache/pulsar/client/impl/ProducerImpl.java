@@ -964,6 +964,9 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
                     }
                     pendingMessages.remove();
                     releaseSemaphoreForSendOp(op);
+                    if (batchMessageContainer != null) {
+                        batchMessageContainer.onSendAcknowledged(System.nanoTime() - op.createdAt);
+                    }
                     callback = true;
                     pendingCallbacks.add(op);
                 } else {
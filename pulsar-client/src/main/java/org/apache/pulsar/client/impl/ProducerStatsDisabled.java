@@ -38,6 +38,16 @@ public class ProducerStatsDisabled implements ProducerStatsRecorder {
         // Do nothing
     }
 
+    @Override
+    public void incrementNumBatchesFlushedOnTargetSize() {
+        // Do nothing
+    }
+
+    @Override
+    public void incrementNumBatchesFlushedOnIdle() {
+        // Do nothing
+    }
+
     @Override
     public void updateNumMsgsSent(long numMsgs, long totalMsgsSize) {
         // Do nothing
@@ -68,6 +78,16 @@ public class ProducerStatsDisabled implements ProducerStatsRecorder {
         return 0;
     }
 
+    @Override
+    public long getNumBatchesFlushedOnTargetSize() {
+        return 0;
+    }
+
+    @Override
+    public long getNumBatchesFlushedOnIdle() {
+        return 0;
+    }
+
     @Override
     public long getTotalMsgsSent() {
         return 0;
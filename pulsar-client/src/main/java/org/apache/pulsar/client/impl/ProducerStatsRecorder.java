@@ -29,5 +29,9 @@ public interface ProducerStatsRecorder extends ProducerStats {
 
     void incrementNumAcksReceived(long latencyNs);
 
+    void incrementNumBatchesFlushedOnTargetSize();
+
+    void incrementNumBatchesFlushedOnIdle();
+
     void cancelStatsTimeout();
 }
@@ -49,6 +49,8 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
     private final LongAdder numBytesSent;
     private final LongAdder numSendFailed;
     private final LongAdder numAcksReceived;
+    private final LongAdder numBatchesFlushedOnTargetSize;
+    private final LongAdder numBatchesFlushedOnIdle;
     private final LongAdder totalMsgsSent;
     private final LongAdder totalBytesSent;
     private final LongAdder totalSendFailed;
@@ -68,6 +70,8 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
         numBytesSent = new LongAdder();
         numSendFailed = new LongAdder();
         numAcksReceived = new LongAdder();
+        numBatchesFlushedOnTargetSize = new LongAdder();
+        numBatchesFlushedOnIdle = new LongAdder();
         totalMsgsSent = new LongAdder();
         totalBytesSent = new LongAdder();
         totalSendFailed = new LongAdder();
@@ -84,6 +88,8 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
         numBytesSent = new LongAdder();
         numSendFailed = new LongAdder();
         numAcksReceived = new LongAdder();
+        numBatchesFlushedOnTargetSize = new LongAdder();
+        numBatchesFlushedOnIdle = new LongAdder();
         totalMsgsSent = new LongAdder();
         totalBytesSent = new LongAdder();
         totalSendFailed = new LongAdder();
@@ -119,6 +125,8 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
                 long currentNumBytesSent = numBytesSent.sumThenReset();
                 long currentNumSendFailedMsgs = numSendFailed.sumThenReset();
                 long currentNumAcksReceived = numAcksReceived.sumThenReset();
+                numBatchesFlushedOnTargetSize.reset();
+                numBatchesFlushedOnIdle.reset();
 
                 totalMsgsSent.add(currentNumMsgsSent);
                 totalBytesSent.add(currentNumBytesSent);
@@ -195,11 +203,23 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
         }
     }
 
+    @Override
+    public void incrementNumBatchesFlushedOnTargetSize() {
+        numBatchesFlushedOnTargetSize.increment();
+    }
+
+    @Override
+    public void incrementNumBatchesFlushedOnIdle() {
+        numBatchesFlushedOnIdle.increment();
+    }
+
     void reset() {
         numMsgsSent.reset();
         numBytesSent.reset();
         numSendFailed.reset();
         numAcksReceived.reset();
+        numBatchesFlushedOnTargetSize.reset();
+        numBatchesFlushedOnIdle.reset();
         totalMsgsSent.reset();
         totalBytesSent.reset();
         totalSendFailed.reset();
@@ -214,6 +234,8 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
         numBytesSent.add(stats.getNumBytesSent());
         numSendFailed.add(stats.getNumSendFailed());
         numAcksReceived.add(stats.getNumAcksReceived());
+        numBatchesFlushedOnTargetSize.add(stats.getNumBatchesFlushedOnTargetSize());
+        numBatchesFlushedOnIdle.add(stats.getNumBatchesFlushedOnIdle());
         totalMsgsSent.add(stats.getTotalMsgsSent());
         totalBytesSent.add(stats.getTotalBytesSent());
         totalSendFailed.add(stats.getTotalSendFailed());
@@ -240,6 +262,16 @@ public class ProducerStatsRecorderImpl implements ProducerStatsRecorder {
         return numAcksReceived.longValue();
     }
 
+    @Override
+    public long getNumBatchesFlushedOnTargetSize() {
+        return numBatchesFlushedOnTargetSize.longValue();
+    }
+
+    @Override
+    public long getNumBatchesFlushedOnIdle() {
+        return numBatchesFlushedOnIdle.longValue();
+    }
+
     public long getTotalMsgsSent() {
         return totalMsgsSent.longValue();
     }
@@ -24,33 +24,40 @@ import io.netty.util.TimerTask;
 import io.netty.util.concurrent.FastThreadLocal;
 
 import org.apache.pulsar.client.api.MessageId;
-import org.apache.pulsar.common.util.collections.ConcurrentOpenHashSet;
+import org.apache.pulsar.common.util.collections.LongPairLongHashMap;
+import org.apache.pulsar.common.util.collections.LongPairLongHashMap.LongPairLongPredicate;
+import org.apache.pulsar.common.util.collections.LongPairTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.util.ArrayDeque;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Track the messages that are not acknowledged yet, and redeliver them once their ack timeout has expired.
+ *
+ * <p>The messages are tracked by their (ledgerId, entryId), so the messages of a batch are tracked by their entry. The
+ * deadline of every message is kept in a primitive hash map, and the messages are scheduled in a timing wheel. The
+ * acknowledged messages are only removed from the map, and skipped when their slot of the wheel expires.
+ */
 public class UnAckedMessageTracker implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(UnAckedMessageTracker.class);
 
-    protected final ConcurrentHashMap<MessageId, ConcurrentOpenHashSet<MessageId>> messageIdPartitionMap;
-    protected final ArrayDeque<ConcurrentOpenHashSet<MessageId>> timePartitions;
-
-    protected final Lock readLock;
-    protected final Lock writeLock;
+    // Deadline of the messages that are not acknowledged yet, guarded by the tracker
+    protected final LongPairLongHashMap pendingMessages;
+    // Messages by deadline, including messages that were acknowledged since they were added, guarded by the tracker
+    private final LongPairTimingWheel timingWheel;
 
     public static final UnAckedMessageTrackerDisabled UNACKED_MESSAGE_TRACKER_DISABLED = new UnAckedMessageTrackerDisabled();
     private final long ackTimeoutMillis;
+    private final long maxAckTimeoutMillis;
     private final long tickDurationInMs;
 
+    // All the messages of a consumer are in the same partition
+    private int partitionIndex = -1;
+
     private static class UnAckedMessageTrackerDisabled extends UnAckedMessageTracker {
         @Override
         public void clear() {
@@ -62,7 +69,7 @@ public class UnAckedMessageTracker implements Closeable {
         }
 
         @Override
-        public boolean add(MessageId m) {
+        public boolean add(MessageId m, int redeliveryCount) {
             return true;
         }
 
@@ -84,11 +91,10 @@ public class UnAckedMessageTracker implements Closeable {
     private Timeout timeout;
 
     public UnAckedMessageTracker() {
-        readLock = null;
-        writeLock = null;
-        timePartitions = null;
-        messageIdPartitionMap = null;
+        pendingMessages = null;
+        timingWheel = null;
         this.ackTimeoutMillis = 0;
+        this.maxAckTimeoutMillis = 0;
         this.tickDurationInMs = 0;
     }
 
@@ -104,19 +110,24 @@ public class UnAckedMessageTracker implements Closeable {
     };
 
     public UnAckedMessageTracker(PulsarClientImpl client, ConsumerBase<?> consumerBase, long ackTimeoutMillis, long tickDurationInMs) {
+        this(client, consumerBase, ackTimeoutMillis, tickDurationInMs, 0);
+    }
+
+    /**
+     * @param maxAckTimeoutMillis
+     *            if greater than the ack timeout, the ack timeout of a message doubles on every redelivery of the
+     *            message, up to this value
+     */
+    public UnAckedMessageTracker(PulsarClientImpl client, ConsumerBase<?> consumerBase, long ackTimeoutMillis,
+                                 long tickDurationInMs, long maxAckTimeoutMillis) {
         Preconditions.checkArgument(tickDurationInMs > 0 && ackTimeoutMillis >= tickDurationInMs);
         this.ackTimeoutMillis = ackTimeoutMillis;
+        this.maxAckTimeoutMillis = maxAckTimeoutMillis;
         this.tickDurationInMs = tickDurationInMs;
-        ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-        this.readLock = readWriteLock.readLock();
-        this.writeLock = readWriteLock.writeLock();
-        this.messageIdPartitionMap = new ConcurrentHashMap<>();
-        this.timePartitions = new ArrayDeque<>();
-
-        int blankPartitions = (int)Math.ceil((double)this.ackTimeoutMillis / this.tickDurationInMs);
-        for (int i = 0; i < blankPartitions + 1; i++) {
-            timePartitions.add(new ConcurrentOpenHashSet<>(16, 1));
-        }
+        this.pendingMessages = new LongPairLongHashMap();
+
+        int wheelSize = (int) Math.ceil((double) this.ackTimeoutMillis / this.tickDurationInMs) + 1;
+        this.timingWheel = new LongPairTimingWheel(tickDurationInMs, wheelSize, System.currentTimeMillis());
 
         timeout = client.timer().newTimeout(new TimerTask() {
             @Override
@@ -124,30 +135,31 @@ public class UnAckedMessageTracker implements Closeable {
                 Set<MessageId> messageIds = TL_MESSAGE_IDS_SET.get();
                 messageIds.clear();
 
-                writeLock.lock();
                 try {
-                    ConcurrentOpenHashSet<MessageId> headPartition = timePartitions.removeFirst();
-                    if (!headPartition.isEmpty()) {
-                        log.warn("[{}] {} messages have timed-out", consumerBase, headPartition.size());
-                        headPartition.forEach(messageId -> {
-                            addChunkedMessageIdsAndRemoveFromSequnceMap(messageId, messageIds, consumerBase);
-                            messageIds.add(messageId);
-                            messageIdPartitionMap.remove(messageId);
+                    synchronized (UnAckedMessageTracker.this) {
+                        long now = System.currentTimeMillis();
+                        timingWheel.poll(now, (ledgerId, entryId) -> {
+                            // The message may have been acknowledged, or added again with a later deadline
+                            long deadline = pendingMessages.get(ledgerId, entryId);
+                            if (deadline >= 0 && deadline <= now) {
+                                pendingMessages.remove(ledgerId, entryId);
+                                MessageId messageId = toMessageId(ledgerId, entryId);
+                                if (messageId != null) {
+                                    addChunkedMessageIdsAndRemoveFromSequnceMap(messageId, messageIds, consumerBase);
+                                    messageIds.add(messageId);
+                                }
+                            }
                         });
                     }
 
-                    headPartition.clear();
-                    timePartitions.addLast(headPartition);
-                } finally {
-                    try {
-                        if (messageIds.size() > 0) {
-                            consumerBase.onAckTimeoutSend(messageIds);
-                            consumerBase.redeliverUnacknowledgedMessages(messageIds);
-                        }
-                        timeout = client.timer().newTimeout(this, tickDurationInMs, TimeUnit.MILLISECONDS);
-                    } finally {
-                        writeLock.unlock();
+                    // The timed-out messages are redelivered together, out of the lock of the tracker
+                    if (messageIds.size() > 0) {
+                        log.warn("[{}] {} messages have timed-out", consumerBase, messageIds.size());
+                        consumerBase.onAckTimeoutSend(messageIds);
+                        consumerBase.redeliverUnacknowledgedMessages(messageIds);
                     }
+                } finally {
+                    timeout = client.timer().newTimeout(this, tickDurationInMs, TimeUnit.MILLISECONDS);
                 }
             }
         }, this.tickDurationInMs, TimeUnit.MILLISECONDS);
@@ -166,96 +178,96 @@ public class UnAckedMessageTracker implements Closeable {
         }
     }
 
-    public void clear() {
-        writeLock.lock();
-        try {
-            messageIdPartitionMap.clear();
-            timePartitions.forEach(tp -> tp.clear());
-        } finally {
-            writeLock.unlock();
-        }
+    public synchronized void clear() {
+        pendingMessages.clear();
+        timingWheel.clear();
     }
 
     public boolean add(MessageId messageId) {
-        writeLock.lock();
-        try {
-            ConcurrentOpenHashSet<MessageId> partition = timePartitions.peekLast();
-            ConcurrentOpenHashSet<MessageId> previousPartition = messageIdPartitionMap.putIfAbsent(messageId,
-                    partition);
-            if (previousPartition == null) {
-                return partition.add(messageId);
-            } else {
-                return false;
-            }
-        } finally {
-            writeLock.unlock();
+        return add(messageId, 0);
+    }
+
+    /**
+     * Track a message that is delivered to the application.
+     *
+     * @param redeliveryCount
+     *            the number of times the message was already delivered, which increases its ack timeout when the
+     *            ack timeout backoff is enabled
+     * @return false if the message is already tracked
+     */
+    public boolean add(MessageId messageId, int redeliveryCount) {
+        MessageIdImpl id = (MessageIdImpl) messageId;
+        synchronized (this) {
+            partitionIndex = id.getPartitionIndex();
+            return addMessage(id.getLedgerId(), id.getEntryId(), redeliveryCount);
         }
     }
 
-    boolean isEmpty() {
-        readLock.lock();
-        try {
-            return messageIdPartitionMap.isEmpty();
-        } finally {
-            readLock.unlock();
+    // must be called with the lock of the tracker held
+    protected boolean addMessage(long ledgerId, long entryId, int redeliveryCount) {
+        if (pendingMessages.containsKey(ledgerId, entryId)) {
+            return false;
         }
+        long deadline = System.currentTimeMillis() + getAckTimeoutMillis(redeliveryCount);
+        pendingMessages.put(ledgerId, entryId, deadline);
+        timingWheel.add(ledgerId, entryId, deadline);
+        return true;
     }
 
-    public boolean remove(MessageId messageId) {
-        writeLock.lock();
-        try {
-            boolean removed = false;
-            ConcurrentOpenHashSet<MessageId> exist = messageIdPartitionMap.remove(messageId);
-            if (exist != null) {
-                removed = exist.remove(messageId);
-            }
-            return removed;
-        } finally {
-            writeLock.unlock();
+    long getAckTimeoutMillis(int redeliveryCount) {
+        if (maxAckTimeoutMillis <= ackTimeoutMillis || redeliveryCount <= 0) {
+            return ackTimeoutMillis;
         }
+        int shift = Math.min(redeliveryCount, Long.numberOfLeadingZeros(ackTimeoutMillis) - 1);
+        return Math.min(ackTimeoutMillis << shift, maxAckTimeoutMillis);
     }
 
-    long size() {
-        readLock.lock();
-        try {
-            return messageIdPartitionMap.size();
-        } finally {
-            readLock.unlock();
+    /**
+     * @return the id of a message whose ack timeout has expired, or null if the message must not be redelivered
+     */
+    protected MessageId toMessageId(long ledgerId, long entryId) {
+        return new MessageIdImpl(ledgerId, entryId, partitionIndex);
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingMessages.isEmpty();
+    }
+
+    public boolean remove(MessageId messageId) {
+        if (!(messageId instanceof MessageIdImpl) || messageId instanceof BatchMessageIdImpl) {
+            // The messages of a batch are only tracked by the id of their entry
+            return false;
         }
+        MessageIdImpl id = (MessageIdImpl) messageId;
+        return removeMessage(id.getLedgerId(), id.getEntryId());
+    }
+
+    protected synchronized boolean removeMessage(long ledgerId, long entryId) {
+        return pendingMessages.remove(ledgerId, entryId) >= 0;
+    }
+
+    protected synchronized int removeMessagesIf(LongPairLongPredicate filter) {
+        return pendingMessages.removeIf(filter);
+    }
+
+    synchronized long size() {
+        return pendingMessages.size();
     }
 
     public int removeMessagesTill(MessageId msgId) {
-        writeLock.lock();
-        try {
-            int removed = 0;
-            Iterator<MessageId> iterator = messageIdPartitionMap.keySet().iterator();
-            while (iterator.hasNext()) {
-                MessageId messageId = iterator.next();
-                if (messageId.compareTo(msgId) <= 0) {
-                    ConcurrentOpenHashSet<MessageId> exist = messageIdPartitionMap.get(messageId);
-                    if (exist != null) {
-                        exist.remove(messageId);
-                    }
-                    iterator.remove();
-                    removed ++;
-                }
-            }
-            return removed;
-        } finally {
-            writeLock.unlock();
-        }
+        MessageIdImpl id = (MessageIdImpl) (msgId instanceof TopicMessageIdImpl
+                ? ((TopicMessageIdImpl) msgId).getInnerMessageId() : msgId);
+        long lastLedgerId = id.getLedgerId();
+        long lastEntryId = id.getEntryId();
+        return removeMessagesIf((ledgerId, entryId, deadline) ->
+                ledgerId < lastLedgerId || (ledgerId == lastLedgerId && entryId <= lastEntryId));
     }
 
-    private void stop() {
-        writeLock.lock();
-        try {
-            if (timeout != null && !timeout.isCancelled()) {
-                timeout.cancel();
-            }
-            this.clear();
-        } finally {
-            writeLock.unlock();
+    private synchronized void stop() {
+        if (timeout != null && !timeout.isCancelled()) {
+            timeout.cancel();
         }
+        this.clear();
     }
 
     @Override
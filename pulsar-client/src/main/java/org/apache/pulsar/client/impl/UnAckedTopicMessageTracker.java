@@ -19,12 +19,21 @@
 package org.apache.pulsar.client.impl;
 
 import org.apache.pulsar.client.api.MessageId;
-import org.apache.pulsar.common.util.collections.ConcurrentOpenHashSet;
+import org.apache.pulsar.common.util.collections.ConcurrentLongHashMap;
 
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.Set;
 
+/**
+ * Track the messages of a consumer of multiple topics. The ledgers are unique across the topics, so the messages are
+ * still tracked by their (ledgerId, entryId), and the topic of every ledger is kept aside.
+ */
 public class UnAckedTopicMessageTracker extends UnAckedMessageTracker {
 
+    // A message of every ledger of the tracked messages, guarded by the tracker
+    private final ConcurrentLongHashMap<TopicMessageIdImpl> ledgerMessageIds = new ConcurrentLongHashMap<>(16, 1);
+    private long ledgersAfterLastPrune = 0;
+
     public UnAckedTopicMessageTracker(PulsarClientImpl client, ConsumerBase<?> consumerBase, long ackTimeoutMillis) {
         super(client, consumerBase, ackTimeoutMillis);
     }
@@ -33,27 +42,78 @@ public class UnAckedTopicMessageTracker extends UnAckedMessageTracker {
         super(client, consumerBase, ackTimeoutMillis, tickDurationMillis);
     }
 
-    public int removeTopicMessages(String topicName) {
-        writeLock.lock();
-        try {
-            int removed = 0;
-            Iterator<MessageId> iterator = messageIdPartitionMap.keySet().iterator();
-            while (iterator.hasNext()) {
-                MessageId messageId = iterator.next();
-                if (messageId instanceof TopicMessageIdImpl &&
-                        ((TopicMessageIdImpl)messageId).getTopicPartitionName().contains(topicName)) {
-                    ConcurrentOpenHashSet<MessageId> exist = messageIdPartitionMap.get(messageId);
-                    if (exist != null) {
-                        exist.remove(messageId);
-                    }
-                    iterator.remove();
-                    removed ++;
-                }
+    public UnAckedTopicMessageTracker(PulsarClientImpl client, ConsumerBase<?> consumerBase, long ackTimeoutMillis,
+                                      long tickDurationMillis, long maxAckTimeoutMillis) {
+        super(client, consumerBase, ackTimeoutMillis, tickDurationMillis, maxAckTimeoutMillis);
+    }
+
+    @Override
+    public boolean add(MessageId messageId, int redeliveryCount) {
+        TopicMessageIdImpl topicMessageId = (TopicMessageIdImpl) messageId;
+        MessageIdImpl id = (MessageIdImpl) topicMessageId.getInnerMessageId();
+        synchronized (this) {
+            if (!ledgerMessageIds.containsKey(id.getLedgerId())) {
+                pruneLedgers();
+                ledgerMessageIds.put(id.getLedgerId(), topicMessageId);
             }
-            return removed;
-        } finally {
-            writeLock.unlock();
+            return addMessage(id.getLedgerId(), id.getEntryId(), redeliveryCount);
         }
     }
 
+    @Override
+    public boolean remove(MessageId messageId) {
+        if (!(messageId instanceof TopicMessageIdImpl)) {
+            return false;
+        }
+        MessageIdImpl id = (MessageIdImpl) ((TopicMessageIdImpl) messageId).getInnerMessageId();
+        if (id instanceof BatchMessageIdImpl) {
+            BatchMessageAcker acker = ((BatchMessageIdImpl) id).getAcker();
+            if (acker != null && !(acker instanceof BatchMessageAckerDisabled) && acker.getOutstandingAcks() > 0) {
+                // The entry is tracked until all the messages of the batch are acknowledged
+                return false;
+            }
+        }
+        return removeMessage(id.getLedgerId(), id.getEntryId());
+    }
+
+    @Override
+    protected MessageId toMessageId(long ledgerId, long entryId) {
+        TopicMessageIdImpl ledgerMessageId = ledgerMessageIds.get(ledgerId);
+        if (ledgerMessageId == null) {
+            return null;
+        }
+        MessageIdImpl id = (MessageIdImpl) ledgerMessageId.getInnerMessageId();
+        return new TopicMessageIdImpl(ledgerMessageId.getTopicPartitionName(), ledgerMessageId.getTopicName(),
+                new MessageIdImpl(ledgerId, entryId, id.getPartitionIndex()));
+    }
+
+    public int removeTopicMessages(String topicName) {
+        return removeMessagesIf((ledgerId, entryId, deadline) -> {
+            TopicMessageIdImpl ledgerMessageId = ledgerMessageIds.get(ledgerId);
+            return ledgerMessageId != null && ledgerMessageId.getTopicPartitionName().contains(topicName);
+        });
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        ledgerMessageIds.clear();
+        ledgersAfterLastPrune = 0;
+    }
+
+    // must be called with the lock of the tracker held
+    private void pruneLedgers() {
+        if (ledgerMessageIds.size() < Math.max(16, ledgersAfterLastPrune * 2)) {
+            return;
+        }
+        // Forget the ledgers that don't have any tracked message anymore
+        Set<Long> trackedLedgerIds = new HashSet<>();
+        pendingMessages.forEach((ledgerId, entryId, deadline) -> trackedLedgerIds.add(ledgerId));
+        for (long ledgerId : ledgerMessageIds.keys()) {
+            if (!trackedLedgerIds.contains(ledgerId)) {
+                ledgerMessageIds.remove(ledgerId);
+            }
+        }
+        ledgersAfterLastPrune = ledgerMessageIds.size();
+    }
 }
@@ -83,6 +83,8 @@ public class ConsumerConfigurationData<T> implements Serializable, Cloneable {
 
     private long tickDurationMillis = 1000;
 
+    private long maxAckTimeoutMillis = 0;
+
     private int priorityLevel = 0;
 
     // max pending chunked message to avoid sitting incomplete message into the queue and memory
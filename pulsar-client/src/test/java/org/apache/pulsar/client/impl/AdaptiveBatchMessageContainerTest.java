@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.impl.conf.ProducerConfigurationData;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests of {@link AdaptiveBatchMessageContainer}.
+ */
+public class AdaptiveBatchMessageContainerTest {
+
+    private static final long LATENCY_TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static ProducerImpl<?> mockProducer(int pendingQueueSize, ProducerStatsRecorder stats) {
+        ProducerImpl<?> producer = mock(ProducerImpl.class);
+        when(producer.getTopic()).thenReturn("topic-test");
+        when(producer.getProducerName()).thenReturn("producer-test");
+        when(producer.getConfiguration()).thenReturn(new ProducerConfigurationData());
+        when(producer.getPendingQueueSize()).thenReturn(pendingQueueSize);
+        when(producer.getStats()).thenReturn(stats);
+        return producer;
+    }
+
+    private static MessageImpl<byte[]> createMessage(long sequenceId) {
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("producer-test")
+                .setPublishTime(System.currentTimeMillis())
+                .setSequenceId(sequenceId);
+        return MessageImpl.create(metadata, ByteBuffer.wrap(new byte[10]), Schema.BYTES);
+    }
+
+    @Test
+    public void testTargetNumMessages() {
+        AdaptiveBatchMessageContainer container = new AdaptiveBatchMessageContainer(LATENCY_TARGET_NANOS, false);
+        assertEquals(container.getTargetNumMessages(), Integer.MAX_VALUE);
+
+        // 1 message per millisecond
+        container.updatePublishRate(0);
+        container.updatePublishRate(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(container.getTargetNumMessages(), 10);
+
+        // The round trip time to the broker is taken out of the batching time
+        container.onSendAcknowledged(TimeUnit.MILLISECONDS.toNanos(6));
+        assertEquals(container.getTargetNumMessages(), 4);
+
+        // The batches keep collecting messages for a quarter of the target when the broker is too slow
+        container.onSendAcknowledged(TimeUnit.MILLISECONDS.toNanos(46));
+        assertEquals(container.getTargetNumMessages(), 2);
+
+        // After a pause, the next messages are sent right away
+        container.updatePublishRate(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(container.getTargetNumMessages(), 1);
+    }
+
+    @Test
+    public void testFlushOnTargetSize() {
+        ProducerStatsRecorderImpl stats = new ProducerStatsRecorderImpl();
+        // The messages are added more than 1 nanosecond apart, so a batch should only hold 1 message
+        AdaptiveBatchMessageContainer container = new AdaptiveBatchMessageContainer(1, true);
+        container.setProducer(mockProducer(1, stats));
+
+        // The publish rate is not known for the first message
+        assertFalse(container.add(createMessage(0), mock(SendCallback.class)));
+        assertTrue(container.add(createMessage(1), mock(SendCallback.class)));
+        assertEquals(container.getNumMessagesInBatch(), 2);
+        assertEquals(stats.getNumBatchesFlushedOnTargetSize(), 1);
+        assertEquals(stats.getNumBatchesFlushedOnIdle(), 0);
+        container.clear();
+    }
+
+    @Test
+    public void testFlushOnIdle() {
+        ProducerStatsRecorderImpl stats = new ProducerStatsRecorderImpl();
+        AdaptiveBatchMessageContainer container = new AdaptiveBatchMessageContainer(LATENCY_TARGET_NANOS, true);
+        container.setProducer(mockProducer(0, stats));
+
+        // No message is waiting for an acknowledgment, so the batch is sent right away
+        assertTrue(container.add(createMessage(0), mock(SendCallback.class)));
+        assertEquals(stats.getNumBatchesFlushedOnIdle(), 1);
+        assertEquals(stats.getNumBatchesFlushedOnTargetSize(), 0);
+        container.clear();
+    }
+}
@@ -22,6 +22,7 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -30,10 +31,14 @@ import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultThreadFactory;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.pulsar.client.api.MessageId;
-import org.apache.pulsar.common.util.collections.ConcurrentOpenHashSet;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 import org.testng.annotations.Test;
 
 public class UnAckedMessageTrackerTest  {
@@ -60,11 +65,11 @@ public class UnAckedMessageTrackerTest  {
         assertFalse(tracker.add(mid));
         assertEquals(tracker.size(), 1);
 
-        ConcurrentOpenHashSet<MessageId> headPartition = tracker.timePartitions.removeFirst();
-        headPartition.clear();
-        tracker.timePartitions.addLast(headPartition);
+        assertFalse(tracker.add(mid, 1));
+        assertEquals(tracker.size(), 1);
 
-        assertFalse(tracker.add(mid));
+        // The messages of a batch are only removed with the id of their entry
+        assertFalse(tracker.remove(new BatchMessageIdImpl(1L, 1L, -1, 0)));
         assertEquals(tracker.size(), 1);
 
         assertTrue(tracker.remove(mid));
@@ -74,4 +79,60 @@ public class UnAckedMessageTrackerTest  {
         timer.stop();
     }
 
+    @Test
+    public void testRedeliverTimedOutMessages() throws Exception {
+        PulsarClientImpl client = mock(PulsarClientImpl.class);
+        Timer timer = new HashedWheelTimer(new DefaultThreadFactory("pulsar-timer", Thread.currentThread().isDaemon()),
+                1, TimeUnit.MILLISECONDS);
+        when(client.timer()).thenReturn(timer);
+
+        ConsumerBase<byte[]> consumer = mock(ConsumerBase.class);
+        consumer.unAckedChunkedMessageIdSequenceMap = new ConcurrentOpenHashMap<>();
+        Set<MessageId> redelivered = ConcurrentHashMap.newKeySet();
+        CountDownLatch redelivery = new CountDownLatch(1);
+        doNothing().when(consumer).onAckTimeoutSend(any());
+        doAnswer(invocation -> {
+            redelivered.addAll(invocation.getArgument(0));
+            redelivery.countDown();
+            return null;
+        }).when(consumer).redeliverUnacknowledgedMessages(any());
+
+        UnAckedMessageTracker tracker = new UnAckedMessageTracker(client, consumer, 100, 10);
+        MessageIdImpl acked = new MessageIdImpl(1L, 1L, 2);
+        MessageIdImpl timedOut = new MessageIdImpl(1L, 2L, 2);
+        assertTrue(tracker.add(acked));
+        assertTrue(tracker.add(timedOut));
+        assertTrue(tracker.remove(acked));
+
+        assertTrue(redelivery.await(5, TimeUnit.SECONDS));
+        assertEquals(redelivered, Collections.singleton(timedOut));
+        assertTrue(tracker.isEmpty());
+
+        tracker.close();
+        timer.stop();
+    }
+
+    @Test
+    public void testAckTimeoutBackoff() throws Exception {
+        PulsarClientImpl client = mock(PulsarClientImpl.class);
+        Timer timer = new HashedWheelTimer(new DefaultThreadFactory("pulsar-timer", Thread.currentThread().isDaemon()),
+                1, TimeUnit.MILLISECONDS);
+        when(client.timer()).thenReturn(timer);
+        ConsumerBase<byte[]> consumer = mock(ConsumerBase.class);
+
+        UnAckedMessageTracker tracker = new UnAckedMessageTracker(client, consumer, 1000, 100);
+        assertEquals(tracker.getAckTimeoutMillis(0), 1000);
+        assertEquals(tracker.getAckTimeoutMillis(3), 1000);
+        tracker.close();
+
+        tracker = new UnAckedMessageTracker(client, consumer, 1000, 100, 5000);
+        assertEquals(tracker.getAckTimeoutMillis(0), 1000);
+        assertEquals(tracker.getAckTimeoutMillis(1), 2000);
+        assertEquals(tracker.getAckTimeoutMillis(2), 4000);
+        assertEquals(tracker.getAckTimeoutMillis(3), 5000);
+        assertEquals(tracker.getAckTimeoutMillis(Integer.MAX_VALUE), 5000);
+        tracker.close();
+
+        timer.stop();
+    }
 }
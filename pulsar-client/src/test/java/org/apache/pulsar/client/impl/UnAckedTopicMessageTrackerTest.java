@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Sets;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UnAckedTopicMessageTrackerTest {
+
+    private static final String TOPIC_A = "persistent://public/default/topic-a";
+    private static final String TOPIC_B = "persistent://public/default/topic-b";
+
+    private Timer timer;
+    private PulsarClientImpl client;
+    private ConsumerBase<byte[]> consumer;
+    private Set<MessageId> redelivered;
+    private CountDownLatch redelivery;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        client = mock(PulsarClientImpl.class);
+        timer = new HashedWheelTimer(new DefaultThreadFactory("pulsar-timer", Thread.currentThread().isDaemon()),
+                1, TimeUnit.MILLISECONDS);
+        when(client.timer()).thenReturn(timer);
+
+        consumer = mock(ConsumerBase.class);
+        consumer.unAckedChunkedMessageIdSequenceMap = new ConcurrentOpenHashMap<>();
+        redelivered = ConcurrentHashMap.newKeySet();
+        redelivery = new CountDownLatch(1);
+        doNothing().when(consumer).onAckTimeoutSend(any());
+        doAnswer(invocation -> {
+            redelivered.addAll(invocation.getArgument(0));
+            redelivery.countDown();
+            return null;
+        }).when(consumer).redeliverUnacknowledgedMessages(any());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void teardown() {
+        timer.stop();
+    }
+
+    private static TopicMessageIdImpl topicMessageId(String topicName, int partition, MessageIdImpl id) {
+        return new TopicMessageIdImpl(topicName + "-partition-" + partition, topicName, id);
+    }
+
+    @Test
+    public void testRedeliverTimedOutMessages() throws Exception {
+        UnAckedTopicMessageTracker tracker = new UnAckedTopicMessageTracker(client, consumer, 100, 10);
+        TopicMessageIdImpl acked = topicMessageId(TOPIC_A, 0, new MessageIdImpl(1L, 1L, 0));
+        TopicMessageIdImpl timedOutA = topicMessageId(TOPIC_A, 0, new MessageIdImpl(1L, 2L, 0));
+        TopicMessageIdImpl timedOutB = topicMessageId(TOPIC_B, 3, new MessageIdImpl(2L, 1L, 3));
+        assertTrue(tracker.add(acked));
+        assertTrue(tracker.add(timedOutA));
+        assertFalse(tracker.add(timedOutA));
+        assertTrue(tracker.add(timedOutB));
+        assertTrue(tracker.remove(acked));
+        assertEquals(tracker.size(), 2);
+
+        // The ids of the timed-out messages are rebuilt from the topic and partition of their ledger
+        assertTrue(redelivery.await(5, TimeUnit.SECONDS));
+        assertEquals(redelivered, Sets.newHashSet(timedOutA, timedOutB));
+        for (MessageId messageId : redelivered) {
+            TopicMessageIdImpl topicMessageId = (TopicMessageIdImpl) messageId;
+            assertEquals(topicMessageId.getTopicName(),
+                    topicMessageId.equals(timedOutA) ? TOPIC_A : TOPIC_B);
+        }
+        assertTrue(tracker.isEmpty());
+
+        tracker.close();
+    }
+
+    @Test
+    public void testPruneLedgers() throws Exception {
+        UnAckedTopicMessageTracker tracker = new UnAckedTopicMessageTracker(client, consumer, 1000000, 100000);
+        tracker.close();
+
+        // Only the last ledger still has a tracked message when the ledgers are pruned
+        for (long ledgerId = 0; ledgerId < 16; ledgerId++) {
+            TopicMessageIdImpl id = topicMessageId(TOPIC_A, (int) ledgerId, new MessageIdImpl(ledgerId, 0L,
+                    (int) ledgerId));
+            assertTrue(tracker.add(id));
+            if (ledgerId < 15) {
+                assertTrue(tracker.remove(id));
+            }
+        }
+        assertTrue(tracker.add(topicMessageId(TOPIC_B, 1, new MessageIdImpl(16L, 0L, 1))));
+        assertEquals(tracker.size(), 2);
+
+        assertNull(tracker.toMessageId(0L, 0L));
+        assertNull(tracker.toMessageId(14L, 0L));
+        assertEquals(tracker.toMessageId(15L, 5L), topicMessageId(TOPIC_A, 15, new MessageIdImpl(15L, 5L, 15)));
+        assertEquals(tracker.toMessageId(16L, 5L), topicMessageId(TOPIC_B, 1, new MessageIdImpl(16L, 5L, 1)));
+
+        // A pruned ledger is tracked again with its new topic
+        assertTrue(tracker.add(topicMessageId(TOPIC_B, 2, new MessageIdImpl(0L, 1L, 2))));
+        assertEquals(tracker.toMessageId(0L, 1L), topicMessageId(TOPIC_B, 2, new MessageIdImpl(0L, 1L, 2)));
+    }
+
+    @Test
+    public void testRemoveTopicMessages() throws Exception {
+        UnAckedTopicMessageTracker tracker = new UnAckedTopicMessageTracker(client, consumer, 1000000, 100000);
+        tracker.close();
+
+        assertTrue(tracker.add(topicMessageId(TOPIC_A, 0, new MessageIdImpl(1L, 1L, 0))));
+        assertTrue(tracker.add(topicMessageId(TOPIC_A, 0, new MessageIdImpl(1L, 2L, 0))));
+        assertTrue(tracker.add(topicMessageId(TOPIC_A, 1, new MessageIdImpl(2L, 1L, 1))));
+        TopicMessageIdImpl other = topicMessageId(TOPIC_B, 0, new MessageIdImpl(3L, 1L, 0));
+        assertTrue(tracker.add(other));
+
+        // All the partitions of the topic are removed
+        assertEquals(tracker.removeTopicMessages(TOPIC_A), 3);
+        assertEquals(tracker.size(), 1);
+        assertEquals(tracker.removeTopicMessages(TOPIC_A), 0);
+        assertTrue(tracker.remove(other));
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test
+    public void testRemoveBatchMessages() throws Exception {
+        UnAckedTopicMessageTracker tracker = new UnAckedTopicMessageTracker(client, consumer, 1000000, 100000);
+        tracker.close();
+
+        BatchMessageAcker acker = BatchMessageAcker.newAcker(2);
+        TopicMessageIdImpl first = topicMessageId(TOPIC_A, 0, new BatchMessageIdImpl(1L, 1L, 0, 0, 2, acker));
+        TopicMessageIdImpl second = topicMessageId(TOPIC_A, 0, new BatchMessageIdImpl(1L, 1L, 0, 1, 2, acker));
+
+        // The messages of a batch are tracked by the id of their entry
+        assertTrue(tracker.add(first));
+        assertFalse(tracker.add(second));
+        assertEquals(tracker.size(), 1);
+
+        // The entry is tracked until the last message of the batch is acknowledged
+        acker.ackIndividual(1);
+        assertFalse(tracker.remove(second));
+        assertEquals(tracker.size(), 1);
+        acker.ackIndividual(0);
+        assertTrue(tracker.remove(first));
+        assertTrue(tracker.isEmpty());
+
+        // A message id that is not a topic message id is ignored
+        assertTrue(tracker.add(first));
+        assertFalse(tracker.remove(new MessageIdImpl(1L, 1L, 0)));
+        assertEquals(tracker.size(), 1);
+    }
+}
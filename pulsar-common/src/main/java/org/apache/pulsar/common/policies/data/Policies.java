@@ -119,6 +119,15 @@ public class Policies {
 
     public Integer deduplicationSnapshotIntervalSeconds = null;
 
+    // If set, it will override the broker settings for enabling the read-ahead of catch-up cursors
+    public Boolean readAheadEnabled = null;
+
+    // Weight of the subscriptions in the reads scheduled by the broker, if the fair scheduling is enabled
+    public Integer subscriptionDispatchWeight = null;
+
+    // Filter expressions on the message properties, by subscription name
+    public Map<String, String> subscriptionFilters = Maps.newHashMap();
+
     @Override
     public int hashCode() {
         return Objects.hash(auth_policies, replication_clusters,
@@ -139,7 +148,7 @@ public class Policies {
                 schema_validation_enforced,
                 schema_compatibility_strategy,
                 is_allow_auto_update_schema,
-                offload_policies);
+                offload_policies, readAheadEnabled, subscriptionDispatchWeight, subscriptionFilters);
     }
 
     @Override
@@ -180,7 +189,10 @@ public class Policies {
                     && schema_validation_enforced == other.schema_validation_enforced
                     && schema_compatibility_strategy == other.schema_compatibility_strategy
                     && is_allow_auto_update_schema == other.is_allow_auto_update_schema
-                    && Objects.equals(offload_policies, other.offload_policies);
+                    && Objects.equals(offload_policies, other.offload_policies)
+                    && Objects.equals(readAheadEnabled, other.readAheadEnabled)
+                    && Objects.equals(subscriptionDispatchWeight, other.subscriptionDispatchWeight)
+                    && Objects.equals(subscriptionFilters, other.subscriptionFilters);
         }
 
         return false;
@@ -239,7 +251,10 @@ public class Policies {
                 .add("schema_validation_enforced", schema_validation_enforced)
                 .add("schema_compatibility_Strategy", schema_compatibility_strategy)
                 .add("is_allow_auto_update_Schema", is_allow_auto_update_schema)
-                .add("offload_policies", offload_policies).toString();
+                .add("offload_policies", offload_policies)
+                .add("readAheadEnabled", readAheadEnabled)
+                .add("subscriptionDispatchWeight", subscriptionDispatchWeight)
+                .add("subscriptionFilters", subscriptionFilters).toString();
     }
 
     private static final long MAX_BUNDLES = ((long) 1) << 32;
@@ -45,5 +45,8 @@ public enum PolicyName {
     SUBSCRIPTION_AUTH_MODE,
     ENCRYPTION,
     TTL,
-    MAX_TOPICS
+    MAX_TOPICS,
+    READ_AHEAD,
+    SUBSCRIPTION_DISPATCH_WEIGHT,
+    SUBSCRIPTION_FILTER
 }
@@ -65,6 +65,21 @@ public class SubscriptionStats {
     /** Number of unacknowledged messages for the subscription. */
     public long unackedMessages;
 
+    /** Max number of entries of the next read of the dispatcher, or 0 if the size of the reads is not adapted. */
+    public int dispatchReadBatchSize;
+
+    /** Max size in bytes of the next read of the dispatcher, or 0 if the size of the reads is not adapted. */
+    public long dispatchReadMaxSizeBytes;
+
+    /** Weight of the subscription in the reads scheduled by the broker, or 0 if they are not scheduled. */
+    public int dispatchWeight;
+
+    /**
+     * Fraction of the reads scheduled by the broker that were granted to the subscription recently. When the stats of
+     * the partitions of a topic are aggregated, this is the highest share of the partitions.
+     */
+    public double dispatchReadShare;
+
     /** Whether this subscription is Exclusive or Shared or Failover. */
     public SubType type;
 
@@ -110,6 +125,9 @@ public class SubscriptionStats {
     /** The serialized size of non-contiguous deleted messages ranges. */
     public int nonContiguousDeletedMessagesRangesSerializedSize;
 
+    /** The memory used by the non-contiguous deleted messages ranges stored off-heap and by the batch indexes. */
+    public long nonContiguousDeletedMessagesRangesMemorySize;
+
     public SubscriptionStats() {
         this.consumers = Lists.newArrayList();
         this.consumersAfterMarkDeletePosition = new LinkedHashMap<>();
@@ -125,6 +143,10 @@ public class SubscriptionStats {
         backlogSize = 0;
         msgBacklogNoDelayed = 0;
         unackedMessages = 0;
+        dispatchReadBatchSize = 0;
+        dispatchReadMaxSizeBytes = 0;
+        dispatchWeight = 0;
+        dispatchReadShare = 0;
         msgRateExpired = 0;
         totalMsgExpired = 0;
         lastExpireTimestamp = 0L;
@@ -133,6 +155,7 @@ public class SubscriptionStats {
         consumersAfterMarkDeletePosition.clear();
         nonContiguousDeletedMessagesRanges = 0;
         nonContiguousDeletedMessagesRangesSerializedSize = 0;
+        nonContiguousDeletedMessagesRangesMemorySize = 0;
     }
 
     // if the stats are added for the 1st time, we will need to make a copy of these stats and add it to the current
@@ -149,6 +172,10 @@ public class SubscriptionStats {
         this.msgBacklogNoDelayed += stats.msgBacklogNoDelayed;
         this.msgDelayed += stats.msgDelayed;
         this.unackedMessages += stats.unackedMessages;
+        this.dispatchReadBatchSize = Math.max(this.dispatchReadBatchSize, stats.dispatchReadBatchSize);
+        this.dispatchReadMaxSizeBytes = Math.max(this.dispatchReadMaxSizeBytes, stats.dispatchReadMaxSizeBytes);
+        this.dispatchWeight = Math.max(this.dispatchWeight, stats.dispatchWeight);
+        this.dispatchReadShare = Math.max(this.dispatchReadShare, stats.dispatchReadShare);
         this.msgRateExpired += stats.msgRateExpired;
         this.totalMsgExpired += stats.totalMsgExpired;
         this.isReplicated |= stats.isReplicated;
@@ -166,6 +193,7 @@ public class SubscriptionStats {
         this.consumersAfterMarkDeletePosition.putAll(stats.consumersAfterMarkDeletePosition);
         this.nonContiguousDeletedMessagesRanges += stats.nonContiguousDeletedMessagesRanges;
         this.nonContiguousDeletedMessagesRangesSerializedSize += stats.nonContiguousDeletedMessagesRangesSerializedSize;
+        this.nonContiguousDeletedMessagesRangesMemorySize += stats.nonContiguousDeletedMessagesRangesMemorySize;
         return this;
     }
 }
@@ -870,6 +870,22 @@ public class Commands {
         return serializeWithSize(cmd);
     }
 
+    /**
+     * Create an individual ack command without message ids. The command is reused by the current thread, so the caller
+     * must add the message ids and serialize it with {@link #serializeWithSize(BaseCommand)} before creating another
+     * command.
+     */
+    public static BaseCommand newMultiMessageAckCommand(long consumerId, long requestId) {
+        BaseCommand cmd = localCmd(Type.ACK);
+        CommandAck ack = cmd.setAck()
+                .setConsumerId(consumerId)
+                .setAckType(AckType.Individual);
+        if (requestId >= 0) {
+            ack.setRequestId(requestId);
+        }
+        return cmd;
+    }
+
     public static ByteBuf newAck(long consumerId, long ledgerId, long entryId, BitSetRecyclable ackSet, AckType ackType,
                                  ValidationError validationError, Map<String, Long> properties, long requestId) {
         return newAck(consumerId, ledgerId, entryId, ackSet, ackType, validationError,
@@ -1639,6 +1655,30 @@ public class Commands {
         return ByteBufPair.get(headers, metadataAndPayload);
     }
 
+    /**
+     * Serialize a message command like {@link #serializeCommandMessageWithSize(BaseCommand, ByteBuf)}, but write the
+     * headers in a slice of the given buffer. This lets the messages that are sent together share a single buffer for
+     * their headers, instead of allocating a buffer per message. The headers are written in their own buffer if they
+     * don't fit in the given one.
+     */
+    public static ByteBufPair serializeCommandMessageWithSize(BaseCommand cmd, ByteBuf metadataAndPayload,
+            ByteBuf headersBuffer) {
+        int cmdSize = cmd.getSerializedSize();
+        int totalSize = 4 + cmdSize + metadataAndPayload.readableBytes();
+        int headersSize = 4 + 4 + cmdSize;
+        if (headersBuffer.maxWritableBytes() < headersSize) {
+            return serializeCommandMessageWithSize(cmd, metadataAndPayload);
+        }
+
+        int headersIndex = headersBuffer.writerIndex();
+        headersBuffer.writeInt(totalSize); // External frame
+
+        // Write cmd
+        headersBuffer.writeInt(cmdSize);
+        cmd.writeTo(headersBuffer);
+        return ByteBufPair.get(headersBuffer.retainedSlice(headersIndex, headersSize), metadataAndPayload);
+    }
+
     public static int getNumberOfMessagesInBatch(ByteBuf metadataAndPayload, String subscription,
             long consumerId) {
         MessageMetadata msgMetadata = peekMessageMetadata(metadataAndPayload, subscription, consumerId);
@@ -1665,6 +1705,28 @@ public class Commands {
         }
     }
 
+    /**
+     * Peek the timestamp that the broker compares for the message expiry and the searches by publish time: the broker
+     * timestamp if the entry has a broker entry metadata, or the publish time of the message otherwise.
+     *
+     * @return the timestamp of the entry, or -1 if the entry can't be parsed
+     */
+    public static long peekEntryTimestamp(ByteBuf headerAndPayload) {
+        int readerIdx = headerAndPayload.readerIndex();
+        try {
+            BrokerEntryMetadata brokerEntryMetadata = parseBrokerEntryMetadataIfExist(headerAndPayload);
+            if (brokerEntryMetadata != null) {
+                return brokerEntryMetadata.getBrokerTimestamp();
+            }
+            return Commands.parseMessageMetadata(headerAndPayload).getPublishTime();
+        } catch (Throwable t) {
+            log.warn("Failed to peek the timestamp of the entry", t);
+            return -1;
+        } finally {
+            headerAndPayload.readerIndex(readerIdx);
+        }
+    }
+
     private static final byte[] NONE_KEY = "NONE_KEY".getBytes(StandardCharsets.UTF_8);
     public static byte[] peekStickyKey(ByteBuf metadataAndPayload, String topic, String subscription) {
         try {
@@ -1672,17 +1734,25 @@ public class Commands {
             skipBrokerEntryMetadataIfExist(metadataAndPayload);
             MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
             metadataAndPayload.readerIndex(readerIdx);
-            if (metadata.hasOrderingKey()) {
-                return metadata.getOrderingKey();
-            } else if (metadata.hasPartitionKey()) {
-                return metadata.getPartitionKey().getBytes(StandardCharsets.UTF_8);
-            }
+            return getStickyKey(metadata);
         } catch (Throwable t) {
             log.error("[{}] [{}] Failed to peek sticky key from the message metadata", topic, subscription, t);
         }
         return Commands.NONE_KEY;
     }
 
+    /**
+     * @return the key used to select the consumer of a message in the sticky key dispatchers
+     */
+    public static byte[] getStickyKey(MessageMetadata metadata) {
+        if (metadata.hasOrderingKey()) {
+            return metadata.getOrderingKey();
+        } else if (metadata.hasPartitionKey()) {
+            return metadata.getPartitionKey().getBytes(StandardCharsets.UTF_8);
+        }
+        return Commands.NONE_KEY;
+    }
+
     public static int getCurrentProtocolVersion() {
         // Return the last ProtocolVersion enum value
         return ProtocolVersion.values()[ProtocolVersion.values().length - 1].getValue();
@@ -0,0 +1,324 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Concurrent map from a pair of longs to a bitset, sorted by key.
+ *
+ * <p>The map doesn't create any object per item: the keys are stored in sorted primitive arrays, and the words of all
+ * the bitsets are packed in a single array, which is compacted when too many words are unused. Every bitset is stored
+ * without its trailing empty words, like {@link java.util.BitSet#toLongArray()}.
+ *
+ * <p>It is designed for keys that are mostly inserted in increasing order and removed from the head of the map, like
+ * the positions of a topic that are partially acknowledged.
+ */
+public class ConcurrentLongPairBitSetMap {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys1 = new long[INITIAL_CAPACITY];
+    private long[] keys2 = new long[INITIAL_CAPACITY];
+    // Position and number of words of each bitset in the words array
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private long[] words = new long[INITIAL_CAPACITY];
+    private int usedWords = 0;
+    private int unusedWords = 0;
+
+    /**
+     * Processes the items of the map.
+     */
+    public interface BitSetProcessor {
+        /**
+         * @param words
+         *            the words of the bitset, which must not be retained
+         * @param length
+         *            the number of words of the bitset
+         * @return false if there is no further processing required
+         */
+        boolean process(long key1, long key2, long[] words, int offset, int length);
+    }
+
+    /**
+     * Set the bitset of a key, replacing the existing one.
+     */
+    public synchronized void put(long key1, long key2, long[] bitSet) {
+        int idx = indexOf(key1, key2);
+        if (idx >= 0) {
+            unusedWords += lengths[idx];
+            lengths[idx] = 0;
+        } else {
+            idx = insert(-idx - 1, key1, key2);
+        }
+        store(idx, bitSet, trimmedLength(bitSet));
+    }
+
+    /**
+     * @return a copy of the words of the bitset of a key, or null if the key is not in the map
+     */
+    public synchronized long[] get(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        return idx >= 0 ? Arrays.copyOfRange(words, offsets[idx], offsets[idx] + lengths[idx]) : null;
+    }
+
+    public synchronized boolean containsKey(long key1, long key2) {
+        return indexOf(key1, key2) >= 0;
+    }
+
+    /**
+     * @return true if the key was in the map
+     */
+    public synchronized boolean remove(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        if (idx < 0) {
+            return false;
+        }
+        removeItems(idx, 1);
+        return true;
+    }
+
+    /**
+     * Intersect the bitset of a key with the given one. If the key is not in the map, the given bitset is stored.
+     *
+     * @return true if the resulting bitset is empty
+     */
+    public synchronized boolean and(long key1, long key2, long[] bitSet) {
+        int idx = indexOf(key1, key2);
+        if (idx < 0) {
+            idx = insert(-idx - 1, key1, key2);
+            store(idx, bitSet, trimmedLength(bitSet));
+        } else {
+            int offset = offsets[idx];
+            int length = Math.min(lengths[idx], bitSet.length);
+            for (int i = 0; i < length; i++) {
+                words[offset + i] &= bitSet[i];
+            }
+            // The words that are not in the given bitset are cleared
+            while (length > 0 && words[offset + length - 1] == 0) {
+                length--;
+            }
+            unusedWords += lengths[idx] - length;
+            lengths[idx] = length;
+        }
+        return lengths[idx] == 0;
+    }
+
+    /**
+     * Clear a bit of the bitset of a key. If the key is not in the map, the supplied bitset is stored first.
+     */
+    public synchronized void clearBit(long key1, long key2, int bitIndex, Supplier<long[]> initialBitSet) {
+        int idx = indexOf(key1, key2);
+        if (idx < 0) {
+            long[] bitSet = initialBitSet.get();
+            idx = insert(-idx - 1, key1, key2);
+            store(idx, bitSet, trimmedLength(bitSet));
+        }
+        int offset = offsets[idx];
+        int length = lengths[idx];
+        int wordIndex = bitIndex >>> 6;
+        if (wordIndex < length) {
+            words[offset + wordIndex] &= ~(1L << bitIndex);
+            while (length > 0 && words[offset + length - 1] == 0) {
+                length--;
+            }
+            unusedWords += lengths[idx] - length;
+            lengths[idx] = length;
+        }
+    }
+
+    /**
+     * Remove all the keys that are lower than the given one.
+     */
+    public synchronized void removeBefore(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        removeItems(0, idx >= 0 ? idx : -idx - 1);
+    }
+
+    /**
+     * Remove all the keys that are lower than or equal to the given one.
+     */
+    public synchronized void removeAtMost(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        removeItems(0, idx >= 0 ? idx + 1 : -idx - 1);
+    }
+
+    /**
+     * Process the items of the map, in increasing order of keys.
+     */
+    public synchronized void forEach(BitSetProcessor processor) {
+        for (int i = 0; i < size; i++) {
+            if (!processor.process(keys1[i], keys2[i], words, offsets[i], lengths[i])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Process all the items of the map in increasing order of keys, and remove them from the map.
+     */
+    public synchronized void drain(BitSetProcessor processor) {
+        for (int i = 0; i < size; i++) {
+            processor.process(keys1[i], keys2[i], words, offsets[i], lengths[i]);
+        }
+        clear();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        usedWords = 0;
+        unusedWords = 0;
+        if (keys1.length > INITIAL_CAPACITY) {
+            keys1 = new long[INITIAL_CAPACITY];
+            keys2 = new long[INITIAL_CAPACITY];
+            offsets = new int[INITIAL_CAPACITY];
+            lengths = new int[INITIAL_CAPACITY];
+        }
+        if (words.length > INITIAL_CAPACITY) {
+            words = new long[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @return the memory used by the arrays of the map, in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return keys1.length * (8L + 8L + 4L + 4L) + words.length * 8L;
+    }
+
+    private int indexOf(long key1, long key2) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keys1[mid] != key1 ? Long.compare(keys1[mid], key1) : Long.compare(keys2[mid], key2);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int insert(int idx, long key1, long key2) {
+        if (size == keys1.length) {
+            int capacity = size * 2;
+            keys1 = Arrays.copyOf(keys1, capacity);
+            keys2 = Arrays.copyOf(keys2, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        int moved = size - idx;
+        System.arraycopy(keys1, idx, keys1, idx + 1, moved);
+        System.arraycopy(keys2, idx, keys2, idx + 1, moved);
+        System.arraycopy(offsets, idx, offsets, idx + 1, moved);
+        System.arraycopy(lengths, idx, lengths, idx + 1, moved);
+        keys1[idx] = key1;
+        keys2[idx] = key2;
+        offsets[idx] = 0;
+        lengths[idx] = 0;
+        size++;
+        return idx;
+    }
+
+    private void removeItems(int idx, int count) {
+        if (count == 0) {
+            return;
+        }
+        for (int i = idx; i < idx + count; i++) {
+            unusedWords += lengths[i];
+        }
+        int moved = size - idx - count;
+        System.arraycopy(keys1, idx + count, keys1, idx, moved);
+        System.arraycopy(keys2, idx + count, keys2, idx, moved);
+        System.arraycopy(offsets, idx + count, offsets, idx, moved);
+        System.arraycopy(lengths, idx + count, lengths, idx, moved);
+        size -= count;
+
+        if (size == 0) {
+            usedWords = 0;
+            unusedWords = 0;
+        }
+        if (keys1.length > INITIAL_CAPACITY && size < keys1.length / 4) {
+            int capacity = keys1.length / 2;
+            keys1 = Arrays.copyOf(keys1, capacity);
+            keys2 = Arrays.copyOf(keys2, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+    }
+
+    private void store(int idx, long[] bitSet, int length) {
+        if (usedWords + length > words.length) {
+            compact(length);
+        }
+        System.arraycopy(bitSet, 0, words, usedWords, length);
+        offsets[idx] = usedWords;
+        lengths[idx] = length;
+        usedWords += length;
+    }
+
+    /**
+     * Move the words of all the bitsets to the head of the words array, and make room for more words.
+     */
+    private void compact(int extraWords) {
+        int liveWords = usedWords - unusedWords;
+        int capacity = words.length;
+        while (capacity < (liveWords + extraWords) * 2) {
+            capacity *= 2;
+        }
+        while (capacity > INITIAL_CAPACITY && capacity > (liveWords + extraWords) * 4) {
+            capacity /= 2;
+        }
+
+        long[] newWords = new long[capacity];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(words, offsets[i], newWords, offset, lengths[i]);
+            offsets[i] = offset;
+            offset += lengths[i];
+        }
+        words = newWords;
+        usedWords = offset;
+        unusedWords = 0;
+    }
+
+    private static int trimmedLength(long[] bitSet) {
+        int length = bitSet.length;
+        while (length > 0 && bitSet[length - 1] == 0) {
+            length--;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+
+/**
+ * Open hash map from a pair of longs to a positive long.
+ *
+ * <p>The entries are stored in primitive arrays with linear probing, and the removed entries are filled by moving
+ * the following entries of their cluster backward, so the map doesn't need tombstones and doesn't create any object
+ * per entry.
+ *
+ * <p>This class is not thread safe.
+ */
+public class LongPairLongHashMap {
+
+    private static final long EMPTY_VALUE = -1L;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys1;
+    private long[] keys2;
+    private long[] values;
+    private int size = 0;
+
+    /**
+     * Processes the entries of the map.
+     */
+    public interface LongPairLongConsumer {
+        void accept(long key1, long key2, long value);
+    }
+
+    /**
+     * Selects the entries of the map.
+     */
+    public interface LongPairLongPredicate {
+        boolean test(long key1, long key2, long value);
+    }
+
+    public LongPairLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongPairLongHashMap(int expectedItems) {
+        checkArgument(expectedItems > 0);
+        allocate(capacityFor(expectedItems));
+    }
+
+    /**
+     * @return the value of the key, or -1 if the key is not in the map
+     */
+    public long get(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        return idx >= 0 ? values[idx] : EMPTY_VALUE;
+    }
+
+    public boolean containsKey(long key1, long key2) {
+        return indexOf(key1, key2) >= 0;
+    }
+
+    /**
+     * Set the value of a key, replacing the existing one.
+     *
+     * @return the previous value of the key, or -1 if the key was not in the map
+     */
+    public long put(long key1, long key2, long value) {
+        checkArgument(value >= 0, "The value must be positive");
+        int mask = values.length - 1;
+        int idx = (int) ConcurrentLongPairSet.hash(key1, key2) & mask;
+        while (values[idx] != EMPTY_VALUE) {
+            if (keys1[idx] == key1 && keys2[idx] == key2) {
+                long previous = values[idx];
+                values[idx] = value;
+                return previous;
+            }
+            idx = (idx + 1) & mask;
+        }
+
+        keys1[idx] = key1;
+        keys2[idx] = key2;
+        values[idx] = value;
+        if (++size > values.length / 2) {
+            rehash(values.length * 2);
+        }
+        return EMPTY_VALUE;
+    }
+
+    /**
+     * @return the removed value, or -1 if the key was not in the map
+     */
+    public long remove(long key1, long key2) {
+        int idx = indexOf(key1, key2);
+        if (idx < 0) {
+            return EMPTY_VALUE;
+        }
+        long value = values[idx];
+        removeAt(idx);
+        shrinkIfNeeded();
+        return value;
+    }
+
+    /**
+     * Remove all the entries that satisfy the given predicate.
+     *
+     * @return the number of removed entries
+     */
+    public int removeIf(LongPairLongPredicate filter) {
+        int removed = 0;
+        int idx = 0;
+        while (idx < values.length) {
+            if (values[idx] != EMPTY_VALUE && filter.test(keys1[idx], keys2[idx], values[idx])) {
+                // A following entry may be moved into the removed slot, so the slot is checked again
+                removeAt(idx);
+                removed++;
+            } else {
+                idx++;
+            }
+        }
+        shrinkIfNeeded();
+        return removed;
+    }
+
+    public void forEach(LongPairLongConsumer processor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != EMPTY_VALUE) {
+                processor.accept(keys1[i], keys2[i], values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (values.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(values, EMPTY_VALUE);
+        }
+        size = 0;
+    }
+
+    private int indexOf(long key1, long key2) {
+        int mask = values.length - 1;
+        int idx = (int) ConcurrentLongPairSet.hash(key1, key2) & mask;
+        while (values[idx] != EMPTY_VALUE) {
+            if (keys1[idx] == key1 && keys2[idx] == key2) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void removeAt(int idx) {
+        int mask = values.length - 1;
+        int hole = idx;
+        int next = (hole + 1) & mask;
+        while (values[next] != EMPTY_VALUE) {
+            int home = (int) ConcurrentLongPairSet.hash(keys1[next], keys2[next]) & mask;
+            // Move the entry into the hole if its home slot is not between the hole and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys1[hole] = keys1[next];
+                keys2[hole] = keys2[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = EMPTY_VALUE;
+        size--;
+    }
+
+    private void shrinkIfNeeded() {
+        int capacity = values.length;
+        while (capacity > MIN_CAPACITY && size < capacity / 8) {
+            capacity /= 2;
+        }
+        if (capacity < values.length) {
+            rehash(capacity);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys1 = keys1;
+        long[] oldKeys2 = keys2;
+        long[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != EMPTY_VALUE) {
+                int idx = (int) ConcurrentLongPairSet.hash(oldKeys1[i], oldKeys2[i]) & mask;
+                while (values[idx] != EMPTY_VALUE) {
+                    idx = (idx + 1) & mask;
+                }
+                keys1[idx] = oldKeys1[i];
+                keys2[idx] = oldKeys2[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys1 = new long[capacity];
+        keys2 = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY_VALUE);
+    }
+
+    private static int capacityFor(int expectedItems) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedItems * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
+
+/**
+ * Hashed timing wheel of items composed by 2 longs, which expire at a given time.
+ *
+ * <p>Every slot of the wheel covers one tick, and the items of a slot are packed in a single primitive array of
+ * (deadline, key1, key2) triples, so the wheel doesn't create any object per item. The items whose deadline is more
+ * than one round ahead stay in their slot until the round where they expire.
+ *
+ * <p>This class is not thread safe.
+ */
+public class LongPairTimingWheel {
+
+    private static final int ITEMS_COUNT = 3;
+    private static final int INITIAL_SLOT_CAPACITY = 4 * ITEMS_COUNT;
+
+    private final long tickMillis;
+    private final int mask;
+    private final long[][] slots;
+    private final int[] slotSizes;
+
+    // The next tick to expire, whose slot is visited again until the time is past it
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * Create a new timing wheel.
+     *
+     * @param tickMillis
+     *            the duration of a tick
+     * @param wheelSize
+     *            the number of slots, rounded up to a power of 2
+     * @param now
+     *            the current time
+     */
+    public LongPairTimingWheel(long tickMillis, int wheelSize, long now) {
+        checkArgument(tickMillis > 0);
+        checkArgument(wheelSize > 0 && wheelSize <= (1 << 30));
+        int slotsCount = Integer.highestOneBit(wheelSize);
+        if (slotsCount < wheelSize) {
+            slotsCount <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = slotsCount - 1;
+        this.slots = new long[slotsCount][];
+        this.slotSizes = new int[slotsCount];
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Add an item that expires at the given time. The items whose time is already past expire on the next poll.
+     */
+    public void add(long key1, long key2, long deadline) {
+        int slot = (int) (Math.max(deadline / tickMillis, currentTick) & mask);
+        long[] items = slots[slot];
+        int slotSize = slotSizes[slot];
+        if (items == null) {
+            items = slots[slot] = new long[INITIAL_SLOT_CAPACITY];
+        } else if (slotSize == items.length) {
+            items = slots[slot] = Arrays.copyOf(items, items.length * 2);
+        }
+        items[slotSize] = deadline;
+        items[slotSize + 1] = key1;
+        items[slotSize + 2] = key2;
+        slotSizes[slot] = slotSize + ITEMS_COUNT;
+        size++;
+    }
+
+    /**
+     * Remove the items that have expired at the given time, in the order of their slots.
+     *
+     * @param now
+     *            the current time
+     * @param processor
+     *            the consumer of the expired items
+     * @return the number of expired items
+     */
+    public int poll(long now, LongPairConsumer processor) {
+        long nowTick = now / tickMillis;
+        if (nowTick < currentTick || size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return 0;
+        }
+
+        int expired = 0;
+        long slotsToVisit = Math.min(nowTick - currentTick + 1, slots.length);
+        for (long tick = currentTick; tick < currentTick + slotsToVisit; tick++) {
+            expired += expireSlot((int) (tick & mask), now, processor);
+        }
+        currentTick = nowTick;
+        size -= expired;
+        return expired;
+    }
+
+    private int expireSlot(int slot, long now, LongPairConsumer processor) {
+        long[] items = slots[slot];
+        int slotSize = slotSizes[slot];
+        int kept = 0;
+        for (int i = 0; i < slotSize; i += ITEMS_COUNT) {
+            if (items[i] <= now) {
+                processor.accept(items[i + 1], items[i + 2]);
+            } else {
+                // The item expires in a later round
+                items[kept] = items[i];
+                items[kept + 1] = items[i + 1];
+                items[kept + 2] = items[i + 2];
+                kept += ITEMS_COUNT;
+            }
+        }
+
+        if (kept == 0 && items != null && items.length > INITIAL_SLOT_CAPACITY) {
+            slots[slot] = null;
+        }
+        slotSizes[slot] = kept;
+        return (slotSize - kept) / ITEMS_COUNT;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, null);
+        Arrays.fill(slotSizes, 0);
+        size = 0;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+}
@@ -0,0 +1,801 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import com.google.common.collect.Range;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+
+/**
+ * A set comprising zero or more ranges of type {@link LongPair}, stored off-heap.
+ *
+ * <pre>
+ * Usage:
+ * a. This can be used if the set is expected to hold a very large number of ranges, since it doesn't create any object
+ * per range and it keeps the ranges outside of the java heap.
+ * b. The values of every unique first-key of the ranges are stored in a container allocated in direct memory, which is
+ * either a sorted list of runs (8 bytes per range) or a bitmap (1 bit per value in the span of the ranges), whichever
+ * is smaller, like the containers of a Roaring bitmap.
+ * c. The memory used by the containers is reported by {@link #getMemoryUsage()}, and it must be released with
+ * {@link #close()}. Once closed, the set is empty and ignores any update.
+ * </pre>
+ *
+ * <p>Like {@link ConcurrentOpenLongPairRangeSet}, the second value of the pairs must fit in an int.
+ */
+public class OffHeapLongPairRangeSet<T extends Comparable<T>> implements LongPairRangeSet<T>, AutoCloseable {
+
+    private final ByteBufAllocator allocator;
+    private final LongPairConsumer<T> consumer;
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    // Sorted first-keys of the ranges, with their containers. Protected by rwLock
+    private long[] keys = new long[16];
+    private Container[] containers = new Container[16];
+    private int numKeys = 0;
+    private long memoryUsage = 0;
+    private boolean closed = false;
+
+    public OffHeapLongPairRangeSet(LongPairConsumer<T> consumer) {
+        this(PulsarByteBufAllocator.DEFAULT, consumer);
+    }
+
+    public OffHeapLongPairRangeSet(ByteBufAllocator allocator, LongPairConsumer<T> consumer) {
+        this.allocator = allocator;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void addOpenClosed(long lowerKey, long lowerValueOpen, long upperKey, long upperValue) {
+        long lowerValue = lowerValueOpen + 1;
+        rwLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            if (lowerKey != upperKey) {
+                // Same semantic as ConcurrentOpenLongPairRangeSet: the values of the lower-key are only set if there
+                // are already values after the lower endpoint, and the values of the keys in between are ignored
+                if (isValid(lowerKey, lowerValue)) {
+                    Container container = getContainer(lowerKey);
+                    if (container != null && container.lastValue() > lowerValueOpen) {
+                        add(container, lowerValue, Math.max(container.lastValue(), lowerValue));
+                    }
+                }
+                if (isValid(upperKey, upperValue) && upperValue >= 0) {
+                    add(getOrCreateContainer(upperKey), 0, upperValue);
+                }
+            } else if (lowerValue <= upperValue && upperValue >= 0) {
+                add(getOrCreateContainer(lowerKey), Math.max(lowerValue, 0), upperValue);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private boolean isValid(long key, long value) {
+        return key != LongPair.earliest.getKey() && value != LongPair.earliest.getValue()
+                && key != LongPair.latest.getKey() && value != LongPair.latest.getValue();
+    }
+
+    @Override
+    public boolean contains(long key, long value) {
+        rwLock.readLock().lock();
+        try {
+            Container container = getContainer(key);
+            return container != null && value >= 0 && container.contains(value);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Range<T> rangeContaining(long key, long value) {
+        rwLock.readLock().lock();
+        try {
+            Container container = getContainer(key);
+            if (container == null || value < 0 || !container.contains(value)) {
+                // if position is not part of any range then return null
+                return null;
+            }
+            long[] run = container.runContaining(value);
+            return Range.closed(consumer.apply(key, run[0]), consumer.apply(key, run[1]));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAtMost(long key, long value) {
+        rwLock.writeLock().lock();
+        try {
+            int removedKeys = 0;
+            while (removedKeys < numKeys && keys[removedKeys] < key) {
+                release(containers[removedKeys]);
+                removedKeys++;
+            }
+            removeKeys(0, removedKeys);
+
+            if (numKeys > 0 && keys[0] == key && value >= 0) {
+                Container container = containers[0];
+                long oldCapacity = container.capacity();
+                container.removeAtMost(value);
+                memoryUsage += container.capacity() - oldCapacity;
+                if (container.isEmpty()) {
+                    release(container);
+                    removeKeys(0, 1);
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        rwLock.readLock().lock();
+        try {
+            // Empty containers are always removed
+            return numKeys == 0;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        rwLock.writeLock().lock();
+        try {
+            for (int i = 0; i < numKeys; i++) {
+                release(containers[i]);
+            }
+            removeKeys(0, numKeys);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Release the off-heap memory used by the set. The set is empty afterwards and ignores any update.
+     */
+    @Override
+    public void close() {
+        rwLock.writeLock().lock();
+        try {
+            clear();
+            closed = true;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the off-heap memory used by the containers of the set, in bytes.
+     *
+     * @return the memory used by the set
+     */
+    public long getMemoryUsage() {
+        rwLock.readLock().lock();
+        try {
+            return memoryUsage;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Range<T> span() {
+        rwLock.readLock().lock();
+        try {
+            if (numKeys == 0) {
+                return null;
+            }
+            long first = containers[0].firstValue();
+            long last = containers[numKeys - 1].lastValue();
+            return Range.openClosed(consumer.apply(keys[0], first - 1), consumer.apply(keys[numKeys - 1], last));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Range<T>> asRanges() {
+        List<Range<T>> ranges = new ArrayList<>();
+        forEach((range) -> {
+            ranges.add(range);
+            return true;
+        });
+        return ranges;
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> action) {
+        forEach(action, consumer);
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> action, LongPairConsumer<? extends T> consumer) {
+        rwLock.readLock().lock();
+        try {
+            for (int i = 0; i < numKeys; i++) {
+                final long key = keys[i];
+                boolean stopped = !containers[i].forEachRun((first, last) -> action.process(
+                        Range.openClosed(consumer.apply(key, first - 1), consumer.apply(key, last))));
+                if (stopped) {
+                    return;
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        rwLock.readLock().lock();
+        try {
+            int size = 0;
+            for (int i = 0; i < numKeys; i++) {
+                size += containers[i].runs;
+            }
+            return size;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Range<T> firstRange() {
+        rwLock.readLock().lock();
+        try {
+            if (numKeys == 0) {
+                return null;
+            }
+            long[] run = containers[0].runContaining(containers[0].firstValue());
+            return Range.openClosed(consumer.apply(keys[0], run[0] - 1), consumer.apply(keys[0], run[1]));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Range<T> lastRange() {
+        rwLock.readLock().lock();
+        try {
+            if (numKeys == 0) {
+                return null;
+            }
+            Container container = containers[numKeys - 1];
+            long[] run = container.runContaining(container.lastValue());
+            long key = keys[numKeys - 1];
+            return Range.openClosed(consumer.apply(key, run[0] - 1), consumer.apply(key, run[1]));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toString = new StringBuilder("[");
+        forEach((range) -> {
+            if (toString.length() > 1) {
+                toString.append(",");
+            }
+            toString.append(range);
+            return true;
+        });
+        return toString.append("]").toString();
+    }
+
+    private Container getContainer(long key) {
+        int idx = Arrays.binarySearch(keys, 0, numKeys, key);
+        return idx >= 0 ? containers[idx] : null;
+    }
+
+    private Container getOrCreateContainer(long key) {
+        int idx = Arrays.binarySearch(keys, 0, numKeys, key);
+        if (idx >= 0) {
+            return containers[idx];
+        }
+
+        idx = -idx - 1;
+        if (numKeys == keys.length) {
+            keys = Arrays.copyOf(keys, numKeys * 2);
+            containers = Arrays.copyOf(containers, numKeys * 2);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, numKeys - idx);
+        System.arraycopy(containers, idx, containers, idx + 1, numKeys - idx);
+        Container container = new Container(allocator);
+        memoryUsage += container.capacity();
+        keys[idx] = key;
+        containers[idx] = container;
+        numKeys++;
+        return container;
+    }
+
+    private void add(Container container, long first, long last) {
+        long oldCapacity = container.capacity();
+        container.add(first, last);
+        memoryUsage += container.capacity() - oldCapacity;
+    }
+
+    private void release(Container container) {
+        memoryUsage -= container.capacity();
+        container.release();
+    }
+
+    private void removeKeys(int from, int count) {
+        if (count == 0) {
+            return;
+        }
+        System.arraycopy(keys, from + count, keys, from, numKeys - from - count);
+        System.arraycopy(containers, from + count, containers, from, numKeys - from - count);
+        Arrays.fill(containers, numKeys - count, numKeys, null);
+        numKeys -= count;
+    }
+
+    private interface RunProcessor {
+        /**
+         * @return false if there is no further processing required
+         */
+        boolean process(long first, long last);
+    }
+
+    /**
+     * The values of one key, stored in direct memory either as sorted runs or as a bitmap.
+     */
+    private static final class Container {
+        private static final int RUN_SIZE = 8;
+        private static final int INITIAL_CAPACITY = 4 * RUN_SIZE;
+        // Never switch to a bitmap for a handful of runs
+        private static final int MIN_RUNS_FOR_BITMAP = 16;
+
+        private final ByteBufAllocator allocator;
+        // Runs: pairs of int (first value, last value), sorted and neither overlapping nor adjacent.
+        // Bitmap: words covering the values from baseWord * 64 to (baseWord + words) * 64 - 1
+        private ByteBuf buf;
+        private boolean bitmap = false;
+        // Number of runs of the container, in both representations
+        private int runs = 0;
+        private long baseWord = 0;
+        private int words = 0;
+
+        Container(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            this.buf = allocator.directBuffer(INITIAL_CAPACITY, INITIAL_CAPACITY);
+        }
+
+        long capacity() {
+            return buf.capacity();
+        }
+
+        void release() {
+            buf.release();
+        }
+
+        boolean isEmpty() {
+            return runs == 0;
+        }
+
+        boolean contains(long value) {
+            if (bitmap) {
+                return isSet(value);
+            }
+            int idx = lastRunStartingAtOrBefore(value);
+            return idx >= 0 && runLast(idx) >= value;
+        }
+
+        long firstValue() {
+            return bitmap ? nextSetBit(baseWord * 64) : runFirst(0);
+        }
+
+        long lastValue() {
+            return bitmap ? prevSetBit((baseWord + words) * 64 - 1) : runLast(runs - 1);
+        }
+
+        /**
+         * @return the first and last values of the run containing a value, which must be in the container
+         */
+        long[] runContaining(long value) {
+            if (bitmap) {
+                return new long[] { prevClearBit(value) + 1, nextClearBit(value) - 1 };
+            }
+            int idx = lastRunStartingAtOrBefore(value);
+            return new long[] { runFirst(idx), runLast(idx) };
+        }
+
+        /**
+         * @return false if the processor stopped the iteration
+         */
+        boolean forEachRun(RunProcessor processor) {
+            if (bitmap) {
+                long first = nextSetBit(baseWord * 64);
+                while (first != -1) {
+                    long last = nextClearBit(first) - 1;
+                    if (!processor.process(first, last)) {
+                        return false;
+                    }
+                    first = nextSetBit(last + 1);
+                }
+            } else {
+                for (int i = 0; i < runs; i++) {
+                    if (!processor.process(runFirst(i), runLast(i))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void add(long first, long last) {
+            if (bitmap) {
+                long coveredWords = Math.max(baseWord + words, (last >>> 6) + 1) - Math.min(baseWord, first >>> 6);
+                if ((long) (runs + 1) * RUN_SIZE * 2 < coveredWords * 8) {
+                    // Don't grow the bitmap to cover values that are far from the existing ones
+                    toRuns();
+                }
+            }
+
+            if (bitmap) {
+                ensureBitmapCoverage(first, last);
+                runs += 1 - countRuns(first - 1, last + 1);
+                setBits(first, last);
+            } else {
+                addRun(first, last);
+            }
+            optimize();
+        }
+
+        void removeAtMost(long value) {
+            if (bitmap) {
+                int removedRuns = countRuns(baseWord * 64, value);
+                if (isSet(value) && isSet(value + 1)) {
+                    // The run that spans across the value is truncated
+                    removedRuns--;
+                }
+                runs -= removedRuns;
+                clearBitsAtMost(value);
+                trimBitmap();
+            } else {
+                int removed = 0;
+                while (removed < runs && runLast(removed) <= value) {
+                    removed++;
+                }
+                if (removed < runs && runFirst(removed) <= value) {
+                    buf.setInt(removed * RUN_SIZE, (int) value + 1);
+                }
+                if (removed > 0) {
+                    moveLongs(removed, 0, runs - removed);
+                    runs -= removed;
+                }
+            }
+            optimize();
+        }
+
+        // Runs representation
+
+        private long runFirst(int idx) {
+            return buf.getInt(idx * RUN_SIZE);
+        }
+
+        private long runLast(int idx) {
+            return buf.getInt(idx * RUN_SIZE + 4);
+        }
+
+        private void setRun(int idx, long first, long last) {
+            buf.setInt(idx * RUN_SIZE, (int) first);
+            buf.setInt(idx * RUN_SIZE + 4, (int) last);
+        }
+
+        private int lastRunStartingAtOrBefore(long value) {
+            int low = 0;
+            int high = runs - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (runFirst(mid) <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        private int firstRunEndingAtOrAfter(long value) {
+            int low = 0;
+            int high = runs - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (runLast(mid) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private void addRun(long first, long last) {
+            // The runs that overlap or are adjacent to the new one are merged with it
+            int from = firstRunEndingAtOrAfter(first - 1);
+            int to = lastRunStartingAtOrBefore(last + 1);
+
+            if (from > to) {
+                ensureCapacity((runs + 1) * RUN_SIZE);
+                moveLongs(from, from + 1, runs - from);
+                setRun(from, first, last);
+                runs++;
+            } else {
+                setRun(from, Math.min(first, runFirst(from)), Math.max(last, runLast(to)));
+                int merged = to - from;
+                if (merged > 0) {
+                    moveLongs(to + 1, from + 1, runs - to - 1);
+                    runs -= merged;
+                }
+            }
+        }
+
+        // Bitmap representation
+
+        private long word(int idx) {
+            return buf.getLong(idx * 8);
+        }
+
+        private boolean isSet(long value) {
+            long idx = (value >>> 6) - baseWord;
+            return idx >= 0 && idx < words && (word((int) idx) & (1L << (value & 63))) != 0;
+        }
+
+        private long nextSetBit(long from) {
+            long idx = (from >>> 6) - baseWord;
+            long mask = -1L << (from & 63);
+            if (idx < 0) {
+                idx = 0;
+                mask = -1L;
+            }
+            for (; idx < words; idx++, mask = -1L) {
+                long word = word((int) idx) & mask;
+                if (word != 0) {
+                    return (baseWord + idx) * 64 + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return -1;
+        }
+
+        private long nextClearBit(long from) {
+            long idx = (from >>> 6) - baseWord;
+            if (idx < 0) {
+                return from;
+            }
+            long mask = -1L << (from & 63);
+            for (; idx < words; idx++, mask = -1L) {
+                long word = ~word((int) idx) & mask;
+                if (word != 0) {
+                    return (baseWord + idx) * 64 + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return Math.max(from, (baseWord + words) * 64);
+        }
+
+        private long prevSetBit(long from) {
+            long idx = (from >>> 6) - baseWord;
+            long mask = -1L >>> (63 - (from & 63));
+            if (idx >= words) {
+                idx = words - 1;
+                mask = -1L;
+            }
+            for (; idx >= 0; idx--, mask = -1L) {
+                long word = word((int) idx) & mask;
+                if (word != 0) {
+                    return (baseWord + idx) * 64 + 63 - Long.numberOfLeadingZeros(word);
+                }
+            }
+            return -1;
+        }
+
+        private long prevClearBit(long from) {
+            long idx = (from >>> 6) - baseWord;
+            if (idx >= words) {
+                return from;
+            }
+            long mask = -1L >>> (63 - (from & 63));
+            for (; idx >= 0; idx--, mask = -1L) {
+                long word = ~word((int) idx) & mask;
+                if (word != 0) {
+                    return (baseWord + idx) * 64 + 63 - Long.numberOfLeadingZeros(word);
+                }
+            }
+            return Math.min(from, baseWord * 64 - 1);
+        }
+
+        /**
+         * @return the number of runs that overlap with the given values
+         */
+        private int countRuns(long from, long to) {
+            int count = 0;
+            long first = isSet(from) ? from : nextSetBit(Math.max(from, 0));
+            while (first != -1 && first <= to) {
+                count++;
+                first = nextSetBit(nextClearBit(first));
+            }
+            return count;
+        }
+
+        private void setBits(long first, long last) {
+            for (long idx = first >>> 6; idx <= last >>> 6; idx++) {
+                long mask = -1L;
+                if (idx == first >>> 6) {
+                    mask &= -1L << (first & 63);
+                }
+                if (idx == last >>> 6) {
+                    mask &= -1L >>> (63 - (last & 63));
+                }
+                int offset = (int) (idx - baseWord) * 8;
+                buf.setLong(offset, buf.getLong(offset) | mask);
+            }
+        }
+
+        private void clearBitsAtMost(long value) {
+            long lastIdx = Math.min((value >>> 6) - baseWord, words - 1);
+            for (long idx = 0; idx <= lastIdx; idx++) {
+                long mask = 0;
+                if (idx == (value >>> 6) - baseWord) {
+                    // Keep the bits after the value
+                    mask = (value & 63) == 63 ? 0 : -1L << ((value & 63) + 1);
+                }
+                buf.setLong((int) idx * 8, buf.getLong((int) idx * 8) & mask);
+            }
+        }
+
+        /**
+         * Drop the leading words of the bitmap that have no bit set.
+         */
+        private void trimBitmap() {
+            int emptyWords = 0;
+            while (emptyWords < words && word(emptyWords) == 0) {
+                emptyWords++;
+            }
+            if (emptyWords > 0 && emptyWords < words) {
+                moveLongs(emptyWords, 0, words - emptyWords);
+                baseWord += emptyWords;
+                words -= emptyWords;
+            }
+        }
+
+        private void ensureBitmapCoverage(long first, long last) {
+            long newBaseWord = Math.min(baseWord, first >>> 6);
+            long newEndWord = Math.max(baseWord + words, (last >>> 6) + 1);
+            if (newBaseWord == baseWord && newEndWord == baseWord + words) {
+                return;
+            }
+
+            int newWords = (int) (newEndWord - newBaseWord);
+            int shift = (int) (baseWord - newBaseWord) * 8;
+            if (shift == 0 && newWords * 8 <= buf.capacity()) {
+                buf.setZero(words * 8, (newWords - words) * 8);
+            } else {
+                // Leave room to grow towards the following values
+                int capacity = shift == 0 ? Math.max(newWords * 8, buf.capacity() * 2) : newWords * 8;
+                ByteBuf newBuf = allocator.directBuffer(capacity, capacity);
+                newBuf.setZero(0, capacity);
+                newBuf.setBytes(shift, buf, 0, words * 8);
+                buf.release();
+                buf = newBuf;
+            }
+            baseWord = newBaseWord;
+            words = newWords;
+        }
+
+        // Memory management
+
+        /**
+         * Move a sequence of 8 bytes slots (a run or a word of the bitmap) within the buffer, the two sequences can
+         * overlap.
+         */
+        private void moveLongs(int fromSlot, int toSlot, int count) {
+            if (toSlot < fromSlot) {
+                for (int i = 0; i < count; i++) {
+                    buf.setLong((toSlot + i) * 8, buf.getLong((fromSlot + i) * 8));
+                }
+            } else {
+                for (int i = count - 1; i >= 0; i--) {
+                    buf.setLong((toSlot + i) * 8, buf.getLong((fromSlot + i) * 8));
+                }
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (buf.capacity() < capacity) {
+                reallocate(Math.max(capacity, buf.capacity() * 2), buf.capacity());
+            }
+        }
+
+        private void reallocate(int capacity, int bytesToCopy) {
+            ByteBuf newBuf = allocator.directBuffer(capacity, capacity);
+            newBuf.setBytes(0, buf, 0, bytesToCopy);
+            buf.release();
+            buf = newBuf;
+        }
+
+        private void optimize() {
+            if (runs == 0) {
+                if (bitmap || buf.capacity() > INITIAL_CAPACITY) {
+                    bitmap = false;
+                    buf.release();
+                    buf = allocator.directBuffer(INITIAL_CAPACITY, INITIAL_CAPACITY);
+                }
+                return;
+            }
+
+            long runsBytes = (long) runs * RUN_SIZE;
+            if (!bitmap) {
+                long bitmapBytes = ((runLast(runs - 1) >>> 6) - (runFirst(0) >>> 6) + 1) * 8;
+                if (runs >= MIN_RUNS_FOR_BITMAP && runsBytes > bitmapBytes * 2) {
+                    toBitmap();
+                } else if (buf.capacity() > INITIAL_CAPACITY && runsBytes * 4 < buf.capacity()) {
+                    reallocate((int) Math.max(runsBytes * 2, INITIAL_CAPACITY), (int) runsBytes);
+                }
+            } else if (runsBytes * 2 < (long) words * 8) {
+                toRuns();
+            } else if (buf.capacity() > words * 8 * 4) {
+                reallocate(words * 8 * 2, words * 8);
+            }
+        }
+
+        private void toBitmap() {
+            long first = runFirst(0);
+            long last = runLast(runs - 1);
+            ByteBuf runsBuf = buf;
+            int numRuns = runs;
+
+            baseWord = first >>> 6;
+            words = (int) ((last >>> 6) - baseWord + 1);
+            buf = allocator.directBuffer(words * 8, words * 8);
+            buf.setZero(0, words * 8);
+            bitmap = true;
+            for (int i = 0; i < numRuns; i++) {
+                setBits(runsBuf.getInt(i * RUN_SIZE), runsBuf.getInt(i * RUN_SIZE + 4));
+            }
+            runsBuf.release();
+        }
+
+        private void toRuns() {
+            int capacity = Math.max(runs * RUN_SIZE, INITIAL_CAPACITY);
+            ByteBuf runsBuf = allocator.directBuffer(capacity, capacity);
+            int[] idx = new int[] { 0 };
+            forEachRun((first, last) -> {
+                runsBuf.setInt(idx[0] * RUN_SIZE, (int) first);
+                runsBuf.setInt(idx[0] * RUN_SIZE + 4, (int) last);
+                idx[0]++;
+                return true;
+            });
+            buf.release();
+            buf = runsBuf;
+            bitmap = false;
+            baseWord = 0;
+            words = 0;
+        }
+    }
+}
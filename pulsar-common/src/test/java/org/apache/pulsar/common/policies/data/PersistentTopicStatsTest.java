@@ -105,4 +105,21 @@ public class PersistentTopicStatsTest {
         assertEquals(target.replication.size(), 1);
     }
 
+    @Test
+    public void testSubscriptionDispatchReadShareAggregation() {
+        SubscriptionStats subscriptionStats1 = new SubscriptionStats();
+        subscriptionStats1.dispatchWeight = 2;
+        subscriptionStats1.dispatchReadShare = 0.6;
+        SubscriptionStats subscriptionStats2 = new SubscriptionStats();
+        subscriptionStats2.dispatchWeight = 2;
+        subscriptionStats2.dispatchReadShare = 0.7;
+
+        // The shares of the partitions are not summed, since they can be on different brokers
+        SubscriptionStats target = new SubscriptionStats();
+        target.add(subscriptionStats1);
+        target.add(subscriptionStats2);
+        assertEquals(target.dispatchWeight, 2);
+        assertEquals(target.dispatchReadShare, 0.7);
+    }
+
 }
@@ -236,4 +236,33 @@ public class CommandUtilsTests {
         return serializeMetadataAndPayload(
                 Commands.ChecksumType.Crc32c, messageMetadata, io.netty.buffer.Unpooled.copiedBuffer(new byte[0]));
     }
+
+    @Test
+    public void testSerializeCommandMessageWithSharedHeaders() {
+        ByteBuf payload = PulsarByteBufAllocator.DEFAULT.buffer();
+        payload.writeBytes("payload".getBytes(StandardCharsets.UTF_8));
+
+        // The buffer is too small for all the headers, it's expanded while the first headers are still in use
+        ByteBuf headersBuffer = PulsarByteBufAllocator.DEFAULT.buffer(8);
+        ByteBufPair[] pairs = new ByteBufPair[3];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = Commands.serializeCommandMessageWithSize(
+                    Commands.newMessageCommand(i, 1, i, -1, 0, i == 1 ? new long[] { 3, 4 } : null),
+                    payload.retain(), headersBuffer);
+        }
+        headersBuffer.release();
+
+        for (int i = 0; i < pairs.length; i++) {
+            ByteBufPair expected = Commands.serializeCommandMessageWithSize(
+                    Commands.newMessageCommand(i, 1, i, -1, 0, i == 1 ? new long[] { 3, 4 } : null),
+                    payload.retain());
+            assertEquals(pairs[i].getFirst(), expected.getFirst());
+            assertEquals(pairs[i].readableBytes(), expected.readableBytes());
+            expected.release();
+            pairs[i].release();
+        }
+        assertEquals(headersBuffer.refCnt(), 0);
+        assertEquals(payload.refCnt(), 1);
+        payload.release();
+    }
 }
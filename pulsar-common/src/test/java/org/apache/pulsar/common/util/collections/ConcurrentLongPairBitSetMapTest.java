@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class ConcurrentLongPairBitSetMapTest {
+
+    private static List<String> items(ConcurrentLongPairBitSetMap map) {
+        List<String> items = new ArrayList<>();
+        map.forEach((key1, key2, words, offset, length) -> {
+            items.add(key1 + ":" + key2 + "=" + Arrays.toString(Arrays.copyOfRange(words, offset, offset + length)));
+            return true;
+        });
+        return items;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ConcurrentLongPairBitSetMap map = new ConcurrentLongPairBitSetMap();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1, 1));
+
+        map.put(2, 5, new long[] { 7, 0 });
+        map.put(1, 9, new long[] { 1, 2 });
+        map.put(2, 1, new long[] { 3 });
+        assertEquals(map.size(), 3);
+
+        // The trailing empty words are not stored
+        assertEquals(map.get(2, 5), new long[] { 7 });
+        assertEquals(items(map), Arrays.asList("1:9=[1, 2]", "2:1=[3]", "2:5=[7]"));
+
+        map.put(1, 9, new long[] { 4 });
+        assertEquals(map.get(1, 9), new long[] { 4 });
+        assertTrue(map.remove(1, 9));
+        assertFalse(map.remove(1, 9));
+        assertFalse(map.containsKey(1, 9));
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void testAnd() {
+        ConcurrentLongPairBitSetMap map = new ConcurrentLongPairBitSetMap();
+        assertFalse(map.and(1, 1, new long[] { 0b1111, 0b11 }));
+        assertEquals(map.get(1, 1), new long[] { 0b1111, 0b11 });
+
+        assertFalse(map.and(1, 1, new long[] { 0b0101, 0b11 }));
+        assertEquals(map.get(1, 1), new long[] { 0b0101, 0b11 });
+
+        // The missing words are considered empty
+        assertFalse(map.and(1, 1, new long[] { 0b0100 }));
+        assertEquals(map.get(1, 1), new long[] { 0b0100 });
+
+        assertTrue(map.and(1, 1, new long[] { 0b1000 }));
+        assertEquals(map.get(1, 1), new long[0]);
+    }
+
+    @Test
+    public void testClearBit() {
+        ConcurrentLongPairBitSetMap map = new ConcurrentLongPairBitSetMap();
+        map.clearBit(1, 1, 2, () -> new long[] { 0b1111, 0b1 });
+        assertEquals(map.get(1, 1), new long[] { 0b1011, 0b1 });
+
+        // The supplier is only called when the key is not in the map
+        map.clearBit(1, 1, 64, () -> {
+            throw new IllegalStateException();
+        });
+        assertEquals(map.get(1, 1), new long[] { 0b1011 });
+
+        // The bits that are not in the bitset are already cleared
+        map.clearBit(1, 1, 200, () -> new long[0]);
+        assertEquals(map.get(1, 1), new long[] { 0b1011 });
+    }
+
+    @Test
+    public void testDrain() {
+        ConcurrentLongPairBitSetMap map = new ConcurrentLongPairBitSetMap();
+        map.put(2, 1, new long[] { 0b10 });
+        map.put(1, 5, new long[] { 0b1 });
+        map.put(1, 3, new long[0]);
+
+        List<String> items = new ArrayList<>();
+        map.drain((key1, key2, words, offset, length) -> {
+            items.add(key1 + ":" + key2 + "=" + Arrays.toString(Arrays.copyOfRange(words, offset, offset + length)));
+            return true;
+        });
+        assertEquals(items, Arrays.asList("1:3=[]", "1:5=[1]", "2:1=[2]"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testRemoveHead() {
+        ConcurrentLongPairBitSetMap map = new ConcurrentLongPairBitSetMap();
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            map.put(entryId / 100, entryId % 100, new long[] { entryId + 1 });
+        }
+        assertEquals(map.size(), 1000);
+
+        map.removeBefore(5, 50);
+        assertEquals(map.size(), 450);
+        assertEquals(map.get(5, 50), new long[] { 551 });
+
+        map.removeAtMost(5, 50);
+        assertEquals(map.size(), 449);
+        assertNull(map.get(5, 50));
+
+        // The words of the removed bitsets are reclaimed
+        for (long entryId = 1000; entryId < 100_000; entryId++) {
+            map.put(entryId / 100, entryId % 100, new long[] { entryId + 1 });
+            map.removeAtMost((entryId - 10) / 100, (entryId - 10) % 100);
+        }
+        assertEquals(map.size(), 10);
+        assertEquals(map.get(999, 99), new long[] { 100_000 });
+        assertTrue(map.getMemoryUsage() < 10_000);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(items(map), new ArrayList<>());
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+public class LongPairLongHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongPairLongHashMap map = new LongPairLongHashMap();
+        assertTrue(map.isEmpty());
+        assertEquals(map.get(1, 1), -1L);
+
+        assertEquals(map.put(1, 1, 10), -1L);
+        assertEquals(map.put(1, 2, 20), -1L);
+        assertEquals(map.put(1, 1, 11), 10L);
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1, 1), 11L);
+        assertTrue(map.containsKey(1, 2));
+        assertFalse(map.containsKey(2, 1));
+
+        assertEquals(map.remove(1, 1), 11L);
+        assertEquals(map.remove(1, 1), -1L);
+        assertEquals(map.size(), 1);
+        assertEquals(map.get(1, 2), 20L);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(map.get(1, 2), -1L);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        LongPairLongHashMap map = new LongPairLongHashMap();
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            map.put(entryId / 100, entryId % 100, entryId);
+        }
+
+        assertEquals(map.removeIf((key1, key2, value) -> value % 3 == 0), 334);
+        assertEquals(map.size(), 666);
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            assertEquals(map.get(entryId / 100, entryId % 100), entryId % 3 == 0 ? -1L : entryId);
+        }
+
+        long[] sum = new long[1];
+        map.forEach((key1, key2, value) -> sum[0] += value);
+        assertEquals(sum[0], 499500 - 166833);
+
+        assertEquals(map.removeIf((key1, key2, value) -> true), 666);
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        LongPairLongHashMap map = new LongPairLongHashMap(4);
+        Map<String, Long> expected = new HashMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            long key1 = random.nextInt(20);
+            long key2 = random.nextInt(100);
+            String key = key1 + ":" + key2;
+            if (random.nextBoolean()) {
+                long value = random.nextInt(1000);
+                Long previous = expected.put(key, value);
+                assertEquals(map.put(key1, key2, value), previous == null ? -1L : previous);
+            } else {
+                Long previous = expected.remove(key);
+                assertEquals(map.remove(key1, key2), previous == null ? -1L : previous);
+            }
+            assertEquals(map.size(), expected.size());
+        }
+        expected.forEach((key, value) -> {
+            String[] keys = key.split(":");
+            assertEquals(map.get(Long.parseLong(keys[0]), Long.parseLong(keys[1])), value.longValue());
+        });
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class LongPairTimingWheelTest {
+
+    private static List<Long> poll(LongPairTimingWheel wheel, long now) {
+        List<Long> expired = new ArrayList<>();
+        int count = wheel.poll(now, (key1, key2) -> {
+            assertEquals(key2, key1 * 10);
+            expired.add(key1);
+        });
+        assertEquals(count, expired.size());
+        return expired;
+    }
+
+    @Test
+    public void testExpiration() {
+        LongPairTimingWheel wheel = new LongPairTimingWheel(10, 8, 1000);
+        assertTrue(wheel.isEmpty());
+
+        wheel.add(1, 10, 1015);
+        wheel.add(2, 20, 1025);
+        wheel.add(3, 30, 1027);
+        wheel.add(4, 40, 1100);
+        assertEquals(wheel.size(), 4);
+
+        assertTrue(poll(wheel, 1010).isEmpty());
+        assertEquals(poll(wheel, 1015), Arrays.asList(1L));
+
+        // The items of the current tick which are not expired yet are kept
+        assertEquals(poll(wheel, 1025), Arrays.asList(2L));
+        assertEquals(poll(wheel, 1030), Arrays.asList(3L));
+        assertEquals(wheel.size(), 1);
+
+        assertTrue(poll(wheel, 1099).isEmpty());
+        assertEquals(poll(wheel, 1100), Arrays.asList(4L));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testMultipleRounds() {
+        // A round of the wheel is 80 ms
+        LongPairTimingWheel wheel = new LongPairTimingWheel(10, 8, 0);
+        wheel.add(1, 10, 5);
+        wheel.add(2, 20, 85);
+        wheel.add(3, 30, 165);
+        assertEquals(wheel.size(), 3);
+
+        // The 3 items are in the same slot
+        assertEquals(poll(wheel, 10), Arrays.asList(1L));
+        assertEquals(poll(wheel, 90), Arrays.asList(2L));
+        assertTrue(poll(wheel, 160).isEmpty());
+
+        // Polling after more than one round visits all the slots once
+        wheel.add(4, 40, 200);
+        assertEquals(poll(wheel, 1000), Arrays.asList(3L, 4L));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testAddExpiredItem() {
+        LongPairTimingWheel wheel = new LongPairTimingWheel(10, 8, 0);
+        assertTrue(poll(wheel, 500).isEmpty());
+
+        wheel.add(1, 10, 100);
+        assertEquals(poll(wheel, 500), Arrays.asList(1L));
+    }
+
+    @Test
+    public void testGrowAndClear() {
+        LongPairTimingWheel wheel = new LongPairTimingWheel(1, 3, 0);
+        final int n = 1000;
+        for (int i = 0; i < n; i++) {
+            wheel.add(i, i * 10, i % 4);
+        }
+        assertEquals(wheel.size(), n);
+
+        List<Long> expired = poll(wheel, 1);
+        assertEquals(expired.size(), n / 2);
+        assertEquals(wheel.size(), n / 2);
+
+        wheel.clear();
+        assertTrue(wheel.isEmpty());
+        assertTrue(poll(wheel, 10).isEmpty());
+        assertEquals(wheel.getTickMillis(), 1);
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Range;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPair;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.testng.annotations.Test;
+
+public class OffHeapLongPairRangeSetTest {
+
+    static final LongPairConsumer<LongPair> consumer = (key, value) -> new LongPair(key, value);
+
+    @Test
+    public void testAddForSameKey() {
+        OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, -1, 0, 5);
+        set.addOpenClosed(0, 7, 0, 8);
+        set.addOpenClosed(0, 8, 0, 9);
+        set.addOpenClosed(0, 9, 0, 10);
+        set.addOpenClosed(0, 97, 0, 99);
+        set.addOpenClosed(0, 101, 0, 106);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, -1), new LongPair(0, 5))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 7), new LongPair(0, 10))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 97), new LongPair(0, 99))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 101), new LongPair(0, 106))));
+        assertEquals(set.size(), 4);
+        set.close();
+    }
+
+    @Test
+    public void testAddForDifferentKey() {
+        OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 98, 0, 99);
+        set.addOpenClosed(0, 100, 1, 5);
+        set.addOpenClosed(1, 10, 1, 15);
+        set.addOpenClosed(1, 20, 2, 10);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 98), new LongPair(0, 99))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(1, -1), new LongPair(1, 5))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(1, 10), new LongPair(1, 15))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, -1), new LongPair(2, 10))));
+        set.close();
+    }
+
+    @Test
+    public void testCompareWithConcurrentOpenRangeSet() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            ConcurrentOpenLongPairRangeSet<LongPair> expected = new ConcurrentOpenLongPairRangeSet<>(consumer);
+            OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+            // Mix sparse sets, stored as runs, and dense sets of short ranges, stored as bitmaps
+            int span = i % 2 == 0 ? 100_000 : 500;
+            for (int j = 0; j < 300; j++) {
+                long key = random.nextInt(3);
+                long value = random.nextInt(span);
+                if (random.nextInt(10) == 0) {
+                    expected.removeAtMost(key, value);
+                    set.removeAtMost(key, value);
+                } else if (random.nextInt(10) == 0) {
+                    long upperValue = random.nextInt(span);
+                    expected.addOpenClosed(key, value, key + 1, upperValue);
+                    set.addOpenClosed(key, value, key + 1, upperValue);
+                } else {
+                    long length = random.nextInt(4) == 0 ? random.nextInt(span / 10) : random.nextInt(3);
+                    expected.addOpenClosed(key, value - 1, key, value + length);
+                    set.addOpenClosed(key, value - 1, key, value + length);
+                }
+
+                assertEquals(set.toString(), expected.toString());
+                assertEquals(set.size(), expected.size());
+                long checkedValue = random.nextInt(span);
+                assertEquals(set.contains(key, checkedValue), expected.contains(key, checkedValue));
+                assertEquals(set.rangeContaining(key, checkedValue), expected.rangeContaining(key, checkedValue));
+                if (!set.isEmpty()) {
+                    assertEquals(set.firstRange(), expected.firstRange());
+                    assertEquals(set.lastRange(), expected.lastRange());
+                    assertEquals(set.span(), expected.span());
+                }
+            }
+            set.close();
+        }
+    }
+
+    @Test
+    public void testDeleteWithAtMost() {
+        OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 97, 0, 99);
+        set.addOpenClosed(0, 99, 1, 5);
+        set.addOpenClosed(1, 9, 1, 15);
+        set.addOpenClosed(1, 19, 2, 10);
+        set.addOpenClosed(2, 24, 2, 28);
+        set.addOpenClosed(3, 11, 3, 20);
+        set.addOpenClosed(4, 11, 4, 20);
+
+        set.removeAtMost(2, 5);
+        List<Range<LongPair>> ranges = set.asRanges();
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, 5), new LongPair(2, 10))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, 24), new LongPair(2, 28))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(3, 11), new LongPair(3, 20))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(4, 11), new LongPair(4, 20))));
+
+        set.removeAtMost(3, 20);
+        assertEquals(set.asRanges(),
+                Collections.singletonList(Range.openClosed(new LongPair(4, 11), new LongPair(4, 20))));
+        set.close();
+    }
+
+    @Test
+    public void testRangeContaining() {
+        OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 97, 0, 100);
+        set.addOpenClosed(3, 11, 3, 20);
+
+        assertEquals(set.rangeContaining(0, 99), Range.closed(new LongPair(0, 98), new LongPair(0, 100)));
+        assertEquals(set.rangeContaining(3, 13), Range.closed(new LongPair(3, 12), new LongPair(3, 20)));
+        assertNull(set.rangeContaining(2, 30));
+        assertNull(set.rangeContaining(3, 22));
+        set.close();
+    }
+
+    @Test
+    public void testMemoryUsage() {
+        OffHeapLongPairRangeSet<LongPair> set = new OffHeapLongPairRangeSet<>(consumer);
+        assertEquals(set.getMemoryUsage(), 0);
+
+        // 500K single entry holes are stored as a bitmap, with a few bits per range
+        for (int i = 0; i < 1_000_000; i += 2) {
+            set.addOpenClosed(1, i - 1, 1, i);
+        }
+        assertEquals(set.size(), 500_000);
+        assertTrue(set.getMemoryUsage() >= 1_000_000 / 8);
+        assertTrue(set.getMemoryUsage() <= 1_000_000 / 4);
+
+        // Long ranges are stored as runs, with 8 bytes per range
+        set.removeAtMost(1, 1_000_000);
+        assertTrue(set.isEmpty());
+        for (int i = 0; i < 1_000_000; i += 1000) {
+            set.addOpenClosed(2, i - 1, 2, i + 500);
+        }
+        assertEquals(set.size(), 1000);
+        assertTrue(set.getMemoryUsage() >= 1000 * 8);
+        assertTrue(set.getMemoryUsage() <= 1000 * 8 * 2);
+
+        // The set is empty once closed, and it doesn't allocate any more memory
+        set.close();
+        assertEquals(set.getMemoryUsage(), 0);
+        assertTrue(set.isEmpty());
+        set.addOpenClosed(2, 0, 2, 10);
+        assertFalse(set.contains(2, 5));
+        assertEquals(set.getMemoryUsage(), 0);
+    }
+}
@@ -111,6 +111,10 @@ public class PerformanceConsumer {
         @Parameter(names = { "--acks-delay-millis" }, description = "Acknowlegments grouping delay in millis")
         public int acknowledgmentsGroupingDelayMillis = 100;
 
+        @Parameter(names = { "--ack-timeout-millis" }, description = "Ack timeout of the messages in millis, "
+                + "to compare the consumer throughput with and without ack timeout (0 to disable it)")
+        public long ackTimeoutMillis = 0;
+
         @Parameter(names = { "-c",
                 "--max-connections" }, description = "Max number of TCP connections to a single broker")
         public int maxConnections = 100;
@@ -328,6 +332,9 @@ public class PerformanceConsumer {
                 .autoAckOldestChunkedMessageOnQueueFull(arguments.autoAckOldestChunkedMessageOnQueueFull)
                 .enableBatchIndexAcknowledgment(arguments.batchIndexAck)
                 .replicateSubscriptionState(arguments.replicatedSubscription);
+        if (arguments.ackTimeoutMillis > 0) {
+            consumerBuilder.ackTimeout(arguments.ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
         if (arguments.maxPendingChuckedMessage > 0) {
             consumerBuilder.maxPendingChuckedMessage(arguments.maxPendingChuckedMessage);
         }
@@ -55,6 +55,7 @@ import java.util.concurrent.atomic.LongAdder;
 import org.HdrHistogram.Histogram;
 import org.HdrHistogram.HistogramLogWriter;
 import org.HdrHistogram.Recorder;
+import org.apache.pulsar.client.api.BatcherBuilder;
 import org.apache.pulsar.client.api.ClientBuilder;
 import org.apache.pulsar.client.api.CompressionType;
 import org.apache.pulsar.client.api.CryptoKeyReader;
@@ -179,6 +180,15 @@ public class PerformanceProducer {
         }, description = "Maximum number of bytes per batch")
         public int batchMaxBytes = 4 * 1024 * 1024;
 
+        @Parameter(names = { "--batch-latency-target" }, description = "Size the batches to publish the messages "
+                + "within 'x' ms, with the batch time window as the max batching delay. If 0, the batches are only "
+                + "bounded by the batch time window, max messages and max bytes")
+        public double batchLatencyTargetMillis = 0.0;
+
+        @Parameter(names = { "--batch-flush-on-idle" }, description = "With a batch latency target, send a batch "
+                + "right away when no other message of the producer is waiting for an acknowledgment")
+        public boolean batchFlushOnIdle = false;
+
         @Parameter(names = { "-time",
                 "--test-duration" }, description = "Test duration in secs. If 0, it will keep publishing")
         public long testTime = 0;
@@ -472,6 +482,11 @@ public class PerformanceProducer {
             if (arguments.batchMaxBytes > 0) {
                 producerBuilder.batchingMaxBytes(arguments.batchMaxBytes);
             }
+            if (arguments.batchLatencyTargetMillis > 0) {
+                long batchLatencyTargetUsec = (long) (arguments.batchLatencyTargetMillis * 1000);
+                producerBuilder.batcherBuilder(BatcherBuilder.adaptive(batchLatencyTargetUsec, TimeUnit.MICROSECONDS,
+                        arguments.batchFlushOnIdle));
+            }
 
             // Block if queue is full else we will start seeing errors in sendAsync
             producerBuilder.blockIfQueueFull(true);